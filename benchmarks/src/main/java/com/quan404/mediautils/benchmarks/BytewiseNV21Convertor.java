@@ -0,0 +1,66 @@
+package com.quan404.mediautils.benchmarks;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The chroma loops of NV21Convertor before they worked on longs: one byte (semi planar) or one
+ * sample (planar) per iteration, through the same row of scratch.  Kept as the baseline of
+ * {@link NV21ConvertorBenchmark}; only the plain layout (stride = width, no padding) is
+ * supported.
+ */
+class BytewiseNV21Convertor {
+
+    private final int mWidth, mHeight, mSize;
+    private final boolean mPlanar, mPanesReversed;
+    private final byte[] mRow;
+
+    BytewiseNV21Convertor(int width, int height, boolean planar, boolean panesReversed) {
+        mWidth = width;
+        mHeight = height;
+        mSize = width * height;
+        mPlanar = planar;
+        mPanesReversed = panesReversed;
+        mRow = new byte[2 * ((width + 1) / 2)];
+    }
+
+    void convert(byte[] data, ByteBuffer buffer) {
+        final int base = buffer.position();
+        final int chromaWidth = (mWidth + 1) / 2;
+        final int chromaHeight = (mHeight + 1) / 2;
+        final byte[] row = mRow;
+
+        buffer.put(data, 0, mSize);
+
+        final int chromaBase = base + mSize;
+        if (!mPlanar) {
+            for (int j = 0; j < chromaHeight; j++) {
+                final int src = mSize + j * 2 * chromaWidth;
+                buffer.position(chromaBase + j * mWidth);
+                if (mPanesReversed) {
+                    buffer.put(data, src, 2 * chromaWidth);
+                } else {
+                    for (int i = 0; i < 2 * chromaWidth; i += 2) {
+                        row[i] = data[src + i + 1];
+                        row[i + 1] = data[src + i];
+                    }
+                    buffer.put(row, 0, 2 * chromaWidth);
+                }
+            }
+        } else {
+            final int planeSize = chromaWidth * chromaHeight;
+            final int vOffset = mPanesReversed ? 0 : chromaWidth;
+            final int uOffset = chromaWidth - vOffset;
+            for (int j = 0; j < chromaHeight; j++) {
+                final int src = mSize + j * 2 * chromaWidth;
+                for (int i = 0; i < chromaWidth; i++) {
+                    row[vOffset + i] = data[src + 2 * i];
+                    row[uOffset + i] = data[src + 2 * i + 1];
+                }
+                buffer.position(chromaBase + j * chromaWidth);
+                buffer.put(row, 0, chromaWidth);
+                buffer.position(chromaBase + planeSize + j * chromaWidth);
+                buffer.put(row, chromaWidth, chromaWidth);
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.quan404.mediautils.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a camera frame, from its delivery to its sample coming out of the encoder, with
+ * the encoder driven the two ways the recordings do.  {@code polling} is the loop of
+ * recordvideotomp4 before AsyncEncoderSession: drain the output until no sample comes within
+ * 10 ms, wait for the next frame, dequeue an input buffer waiting at most 10 ms, queue the
+ * frame.  {@code callbacks} is AsyncEncoderSession: on one session thread, a frame is queued as
+ * soon as both it and an input buffer are there, and a sample is handed as soon as it is out.
+ * <p/>
+ * MediaCodec does not run on the host, so the encoder is simulated: a thread of its own taking
+ * {@code encodeMs} per frame, with four input buffers.  This compares the drive loops, not
+ * codecs.  The camera delivers a frame every 33 ms, also while a frame is being measured; each
+ * op is one frame, delivered on a tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class EncoderDriveBenchmark {
+
+    private static final long FRAME_INTERVAL_NS = 1000000000L / 30;
+    private static final long TIMEOUT_MS = 10;
+    private static final long FRAME_TIMEOUT_MS = 2500;
+    private static final int INPUT_BUFFERS = 4;
+
+    @Param({ "polling", "callbacks" })
+    public String drive;
+
+    @Param({ "5", "15", "30" })
+    public int encodeMs;
+
+    private SimulatedEncoder mEncoder;
+    private Driver mDriver;
+    private long mNextPts;
+    private long mNextTick;
+    // presentation time of the last sample out, guarded by itself
+    private final long[] mLastOut = { -1 };
+
+    @Setup
+    public void setUp() {
+        final boolean polling = "polling".equals(drive);
+        mDriver = polling ? new PollingDriver() : new CallbackDriver();
+        mEncoder = new SimulatedEncoder(encodeMs, mDriver);
+        mDriver.start(mEncoder);
+        mEncoder.start();
+        mNextTick = System.nanoTime();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mEncoder.stop();
+        mDriver.stop();
+    }
+
+    @Setup(Level.Invocation)
+    public void awaitTick() throws InterruptedException {
+        final long waitNs = mNextTick - System.nanoTime();
+        if (waitNs > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNs);
+        }
+    }
+
+    @Benchmark
+    public long frame() throws InterruptedException {
+        final long pts = deliver();
+        synchronized (mLastOut) {
+            while (mLastOut[0] < pts) {
+                final long waitNs = mNextTick - System.nanoTime();
+                if (waitNs <= 0) {
+                    // the camera does not wait for the encoder
+                    deliver();
+                } else {
+                    mLastOut.wait(waitNs / 1000000, (int) (waitNs % 1000000));
+                }
+            }
+        }
+        return pts;
+    }
+
+    private long deliver() {
+        final long pts = mNextPts++;
+        mNextTick = System.nanoTime() + FRAME_INTERVAL_NS;
+        mDriver.onFrame(pts);
+        return pts;
+    }
+
+    private void onSample(long pts) {
+        synchronized (mLastOut) {
+            mLastOut[0] = pts;
+            mLastOut.notifyAll();
+        }
+    }
+
+    /**
+     * Called by the simulated encoder, on its thread.
+     */
+    private interface Listener {
+        void onInputBufferAvailable(int index);
+
+        void onOutputAvailable(long pts);
+    }
+
+    /**
+     * Encodes the frames queued one at a time, {@code encodeMs} each.  An input buffer is free
+     * again once its frame is being encoded, the sample is out once the frame is encoded.
+     */
+    private static final class SimulatedEncoder implements Runnable {
+        private final int mEncodeMs;
+        private final Listener mListener;
+        private final BlockingQueue<long[]> mQueued = new LinkedBlockingQueue<>();
+        private final Thread mThread = new Thread(this, "SimulatedEncoder");
+
+        SimulatedEncoder(int encodeMs, Listener listener) {
+            mEncodeMs = encodeMs;
+            mListener = listener;
+        }
+
+        void start() {
+            for (int i = 0; i < INPUT_BUFFERS; i++) {
+                mListener.onInputBufferAvailable(i);
+            }
+            mThread.start();
+        }
+
+        void stop() {
+            mThread.interrupt();
+        }
+
+        void queueInputBuffer(int index, long pts) {
+            mQueued.add(new long[] { index, pts });
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final long[] frame = mQueued.take();
+                    mListener.onInputBufferAvailable((int) frame[0]);
+                    Thread.sleep(mEncodeMs);
+                    mListener.onOutputAvailable(frame[1]);
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }
+    }
+
+    private abstract class Driver implements Listener {
+        abstract void start(SimulatedEncoder encoder);
+
+        abstract void stop();
+
+        /**
+         * Called by the camera, on the benchmark thread.
+         */
+        abstract void onFrame(long pts);
+    }
+
+    /**
+     * The polling loop, on a thread of its own: the simulated encoder only fills the queues that
+     * dequeueInputBuffer() and dequeueOutputBuffer() would poll.
+     */
+    private final class PollingDriver extends Driver implements Runnable {
+        private final BlockingQueue<Integer> mFreeInputs = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Long> mOutputs = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Long> mFrames = new LinkedBlockingQueue<>();
+        private final Thread mThread = new Thread(this, "PollingDriver");
+        private SimulatedEncoder mEncoder;
+
+        @Override
+        void start(SimulatedEncoder encoder) {
+            mEncoder = encoder;
+            mThread.start();
+        }
+
+        @Override
+        void stop() {
+            mThread.interrupt();
+        }
+
+        @Override
+        void onFrame(long pts) {
+            mFrames.add(pts);
+        }
+
+        @Override
+        public void onInputBufferAvailable(int index) {
+            mFreeInputs.add(index);
+        }
+
+        @Override
+        public void onOutputAvailable(long pts) {
+            mOutputs.add(pts);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    // drainEncoder(false): every dequeue waits, until one times out
+                    Long sample;
+                    while ((sample = mOutputs.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS)) != null) {
+                        onSample(sample);
+                    }
+                    final Long frame = mFrames.poll(FRAME_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    if (frame == null) {
+                        continue;
+                    }
+                    final Integer index = mFreeInputs.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    if (index != null) {
+                        mEncoder.queueInputBuffer(index, frame);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stopped
+            }
+        }
+    }
+
+    /**
+     * The session thread of AsyncEncoderSession: every event is posted to it and handled as it
+     * comes.
+     */
+    private final class CallbackDriver extends Driver {
+        private final ExecutorService mSession = Executors.newSingleThreadExecutor();
+        // session thread only
+        private final ArrayDeque<Integer> mWaitingInputs = new ArrayDeque<>();
+        private final ArrayDeque<Long> mFrames = new ArrayDeque<>();
+        private SimulatedEncoder mEncoder;
+
+        @Override
+        void start(SimulatedEncoder encoder) {
+            mEncoder = encoder;
+        }
+
+        @Override
+        void stop() {
+            mSession.shutdownNow();
+        }
+
+        @Override
+        void onFrame(final long pts) {
+            // the preview callback, then notifyInputAvailable()
+            mSession.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mFrames.add(pts);
+                    feed();
+                }
+            });
+        }
+
+        @Override
+        public void onInputBufferAvailable(final int index) {
+            mSession.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mWaitingInputs.add(index);
+                    feed();
+                }
+            });
+        }
+
+        @Override
+        public void onOutputAvailable(final long pts) {
+            mSession.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onSample(pts);
+                }
+            });
+        }
+
+        private void feed() {
+            while (!mWaitingInputs.isEmpty() && !mFrames.isEmpty()) {
+                mEncoder.queueInputBuffer(mWaitingInputs.poll(), mFrames.poll());
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.quan404.mediautils.benchmarks;
+
+import com.quan404.mediautils.FramePool;
+import com.quan404.mediautils.PreviewBufferRing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bookkeeping of handing one 1280x720 frame over to the encoder thread, without the thread
+ * switch: a FramePool buffer acquired, submitted, taken and released, and a PreviewBufferRing
+ * buffer filled by the camera, submitted, taken and recycled back to the camera.  Both run on
+ * the benchmark thread, so the queue never waits.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameHandoffBenchmark {
+
+    private static final int FRAME_SIZE = 1280 * 720 * 3 / 2;
+
+    private FramePool mPool;
+    private PreviewBufferRing mRing;
+    // the buffers the ring lent to the camera, most recent last
+    private final byte[][] mLent = new byte[3][];
+    private int mLentCount;
+    private long mTimestamp;
+
+    @Setup
+    public void setUp() {
+        mPool = new FramePool(FRAME_SIZE, 3, true);
+        mRing = new PreviewBufferRing(FRAME_SIZE, 3);
+        mRing.lendAll(new PreviewBufferRing.Lender() {
+            @Override
+            public void addCallbackBuffer(byte[] buffer) {
+                mLent[mLentCount++] = buffer;
+            }
+        });
+    }
+
+    @Benchmark
+    public ByteBuffer framePool() throws InterruptedException {
+        ByteBuffer buffer = mPool.acquire();
+        buffer.putLong(mTimestamp++);
+        mPool.submit(buffer);
+        ByteBuffer taken = mPool.take(0);
+        mPool.release(taken);
+        return taken;
+    }
+
+    @Benchmark
+    public byte[] previewBufferRing() throws InterruptedException {
+        // the camera fills the oldest buffer lent, recycling lends it again
+        byte[] buffer = mLent[0];
+        System.arraycopy(mLent, 1, mLent, 0, --mLentCount);
+        mRing.submit(buffer, mTimestamp++);
+        byte[] taken = mRing.take(0);
+        mRing.recycle(taken);
+        return taken;
+    }
+}
@@ -0,0 +1,92 @@
+package com.quan404.mediautils.benchmarks;
+
+import com.quan404.mediautils.IncrementalYuvConverter;
+import com.quan404.mediautils.InputFormat;
+import com.quan404.mediautils.RgbToYuvConverter;
+import com.quan404.mediautils.Yuv420Format;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A static RGBX scene with a 160x120 object moving 7 pixels per frame, from and into direct
+ * buffers: IncrementalYuvConverter against a full RgbToYuvConverter conversion of every frame.
+ * Moving the object is part of both.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IncrementalYuvConverterBenchmark {
+
+    private static final int OBJECT_WIDTH = 160;
+    private static final int OBJECT_HEIGHT = 120;
+
+    @Param({ Resolutions.VGA, Resolutions.HD, Resolutions.FULL_HD })
+    public String size;
+
+    private int mWidth;
+    private RgbToYuvConverter mConverter;
+    private IncrementalYuvConverter mIncremental;
+    private ByteBuffer mSrc;
+    private ByteBuffer mBuffer;
+    private byte[] mObject;
+    private int mX;
+
+    @Setup
+    public void setUp() {
+        mWidth = Resolutions.width(size);
+        final int height = Resolutions.height(size);
+        mConverter = new RgbToYuvConverter(mWidth, height, Yuv420Format.NV12);
+        mIncremental = new IncrementalYuvConverter(
+                new RgbToYuvConverter(mWidth, height, Yuv420Format.NV12), InputFormat.RGBX);
+        Random random = new Random(1);
+        byte[] scene = new byte[mIncremental.getInputSize()];
+        random.nextBytes(scene);
+        mSrc = ByteBuffer.allocateDirect(scene.length);
+        mSrc.put(scene);
+        mObject = new byte[4 * OBJECT_WIDTH];
+        random.nextBytes(mObject);
+        mBuffer = ByteBuffer.allocateDirect(mIncremental.getFrameSize());
+    }
+
+    private void moveObject() {
+        mX = (mX + 7) % (mWidth - OBJECT_WIDTH);
+        for (int j = 0; j < OBJECT_HEIGHT; j++) {
+            mSrc.position(4 * ((OBJECT_HEIGHT + j) * mWidth + mX));
+            mSrc.put(mObject);
+        }
+        mSrc.clear();
+    }
+
+    @Benchmark
+    public ByteBuffer full() {
+        moveObject();
+        mBuffer.clear();
+        mConverter.convertRgbx(mSrc, mBuffer);
+        return mBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer incremental() {
+        moveObject();
+        mBuffer.clear();
+        mIncremental.convert(mSrc, mBuffer);
+        return mBuffer;
+    }
+}
@@ -0,0 +1,87 @@
+package com.quan404.mediautils.benchmarks;
+
+import com.quan404.mediautils.NV21Convertor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NV21Convertor against the byte at a time loops it replaced, from an NV21 preview frame into
+ * a direct buffer, and in monochrome (luma only).  {@code planar} selects I420 (de-interleave)
+ * or NV12 (U/V swap).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NV21ConvertorBenchmark {
+
+    @Param({ Resolutions.QVGA, Resolutions.VGA, Resolutions.HD, Resolutions.FULL_HD,
+            Resolutions.UHD })
+    public String size;
+
+    @Param({ "false", "true" })
+    public boolean planar;
+
+    private NV21Convertor mConvertor;
+    private NV21Convertor mMonochromeConvertor;
+    private BytewiseNV21Convertor mBytewise;
+    private byte[] mNv21;
+    private ByteBuffer mBuffer;
+
+    @Setup
+    public void setUp() {
+        final int width = Resolutions.width(size);
+        final int height = Resolutions.height(size);
+        mConvertor = new NV21Convertor();
+        mConvertor.setSize(width, height);
+        mConvertor.setPlanar(planar);
+        mConvertor.setColorPanesReversed(false);
+        mMonochromeConvertor = new NV21Convertor();
+        mMonochromeConvertor.setSize(width, height);
+        mMonochromeConvertor.setPlanar(planar);
+        mMonochromeConvertor.setColorPanesReversed(false);
+        mMonochromeConvertor.setMonochrome(true);
+        mBytewise = new BytewiseNV21Convertor(width, height, planar, false);
+
+        mNv21 = new byte[mConvertor.getInputSize()];
+        new Random(1).nextBytes(mNv21);
+        mBuffer = ByteBuffer.allocateDirect(mConvertor.getBufferSize());
+    }
+
+    @Benchmark
+    public ByteBuffer wordAtATime() {
+        mBuffer.clear();
+        mConvertor.convert(mNv21, mBuffer);
+        return mBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer monochrome() {
+        mBuffer.clear();
+        mMonochromeConvertor.convert(mNv21, mBuffer);
+        return mBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer bytewise() {
+        mBuffer.clear();
+        mBytewise.convert(mNv21, mBuffer);
+        return mBuffer;
+    }
+}
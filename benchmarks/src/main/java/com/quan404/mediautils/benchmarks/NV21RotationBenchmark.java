@@ -0,0 +1,70 @@
+package com.quan404.mediautils.benchmarks;
+
+import com.quan404.mediautils.NV21Convertor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NV21Convertor with rotation and mirroring fused into the conversion, against the same
+ * conversion unrotated ({@code rotation=0}, {@code mirrored=false}).  {@code planar} selects
+ * I420 or NV12, as in {@link NV21ConvertorBenchmark}.  Expect 90 and 270 degrees to cost several
+ * times the unrotated conversion, which is mostly bulk copies.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NV21RotationBenchmark {
+
+    @Param({ Resolutions.VGA, Resolutions.HD, Resolutions.FULL_HD })
+    public String size;
+
+    @Param({ "0", "90", "180", "270" })
+    public int rotation;
+
+    @Param({ "false", "true" })
+    public boolean mirrored;
+
+    @Param({ "false", "true" })
+    public boolean planar;
+
+    private NV21Convertor mConvertor;
+    private byte[] mNv21;
+    private ByteBuffer mBuffer;
+
+    @Setup
+    public void setUp() {
+        mConvertor = new NV21Convertor();
+        mConvertor.setSize(Resolutions.width(size), Resolutions.height(size));
+        mConvertor.setRotation(rotation);
+        mConvertor.setMirrored(mirrored);
+        mConvertor.setPlanar(planar);
+
+        mNv21 = new byte[mConvertor.getInputSize()];
+        new Random(1).nextBytes(mNv21);
+        mBuffer = ByteBuffer.allocateDirect(mConvertor.getBufferSize());
+    }
+
+    @Benchmark
+    public ByteBuffer convert() {
+        mBuffer.clear();
+        mConvertor.convert(mNv21, mBuffer);
+        return mBuffer;
+    }
+}
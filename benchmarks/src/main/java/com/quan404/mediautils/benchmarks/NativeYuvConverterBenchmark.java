@@ -0,0 +1,177 @@
+package com.quan404.mediautils.benchmarks;
+
+import com.quan404.mediautils.NV21Convertor;
+import com.quan404.mediautils.RgbToYuvConverter;
+import com.quan404.mediautils.Yuv420Format;
+import com.quan404.mediautils.YuyvToYuvConverter;
+import com.serenegiant.usb.NativeYuvConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NativeYuvConverter against the Java converters, into a direct buffer: RGBX to NV21
+ * (RgbToYuvConverter), YUYV to NV12 (YuyvToYuvConverter) and NV21 to I420 (NV21Convertor, which
+ * reads a byte[] preview frame where the native converter reads a direct copy of it).
+ * {@code simd} selects the vectorized kernels (AVX2 on the host) or the portable ones.
+ * <p/>
+ * Needs libyuvconvert built for the host by libuvccamera/src/main/jni/yuvconvert/Makefile;
+ * the jmh task puts it on java.library.path.  The setup checks that both sides give the same
+ * frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NativeYuvConverterBenchmark {
+
+    @Param({ Resolutions.QVGA, Resolutions.VGA, Resolutions.HD, Resolutions.FULL_HD,
+            Resolutions.UHD })
+    public String size;
+
+    @Param({ "true", "false" })
+    public boolean simd;
+
+    private ByteBuffer mRgbx;
+    private ByteBuffer mYuyv;
+    private byte[] mNv21;
+    private ByteBuffer mNv21Direct;
+    private ByteBuffer mBuffer;
+    private RgbToYuvConverter mRgbConverter;
+    private YuyvToYuvConverter mYuyvConverter;
+    private NV21Convertor mNv21Convertor;
+    private NativeYuvConverter mNativeRgb;
+    private NativeYuvConverter mNativeYuyv;
+    private NativeYuvConverter mNativeNv21;
+
+    @Setup
+    public void setUp() {
+        if (!NativeYuvConverter.isAvailable()) {
+            throw new IllegalStateException("libyuvconvert not found on java.library.path: "
+                    + "make -C libuvccamera/src/main/jni/yuvconvert");
+        }
+        if (NativeYuvConverter.setSimdEnabled(simd) != simd) {
+            throw new IllegalStateException("no SIMD support on this CPU");
+        }
+        final int width = Resolutions.width(size);
+        final int height = Resolutions.height(size);
+        Random random = new Random(1);
+
+        mRgbConverter = new RgbToYuvConverter(width, height, Yuv420Format.NV21);
+        mYuyvConverter = new YuyvToYuvConverter(width, height, Yuv420Format.NV12);
+        mNv21Convertor = new NV21Convertor();
+        mNv21Convertor.setSize(width, height);
+        mNv21Convertor.setPlanar(true);
+        mNv21Convertor.setColorPanesReversed(false);
+        mNativeRgb = new NativeYuvConverter(width, height, NativeYuvConverter.FORMAT_RGBX,
+                NativeYuvConverter.FORMAT_NV21);
+        mNativeYuyv = new NativeYuvConverter(width, height, NativeYuvConverter.FORMAT_YUYV,
+                NativeYuvConverter.FORMAT_NV12);
+        mNativeNv21 = new NativeYuvConverter(width, height, NativeYuvConverter.FORMAT_NV21,
+                NativeYuvConverter.FORMAT_I420);
+
+        mRgbx = randomDirect(mNativeRgb.getInputSize(), random);
+        mYuyv = randomDirect(mNativeYuyv.getInputSize(), random);
+        mNv21 = new byte[mNativeNv21.getInputSize()];
+        random.nextBytes(mNv21);
+        mNv21Direct = ByteBuffer.allocateDirect(mNv21.length);
+        mNv21Direct.put(mNv21);
+        mBuffer = ByteBuffer.allocateDirect(mNativeRgb.getFrameSize());
+
+        check("RGBX to NV21", copy(rgbxToNv21Java()), rgbxToNv21Native());
+        check("YUYV to NV12", copy(yuyvToNv12Java()), yuyvToNv12Native());
+        check("NV21 to I420", copy(nv21ToI420Java()), nv21ToI420Native());
+    }
+
+    private static ByteBuffer randomDirect(int size, Random random) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(bytes);
+        return buffer;
+    }
+
+    /**
+     * Returns the frame written into {@code buffer}, before the next conversion overwrites it.
+     */
+    private static byte[] copy(ByteBuffer buffer) {
+        buffer.flip();
+        byte[] frame = new byte[buffer.remaining()];
+        buffer.get(frame);
+        return frame;
+    }
+
+    private static void check(String conversion, byte[] expected, ByteBuffer actual) {
+        if (actual.position() != expected.length) {
+            throw new IllegalStateException(conversion + " wrote " + actual.position()
+                    + " bytes instead of " + expected.length);
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (actual.get(i) != expected[i]) {
+                throw new IllegalStateException(conversion + " differs at " + i);
+            }
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer rgbxToNv21Java() {
+        mRgbx.clear();
+        mBuffer.clear();
+        mRgbConverter.convertRgbx(mRgbx, mBuffer);
+        return mBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer rgbxToNv21Native() {
+        mRgbx.clear();
+        mBuffer.clear();
+        mNativeRgb.convert(mRgbx, mBuffer);
+        return mBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer yuyvToNv12Java() {
+        mYuyv.clear();
+        mBuffer.clear();
+        mYuyvConverter.convert(mYuyv, mBuffer);
+        return mBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer yuyvToNv12Native() {
+        mYuyv.clear();
+        mBuffer.clear();
+        mNativeYuyv.convert(mYuyv, mBuffer);
+        return mBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer nv21ToI420Java() {
+        mBuffer.clear();
+        mNv21Convertor.convert(mNv21, mBuffer);
+        return mBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer nv21ToI420Native() {
+        mNv21Direct.clear();
+        mBuffer.clear();
+        mNativeNv21.convert(mNv21Direct, mBuffer);
+        return mBuffer;
+    }
+}
@@ -0,0 +1,25 @@
+package com.quan404.mediautils.benchmarks;
+
+/**
+ * Frame sizes shared by the benchmarks, as "WIDTHxHEIGHT" @Param values: QVGA, VGA, 720p,
+ * 1080p and 4K UHD.
+ */
+final class Resolutions {
+
+    static final String QVGA = "320x240";
+    static final String VGA = "640x480";
+    static final String HD = "1280x720";
+    static final String FULL_HD = "1920x1080";
+    static final String UHD = "3840x2160";
+
+    private Resolutions() {
+    }
+
+    static int width(String size) {
+        return Integer.parseInt(size.substring(0, size.indexOf('x')));
+    }
+
+    static int height(String size) {
+        return Integer.parseInt(size.substring(size.indexOf('x') + 1));
+    }
+}
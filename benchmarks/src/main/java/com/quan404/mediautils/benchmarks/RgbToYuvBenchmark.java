@@ -0,0 +1,121 @@
+package com.quan404.mediautils.benchmarks;
+
+import com.quan404.mediautils.ChromaFilter;
+import com.quan404.mediautils.RgbToYuvConverter;
+import com.quan404.mediautils.Yuv420Format;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RGB to NV21: the original encodeYUV420SP loop, then RgbToYuvConverter from ARGB pixels
+ * (Bitmap.getPixels, buffertobuffermediacodec) and from an RGBX or RGB565 direct buffer (UVC
+ * frame callback, recorduvccamera), in color with each chroma filter and in monochrome (luma
+ * only).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RgbToYuvBenchmark {
+
+    @Param({ Resolutions.QVGA, Resolutions.VGA, Resolutions.HD, Resolutions.FULL_HD,
+            Resolutions.UHD })
+    public String size;
+
+    // the original loop and the monochrome conversions have no chroma filter, they do not change
+    @Param({ "POINT", "BOX" })
+    public ChromaFilter chroma;
+
+    private int mWidth, mHeight;
+    private int[] mArgb;
+    private ByteBuffer mRgbx;
+    private ByteBuffer mRgb565;
+    private byte[] mYuv420sp;
+    private RgbToYuvConverter mConverter;
+    private RgbToYuvConverter mMonochromeConverter;
+    private ByteBuffer mBuffer;
+
+    @Setup
+    public void setUp() {
+        mWidth = Resolutions.width(size);
+        mHeight = Resolutions.height(size);
+        Random random = new Random(1);
+        mArgb = new int[mWidth * mHeight];
+        mRgbx = ByteBuffer.allocateDirect(4 * mWidth * mHeight);
+        mRgb565 = ByteBuffer.allocateDirect(2 * mWidth * mHeight).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < mArgb.length; i++) {
+            mArgb[i] = 0xff000000 | random.nextInt(0x1000000);
+            mRgbx.put((byte) (mArgb[i] >> 16)).put((byte) (mArgb[i] >> 8))
+                    .put((byte) mArgb[i]).put((byte) 0xff);
+            mRgb565.putShort((short) (((mArgb[i] >> 8) & 0xf800) | ((mArgb[i] >> 5) & 0x07e0)
+                    | ((mArgb[i] >> 3) & 0x1f)));
+        }
+        mYuv420sp = new byte[mWidth * mHeight * 3 / 2];
+        mConverter = new RgbToYuvConverter(mWidth, mHeight, Yuv420Format.NV21);
+        mConverter.setChromaFilter(chroma);
+        mMonochromeConverter = new RgbToYuvConverter(mWidth, mHeight, Yuv420Format.NV21);
+        mMonochromeConverter.setMonochrome(true);
+        mBuffer = ByteBuffer.allocateDirect(mConverter.getFrameSize());
+    }
+
+    @Benchmark
+    public byte[] encodeYUV420SP() {
+        LegacyYuv.encodeYUV420SP(mYuv420sp, mArgb, mWidth, mHeight);
+        return mYuv420sp;
+    }
+
+    @Benchmark
+    public ByteBuffer convertArgb() {
+        mBuffer.clear();
+        mConverter.convert(mArgb, mBuffer);
+        return mBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer convertRgbx() {
+        mRgbx.clear();
+        mBuffer.clear();
+        mConverter.convertRgbx(mRgbx, mBuffer);
+        return mBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer convertRgb565() {
+        mRgb565.clear();
+        mBuffer.clear();
+        mConverter.convertRgb565(mRgb565, mBuffer);
+        return mBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer convertArgbMonochrome() {
+        mBuffer.clear();
+        mMonochromeConverter.convert(mArgb, mBuffer);
+        return mBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer convertRgbxMonochrome() {
+        mRgbx.clear();
+        mBuffer.clear();
+        mMonochromeConverter.convertRgbx(mRgbx, mBuffer);
+        return mBuffer;
+    }
+}
@@ -0,0 +1,78 @@
+package com.quan404.mediautils.benchmarks;
+
+import com.quan404.mediautils.RgbToYuvConverter;
+import com.quan404.mediautils.RowBandExecutor;
+import com.quan404.mediautils.Yuv420Format;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RgbToYuvConverter from ARGB pixels to NV12 split into {@code threads} bands converted in
+ * parallel on a RowBandExecutor, 1 being the plain conversion on the calling thread.  How well
+ * it scales depends on the cores of the machine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowBandExecutorBenchmark {
+
+    @Param({ Resolutions.HD, Resolutions.FULL_HD, Resolutions.UHD })
+    public String size;
+
+    @Param({ "1", "2", "4" })
+    public int threads;
+
+    private int[] mArgb;
+    private RgbToYuvConverter mConverter;
+    private RowBandExecutor mExecutor;
+    private ByteBuffer mBuffer;
+
+    @Setup
+    public void setUp() {
+        final int width = Resolutions.width(size);
+        final int height = Resolutions.height(size);
+        Random random = new Random(1);
+        mArgb = new int[width * height];
+        for (int i = 0; i < mArgb.length; i++) {
+            mArgb[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        mConverter = new RgbToYuvConverter(width, height, Yuv420Format.NV12);
+        if (threads > 1) {
+            mExecutor = new RowBandExecutor(threads);
+            mConverter.setExecutor(mExecutor);
+        }
+        mBuffer = ByteBuffer.allocateDirect(mConverter.getFrameSize());
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer convertArgb() {
+        mBuffer.clear();
+        mConverter.convert(mArgb, mBuffer);
+        return mBuffer;
+    }
+}
@@ -0,0 +1,89 @@
+package com.quan404.mediautils.benchmarks;
+
+import com.quan404.mediautils.InputFormat;
+import com.quan404.mediautils.RgbToYuvConverter;
+import com.quan404.mediautils.ScaleFilter;
+import com.quan404.mediautils.ScalingYuvConverter;
+import com.quan404.mediautils.Yuv420Format;
+import com.quan404.mediautils.YuyvToYuvConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A 1280x720 UVC frame (the default preview size) encoded at {@code target}: the fused
+ * ScalingYuvConverter against the full size conversion it saves when the encoder is smaller
+ * than the preview.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScalingYuvConverterBenchmark {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    @Param({ "RGBX", "YUYV" })
+    public InputFormat input;
+
+    @Param({ "AREA", "BILINEAR" })
+    public ScaleFilter filter;
+
+    @Param({ "640x360", "854x480" })
+    public String target;
+
+    private ByteBuffer mSrc;
+    private ByteBuffer mBuffer;
+    private ScalingYuvConverter mConverter;
+    private RgbToYuvConverter mRgbxConverter;
+    private YuyvToYuvConverter mYuyvConverter;
+
+    @Setup
+    public void setUp() {
+        mSrc = ByteBuffer.allocateDirect(input.getBytesPerPixel() * WIDTH * HEIGHT);
+        byte[] bytes = new byte[mSrc.capacity()];
+        new Random(1).nextBytes(bytes);
+        mSrc.put(bytes);
+        mBuffer = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 3 / 2);
+        mConverter = new ScalingYuvConverter(input, WIDTH, HEIGHT, Resolutions.width(target),
+                Resolutions.height(target), Yuv420Format.NV12, filter);
+        mRgbxConverter = new RgbToYuvConverter(WIDTH, HEIGHT, Yuv420Format.NV12);
+        mYuyvConverter = new YuyvToYuvConverter(WIDTH, HEIGHT, Yuv420Format.NV12);
+    }
+
+    @Benchmark
+    public ByteBuffer scaled() {
+        mSrc.clear();
+        mBuffer.clear();
+        mConverter.convert(mSrc, mBuffer);
+        return mBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer fullSize() {
+        mSrc.clear();
+        mBuffer.clear();
+        if (input == InputFormat.RGBX) {
+            mRgbxConverter.convertRgbx(mSrc, mBuffer);
+        } else {
+            mYuyvConverter.convert(mSrc, mBuffer);
+        }
+        return mBuffer;
+    }
+}
@@ -0,0 +1,99 @@
+package com.quan404.mediautils.benchmarks;
+
+import com.quan404.mediautils.RgbToYuvConverter;
+import com.quan404.mediautils.SlideshowPlaylist;
+import com.quan404.mediautils.StillFrameCache;
+import com.quan404.mediautils.Yuv420Format;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One frame of a three still slideshow, 2 s per still at 15 fps, into a direct buffer:
+ * converted from ARGB for every frame, as the bitmap mode of the slideshow used to do, against
+ * copied from a StillFrameCache holding two stills.  Decoding the JPEG, which the cache also
+ * saves, is left out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StillFrameCacheBenchmark {
+
+    private static final int FRAME_RATE = 15;
+    private static final int STILLS = 3;
+
+    @Param({ Resolutions.VGA, Resolutions.HD, Resolutions.FULL_HD })
+    public String size;
+
+    private int[][] mStills;
+    private RgbToYuvConverter mConverter;
+    private SlideshowPlaylist<Integer> mPlaylist;
+    private StillFrameCache.Loader<Integer> mLoader;
+    private StillFrameCache<Integer> mCache;
+    private ByteBuffer mBuffer;
+    private int mFrameCount;
+    private int mFrameIndex;
+
+    @Setup
+    public void setUp() {
+        final int width = Resolutions.width(size);
+        final int height = Resolutions.height(size);
+        Random random = new Random(1);
+        mStills = new int[STILLS][width * height];
+        for (int[] still : mStills) {
+            for (int i = 0; i < still.length; i++) {
+                still[i] = 0xff000000 | random.nextInt(0x1000000);
+            }
+        }
+        mConverter = new RgbToYuvConverter(width, height, Yuv420Format.NV12);
+        mPlaylist = new SlideshowPlaylist<Integer>();
+        for (int i = 0; i < STILLS; i++) {
+            mPlaylist.add(i, 2000000);
+        }
+        mFrameCount = mPlaylist.getFrameCount(FRAME_RATE);
+        mLoader = new StillFrameCache.Loader<Integer>() {
+            @Override
+            public void load(Integer still, ByteBuffer dst) {
+                mConverter.convert(mStills[still], dst);
+            }
+        };
+        mCache = new StillFrameCache<Integer>(mLoader, mConverter.getFrameSize(),
+                2L * mConverter.getFrameSize(), true);
+        mBuffer = ByteBuffer.allocateDirect(mConverter.getFrameSize());
+    }
+
+    private Integer nextStill() {
+        mFrameIndex = (mFrameIndex + 1) % mFrameCount;
+        return mPlaylist.getStillAt(mFrameIndex * 1000000L / FRAME_RATE);
+    }
+
+    @Benchmark
+    public ByteBuffer convertEveryFrame() {
+        mBuffer.clear();
+        mLoader.load(nextStill(), mBuffer);
+        return mBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer cachedFrame() {
+        mBuffer.clear();
+        mCache.copyFrame(nextStill(), mBuffer);
+        return mBuffer;
+    }
+}
@@ -0,0 +1,70 @@
+package com.quan404.mediautils.benchmarks;
+
+import com.serenegiant.usb.Size;
+import com.serenegiant.usb.SupportedSizeParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UVCCamera.getSupportedSize(type, json) / getSupportedSizeList, on the JSON the native code
+ * builds for a webcam with a YUYV and an MJPEG format, {@code sizes} frame sizes each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SupportedSizeBenchmark {
+
+    // QVGA to 4K, as listed by common UVC cameras
+    private static final String[] SIZES = {
+            "160x120", "176x144", "320x180", "320x240", "352x288", "424x240", "480x270",
+            "640x360", "640x480", "800x448", "800x600", "848x480", "960x540", "1024x576",
+            "1280x720", "1600x896", "1920x1080", "2304x1296", "2560x1440", "3840x2160",
+    };
+
+    @Param({ "5", "20" })
+    public int sizes;
+
+    private String mSupportedSize;
+
+    @Setup
+    public void setUp() {
+        StringBuilder json = new StringBuilder("{\"formats\":[");
+        for (int format = 0; format < 2; format++) {
+            json.append(format == 0 ? "" : ",")
+                    .append("{\"index\":").append(format + 1)
+                    .append(",\"type\":").append(format == 0 ? 4 : 6)
+                    .append(",\"default\":1,\"size\":[");
+            for (int i = 0; i < sizes; i++) {
+                json.append(i == 0 ? "\"" : ",\"").append(SIZES[i]).append('"');
+            }
+            json.append("]}");
+        }
+        mSupportedSize = json.append("]}").toString();
+    }
+
+    @Benchmark
+    public List<Size> parseYuyv() {
+        return SupportedSizeParser.parse(4, mSupportedSize);
+    }
+
+    @Benchmark
+    public List<Size> parseAll() {
+        return SupportedSizeParser.parse(-1, mSupportedSize);
+    }
+}
@@ -0,0 +1,75 @@
+package com.quan404.mediautils.benchmarks;
+
+import com.quan404.mediautils.TestPatternCache;
+import com.quan404.mediautils.TestPatternGenerator;
+import com.quan404.mediautils.Yuv420Format;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * generateFrame of generatevideoglcommands and buffertobuffermediacodec, which both feed
+ * their encoder with TestPatternGenerator frames.  Each call draws the next frame of the
+ * animation, like the encoding loops do, and is then copied into a direct buffer standing for
+ * the encoder input buffer.  {@code cachedFrame} copies the same frames from a
+ * TestPatternCache, prepared in direct buffers beforehand.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TestPatternBenchmark {
+
+    @Param({ Resolutions.QVGA, Resolutions.VGA, Resolutions.HD, Resolutions.FULL_HD,
+            Resolutions.UHD })
+    public String size;
+
+    @Param({ "false", "true" })
+    public boolean semiPlanar;
+
+    private TestPatternGenerator mGenerator;
+    private byte[] mFrameData;
+    private TestPatternCache mCache;
+    private Yuv420Format mFormat;
+    private ByteBuffer mInputBuffer;
+    private int mFrameIndex;
+
+    @Setup
+    public void setUp() {
+        mGenerator = new TestPatternGenerator(Resolutions.width(size), Resolutions.height(size));
+        mFrameData = new byte[mGenerator.getFrameSize()];
+        mFormat = semiPlanar ? Yuv420Format.NV12 : Yuv420Format.I420;
+        mCache = new TestPatternCache(mGenerator, true);
+        mCache.prepare(mFormat);
+        mInputBuffer = ByteBuffer.allocateDirect(mGenerator.getFrameSize());
+    }
+
+    @Benchmark
+    public ByteBuffer generateFrame() {
+        mGenerator.generateFrame(mFrameIndex++, semiPlanar, mFrameData);
+        mInputBuffer.clear();
+        mInputBuffer.put(mFrameData);
+        return mInputBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer cachedFrame() {
+        mInputBuffer.clear();
+        mCache.copyFrame(mFrameIndex++, mFormat, mInputBuffer);
+        return mInputBuffer;
+    }
+}
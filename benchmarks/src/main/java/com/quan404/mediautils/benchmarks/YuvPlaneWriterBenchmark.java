@@ -0,0 +1,66 @@
+package com.quan404.mediautils.benchmarks;
+
+import com.quan404.mediautils.Yuv420Format;
+import com.quan404.mediautils.YuvPlaneWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * YuvPlaneWriter copying an NV12 frame into the planes of an input Image whose chroma planes
+ * are interleaved views of the same memory, as most COLOR_FormatYUV420Flexible encoders hand
+ * them out: {@code rows} in the order of the memory (one bulk copy per row), {@code samples}
+ * in the other order (one sample at a time).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class YuvPlaneWriterBenchmark {
+
+    @Param({ Resolutions.VGA, Resolutions.HD, Resolutions.FULL_HD })
+    public String size;
+
+    private YuvPlaneWriter mWriter;
+    private ByteBuffer mFrame;
+
+    @Setup
+    public void setUp() {
+        final int width = Resolutions.width(size);
+        final int height = Resolutions.height(size);
+        mWriter = new YuvPlaneWriter(width, height);
+        mFrame = ByteBuffer.allocateDirect(mWriter.getFrameSize());
+        ByteBuffer chroma = ByteBuffer.allocateDirect(width * height / 2);
+        ByteBuffer vPlane = chroma.duplicate();
+        vPlane.position(1);
+        mWriter.setPlane(0, ByteBuffer.allocateDirect(width * height), width, 1);
+        mWriter.setPlane(1, chroma.duplicate(), width, 2);
+        mWriter.setPlane(2, vPlane, width, 2);
+    }
+
+    @Benchmark
+    public ByteBuffer rows() {
+        mWriter.write(mFrame, Yuv420Format.NV12);
+        return mFrame;
+    }
+
+    @Benchmark
+    public ByteBuffer samples() {
+        mWriter.write(mFrame, Yuv420Format.NV21);
+        return mFrame;
+    }
+}
@@ -0,0 +1,92 @@
+package com.quan404.mediautils.benchmarks;
+
+import com.quan404.mediautils.RgbToYuvConverter;
+import com.quan404.mediautils.Yuv420Format;
+import com.quan404.mediautils.YuyvToYuvConverter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A UVC frame from a direct buffer, as handed over by the frame callback, to NV12: YUYV frames
+ * (UVCCamera.PIXEL_FORMAT_YUV) in color and in monochrome, against RGBX frames of the same size
+ * (UVCCamera.PIXEL_FORMAT_RGBX) through RgbToYuvConverter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class YuyvToYuvBenchmark {
+
+    @Param({ Resolutions.VGA, Resolutions.HD, Resolutions.FULL_HD })
+    public String size;
+
+    private ByteBuffer mYuyv;
+    private ByteBuffer mRgbx;
+    private ByteBuffer mBuffer;
+    private YuyvToYuvConverter mConverter;
+    private YuyvToYuvConverter mMonochromeConverter;
+    private RgbToYuvConverter mRgbxConverter;
+
+    @Setup
+    public void setUp() {
+        final int width = Resolutions.width(size);
+        final int height = Resolutions.height(size);
+        Random random = new Random(1);
+        mConverter = new YuyvToYuvConverter(width, height, Yuv420Format.NV12);
+        mMonochromeConverter = new YuyvToYuvConverter(width, height, Yuv420Format.NV12);
+        mMonochromeConverter.setMonochrome(true);
+        mRgbxConverter = new RgbToYuvConverter(width, height, Yuv420Format.NV12);
+
+        mYuyv = randomDirect(mConverter.getInputSize(), random);
+        mRgbx = randomDirect(4 * width * height, random);
+        mBuffer = ByteBuffer.allocateDirect(mConverter.getFrameSize());
+    }
+
+    private static ByteBuffer randomDirect(int size, Random random) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(bytes);
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer yuyv() {
+        mYuyv.clear();
+        mBuffer.clear();
+        mConverter.convert(mYuyv, mBuffer);
+        return mBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer yuyvMonochrome() {
+        mYuyv.clear();
+        mBuffer.clear();
+        mMonochromeConverter.convert(mYuyv, mBuffer);
+        return mBuffer;
+    }
+
+    @Benchmark
+    public ByteBuffer rgbx() {
+        mRgbx.clear();
+        mBuffer.clear();
+        mRgbxConverter.convertRgbx(mRgbx, mBuffer);
+        return mBuffer;
+    }
+}
@@ -1,9 +1,11 @@
 package com.quan404.buffertobuffermediacodec;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.media.Image;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaCodecList;
@@ -11,6 +13,7 @@ import android.media.MediaFormat;
 import android.media.MediaMuxer;
 import android.opengl.GLES20;
 import android.opengl.GLUtils;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.util.Log;
@@ -18,20 +21,36 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.Toast;
 
+import com.quan404.encoder.AsyncEncoderSession;
+import com.quan404.encoder.BaseEncoderSession;
+import com.quan404.encoder.EncoderSession;
+import com.quan404.mediautils.ColorFormatNegotiator;
+import com.quan404.mediautils.RgbToYuvConverter;
+import com.quan404.mediautils.SlideshowPlaylist;
+import com.quan404.mediautils.StillFrameCache;
+import com.quan404.mediautils.TestPatternCache;
+import com.quan404.mediautils.TestPatternGenerator;
+import com.quan404.mediautils.Yuv420Format;
+import com.quan404.mediautils.YuvPlaneWriter;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
-import java.util.Arrays;
 
 /**
  * Buffer-to-buffer. Buffers are software-generated YUV frames in ByteBuffer objects,
  * and decoded to the same. This is the slowest (and least portable) approach,
  * but it allows the application to examine and modify the YUV data.
  * Reference: http://bigflake.com/mediacodec/
+ * <p/>
+ * With ASYNC_ENCODER, on Android 5.0 and later, the frames are written into the encoder input
+ * buffers and the output muxed from the encoder callbacks, instead of polling the encoder for
+ * both on the encoding thread.
  */
 public class MainActivity extends Activity {
+    private static final String TAG = "Buffer To Buffer";
 
     /**
      * GENERATE FRAME TYPE
@@ -41,7 +60,7 @@ public class MainActivity extends Activity {
         INPUT_SURFACE // generate frame into a surface with OpenGL ES 2.0
     }
     public GENERATE_TYPE mGenerateType = GENERATE_TYPE.INPUT_BUFFER;
-    public boolean bufferWithBitmap = true; // use a bitmap instead of generated data
+    public boolean bufferWithBitmap = true; // use a slideshow of bitmaps instead of generated data
     /**
      * UI Stuffs
      */
@@ -78,18 +97,24 @@ public class MainActivity extends Activity {
         /**
          * MediaCodec Stuffs
          */
-        private MediaCodec mEncoder = null;
+        private EncoderSession mSession = null;
+        private AsyncEncoderSession mAsyncSession = null;  // ASYNC_ENCODER, replaces mSession
+        // drive the encoder from its callbacks (AsyncEncoderSession) rather than polling it
+        private boolean ASYNC_ENCODER = true;
 
         // parameters for the encoder
         private String MIME_TYPE = "video/avc";    // H.264 Advanced Video Coding
         private int IFRAME_INTERVAL = 10;          // 10 seconds between I-frames
         private int FRAME_RATE = 15;
         private int DURATION_SEC = 5;             // 8 seconds of video
+        // converted stills kept for the slideshow, least recently shown dropped first
+        private long STILL_CACHE_BYTES = 16 << 20;
 
         private int mWidth;
         private int mHeight;
         private int mBitRate;
         private int colorFormat;
+        private ColorFormatNegotiator.Choice mColorChoice;
         /**
          * MediaMuxer
          */
@@ -101,9 +126,6 @@ public class MainActivity extends Activity {
          * Test Data
          */
         private byte[] imageData = null;
-        private static final int TEST_Y = 120;                  // YUV values for colored rect
-        private static final int TEST_U = 160;
-        private static final int TEST_V = 200;
         private static final int TEST_R0 = 0;                   // RGB equivalent of {0,0,0}
         private static final int TEST_G0 = 136;
         private static final int TEST_B0 = 0;
@@ -194,7 +216,68 @@ public class MainActivity extends Activity {
             }
         }
 
-        private NV21Convertor convertor;
+        private RgbToYuvConverter mYuvConverter;
+        private int[] mArgbFrame;
+        private TestPatternCache mPatterns;
+        private Yuv420Format mFrameFormat;      // layout of the frames queued to the encoder
+        private int mFrameCount;                // frames to generate, then the end of stream
+        // COLOR_FormatYUV420Flexible: frames are written here, then copied to the input image
+        private YuvPlaneWriter mPlaneWriter;
+        private ByteBuffer mImageFrame;
+        // bufferWithBitmap: raw resources shown one after the other, each decoded once
+        private SlideshowPlaylist<Integer> mPlaylist;
+        private StillFrameCache<Integer> mStills;
+
+        private void prepareSlideshow(){
+            mPlaylist = new SlideshowPlaylist<Integer>();
+            mPlaylist.add(R.raw.baby, DURATION_SEC * 1000000L);
+
+            mStills = new StillFrameCache<Integer>(new StillFrameCache.Loader<Integer>() {
+                @Override
+                public void load(Integer still, ByteBuffer dst) {
+                    if (DEBUG) Log.d(TAG, "decoding still " + still);
+                    final BitmapFactory.Options options = new BitmapFactory.Options();
+                    options.inScaled = false;   // No pre-scaling
+                    // Read in the resource
+                    final Bitmap bitmap = BitmapFactory.decodeResource(getResources(), still, options);
+                    bitmap.getPixels(mArgbFrame, 0, mWidth, 0, 0, mWidth, mHeight);
+                    bitmap.recycle();
+                    mYuvConverter.convert(mArgbFrame, dst);
+                }
+            }, mPatterns.getFrameSize(), STILL_CACHE_BYTES, true);
+        }
+
+        private void prepareFrames(Yuv420Format frameFormat){
+            mFrameFormat = frameFormat;
+            mYuvConverter = new RgbToYuvConverter(mWidth, mHeight, frameFormat);
+            if (!bufferWithBitmap) {
+                // every distinct frame is drawn once here, the encoding loop only copies them
+                mPatterns.prepare(frameFormat);
+            }
+        }
+
+        /**
+         * Returns the buffer to write the next frame into, for input {@code image}.  The frames
+         * are prepared on the first image, once its layout is known.
+         */
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private ByteBuffer prepareInputImage(Image image){
+            Image.Plane[] planes = image.getPlanes();
+            if (mPlaneWriter == null) {
+                mPlaneWriter = new YuvPlaneWriter(mWidth, mHeight);
+            }
+            for (int i = 0; i < planes.length; i++) {
+                mPlaneWriter.setPlane(i, planes[i].getBuffer(), planes[i].getRowStride(),
+                        planes[i].getPixelStride());
+            }
+            if (mImageFrame == null) {
+                mImageFrame = ByteBuffer.allocateDirect(mPlaneWriter.getFrameSize());
+                prepareFrames(mPlaneWriter.getPreferredFormat());
+                Log.i(TAG, "input image chroma pixel stride " + planes[1].getPixelStride()
+                        + ", writing " + mFrameFormat + " frames");
+            }
+            return mImageFrame;
+        }
 
         private void prepareEncoder(){
             try {
@@ -209,7 +292,9 @@ public class MainActivity extends Activity {
 
 
                 if(mGenerateType.equals(GENERATE_TYPE.INPUT_BUFFER)){
-                    colorFormat = selectColorFormat(codecInfo, MIME_TYPE);
+                    mColorChoice = selectColorFormat(codecInfo, MIME_TYPE,
+                            ColorFormatNegotiator.Source.RGBX);
+                    colorFormat = mColorChoice.getColorFormat();
                 }else{
                     colorFormat = MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface;
                 }
@@ -226,22 +311,36 @@ public class MainActivity extends Activity {
                 format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, IFRAME_INTERVAL);
                 if (DEBUG) Log.d(TAG, "format: " + format);
                 // Create a MediaCodec for the desired codec, then configure it as an encoder with
-                // our desired properties.
-                mEncoder = MediaCodec.createByCodecName(codecInfo.getName());
-                mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+                // our desired properties.  It starts once the muxer is there.
+                final BaseEncoderSession session;
+                if (ASYNC_ENCODER && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                    mAsyncSession = new AsyncEncoderSession(codecInfo.getName(), format,
+                            mGenerateType.equals(GENERATE_TYPE.INPUT_BUFFER) ? mFrameSource : null);
+                    session = mAsyncSession;
+                } else {
+                    mSession = new EncoderSession(codecInfo.getName(), format);
+                    session = mSession;
+                }
 
                 if (mGenerateType.equals(GENERATE_TYPE.INPUT_SURFACE)){
-                    inputSurface = new InputSurface(mEncoder.createInputSurface());
+                    inputSurface = new InputSurface(session.createInputSurface());
                 }
 
-                convertor = new NV21Convertor();
-                convertor.setSize(mWidth, mHeight);
-                convertor.setSliceHeigth(mHeight);
-                convertor.setStride(mWidth);
-                convertor.setYPadding(0);
-                convertor.setEncoderColorFormat(colorFormat);
-
-                mEncoder.start();
+                if (mGenerateType.equals(GENERATE_TYPE.INPUT_BUFFER)){
+                    // The size of a frame of video data, in the formats we handle, is stride*sliceHeight
+                    // for Y, and (stride/2)*(sliceHeight/2) for each of the Cb and Cr channels.  Application
+                    // of algebra and assuming that stride==width and sliceHeight==height yields:
+                    mPatterns = new TestPatternCache(new TestPatternGenerator(mWidth, mHeight), true);
+                    mArgbFrame = new int[mWidth * mHeight];
+                    // semi planar encoders expect UV pairs, planar ones U before V; the layout of
+                    // flexible ones is only known from the first input image
+                    if (!mColorChoice.isFlexible()) {
+                        prepareFrames(mColorChoice.getLayout());
+                    }
+                    if (bufferWithBitmap) {
+                        prepareSlideshow();
+                    }
+                }
             } catch (Exception e){
                 e.printStackTrace();
             }
@@ -254,9 +353,10 @@ public class MainActivity extends Activity {
                 inputSurface.release();
             }
 
-            if (mEncoder != null) {
-                mEncoder.stop();
-                mEncoder.release();
+            final BaseEncoderSession session = mAsyncSession != null ? mAsyncSession : mSession;
+            if (session != null) {
+                session.logStats();
+                session.release();
             }
         }
 
@@ -265,22 +365,37 @@ public class MainActivity extends Activity {
             /**
              * Init parameters
              */
-            final int TIMEOUT_USEC = 10000;
-            ByteBuffer[] encoderInputBuffers = mEncoder.getInputBuffers();
-            ByteBuffer[] encoderOutputBuffers = mEncoder.getOutputBuffers();
+            mFrameCount = DURATION_SEC * FRAME_RATE; // number of frame required to generate
+            if (mPlaylist != null) {
+                mFrameCount = mPlaylist.getFrameCount(FRAME_RATE);
+            }
 
-            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-            int generateIndex = 0;
-            int NUM_FRAMES = DURATION_SEC * FRAME_RATE; // number of frame required to generate
+            if (mAsyncSession != null) {
+                generateWithCallbacks();
+            } else {
+                generatePolling();
+            }
 
-            // The size of a frame of video data, in the formats we handle, is stride*sliceHeight
-            // for Y, and (stride/2)*(sliceHeight/2) for each of the Cb and Cr channels.  Application
-            // of algebra and assuming that stride==width and sliceHeight==height yields:
-            byte[] frameData = new byte[mWidth * mHeight * 3 / 2];
+            if (DEBUG && mStills != null) {
+                Log.d(TAG, "stills: " + mStills.getMissCount() + " decoded, "
+                        + mStills.getHitCount() + " frames from cache, "
+                        + mStills.getEvictionCount() + " evicted");
+            }
+            if (DEBUG) Log.d(TAG, "---------- end - doGenerateSaveVideo ------------");
+        }
 
-            /**
-             * Populate imageData byte[] with an image
-             */
+        /**
+         * Generates the frames and polls the encoder for both input buffers and output, on this
+         * thread.
+         */
+        private void generatePolling(){
+            final int TIMEOUT_USEC = 10000;
+            int generateIndex = 0;
+            final int NUM_FRAMES = mFrameCount;
+
+            // the session adds the track and starts the muxer on the output format change
+            mSession.setMuxer(mMuxer);
+            mSession.start();
 
             /**
              * Loop through 5 seconds and generate + save file
@@ -296,56 +411,31 @@ public class MainActivity extends Activity {
                 if(!inputDone){
                     int inputBufIndex = 0;
                     if(mGenerateType.equals(GENERATE_TYPE.INPUT_BUFFER)){
-                        inputBufIndex = mEncoder.dequeueInputBuffer(TIMEOUT_USEC);
-                        if (DEBUG) Log.d(TAG, "inputBufIndex=" + inputBufIndex);
+                        inputBufIndex = mSession.dequeueInputBuffer(TIMEOUT_USEC);
                     }
 
                     if ( inputBufIndex >= 0 ) {
                         long ptsUsec = computePresentationTime(generateIndex);
                         if ( generateIndex == NUM_FRAMES ) {
                             inputDone = true;
-                            // Send an empty frame with the end-of-stream flag set.  If we set EOS
-                            // on a frame with data, that frame data will be ignored, and the
-                            // output will be short one frame.
+                            // Send an empty frame with the end-of-stream flag set.
                             if(mGenerateType.equals(GENERATE_TYPE.INPUT_BUFFER)){
-                                mEncoder.queueInputBuffer(inputBufIndex, 0, 0, ptsUsec,
-                                    MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                                mSession.queueEndOfStream(inputBufIndex, ptsUsec);
                             }else{
-                                mEncoder.signalEndOfInputStream();
+                                mSession.signalEndOfInput();
                             }
-
-                            if (DEBUG) Log.d(TAG, "sent input EOS (with zero-length frame)");
                         } else {
                             if(mGenerateType.equals(GENERATE_TYPE.INPUT_BUFFER)){
-                                ByteBuffer inputBuf = encoderInputBuffers[inputBufIndex];
-
+                                final boolean inputImage = mColorChoice.isFlexible();
                                 // the buffer should be sized to hold one full frame
-                                inputBuf.clear();
-
-                                if(!bufferWithBitmap){
-                                    /**
-                                     * use auto generated frame
-                                     */
-                                    generateFrame(generateIndex, colorFormat, frameData);
-                                    inputBuf.put(frameData);
-                                } else {
-                                    /**
-                                     * use a bitmap in resource
-                                     * */
-                                    final BitmapFactory.Options options = new BitmapFactory.Options();
-                                    options.inScaled = false;   // No pre-scaling
-                                    // Read in the resource
-                                    final Bitmap bitmap = BitmapFactory.decodeResource(getResources(), R.raw.baby, options);
-                                    convertor.convert(getNV21(mWidth, mHeight, bitmap), inputBuf);
-                                }
-
-                                mEncoder.queueInputBuffer(inputBufIndex, 0, frameData.length, ptsUsec, 0);
+                                ByteBuffer inputBuf = inputImage
+                                        ? prepareInputImage(mSession.getInputImage(inputBufIndex))
+                                        : mSession.getInputBuffer(inputBufIndex);
+                                writeFrame(generateIndex, inputBuf, inputImage);
+                                mSession.queueInputBuffer(inputBufIndex, mPatterns.getFrameSize(),
+                                        ptsUsec);
                             } else {
-                                inputSurface.makeCurrent();
-                                generateSurfaceFrame(generateIndex);
-                                inputSurface.setPresentationTime(computePresentationTime(generateIndex) * 1000);
-                                if (DEBUG) Log.d(TAG, "inputSurface swapBuffers");
-                                inputSurface.swapBuffers();
+                                drawSurfaceFrame(generateIndex);
                             }
 
                             if (DEBUG) Log.d(TAG, "submitted frame " + generateIndex + " to enc");
@@ -360,70 +450,113 @@ public class MainActivity extends Activity {
                 // away we loop around and see if it wants more input.
                 //
                 // Once we get EOS from the encoder, we don't need to do this anymore.
-                if(!encoderDone){
-                    int encoderStatus = mEncoder.dequeueOutputBuffer(info, TIMEOUT_USEC);
-                    if (encoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                        // no output available yet
-                        if (DEBUG) Log.d(TAG, "no output from encoder available");
-//                        break;
-                    } else if (encoderStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                        // not expected for an encoder
-                        encoderOutputBuffers = mEncoder.getOutputBuffers();
-                        if (DEBUG) Log.d(TAG, "encoder output buffers changed");
-                    } else if (encoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                        // not expected for an encoder
-                        MediaFormat newFormat = mEncoder.getOutputFormat();
-                        if (DEBUG) Log.d(TAG, "encoder output format changed: " + newFormat);
-
-                        // now that we have the Magic Goodies, start the muxer
-                        mMuxer.addTrack(newFormat);
-                        mMuxer.start();
-
-                    } else if (encoderStatus < 0) {
-                        Log.e(TAG, "unexpected result from encoder.dequeueOutputBuffer: " + encoderStatus);
-                    } else { // encoderStatus >= 0
-                        ByteBuffer encodedData = encoderOutputBuffers[encoderStatus];
-                        if (encodedData == null) {
-                            Log.e(TAG, "encoderOutputBuffer " + encoderStatus + " was null");
-                        }
-                        // It's usually necessary to adjust the ByteBuffer values to match BufferInfo.
-                        encodedData.position(info.offset);
-                        encodedData.limit(info.offset + info.size);
-
-                        /**
-                         * Save to mp4
-                         */
-                        byte[] data = new byte[info.size];
-                        encodedData.get(data);
-                        encodedData.position(info.offset);
-                        try {
-                            encodedData.position(info.offset);
-                            encodedData.limit(info.offset + info.size);
-
-                            mMuxer.writeSampleData(0, encodedData, info);
-                            Log.d(TAG, "sent " + info.size + " bytes to muxer");
-
-                        } catch (Exception ioe) {
-                            Log.w(TAG, "failed writing debug data to file");
-                            throw new RuntimeException(ioe);
-                        }
+                encoderDone = mSession.drainOutput(TIMEOUT_USEC);
+            }// end while
+        }
 
-                        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                            // Codec config info.  Only expected on first packet.  One way to
-                            // handle this is to manually stuff the data into the MediaFormat
-                            // and pass that to configure().  We do that here to exercise the API.
+        /**
+         * Generates the frames from the encoder callbacks: mFrameSource fills every input buffer
+         * as soon as the encoder frees it, the samples are muxed as soon as they come out, both
+         * on the session thread.  This thread only draws the frames of an input surface, then
+         * waits for the last sample.
+         */
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private void generateWithCallbacks(){
+            final int EOS_TIMEOUT_MS = 2500;
+
+            // the session adds the track and starts the muxer on the output format change
+            mAsyncSession.setMuxer(mMuxer);
+            mAsyncSession.start();
+
+            if (mGenerateType.equals(GENERATE_TYPE.INPUT_SURFACE)) {
+                // swapBuffers() blocks while the encoder is behind
+                for (int generateIndex = 0; generateIndex < mFrameCount; generateIndex++) {
+                    drawSurfaceFrame(generateIndex);
+                    if (DEBUG) Log.d(TAG, "submitted frame " + generateIndex + " to enc");
+                }
+                mAsyncSession.signalEndOfInput();
+            }
 
-                        } else {
-                            encoderDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
-                            if (DEBUG) Log.d(TAG, "passed " + info.size + " bytes to decoder"
-                                    + (encoderDone ? " (EOS)" : ""));
-                        }
-                        mEncoder.releaseOutputBuffer(encoderStatus, false);
-                    } // end else encoderStatus
+            // input buffers: the whole video is encoded meanwhile, give up only once the encoder
+            // stalls
+            try {
+                long encodedSamples = -1;
+                while (!mAsyncSession.awaitEndOfStream(EOS_TIMEOUT_MS)) {
+                    if (mAsyncSession.getEncodedSampleCount() == encodedSamples) {
+                        throw new RuntimeException("Encoder end of stream wait timed out");
+                    }
+                    encodedSamples = mAsyncSession.getEncodedSampleCount();
                 }
-            }// end while
+            } catch (InterruptedException ie) {
+                // shouldn't happen
+                throw new RuntimeException(ie);
+            }
+        }
 
-            if (DEBUG) Log.d(TAG, "---------- end - doGenerateSaveVideo ------------");
+        /**
+         * Writes the generated frames into the input buffers of mAsyncSession, on the session
+         * thread, then an empty one flagged end of stream.  The frames are always ready.
+         */
+        private final AsyncEncoderSession.InputSource mFrameSource =
+                new AsyncEncoderSession.InputSource() {
+            private int mGenerateIndex;
+
+            @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+            @Override
+            public boolean fillInputBuffer(ByteBuffer buffer, MediaCodec.BufferInfo info) {
+                long ptsUsec = computePresentationTime(mGenerateIndex);
+                if (mGenerateIndex == mFrameCount) {
+                    // Send an empty frame with the end-of-stream flag set.
+                    info.set(0, 0, ptsUsec, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                } else {
+                    final boolean inputImage = mColorChoice.isFlexible();
+                    // the buffer should be sized to hold one full frame
+                    ByteBuffer inputBuf = inputImage
+                            ? prepareInputImage(mAsyncSession.getInputImage()) : buffer;
+                    writeFrame(mGenerateIndex, inputBuf, inputImage);
+                    info.set(0, mPatterns.getFrameSize(), ptsUsec, 0);
+                    if (DEBUG) Log.d(TAG, "submitted frame " + mGenerateIndex + " to enc");
+                }
+                mGenerateIndex++;
+                return true;
+            }
+        };
+
+        /**
+         * Writes frame {@code generateIndex} into {@code inputBuf}, then into the input image
+         * it was returned for by prepareInputImage() if {@code inputImage}.
+         */
+        private void writeFrame(int generateIndex, ByteBuffer inputBuf, boolean inputImage){
+            inputBuf.clear();
+
+            if(!bufferWithBitmap){
+                /**
+                 * use auto generated frame
+                 */
+                mPatterns.copyFrame(generateIndex, mFrameFormat, inputBuf);
+            } else {
+                /**
+                 * use the bitmap in resource shown at this frame
+                 * */
+                long frameUs = generateIndex * 1000000L / FRAME_RATE;
+                mStills.copyFrame(mPlaylist.getStillAt(frameUs), inputBuf);
+            }
+
+            if (inputImage) {
+                inputBuf.flip();
+                mPlaneWriter.write(inputBuf, mFrameFormat);
+            }
+        }
+
+        /**
+         * Draws frame {@code generateIndex} on the input surface and sends it to the encoder.
+         */
+        private void drawSurfaceFrame(int generateIndex){
+            inputSurface.makeCurrent();
+            generateSurfaceFrame(generateIndex);
+            inputSurface.setPresentationTime(computePresentationTime(generateIndex) * 1000);
+            if (DEBUG) Log.d(TAG, "inputSurface swapBuffers");
+            inputSurface.swapBuffers();
         }
 
         /**
@@ -456,65 +589,6 @@ public class MainActivity extends Activity {
             GLES20.glClearColor(TEST_R1 / 255.0f, TEST_G1 / 255.0f, TEST_B1 / 255.0f, 1.0f);
             GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
         }
-
-
-        /**
-         * Generates data for frame N into the supplied buffer.  We have an 8-frame animation
-         * sequence that wraps around.  It looks like this:
-         * <pre>
-         *   0 1 2 3
-         *   7 6 5 4
-         * </pre>
-         * We draw one of the eight rectangles and leave the rest set to the zero-fill color.
-         */
-        private void generateFrame(int frameIndex, int colorFormat, byte[] frameData) {
-            final int HALF_WIDTH = mWidth / 2;
-            boolean semiPlanar = isSemiPlanarYUV(colorFormat);
-            // Set to zero.  In YUV this is a dull green.
-            Arrays.fill(frameData, (byte) 0);
-            /**
-             * Use a image instead of dull green
-             */
-            if (imageData != null){
-//                frameData = imageData.clone();
-            }
-
-            int startX, startY, countX, countY;
-            frameIndex %= 8;
-            //frameIndex = (frameIndex / 8) % 8;    // use this instead for debug -- easier to see
-            if (frameIndex < 4) {
-                startX = frameIndex * (mWidth / 4);
-                startY = 0;
-            } else {
-                startX = (7 - frameIndex) * (mWidth / 4);
-                startY = mHeight / 2;
-            }
-            for (int y = startY + (mHeight/2) - 1; y >= startY; --y) {
-                for (int x = startX + (mWidth/4) - 1; x >= startX; --x) {
-                    if (semiPlanar) {
-                        // full-size Y, followed by UV pairs at half resolution
-                        // e.g. Nexus 4 OMX.qcom.video.encoder.avc COLOR_FormatYUV420SemiPlanar
-                        // e.g. Galaxy Nexus OMX.TI.DUCATI1.VIDEO.H264E
-                        //        OMX_TI_COLOR_FormatYUV420PackedSemiPlanar
-                        frameData[y * mWidth + x] = (byte) TEST_Y;
-                        if ((x & 0x01) == 0 && (y & 0x01) == 0) {
-                            frameData[mWidth*mHeight + y * HALF_WIDTH + x] = (byte) TEST_U;
-                            frameData[mWidth*mHeight + y * HALF_WIDTH + x + 1] = (byte) TEST_V;
-                        }
-                    } else {
-                        // full-size Y, followed by quarter-size U and quarter-size V
-                        // e.g. Nexus 10 OMX.Exynos.AVC.Encoder COLOR_FormatYUV420Planar
-                        // e.g. Nexus 7 OMX.Nvidia.h264.encoder COLOR_FormatYUV420Planar
-                        frameData[y * mWidth + x] = (byte) TEST_Y;
-                        if ((x & 0x01) == 0 && (y & 0x01) == 0) {
-                            frameData[mWidth*mHeight + (y/2) * HALF_WIDTH + (x/2)] = (byte) TEST_U;
-                            frameData[mWidth*mHeight + HALF_WIDTH * (mHeight / 2) +
-                                    (y/2) * HALF_WIDTH + (x/2)] = (byte) TEST_V;
-                        }
-                    }
-                }
-            }
-        }//end generateFrame
     }
 
     /**
@@ -543,105 +617,24 @@ public class MainActivity extends Activity {
     }
 
     /**
-     * Returns a color format that is supported by the codec and by this test code.  If no
-     * match is found, this throws a test failure -- the set of formats known to the test
-     * should be expanded for new platforms.
-     */
-    private static int selectColorFormat(MediaCodecInfo codecInfo, String mimeType) {
-        MediaCodecInfo.CodecCapabilities capabilities = codecInfo.getCapabilitiesForType(mimeType);
-        for (int i = 0; i < capabilities.colorFormats.length; i++) {
-            int colorFormat = capabilities.colorFormats[i];
-            if (isRecognizedFormat(colorFormat)) {
-                return colorFormat;
-            }
-        }
-        return 0;   // not reached
-    }
-    /**
-     * Returns true if this is a color format that this test code understands (i.e. we know how
-     * to read and generate frames in this format).
-     */
-    private static boolean isRecognizedFormat(int colorFormat) {
-        switch (colorFormat) {
-            // these are the formats we know how to handle for this test
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_TI_FormatYUV420PackedSemiPlanar:
-                return true;
-            default:
-                return false;
-        }
-    }
-    /**
-     * Returns true if the specified color format is semi-planar YUV.  Throws an exception
-     * if the color format is not recognized (e.g. not YUV).
+     * Returns the color format of the codec that is cheapest to fill from {@code source}
+     * frames, and logs how every format it lists was ranked.  If none is supported, this
+     * throws a test failure -- the set of formats known to the test should be expanded for new
+     * platforms.
      */
-    private static boolean isSemiPlanarYUV(int colorFormat) {
-        switch (colorFormat) {
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar:
-                return false;
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_TI_FormatYUV420PackedSemiPlanar:
-                return true;
-            default:
-                throw new RuntimeException("unknown format " + colorFormat);
+    private static ColorFormatNegotiator.Choice selectColorFormat(MediaCodecInfo codecInfo,
+            String mimeType, ColorFormatNegotiator.Source source) {
+        int[] colorFormats = codecInfo.getCapabilitiesForType(mimeType).colorFormats;
+        // input images, needed by COLOR_FormatYUV420Flexible, came with Lollipop
+        ColorFormatNegotiator negotiator = new ColorFormatNegotiator(
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP);
+        for (String line : negotiator.describe(source, colorFormats)) {
+            Log.i(TAG, codecInfo.getName() + " " + line);
         }
-    }
-
-    /**
-     * Conversion tool
-     */
-    // untested function
-    byte [] getNV21(int inputWidth, int inputHeight, Bitmap scaled) {
-
-        int [] argb = new int[inputWidth * inputHeight];
-
-        scaled.getPixels(argb, 0, inputWidth, 0, 0, inputWidth, inputHeight);
-
-        byte [] yuv = new byte[inputWidth*inputHeight*3/2];
-        encodeYUV420SP(yuv, argb, inputWidth, inputHeight);
-
-        scaled.recycle();
-
-        return yuv;
-    }
-
-    void encodeYUV420SP(byte[] yuv420sp, int[] argb, int width, int height) {
-        final int frameSize = width * height;
-
-        int yIndex = 0;
-        int uvIndex = frameSize;
-
-        int a, R, G, B, Y, U, V;
-        int index = 0;
-        for (int j = 0; j < height; j++) {
-            for (int i = 0; i < width; i++) {
-
-                a = (argb[index] & 0xff000000) >> 24; // a is not used obviously
-                R = (argb[index] & 0xff0000) >> 16;
-                G = (argb[index] & 0xff00) >> 8;
-                B = (argb[index] & 0xff) >> 0;
-
-                // well known RGB to YUV algorithm
-                Y = ( (  66 * R + 129 * G +  25 * B + 128) >> 8) +  16;
-                U = ( ( -38 * R -  74 * G + 112 * B + 128) >> 8) + 128;
-                V = ( ( 112 * R -  94 * G -  18 * B + 128) >> 8) + 128;
-
-                // NV21 has a plane of Y and interleaved planes of VU each sampled by a factor of 2
-                //    meaning for every 4 Y pixels there are 1 V and 1 U.  Note the sampling is every other
-                //    pixel AND every other scanline.
-                yuv420sp[yIndex++] = (byte) ((Y < 0) ? 0 : ((Y > 255) ? 255 : Y));
-                if (j % 2 == 0 && index % 2 == 0) {
-                    yuv420sp[uvIndex++] = (byte)((V<0) ? 0 : ((V > 255) ? 255 : V));
-                    yuv420sp[uvIndex++] = (byte)((U<0) ? 0 : ((U > 255) ? 255 : U));
-                }
-
-                index ++;
-            }
+        ColorFormatNegotiator.Choice choice = negotiator.negotiate(source, colorFormats);
+        if (choice == null) {
+            throw new RuntimeException("no supported color format in " + codecInfo.getName());
         }
+        return choice;
     }
 }
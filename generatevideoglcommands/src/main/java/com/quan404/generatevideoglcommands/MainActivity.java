@@ -1,5 +1,6 @@
 package com.quan404.generatevideoglcommands;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
@@ -7,25 +8,38 @@ import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.media.MediaMuxer;
 import android.opengl.GLES20;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.util.Log;
 import android.view.View;
 
+import com.quan404.encoder.AsyncEncoderSession;
+import com.quan404.encoder.BaseEncoderSession;
+import com.quan404.encoder.EncoderSession;
+import com.quan404.mediautils.TestPatternCache;
+import com.quan404.mediautils.TestPatternGenerator;
+import com.quan404.mediautils.Yuv420Format;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Arrays;
 
 import javax.microedition.khronos.opengles.GL10;
 
 /**
  * Reference: https://android.googlesource.com/platform/cts/+/jb-mr2-release/tests/tests/media/src/android/media/cts/EncodeDecodeTest.java
+ * <p/>
+ * With ASYNC_ENCODER, on Android 5.0 and later, the frames are written into the encoder input
+ * buffers and the output muxed from the encoder callbacks, instead of polling the encoder for
+ * both on one thread.
  */
 public class MainActivity extends Activity {
     private static final String TAG = "Generate Video Activity";
     private static final boolean VERBOSE = true;           // lots of logging
+    // drive the encoder from its callbacks (AsyncEncoderSession) rather than polling it
+    private static final boolean ASYNC_ENCODER = true;
 
     /**
      * Get the sdcard path.
@@ -40,9 +54,6 @@ public class MainActivity extends Activity {
 
     // movie length, in frames
     private static final int NUM_FRAMES = 60;               // two seconds of video
-    private static final int TEST_Y = 120;                  // YUV values for colored rect
-    private static final int TEST_U = 160;
-    private static final int TEST_V = 200;
     private static final int TEST_R0 = 0;                   // RGB equivalent of {0,0,0}
     private static final int TEST_G0 = 136;
     private static final int TEST_B0 = 0;
@@ -86,7 +97,7 @@ public class MainActivity extends Activity {
     }
 
     private void encodeDecodeVideoFromBuffer() throws Exception{
-        MediaCodec encoder = null;
+        BaseEncoderSession session = null;
 
         try {
             MediaCodecInfo codecInfo = selectCodec(MIME_TYPE);
@@ -108,63 +119,53 @@ public class MainActivity extends Activity {
             format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
             format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, IFRAME_INTERVAL);
             if (VERBOSE) Log.d(TAG, "format: " + format);
+
+            // The size of a frame of video data, in the formats we handle, is
+            // stride*sliceHeight for Y, and (stride/2)*(sliceHeight/2) for each of the Cb and Cr
+            // channels.  Application of algebra and assuming that stride==width and
+            // sliceHeight==height yields:
+            TestPatternGenerator testPattern = new TestPatternGenerator(mWidth, mHeight);
+            // every distinct frame is drawn once here, the encoding only copies them
+            final Yuv420Format patternFormat =
+                    isSemiPlanarYUV(colorFormat) ? Yuv420Format.NV12 : Yuv420Format.I420;
+            TestPatternCache patterns = new TestPatternCache(testPattern, true);
+            patterns.prepare(patternFormat);
+
             // Create a MediaCodec for the desired codec, then configure it as an encoder with
             // our desired properties.
-            encoder = MediaCodec.createByCodecName(codecInfo.getName());
-            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-            encoder.start();
-
-            doEncodeDecodeVideoFromBuffer(encoder, colorFormat);
+            if (ASYNC_ENCODER && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                AsyncEncoderSession asyncSession = new AsyncEncoderSession(codecInfo.getName(),
+                        format, new PatternSource(patterns, patternFormat));
+                session = asyncSession;
+                doEncodeVideoWithCallbacks(asyncSession);
+            } else {
+                EncoderSession pollingSession = new EncoderSession(codecInfo.getName(), format);
+                session = pollingSession;
+                doEncodeDecodeVideoFromBuffer(pollingSession, patterns, patternFormat);
+            }
         } finally {
             if (VERBOSE) Log.d(TAG, "releasing codecs");
-            if (encoder != null) {
-                encoder.stop();
-                encoder.release();
+            if (session != null) {
+                session.logStats();
+                session.release();
             }
         }
     }
 
     boolean DEBUG_SAVE_FILE = true;
     /**
-     * Does the actual work for encoding frames from buffers of byte[].
+     * Does the actual work for encoding frames from buffers of byte[], polling the encoder.
      */
-    private void doEncodeDecodeVideoFromBuffer(MediaCodec encoder, int encoderColorFormat) {
+    private void doEncodeDecodeVideoFromBuffer(EncoderSession session, TestPatternCache patterns,
+            Yuv420Format patternFormat) {
         final int TIMEOUT_USEC = 10000;
-        ByteBuffer[] encoderInputBuffers = encoder.getInputBuffers();
-        ByteBuffer[] encoderOutputBuffers = encoder.getOutputBuffers();
-        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
         int generateIndex = 0;
-        // The size of a frame of video data, in the formats we handle, is stride*sliceHeight
-        // for Y, and (stride/2)*(sliceHeight/2) for each of the Cb and Cr channels.  Application
-        // of algebra and assuming that stride==width and sliceHeight==height yields:
-        byte[] frameData = new byte[mWidth * mHeight * 3 / 2];
-
-        // Save a copy to disk.  Useful for debugging the test.  Note this is a raw elementary
-        // stream, not a .mp4 file, so not all players will know what to do with it.
-        if (DEBUG_SAVE_FILE) {
-
-            String outputPath = new File(OUTPUT_DIR,
-                    "test.mp4").toString();
-            Log.i(TAG, "Output file is " + outputPath);
-
-
-            // Create a MediaMuxer.  We can't add the video track and start() the muxer here,
-            // because our MediaFormat doesn't have the Magic Goodies.  These can only be
-            // obtained from the encoder after it has started processing data.
-            //
-            // We're not actually interested in multiplexing audio.  We just want to convert
-            // the raw H.264 elementary stream we get from MediaCodec into a .mp4 file.
-            try {
-                mMuxer = new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
-            } catch (IOException ioe) {
-                throw new RuntimeException("MediaMuxer creation failed", ioe);
-            }
-        }
+        prepareMuxer(session);
+        session.start();
 
         // Loop until the output side is done.
         boolean inputDone = false;
         boolean encoderDone = false;
-//        boolean outputDone = false;
         while (!encoderDone) {
             if (VERBOSE) Log.d(TAG, "loop");
             // If we're not done submitting frames, generate a new one and submit it.  By
@@ -174,25 +175,18 @@ public class MainActivity extends Activity {
             // We don't really want a timeout here, but sometimes there's a delay opening
             // the encoder device, so a short timeout can keep us from spinning hard.
             if (!inputDone) {
-                int inputBufIndex = encoder.dequeueInputBuffer(TIMEOUT_USEC);
-                if (VERBOSE) Log.d(TAG, "inputBufIndex=" + inputBufIndex);
+                int inputBufIndex = session.dequeueInputBuffer(TIMEOUT_USEC);
                 if (inputBufIndex >= 0) {
                     long ptsUsec = computePresentationTime(generateIndex);
                     if (generateIndex == NUM_FRAMES) {
-                        // Send an empty frame with the end-of-stream flag set.  If we set EOS
-                        // on a frame with data, that frame data will be ignored, and the
-                        // output will be short one frame.
-                        encoder.queueInputBuffer(inputBufIndex, 0, 0, ptsUsec,
-                                MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        // Send an empty frame with the end-of-stream flag set.
+                        session.queueEndOfStream(inputBufIndex, ptsUsec);
                         inputDone = true;
-                        if (VERBOSE) Log.d(TAG, "sent input EOS (with zero-length frame)");
                     } else {
-                        generateFrame(generateIndex, encoderColorFormat, frameData);
-                        ByteBuffer inputBuf = encoderInputBuffers[inputBufIndex];
                         // the buffer should be sized to hold one full frame
-                        inputBuf.clear();
-                        inputBuf.put(frameData);
-                        encoder.queueInputBuffer(inputBufIndex, 0, frameData.length, ptsUsec, 0);
+                        ByteBuffer inputBuf = session.getInputBuffer(inputBufIndex);
+                        patterns.copyFrame(generateIndex, patternFormat, inputBuf);
+                        session.queueInputBuffer(inputBufIndex, patterns.getFrameSize(), ptsUsec);
                         if (VERBOSE) Log.d(TAG, "submitted frame " + generateIndex + " to enc");
                     }
                     generateIndex++;
@@ -207,67 +201,70 @@ public class MainActivity extends Activity {
             // away we loop around and see if it wants more input.
             //
             // Once we get EOS from the encoder, we don't need to do this anymore.
-            if (!encoderDone) {
-                int encoderStatus = encoder.dequeueOutputBuffer(info, TIMEOUT_USEC);
-                if (encoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                    // no output available yet
-                    if (VERBOSE) Log.d(TAG, "no output from encoder available");
-                    break;
-                } else if (encoderStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                    // not expected for an encoder
-                    encoderOutputBuffers = encoder.getOutputBuffers();
-                    if (VERBOSE) Log.d(TAG, "encoder output buffers changed");
-                } else if (encoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    // not expected for an encoder
-                    MediaFormat newFormat = encoder.getOutputFormat();
-                    if (VERBOSE) Log.d(TAG, "encoder output format changed: " + newFormat);
-
-                    // now that we have the Magic Goodies, start the muxer
-                    mMuxer.addTrack(newFormat);
-                    mMuxer.start();
-
-                } else if (encoderStatus < 0) {
-                    Log.e(TAG, "unexpected result from encoder.dequeueOutputBuffer: " + encoderStatus);
-                } else { // encoderStatus >= 0
-                    ByteBuffer encodedData = encoderOutputBuffers[encoderStatus];
-                    if (encodedData == null) {
-                        Log.e(TAG, "encoderOutputBuffer " + encoderStatus + " was null");
-                    }
-                    // It's usually necessary to adjust the ByteBuffer values to match BufferInfo.
-                    encodedData.position(info.offset);
-                    encodedData.limit(info.offset + info.size);
-
-                    if (DEBUG_SAVE_FILE) {
-                        byte[] data = new byte[info.size];
-                        encodedData.get(data);
-                        encodedData.position(info.offset);
-                        try {
-                            encodedData.position(info.offset);
-                            encodedData.limit(info.offset + info.size);
+            encoderDone = session.drainOutput(inputDone ? TIMEOUT_USEC : 0);
+        }
 
-                            mMuxer.writeSampleData(0, encodedData, info);
-                            Log.d(TAG, "sent " + info.size + " bytes to muxer");
+        releaseMuxer();
+    }
 
-                        } catch (Exception ioe) {
-                            Log.w(TAG, "failed writing debug data to file");
-                            throw new RuntimeException(ioe);
-                        }
-                    }
-                    if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                        // Codec config info.  Only expected on first packet.  One way to
-                        // handle this is to manually stuff the data into the MediaFormat
-                        // and pass that to configure().  We do that here to exercise the API.
+    /**
+     * Does the actual work for encoding frames from buffers of byte[], from the encoder
+     * callbacks: the PatternSource fills every input buffer as soon as the encoder frees it,
+     * the samples are muxed as soon as they come out, both on the session thread.  This thread
+     * only waits for the last sample.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void doEncodeVideoWithCallbacks(AsyncEncoderSession session)
+            throws InterruptedException {
+        final int EOS_TIMEOUT_MS = 2500;
+        prepareMuxer(session);
+        session.start();
+
+        // the whole video is encoded meanwhile: give up only once the encoder stalls
+        long encodedSamples = -1;
+        while (!session.awaitEndOfStream(EOS_TIMEOUT_MS)) {
+            if (session.getEncodedSampleCount() == encodedSamples) {
+                throw new RuntimeException("Encoder end of stream wait timed out");
+            }
+            encodedSamples = session.getEncodedSampleCount();
+        }
 
-                    } else {
-                        encoderDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
-                        if (VERBOSE) Log.d(TAG, "passed " + info.size + " bytes to decoder"
-                                + (encoderDone ? " (EOS)" : ""));
-                    }
-                    encoder.releaseOutputBuffer(encoderStatus, false);
-                }
+        releaseMuxer();
+    }
+
+    /**
+     * Creates the muxer the session muxes into, with DEBUG_SAVE_FILE.  Call it before starting
+     * the session.
+     */
+    private void prepareMuxer(BaseEncoderSession session) {
+        // Save a copy to disk.  Useful for debugging the test.
+        if (DEBUG_SAVE_FILE) {
+
+            String outputPath = new File(OUTPUT_DIR,
+                    "test.mp4").toString();
+            Log.i(TAG, "Output file is " + outputPath);
+
+
+            // Create a MediaMuxer.  We can't add the video track and start() the muxer here,
+            // because our MediaFormat doesn't have the Magic Goodies.  These can only be
+            // obtained from the encoder after it has started processing data; the session
+            // starts it then.
+            //
+            // We're not actually interested in multiplexing audio.  We just want to convert
+            // the raw H.264 elementary stream we get from MediaCodec into a .mp4 file.
+            try {
+                mMuxer = new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            } catch (IOException ioe) {
+                throw new RuntimeException("MediaMuxer creation failed", ioe);
             }
+            session.setMuxer(mMuxer);
         }
+    }
 
+    /**
+     * Stops and releases the muxer, if any, once the last sample was muxed.
+     */
+    private void releaseMuxer() {
         if (mMuxer != null) {
             try {
                 mMuxer.stop();
@@ -280,6 +277,38 @@ public class MainActivity extends Activity {
         }
     }
 
+    /**
+     * Copies the test pattern frames into the input buffers of an AsyncEncoderSession, on the
+     * session thread, then sends an empty one flagged end of stream.  The frames are always
+     * ready.
+     */
+    private static class PatternSource implements AsyncEncoderSession.InputSource {
+        private final TestPatternCache mPatterns;
+        private final Yuv420Format mFormat;
+        private int mGenerateIndex;
+
+        PatternSource(TestPatternCache patterns, Yuv420Format format) {
+            mPatterns = patterns;
+            mFormat = format;
+        }
+
+        @Override
+        public boolean fillInputBuffer(ByteBuffer buffer, MediaCodec.BufferInfo info) {
+            long ptsUsec = computePresentationTime(mGenerateIndex);
+            if (mGenerateIndex == NUM_FRAMES) {
+                // Send an empty frame with the end-of-stream flag set.
+                info.set(0, 0, ptsUsec, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            } else {
+                // the buffer should be sized to hold one full frame
+                mPatterns.copyFrame(mGenerateIndex, mFormat, buffer);
+                info.set(0, mPatterns.getFrameSize(), ptsUsec, 0);
+                if (VERBOSE) Log.d(TAG, "submitted frame " + mGenerateIndex + " to enc");
+            }
+            mGenerateIndex++;
+            return true;
+        }
+    }
+
 
     /**
      * Sets the desired frame size and bit rate.
@@ -369,54 +398,4 @@ public class MainActivity extends Activity {
                 throw new RuntimeException("unknown format " + colorFormat);
         }
     }
-    /**
-     * Generates data for frame N into the supplied buffer.  We have an 8-frame animation
-     * sequence that wraps around.  It looks like this:
-     * <pre>
-     *   0 1 2 3
-     *   7 6 5 4
-     * </pre>
-     * We draw one of the eight rectangles and leave the rest set to the zero-fill color.
-     */
-    private void generateFrame(int frameIndex, int colorFormat, byte[] frameData) {
-        final int HALF_WIDTH = mWidth / 2;
-        boolean semiPlanar = isSemiPlanarYUV(colorFormat);
-        // Set to zero.  In YUV this is a dull green.
-        Arrays.fill(frameData, (byte) 0);
-        int startX, startY, countX, countY;
-        frameIndex %= 8;
-        //frameIndex = (frameIndex / 8) % 8;    // use this instead for debug -- easier to see
-        if (frameIndex < 4) {
-            startX = frameIndex * (mWidth / 4);
-            startY = 0;
-        } else {
-            startX = (7 - frameIndex) * (mWidth / 4);
-            startY = mHeight / 2;
-        }
-        for (int y = startY + (mHeight/2) - 1; y >= startY; --y) {
-            for (int x = startX + (mWidth/4) - 1; x >= startX; --x) {
-                if (semiPlanar) {
-                    // full-size Y, followed by UV pairs at half resolution
-                    // e.g. Nexus 4 OMX.qcom.video.encoder.avc COLOR_FormatYUV420SemiPlanar
-                    // e.g. Galaxy Nexus OMX.TI.DUCATI1.VIDEO.H264E
-                    //        OMX_TI_COLOR_FormatYUV420PackedSemiPlanar
-                    frameData[y * mWidth + x] = (byte) TEST_Y;
-                    if ((x & 0x01) == 0 && (y & 0x01) == 0) {
-                        frameData[mWidth*mHeight + y * HALF_WIDTH + x] = (byte) TEST_U;
-                        frameData[mWidth*mHeight + y * HALF_WIDTH + x + 1] = (byte) TEST_V;
-                    }
-                } else {
-                    // full-size Y, followed by quarter-size U and quarter-size V
-                    // e.g. Nexus 10 OMX.Exynos.AVC.Encoder COLOR_FormatYUV420Planar
-                    // e.g. Nexus 7 OMX.Nvidia.h264.encoder COLOR_FormatYUV420Planar
-                    frameData[y * mWidth + x] = (byte) TEST_Y;
-                    if ((x & 0x01) == 0 && (y & 0x01) == 0) {
-                        frameData[mWidth*mHeight + (y/2) * HALF_WIDTH + (x/2)] = (byte) TEST_U;
-                        frameData[mWidth*mHeight + HALF_WIDTH * (mHeight / 2) +
-                                (y/2) * HALF_WIDTH + (x/2)] = (byte) TEST_V;
-                    }
-                }
-            }
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,379 @@
+package com.quan404.encoder;
+
+import android.annotation.TargetApi;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * MediaCodec encoder driven by its asynchronous callbacks, on a thread of its own, instead of
+ * polling dequeueInputBuffer() and dequeueOutputBuffer() with a timeout.  Requires Android 5.0
+ * (API 21).
+ * <p/>
+ * Every input buffer is handed to the {@link InputSource} as soon as the codec frees it; when
+ * the source has no frame ready the buffer waits for {@link #notifyInputAvailable()}.  Every
+ * encoded sample is handed to the {@link #addSink sinks} as soon as the codec outputs it,
+ * without a copy, and its buffer is released once the last sink is done with it; on the output
+ * format change the track is added to the {@link #setMuxer muxer} and the muxer started.  With
+ * an {@link #createInputSurface() input surface} there is no source, frames are drawn on the
+ * surface.  The stages and the counters are the ones of {@link BaseEncoderSession}.
+ * <p/>
+ * The source and the sinks are called on the session thread, one at a time.  Thread-safe.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class AsyncEncoderSession extends BaseEncoderSession {
+    private static final String TAG = "AsyncEncoderSession";
+    private static final boolean DEBUG = false;
+
+    /**
+     * Fills the input buffers, on the session thread.
+     */
+    public interface InputSource {
+        /**
+         * Writes the next frame into {@code buffer} and sets its offset, size, presentation time
+         * and flags in {@code info}; the last frame may be an empty one flagged
+         * BUFFER_FLAG_END_OF_STREAM.  Returns false if no frame is ready yet, the buffer is
+         * offered again after {@link AsyncEncoderSession#notifyInputAvailable()}.  A source
+         * writing COLOR_FormatYUV420Flexible frames writes them into
+         * {@link AsyncEncoderSession#getInputImage()} instead of {@code buffer}.
+         */
+        boolean fillInputBuffer(ByteBuffer buffer, MediaCodec.BufferInfo info);
+    }
+
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final InputSource mSource;
+
+    // session thread only
+    private final MediaCodec.BufferInfo mInputInfo = new MediaCodec.BufferInfo();
+    // input buffers the source had no frame for, waiting for notifyInputAvailable(), and the
+    // time the codec freed each of them
+    private int[] mWaitingInputs = new int[8];
+    private long[] mWaitingSinceNs = new long[8];
+    private int mWaitingInputCount;
+    private boolean mEndOfInputRequested;
+    private boolean mInputDone;
+    private long mLastPtsUs;
+    private int mFillingIndex = -1;
+
+    // written on the session thread only
+    private volatile long mInputWaits;
+
+    // guarded by this
+    private RuntimeException mError;
+
+    private final Runnable mRetryInput = new Runnable() {
+        @Override
+        public void run() {
+            while (mWaitingInputCount > 0) {
+                final int last = mWaitingInputCount - 1;
+                if (!queueInput(mWaitingInputs[last], mWaitingSinceNs[last])) {
+                    break;
+                }
+                mWaitingInputCount--;
+            }
+        }
+    };
+
+    private final MediaCodec.Callback mCallback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            final long now = System.nanoTime();
+            if (!queueInput(index, now)) {
+                mInputWaits++;
+                if (mWaitingInputCount == mWaitingInputs.length) {
+                    mWaitingInputs = Arrays.copyOf(mWaitingInputs, 2 * mWaitingInputCount);
+                    mWaitingSinceNs = Arrays.copyOf(mWaitingSinceNs, 2 * mWaitingInputCount);
+                }
+                mWaitingInputs[mWaitingInputCount] = index;
+                mWaitingSinceNs[mWaitingInputCount++] = now;
+            }
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index,
+                MediaCodec.BufferInfo info) {
+            try {
+                dispatch(index, codec.getOutputBuffer(index), info);
+            } catch (RuntimeException e) {
+                fail(e);
+                return;
+            }
+            if (isEndOfStream()) {
+                synchronized (AsyncEncoderSession.this) {
+                    AsyncEncoderSession.this.notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            fail(e);
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            try {
+                AsyncEncoderSession.this.onOutputFormatChanged(format);
+            } catch (RuntimeException e) {
+                fail(e);
+            }
+        }
+    };
+
+    /**
+     * Creates and configures the encoder.  Call {@link #start()} to begin encoding, and
+     * {@link #release()} once done.
+     *
+     * @param codecName name of the encoder, or null for the first one of the format's MIME type
+     * @param source    fills the input buffers, null with an input surface
+     */
+    public AsyncEncoderSession(String codecName, MediaFormat format, InputSource source)
+            throws IOException {
+        this(startThread(), codecName, format, source);
+    }
+
+    private AsyncEncoderSession(HandlerThread thread, String codecName, MediaFormat format,
+            InputSource source) throws IOException {
+        // before Marshmallow the callbacks can only go to the looper of the thread that
+        // created the codec, which is why it is created on the session thread
+        super(TAG, createEncoder(thread, codecName, format.getString(MediaFormat.KEY_MIME)));
+        mThread = thread;
+        mHandler = new Handler(thread.getLooper());
+        mSource = source;
+        try {
+            mEncoder.setCallback(mCallback);
+            mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        } catch (RuntimeException e) {
+            mEncoder.release();
+            mThread.quit();
+            throw e;
+        }
+    }
+
+    private static HandlerThread startThread() {
+        final HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Creates the codec on {@code thread}, which is quit if that fails.
+     */
+    private static MediaCodec createEncoder(HandlerThread thread, final String codecName,
+            final String mimeType) throws IOException {
+        final MediaCodec[] encoder = new MediaCodec[1];
+        final Exception[] error = new Exception[1];
+        final CountDownLatch created = new CountDownLatch(1);
+        new Handler(thread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    encoder[0] = codecName != null ? MediaCodec.createByCodecName(codecName)
+                            : MediaCodec.createEncoderByType(mimeType);
+                } catch (IOException | RuntimeException e) {
+                    error[0] = e;
+                } finally {
+                    created.countDown();
+                }
+            }
+        });
+        awaitUninterruptibly(created);
+        if (error[0] != null) {
+            thread.quit();
+        }
+        if (error[0] instanceof IOException) {
+            throw (IOException) error[0];
+        } else if (error[0] != null) {
+            throw (RuntimeException) error[0];
+        }
+        return encoder[0];
+    }
+
+    /**
+     * Offers the input buffers waiting for a frame to the input source again, e.g. when the
+     * camera delivered a frame.
+     */
+    public void notifyInputAvailable() {
+        mHandler.post(mRetryInput);
+    }
+
+    /**
+     * Ends the stream: signalEndOfInputStream() with an input surface, an empty input buffer
+     * flagged BUFFER_FLAG_END_OF_STREAM otherwise, in place of the next frame.
+     */
+    public void signalEndOfInput() {
+        if (isSurfaceInput()) {
+            mEncoder.signalEndOfInputStream();
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mEndOfInputRequested = true;
+                mRetryInput.run();
+            }
+        });
+    }
+
+    /**
+     * Waits at most {@code timeoutMs} milliseconds for the last sample to be handed to the
+     * sinks.  Returns false on timeout; throws if the codec, the source or a sink failed.
+     */
+    public synchronized boolean awaitEndOfStream(long timeoutMs) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeoutMs * 1000000L;
+        long remainingMs = timeoutMs;
+        while (!isEndOfStream() && mError == null) {
+            if (remainingMs <= 0) {
+                return false;
+            }
+            wait(remainingMs);
+            remainingMs = (deadline - System.nanoTime()) / 1000000L;
+        }
+        if (mError != null) {
+            throw new IllegalStateException("encoding failed", mError);
+        }
+        return true;
+    }
+
+    /**
+     * Stops and releases the encoder, then the session thread.  The source and the sinks are not
+     * called any more once this returns.  Samples a sink retained must be released before,
+     * their output buffer cannot be given back to a released encoder.
+     */
+    @Override
+    public void release() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseEncoder();
+            }
+        });
+        mThread.quitSafely();
+        boolean interrupted = false;
+        while (mThread.isAlive()) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the input buffer being filled as an image, for COLOR_FormatYUV420Flexible: from
+     * {@link InputSource#fillInputBuffer} only, on the session thread.  The byte buffer handed to
+     * the source must not be used any more once this is called.
+     */
+    public Image getInputImage() {
+        if (mFillingIndex < 0) {
+            throw new IllegalStateException("no input buffer being filled");
+        }
+        return mEncoder.getInputImage(mFillingIndex);
+    }
+
+    /**
+     * Returns how many times an input buffer was free before the source had a frame for it.
+     */
+    public long getInputWaitCount() {
+        return mInputWaits;
+    }
+
+    @Override
+    String describeWaits() {
+        return mInputWaits + " input buffers waited for a frame";
+    }
+
+    /**
+     * Fills input buffer {@code index}, freed by the codec at {@code freedNs}, and queues it, on
+     * the session thread.  Returns false if the source has no frame ready.
+     */
+    private boolean queueInput(int index, long freedNs) {
+        if (mInputDone) {
+            // the codec still frees buffers after the end of the stream
+            return true;
+        }
+        if (mEndOfInputRequested) {
+            queueEndOfStream(index);
+            if (DEBUG) Log.d(TAG, "sent input EOS");
+            return true;
+        }
+        final long start = System.nanoTime();
+        final ByteBuffer buffer = mEncoder.getInputBuffer(index);
+        mInputInfo.set(0, 0, 0, 0);
+        mFillingIndex = index;
+        try {
+            if (!mSource.fillInputBuffer(buffer, mInputInfo)) {
+                return false;
+            }
+        } catch (RuntimeException e) {
+            // no frame can follow: the buffer goes back to the codec as the end of the stream,
+            // rather than being held until the codec is released
+            try {
+                queueEndOfStream(index);
+            } catch (IllegalStateException e2) {
+                Log.w(TAG, "input buffer " + index + " not given back", e2);
+            }
+            fail(e);
+            return true;
+        } finally {
+            mFillingIndex = -1;
+        }
+        mTimer.record(STAGE_INPUT_WAIT, start - freedNs);
+        if (mInputInfo.size != 0) {
+            onQueueingFrame(mInputInfo.presentationTimeUs);
+        }
+        mEncoder.queueInputBuffer(index, mInputInfo.offset, mInputInfo.size,
+                mInputInfo.presentationTimeUs, mInputInfo.flags);
+        mTimer.recordSince(STAGE_INPUT_FILL, start);
+        mLastPtsUs = mInputInfo.presentationTimeUs;
+        if ((mInputInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            mInputDone = true;
+        }
+        return true;
+    }
+
+    /**
+     * Queues input buffer {@code index} empty, flagged BUFFER_FLAG_END_OF_STREAM, and stops
+     * filling the input buffers.
+     */
+    private void queueEndOfStream(int index) {
+        mInputDone = true;
+        mEncoder.queueInputBuffer(index, 0, 0, mLastPtsUs, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+    }
+
+    private synchronized void fail(RuntimeException e) {
+        Log.e(TAG, "encoding failed", e);
+        if (mError == null) {
+            mError = e;
+        }
+        notifyAll();
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.quan404.encoder;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.Surface;
+
+import com.quan404.mediautils.BitrateController;
+import com.quan404.mediautils.EncodedSample;
+import com.quan404.mediautils.FrameLatencyMeter;
+import com.quan404.mediautils.SampleDispatcher;
+import com.quan404.mediautils.SampleSink;
+import com.quan404.mediautils.StageTimer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * What the encoder sessions share however the codec is driven, polled by
+ * {@link EncoderSession} or through its callbacks by {@link AsyncEncoderSession}: the
+ * {@link #addSink sinks} every sample is handed to without a copy, the {@link #setMuxer muxer}
+ * started on the output format change, the {@link #setLatencyMeter latency meter}, the
+ * {@link #setBitrateController bitrate controller} adjusting the encoder live, the time
+ * spent in each stage and the counters, logged by {@link #logStats()}.  Every recording is thus
+ * measured the same way.
+ */
+public abstract class BaseEncoderSession {
+    private static final boolean DEBUG = false;
+
+    /**
+     * Waiting for an input buffer: the dequeueInputBuffer() calls that returned one when
+     * polling, the time a free input buffer waited for a frame with the callbacks.
+     */
+    public static final int STAGE_INPUT_WAIT = 0;
+    /**
+     * From an input buffer obtained to its frame queued: the frame being written.
+     */
+    public static final int STAGE_INPUT_FILL = 1;
+    /**
+     * dequeueOutputBuffer() calls that returned a sample, when polling only.
+     */
+    public static final int STAGE_OUTPUT_WAIT = 2;
+    /**
+     * Handing a sample to the sinks, muxing it.
+     */
+    public static final int STAGE_SINKS = 3;
+
+    private final String mTag;
+    final MediaCodec mEncoder;
+    private final SampleDispatcher mDispatcher = new SampleDispatcher(
+            new SampleDispatcher.Releaser() {
+                @Override
+                public void releaseOutputBuffer(int index) {
+                    mEncoder.releaseOutputBuffer(index, false);
+                }
+            });
+    final StageTimer mTimer = new StageTimer("input wait", "input fill", "output wait",
+            "sinks");
+    private MuxerSink mMuxerSink;
+    private FrameLatencyMeter mLatencyMeter;
+    private boolean mSurfaceInput;
+
+    // written on the output thread only
+    private volatile MediaFormat mOutputFormat;
+    private volatile boolean mEndOfStream;
+    private volatile long mEncodedSamples;
+
+    // written on the input thread only
+    private volatile long mQueuedFrames;
+
+    BaseEncoderSession(String tag, MediaCodec encoder) {
+        mTag = tag;
+        mEncoder = encoder;
+    }
+
+    /**
+     * Returns the surface to draw the frames on, instead of the input buffers.  Call it before
+     * {@link #start()}; the caller releases the surface.
+     */
+    public Surface createInputSurface() {
+        mSurfaceInput = true;
+        return mEncoder.createInputSurface();
+    }
+
+    /**
+     * Muxes the samples as the only track of {@code muxer}, which is started on the output
+     * format change.  The caller stops and releases the muxer.  Call it before {@link #start()}.
+     */
+    public void setMuxer(MediaMuxer muxer) {
+        if (mMuxerSink != null) {
+            throw new IllegalStateException("muxer already set");
+        }
+        mMuxerSink = new MuxerSink(muxer);
+        mDispatcher.addSink(mMuxerSink);
+    }
+
+    /**
+     * Adds a sink receiving every encoded sample, including the codec config
+     * ({@link EncodedSample#isCodecConfig()}) and the last one
+     * ({@link EncodedSample#isEndOfStream()}, often empty).  Call it before {@link #start()}.
+     */
+    public void addSink(SampleSink sink) {
+        mDispatcher.addSink(sink);
+    }
+
+    /**
+     * Measures the latency of every frame with {@code meter}: from the time it is queued, for
+     * frames in byte buffers, to the time its sample comes out.  Frames drawn on an input
+     * surface are recorded as queued by the caller.  Call it before {@link #start()}.
+     */
+    public void setLatencyMeter(FrameLatencyMeter meter) {
+        mLatencyMeter = meter;
+    }
+
+    /**
+     * Asks the encoder for {@code bitRate} bits per second from the next frames on, without
+     * stopping it.  Some encoders only apply it from the next sync frame.  Requires Android 4.4
+     * (API 19).
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public void setVideoBitrate(int bitRate) {
+        final Bundle params = new Bundle();
+        params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitRate);
+        mEncoder.setParameters(params);
+    }
+
+    /**
+     * Adds {@code controller} as a sink and applies the bitrates it decides, on the output
+     * thread.  Call it before {@link #start()}, with the encoder configured at the target
+     * bitrate of the controller.  Requires Android 4.4 (API 19).
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public void setBitrateController(BitrateController controller) {
+        addSink(controller);
+        controller.setListener(new BitrateController.Listener() {
+            @Override
+            public void onBitrateChanged(int bitRate) {
+                if (DEBUG) Log.d(mTag, "bitrate changed to " + bitRate);
+                setVideoBitrate(bitRate);
+            }
+        });
+    }
+
+    public void start() {
+        mEncoder.start();
+    }
+
+    /**
+     * Returns true once the last sample was handed to the sinks.
+     */
+    public boolean isEndOfStream() {
+        return mEndOfStream;
+    }
+
+    /**
+     * Returns the output format, or null before the encoder reported it.
+     */
+    public MediaFormat getOutputFormat() {
+        return mOutputFormat;
+    }
+
+    /**
+     * Returns the time spent in each stage, STAGE_*.
+     */
+    public StageTimer getStageTimer() {
+        return mTimer;
+    }
+
+    /**
+     * Returns the number of frames queued in byte buffers.
+     */
+    public long getQueuedFrameCount() {
+        return mQueuedFrames;
+    }
+
+    /**
+     * Returns the number of samples handed to the sinks.
+     */
+    public long getEncodedSampleCount() {
+        return mEncodedSamples;
+    }
+
+    /**
+     * Returns the number of samples a sink retained, holding their output buffer from the
+     * encoder after it returned.
+     */
+    public long getDeferredReleaseCount() {
+        return mDispatcher.getDeferredCount();
+    }
+
+    /**
+     * Logs the counters and the time spent in each stage.
+     */
+    public void logStats() {
+        Log.i(mTag, mQueuedFrames + " frames queued, " + mEncodedSamples + " samples out, "
+                + describeWaits() + ", " + mDispatcher.getDeferredCount()
+                + " releases deferred by a sink");
+        for (String line : mTimer.describe()) {
+            Log.i(mTag, line);
+        }
+    }
+
+    /**
+     * Stops and releases the encoder.  Samples a sink retained must be released before, their
+     * output buffer cannot be given back to a released encoder.
+     */
+    public abstract void release();
+
+    /**
+     * Returns how often the session waited for the codec or for the frames, for
+     * {@link #logStats()}.
+     */
+    abstract String describeWaits();
+
+    boolean isSurfaceInput() {
+        return mSurfaceInput;
+    }
+
+    /**
+     * Counts a frame about to be queued in a byte buffer and records it as queued on the
+     * latency meter: before the buffer is queued, its sample may come out on another thread
+     * before queueInputBuffer() returns.
+     */
+    void onQueueingFrame(long presentationTimeUs) {
+        final FrameLatencyMeter meter = mLatencyMeter;
+        if (meter != null) {
+            meter.onQueued(presentationTimeUs, System.nanoTime());
+        }
+        mQueuedFrames++;
+    }
+
+    /**
+     * Keeps the output format and starts the muxer with it, on the output thread.
+     */
+    void onOutputFormatChanged(MediaFormat format) {
+        if (DEBUG) Log.d(mTag, "encoder output format changed: " + format);
+        mOutputFormat = format;
+        if (mMuxerSink != null) {
+            // now that we have the Magic Goodies, start the muxer
+            mMuxerSink.setFormat(format);
+        }
+    }
+
+    /**
+     * Hands output buffer {@code index}, holding the sample {@code info} describes, to the
+     * sinks, on the output thread.
+     */
+    void dispatch(int index, ByteBuffer data, MediaCodec.BufferInfo info) {
+        if (data == null) {
+            throw new RuntimeException("encoderOutputBuffer " + index + " was null");
+        }
+        final long start = System.nanoTime();
+        final FrameLatencyMeter meter = mLatencyMeter;
+        if (meter != null && info.size != 0
+                && (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+            meter.onEncoded(info.presentationTimeUs, start);
+        }
+        // the flags of EncodedSample have the values of the MediaCodec ones
+        mDispatcher.dispatch(index, data, info.offset, info.size, info.presentationTimeUs,
+                info.flags);
+        mEncodedSamples++;
+        mTimer.recordSince(STAGE_SINKS, start);
+        if (DEBUG) Log.d(mTag, "sent " + info.size + " bytes to the sinks");
+        if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            if (DEBUG) Log.d(mTag, "end of stream reached");
+            mEndOfStream = true;
+        }
+    }
+
+    /**
+     * Stops and releases the encoder, on the thread its callbacks go to if any.
+     */
+    void releaseEncoder() {
+        try {
+            mEncoder.stop();
+        } catch (IllegalStateException e) {
+            Log.w(mTag, "encoder not stopped cleanly", e);
+        } finally {
+            mEncoder.release();
+        }
+    }
+}
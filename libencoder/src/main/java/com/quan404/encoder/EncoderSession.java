@@ -0,0 +1,227 @@
+package com.quan404.encoder;
+
+import android.annotation.TargetApi;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * MediaCodec encoder polled with dequeueInputBuffer() and dequeueOutputBuffer(), on Android 4.3
+ * (API 18) and later: the loop every recording of this project used to carry its own copy of.
+ * <p/>
+ * Frames go in either through byte buffers, {@link #dequeueInputBuffer} then
+ * {@link #getInputBuffer} or {@link #getInputImage} then {@link #queueInputBuffer}, or through
+ * an {@link #createInputSurface() input surface}.  {@link #drainOutput} hands every sample the
+ * encoder has ready to the {@link #addSink sinks}, without a copy, and releases its buffer once
+ * the last sink is done with it; on the output format change it adds the track to the
+ * {@link #setMuxer muxer} and starts it.  The time spent in each stage is accumulated in
+ * {@link #getStageTimer()}, see {@link BaseEncoderSession}.
+ * <p/>
+ * The input methods must be called on one thread and the output ones on one thread, the same or
+ * another one.  The sinks are called on the output thread.
+ */
+public class EncoderSession extends BaseEncoderSession {
+    private static final String TAG = "EncoderSession";
+    private static final boolean DEBUG = false;
+
+    private static final long DRAIN_TIMEOUT_USEC = 10000;
+
+    // input thread only; before Lollipop the buffers are only reachable through these arrays
+    private ByteBuffer[] mInputBuffers;
+    private long mInputDequeuedNs;
+    private long mLastPtsUs;
+
+    // output thread only
+    private ByteBuffer[] mOutputBuffers;
+    private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+
+    private volatile long mInputMisses;
+    private volatile long mOutputMisses;
+
+    /**
+     * Creates and configures the encoder.  Call {@link #start()} to begin encoding, and
+     * {@link #release()} once done.
+     *
+     * @param codecName name of the encoder, or null for the first one of the format's MIME type
+     */
+    public EncoderSession(String codecName, MediaFormat format) throws IOException {
+        super(TAG, codecName != null ? MediaCodec.createByCodecName(codecName)
+                : MediaCodec.createEncoderByType(format.getString(MediaFormat.KEY_MIME)));
+        try {
+            mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        } catch (RuntimeException e) {
+            mEncoder.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void start() {
+        super.start();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            if (!isSurfaceInput()) {
+                mInputBuffers = mEncoder.getInputBuffers();
+            }
+            mOutputBuffers = mEncoder.getOutputBuffers();
+        }
+    }
+
+    /**
+     * Returns the index of a free input buffer, waiting at most {@code timeoutUs}
+     * microseconds, or -1 if none was freed in time.
+     */
+    public int dequeueInputBuffer(long timeoutUs) {
+        final long start = System.nanoTime();
+        final int index = mEncoder.dequeueInputBuffer(timeoutUs);
+        if (index < 0) {
+            mInputMisses++;
+            return -1;
+        }
+        mInputDequeuedNs = mTimer.recordSince(STAGE_INPUT_WAIT, start);
+        if (DEBUG) Log.d(TAG, "inputBufIndex=" + index);
+        return index;
+    }
+
+    /**
+     * Returns input buffer {@code index}, cleared.
+     */
+    public ByteBuffer getInputBuffer(int index) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return mEncoder.getInputBuffer(index);
+        }
+        final ByteBuffer buffer = mInputBuffers[index];
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns input buffer {@code index} as an image, for COLOR_FormatYUV420Flexible.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public Image getInputImage(int index) {
+        return mEncoder.getInputImage(index);
+    }
+
+    /**
+     * Queues input buffer {@code index} holding a frame of {@code size} bytes from its start,
+     * 0 to give the buffer back unused.
+     */
+    public void queueInputBuffer(int index, int size, long presentationTimeUs) {
+        mTimer.recordSince(STAGE_INPUT_FILL, mInputDequeuedNs);
+        if (size != 0) {
+            onQueueingFrame(presentationTimeUs);
+        }
+        mEncoder.queueInputBuffer(index, 0, size, presentationTimeUs, 0);
+        mLastPtsUs = presentationTimeUs;
+    }
+
+    /**
+     * Queues input buffer {@code index} empty, flagged BUFFER_FLAG_END_OF_STREAM: if we set EOS
+     * on a frame with data, that frame data would be ignored.
+     */
+    public void queueEndOfStream(int index, long presentationTimeUs) {
+        mEncoder.queueInputBuffer(index, 0, 0, presentationTimeUs,
+                MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+        if (DEBUG) Log.d(TAG, "sent input EOS (with zero-length frame)");
+    }
+
+    /**
+     * Ends the stream: signalEndOfInputStream() with an input surface, an empty input buffer
+     * after the last frame otherwise.  While every input buffer is held, the output is drained
+     * to free one, so with an output thread of its own use {@link #queueEndOfStream} instead.
+     */
+    public void signalEndOfInput() {
+        if (isSurfaceInput()) {
+            mEncoder.signalEndOfInputStream();
+            return;
+        }
+        int index;
+        while ((index = dequeueInputBuffer(DRAIN_TIMEOUT_USEC)) < 0) {
+            if (DEBUG) Log.d(TAG, "no input buffer for EOS, draining");
+            drainOutput(0);
+        }
+        queueEndOfStream(index, mLastPtsUs);
+    }
+
+    /**
+     * Hands every sample the encoder has ready to the sinks, waiting at most {@code timeoutUs}
+     * microseconds for the first one.  Returns true once the last sample was handed.
+     */
+    public boolean drainOutput(long timeoutUs) {
+        long waitUs = timeoutUs;
+        while (!isEndOfStream()) {
+            final long start = System.nanoTime();
+            final int status = mEncoder.dequeueOutputBuffer(mInfo, waitUs);
+            if (status == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                // no output available yet, the caller feeds more input or polls again
+                mOutputMisses++;
+                break;
+            }
+            // whatever else is ready is taken without waiting
+            waitUs = 0;
+            if (status == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                // not expected for an encoder
+                mOutputBuffers = mEncoder.getOutputBuffers();
+                if (DEBUG) Log.d(TAG, "encoder output buffers changed");
+            } else if (status == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                // should happen before receiving buffers, and should only happen once
+                onOutputFormatChanged(mEncoder.getOutputFormat());
+            } else if (status < 0) {
+                Log.w(TAG, "unexpected result from encoder.dequeueOutputBuffer: " + status);
+            } else {
+                mTimer.recordSince(STAGE_OUTPUT_WAIT, start);
+                dispatch(status, Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                        ? mEncoder.getOutputBuffer(status) : mOutputBuffers[status], mInfo);
+            }
+        }
+        return isEndOfStream();
+    }
+
+    /**
+     * Drains the output until the last sample was handed, for at most {@code timeoutMs}
+     * milliseconds.  Returns false on timeout.
+     */
+    public boolean drainToEndOfStream(long timeoutMs) {
+        final long deadline = System.nanoTime() + timeoutMs * 1000000L;
+        while (!drainOutput(DRAIN_TIMEOUT_USEC)) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            if (DEBUG) Log.d(TAG, "no output available, spinning to await EOS");
+        }
+        return true;
+    }
+
+    /**
+     * Stops and releases the encoder.  Samples a sink retained must be released before, their
+     * output buffer cannot be given back to a released encoder.
+     */
+    @Override
+    public void release() {
+        releaseEncoder();
+    }
+
+    /**
+     * Returns how many times dequeueInputBuffer() timed out, every input buffer being held.
+     */
+    public long getInputMissCount() {
+        return mInputMisses;
+    }
+
+    /**
+     * Returns how many times dequeueOutputBuffer() timed out, no sample being ready.
+     */
+    public long getOutputMissCount() {
+        return mOutputMisses;
+    }
+
+    @Override
+    String describeWaits() {
+        return mInputMisses + " input and " + mOutputMisses + " output polls missed";
+    }
+}
@@ -0,0 +1,64 @@
+package com.quan404.encoder;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import com.quan404.mediautils.EncodedSample;
+import com.quan404.mediautils.SampleSink;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sink writing the encoded samples of one track to a MediaMuxer, straight from the encoder
+ * output buffer.  The codec config samples are skipped, the muxer takes them from the format.
+ * <p/>
+ * The track is added and the muxer started by {@link #setFormat}, so this only suits a muxer
+ * with a single track.  Not thread-safe: the format and the samples come from the encoder
+ * thread.
+ */
+public class MuxerSink implements SampleSink {
+
+    private final MediaMuxer mMuxer;
+    private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+    private int mTrackIndex = -1;
+    private long mSamples;
+
+    public MuxerSink(MediaMuxer muxer) {
+        mMuxer = muxer;
+    }
+
+    /**
+     * Adds the track with the encoder output format and starts the muxer.
+     */
+    public void setFormat(MediaFormat format) {
+        if (mTrackIndex >= 0) {
+            throw new IllegalStateException("format changed twice");
+        }
+        mTrackIndex = mMuxer.addTrack(format);
+        mMuxer.start();
+    }
+
+    @Override
+    public void onSample(EncodedSample sample) {
+        if (sample.getSize() == 0 || sample.isCodecConfig()) {
+            return;
+        }
+        if (mTrackIndex < 0) {
+            throw new IllegalStateException("muxer hasn't started");
+        }
+        final ByteBuffer data = sample.getData();
+        // the muxer reads from the offset in the info, not from the position
+        mInfo.set(data.position(), sample.getSize(), sample.getPresentationTimeUs(),
+                sample.getFlags());
+        mMuxer.writeSampleData(mTrackIndex, data, mInfo);
+        mSamples++;
+    }
+
+    /**
+     * Returns the number of samples written.
+     */
+    public long getSampleCount() {
+        return mSamples;
+    }
+}
@@ -0,0 +1,215 @@
+package com.quan404.mediautils;
+
+/**
+ * Keeps the bitrate an encoder actually produces close to a target, by moving the bitrate it
+ * asks the encoder for.  Encoders overshoot the configured bitrate on busy scenes and undershoot
+ * on still ones; this sums the sizes of the encoded samples over windows of presentation time
+ * and, at the end of each window, moves the requested bitrate half way to the one that would
+ * have hit the target, within the min and max bounds.
+ * <p/>
+ * A window measured within {@link #TOLERANCE_PERCENT} of the target leaves the bitrate alone.
+ * So does the window after a change, since encoders take a while to apply it, some only from
+ * the next sync frame.  The {@link Listener} applies each new bitrate to the encoder.  Codec
+ * config and empty samples are not counted.  Nothing is allocated after construction, except by
+ * {@link #describe()}.  Thread-safe.
+ */
+public class BitrateController implements SampleSink {
+
+    /**
+     * Measures this close to the target, in percent of it, do not change the bitrate.
+     */
+    public static final int TOLERANCE_PERCENT = 10;
+
+    // one window moves the bitrate by this factor at most, whatever the scene did
+    private static final int MAX_STEP_FACTOR = 2;
+
+    private static final long NONE = -1;
+
+    /**
+     * Applies the bitrates decided by the controller.
+     */
+    public interface Listener {
+        /**
+         * Called on the encoder output thread with the bitrate to ask the encoder for, in bits
+         * per second, from now on.
+         */
+        void onBitrateChanged(int bitRate);
+    }
+
+    private final int mTargetBitRate;
+    private final int mMinBitRate;
+    private final int mMaxBitRate;
+    private final long mWindowUs;
+    private volatile Listener mListener;
+
+    private int mBitRate;
+    private long mWindowStartUs;
+    private long mWindowBytes;
+    private boolean mSettling;
+    private int mMeasuredBitRate;
+    private long mWindows;
+    private long mIncreases;
+    private long mDecreases;
+
+    /**
+     * @param targetBitRate bits per second the encoded stream should take, the bitrate to
+     *                      configure the encoder with
+     * @param minBitRate lowest bitrate to ask the encoder for
+     * @param maxBitRate highest bitrate to ask the encoder for
+     * @param windowUs presentation time measured before each decision, a second or a few
+     */
+    public BitrateController(int targetBitRate, int minBitRate, int maxBitRate, long windowUs) {
+        if (minBitRate <= 0 || minBitRate > targetBitRate || targetBitRate > maxBitRate) {
+            throw new IllegalArgumentException("invalid bitrates: " + minBitRate + " <= "
+                    + targetBitRate + " <= " + maxBitRate);
+        }
+        if (windowUs <= 0) {
+            throw new IllegalArgumentException("invalid window: " + windowUs);
+        }
+        mTargetBitRate = targetBitRate;
+        mMinBitRate = minBitRate;
+        mMaxBitRate = maxBitRate;
+        mWindowUs = windowUs;
+        reset();
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Goes back to the target bitrate and forgets every measure, for a new stream.
+     */
+    public synchronized void reset() {
+        mBitRate = mTargetBitRate;
+        mWindowStartUs = NONE;
+        mWindowBytes = 0;
+        mSettling = false;
+        mMeasuredBitRate = 0;
+        mWindows = 0;
+        mIncreases = 0;
+        mDecreases = 0;
+    }
+
+    @Override
+    public void onSample(EncodedSample sample) {
+        if (!sample.isCodecConfig()) {
+            onEncoded(sample.getPresentationTimeUs(), sample.getSize());
+        }
+    }
+
+    /**
+     * Records that the encoder produced {@code size} bytes for the frame presented at
+     * {@code ptsUs}, and calls the listener if that ended a window and changed the bitrate.
+     */
+    public void onEncoded(long ptsUs, int size) {
+        final int bitRate = account(ptsUs, size);
+        final Listener listener = mListener;
+        if (bitRate != 0 && listener != null) {
+            listener.onBitrateChanged(bitRate);
+        }
+    }
+
+    /**
+     * Returns the bitrate the encoder is asked for, in bits per second.
+     */
+    public synchronized int getBitRate() {
+        return mBitRate;
+    }
+
+    public int getTargetBitRate() {
+        return mTargetBitRate;
+    }
+
+    /**
+     * Returns the bitrate the encoder produced over the last window, 0 before the first one
+     * ended.
+     */
+    public synchronized int getMeasuredBitRate() {
+        return mMeasuredBitRate;
+    }
+
+    /**
+     * Returns the number of windows measured.
+     */
+    public synchronized long getWindowCount() {
+        return mWindows;
+    }
+
+    /**
+     * Returns the number of times the bitrate changed, up or down.
+     */
+    public synchronized long getAdjustmentCount() {
+        return mIncreases + mDecreases;
+    }
+
+    public synchronized long getIncreaseCount() {
+        return mIncreases;
+    }
+
+    public synchronized long getDecreaseCount() {
+        return mDecreases;
+    }
+
+    /**
+     * Returns "target, requested and measured kb/s, adjustments over windows", to be logged.
+     */
+    public synchronized String describe() {
+        return "target " + mTargetBitRate / 1000 + " kb/s, requested " + mBitRate / 1000
+                + " kb/s, measured " + mMeasuredBitRate / 1000 + " kb/s, " + mIncreases
+                + " increases and " + mDecreases + " decreases over " + mWindows + " windows";
+    }
+
+    /**
+     * Adds a sample to the window, and returns the new bitrate if the sample ended the window
+     * and the bitrate changed, 0 otherwise.
+     */
+    private synchronized int account(long ptsUs, int size) {
+        if (size <= 0) {
+            return 0;
+        }
+        if (mWindowStartUs == NONE) {
+            mWindowStartUs = ptsUs;
+        }
+        // the window runs up to this sample, which starts the next one; B-frames may come out
+        // before an earlier presentation time, they just count in the current window
+        final long elapsedUs = ptsUs - mWindowStartUs;
+        if (elapsedUs < mWindowUs) {
+            mWindowBytes += size;
+            return 0;
+        }
+        final long measured = mWindowBytes * 8 * 1000000L / elapsedUs;
+        mMeasuredBitRate = (int) Math.min(Integer.MAX_VALUE, measured);
+        mWindows++;
+        mWindowStartUs = ptsUs;
+        mWindowBytes = size;
+
+        if (mSettling) {
+            // measured partly or wholly at the former bitrate
+            mSettling = false;
+            return 0;
+        }
+        final long toleranceBitRate = (long) mTargetBitRate * TOLERANCE_PERCENT / 100;
+        if (Math.abs(measured - mTargetBitRate) <= toleranceBitRate) {
+            return 0;
+        }
+        // the bitrate that would have hit the target, if the output follows what is asked for
+        long ideal = measured == 0 ? mMaxBitRate : (long) mBitRate * mTargetBitRate / measured;
+        ideal = Math.max(mBitRate / MAX_STEP_FACTOR,
+                Math.min((long) mBitRate * MAX_STEP_FACTOR, ideal));
+        final long next = Math.max(mMinBitRate,
+                Math.min(mMaxBitRate, mBitRate + (ideal - mBitRate) / 2));
+        if (next == mBitRate) {
+            // held on a bound
+            return 0;
+        }
+        if (next > mBitRate) {
+            mIncreases++;
+        } else {
+            mDecreases++;
+        }
+        mBitRate = (int) next;
+        mSettling = true;
+        return mBitRate;
+    }
+}
@@ -0,0 +1,17 @@
+package com.quan404.mediautils;
+
+/**
+ * How the chroma of each 2x2 block of pixels is computed when downsampling to 4:2:0.
+ */
+public enum ChromaFilter {
+    /**
+     * Chroma of the top-left pixel of the block.  Fast, but fine detail aliases into chroma
+     * noise that costs encoder bits.
+     */
+    POINT,
+    /**
+     * Average of the four pixels of the block.  Smoother chroma, about one more pass over the
+     * source per row pair.
+     */
+    BOX
+}
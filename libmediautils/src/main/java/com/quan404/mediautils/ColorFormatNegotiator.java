@@ -0,0 +1,212 @@
+package com.quan404.mediautils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Picks the encoder input color format that is cheapest to produce from the frames at hand.
+ * <p/>
+ * Encoders list their color formats in their own order of preference, which says nothing of
+ * what it costs us to fill them: from RGBX any YUV layout is a color conversion, from NV21 a
+ * semi planar encoder only needs the chroma pairs swapped while a planar one needs them
+ * de-interleaved.  Each supported format gets the estimated cost of converting one 1280x720
+ * frame into it, in microseconds, taken from the converter throughput tests on a desktop JVM.
+ * Only the order matters; the encoder's own order breaks ties.
+ * <p/>
+ * COLOR_FormatYUV420Flexible is filled through MediaCodec.getInputImage() and
+ * {@link YuvPlaneWriter}: the frame is converted into a packed scratch frame of the layout the
+ * image planes turn out to have, then copied plane row by plane row.  Its cost is that of the
+ * slower of the two layouts plus a frame copy.
+ */
+public class ColorFormatNegotiator {
+
+    // same values as MediaCodecInfo.CodecCapabilities, this module does not depend on Android
+    public static final int COLOR_FormatYUV420Planar = 19;
+    public static final int COLOR_FormatYUV420PackedPlanar = 20;
+    public static final int COLOR_FormatYUV420SemiPlanar = 21;
+    public static final int COLOR_FormatYUV420PackedSemiPlanar = 39;
+    public static final int COLOR_TI_FormatYUV420PackedSemiPlanar = 0x7f000100;
+    public static final int COLOR_FormatYUV420Flexible = 0x7f420888;
+
+    // one 1280x720 frame copied between direct buffers
+    private static final int COPY_COST = 150;
+
+    /**
+     * Frames handed to the encoding loop.
+     */
+    public enum Source {
+        /** UVCCamera.PIXEL_FORMAT_RGBX frames, or ARGB bitmaps */
+        RGBX(4800, 4800),
+        /** UVCCamera.PIXEL_FORMAT_RGB565 frames, the same color conversion as RGBX */
+        RGB565(4800, 4800),
+        /** UVCCamera.PIXEL_FORMAT_YUV frames */
+        YUYV(1100, 1100),
+        /** Camera preview frames */
+        NV21(300, 800);
+
+        private final int mSemiPlanarCost;
+        private final int mPlanarCost;
+
+        Source(int semiPlanarCost, int planarCost) {
+            mSemiPlanarCost = semiPlanarCost;
+            mPlanarCost = planarCost;
+        }
+    }
+
+    /**
+     * A supported color format and what it costs to fill.
+     */
+    public static class Choice {
+        private final int mColorFormat;
+        private final Yuv420Format mLayout;
+        private final int mCost;
+        private final int mRank;        // position in the encoder's list
+
+        Choice(int colorFormat, Yuv420Format layout, int cost, int rank) {
+            mColorFormat = colorFormat;
+            mLayout = layout;
+            mCost = cost;
+            mRank = rank;
+        }
+
+        /**
+         * Returns the value for MediaFormat.KEY_COLOR_FORMAT.
+         */
+        public int getColorFormat() {
+            return mColorFormat;
+        }
+
+        /**
+         * Returns the layout of the input buffers, or null for COLOR_FormatYUV420Flexible,
+         * whose layout is only known from the input images.
+         */
+        public Yuv420Format getLayout() {
+            return mLayout;
+        }
+
+        public boolean isFlexible() {
+            return mLayout == null;
+        }
+
+        /**
+         * Returns the estimated conversion cost, in microseconds per 1280x720 frame.
+         */
+        public int getCost() {
+            return mCost;
+        }
+
+        @Override
+        public String toString() {
+            return getColorFormatName(mColorFormat) + " (" + (isFlexible() ? "input image"
+                    : mLayout.toString()) + ", cost " + mCost + ")";
+        }
+    }
+
+    private final boolean mFlexibleSupported;
+
+    /**
+     * @param flexibleSupported whether COLOR_FormatYUV420Flexible may be chosen, i.e.
+     *                          MediaCodec.getInputImage() is available (API 21)
+     */
+    public ColorFormatNegotiator(boolean flexibleSupported) {
+        mFlexibleSupported = flexibleSupported;
+    }
+
+    /**
+     * Returns the supported formats of {@code colorFormats} (as listed by the encoder's
+     * CodecCapabilities), cheapest first.  The list is empty when none is supported.
+     */
+    public List<Choice> rank(Source source, int[] colorFormats) {
+        List<Choice> choices = new ArrayList<Choice>();
+        for (int i = 0; i < colorFormats.length; i++) {
+            Choice choice = evaluate(source, colorFormats[i], i);
+            if (choice != null) {
+                choices.add(choice);
+            }
+        }
+        Collections.sort(choices, new Comparator<Choice>() {
+            @Override
+            public int compare(Choice a, Choice b) {
+                if (a.mCost != b.mCost) {
+                    return a.mCost < b.mCost ? -1 : 1;
+                }
+                return a.mRank - b.mRank;
+            }
+        });
+        return choices;
+    }
+
+    /**
+     * Returns the cheapest supported format of {@code colorFormats}, or null.
+     */
+    public Choice negotiate(Source source, int[] colorFormats) {
+        List<Choice> choices = rank(source, colorFormats);
+        return choices.isEmpty() ? null : choices.get(0);
+    }
+
+    /**
+     * Explains the ranking, one line per format listed by the encoder, for the log: the
+     * chosen one, the others in order of cost, then the unsupported ones.
+     */
+    public List<String> describe(Source source, int[] colorFormats) {
+        List<String> lines = new ArrayList<String>();
+        List<Choice> choices = rank(source, colorFormats);
+        for (int i = 0; i < choices.size(); i++) {
+            lines.add((i == 0 ? "chosen: " : "candidate: ") + choices.get(i));
+        }
+        for (int i = 0; i < colorFormats.length; i++) {
+            if (evaluate(source, colorFormats[i], i) == null) {
+                lines.add("unsupported: " + getColorFormatName(colorFormats[i])
+                        + (colorFormats[i] == COLOR_FormatYUV420Flexible
+                        ? " (needs getInputImage)" : ""));
+            }
+        }
+        lines.add("from " + source + " frames, " + choices.size() + " of "
+                + colorFormats.length + " formats supported");
+        return lines;
+    }
+
+    /**
+     * Returns the MediaCodecInfo.CodecCapabilities name of {@code colorFormat}, or its value.
+     */
+    public static String getColorFormatName(int colorFormat) {
+        switch (colorFormat) {
+            case COLOR_FormatYUV420Planar:
+                return "COLOR_FormatYUV420Planar";
+            case COLOR_FormatYUV420PackedPlanar:
+                return "COLOR_FormatYUV420PackedPlanar";
+            case COLOR_FormatYUV420SemiPlanar:
+                return "COLOR_FormatYUV420SemiPlanar";
+            case COLOR_FormatYUV420PackedSemiPlanar:
+                return "COLOR_FormatYUV420PackedSemiPlanar";
+            case COLOR_TI_FormatYUV420PackedSemiPlanar:
+                return "COLOR_TI_FormatYUV420PackedSemiPlanar";
+            case COLOR_FormatYUV420Flexible:
+                return "COLOR_FormatYUV420Flexible";
+            default:
+                return "0x" + Integer.toHexString(colorFormat);
+        }
+    }
+
+    private Choice evaluate(Source source, int colorFormat, int rank) {
+        switch (colorFormat) {
+            case COLOR_FormatYUV420Planar:
+            case COLOR_FormatYUV420PackedPlanar:
+                return new Choice(colorFormat, Yuv420Format.I420, source.mPlanarCost, rank);
+            case COLOR_FormatYUV420SemiPlanar:
+            case COLOR_FormatYUV420PackedSemiPlanar:
+            case COLOR_TI_FormatYUV420PackedSemiPlanar:
+                return new Choice(colorFormat, Yuv420Format.NV12, source.mSemiPlanarCost, rank);
+            case COLOR_FormatYUV420Flexible:
+                if (!mFlexibleSupported) {
+                    return null;
+                }
+                return new Choice(colorFormat, null,
+                        Math.max(source.mPlanarCost, source.mSemiPlanarCost) + COPY_COST, rank);
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.quan404.mediautils;
+
+/**
+ * RGB to YUV color matrix, in 8.8 fixed point.
+ * <p/>
+ * Each output component is three multiplies by the coefficients, plus a bias holding the
+ * rounding constant and the output offset, a shift and a branch-free clamp.  The clamp is
+ * skipped for Y when the coefficients cannot overflow, which is the case for the standard
+ * matrices; the converters then compute Y with two multiplies, red and blue being 16 bits apart
+ * in the pixel and weighted together by their two coefficients packed the same way.  Lookup
+ * tables per input channel were tried instead of the multiplies, they were slower on HotSpot.
+ * <p/>
+ * Coefficients are rounded to 1/256 like the well known integer formula.  BT.601 limited range
+ * gives the exact same results as the previous encodeYUV420SP implementation.
+ */
+public final class ColorMatrix {
+
+    /**
+     * Standard definition, what most of the existing code and players assume for SD content.
+     */
+    public static final ColorMatrix BT601_LIMITED = create(0.299, 0.114, false);
+    public static final ColorMatrix BT601_FULL = create(0.299, 0.114, true);
+    /**
+     * High definition, what players assume for 720p and above.
+     */
+    public static final ColorMatrix BT709_LIMITED = create(0.2126, 0.0722, false);
+    public static final ColorMatrix BT709_FULL = create(0.2126, 0.0722, true);
+
+    static final int SHIFT = 8;
+    private static final int ONE = 1 << SHIFT;
+
+    /**
+     * Rounding constant and offset of U and V, added before the shift.
+     */
+    static final int C_BIAS = (128 << SHIFT) + ONE / 2;
+
+    final int mYR, mYG, mYB;
+    final int mUR, mUG, mUB;
+    final int mVR, mVG, mVB;
+    // rounding constant and offset of Y, added before the shift
+    final int mYBias;
+    // mYB << 16 | mYR: (p & 0xff00ff) * mYRB >>> 16 is mYR * R + mYB * B for an ARGB pixel p,
+    // if neither is negative and their sum for white fits in 16 bits, which !mClampY ensures
+    final int mYRB;
+
+    // false when no RGB input can take Y out of [0, 255], which spares the clamp of every pixel,
+    // and the red and blue coefficients are not negative, which allows mYRB
+    final boolean mClampY;
+
+    private final boolean mFullRange;
+
+    private ColorMatrix(int[] y, int[] u, int[] v, int yOffset, boolean fullRange) {
+        mFullRange = fullRange;
+        mYR = y[0];
+        mYG = y[1];
+        mYB = y[2];
+        mUR = u[0];
+        mUG = u[1];
+        mUB = u[2];
+        mVR = v[0];
+        mVG = v[1];
+        mVB = v[2];
+        mYBias = (yOffset << SHIFT) + ONE / 2;
+        mYRB = (mYB << 16) | mYR;
+        mClampY = !inRange(y, mYBias) || y[0] < 0 || y[2] < 0;
+    }
+
+    /**
+     * Creates the matrix of a standard defined by its red and blue luma weights.  Full range
+     * maps RGB to [0, 255] on every component, limited range to the nominal [16, 235] for Y and
+     * [16, 240] for U and V (give or take one because of the rounded coefficients).
+     */
+    public static ColorMatrix create(double kr, double kb, boolean fullRange) {
+        final double kg = 1 - kr - kb;
+        final double yScale = fullRange ? 1 : 219.0 / 255;
+        final double cScale = fullRange ? 1 : 224.0 / 255;
+
+        final double[] y = { yScale * kr, yScale * kg, yScale * kb };
+        final double uScale = cScale * 0.5 / (1 - kb);
+        final double[] u = { -uScale * kr, -uScale * kg, uScale * (1 - kb) };
+        final double vScale = cScale * 0.5 / (1 - kr);
+        final double[] v = { vScale * (1 - kr), -vScale * kg, -vScale * kb };
+
+        return new ColorMatrix(round(y), round(u), round(v), fullRange ? 0 : 16, fullRange);
+    }
+
+    /**
+     * Rounds a row of coefficients to 1/256 so that the row still sums to its rounded total:
+     * white gives the top of the Y range and grays give U = V = 128 exactly.  Each coefficient
+     * is rounded down, then the missing units go to the largest remainders.
+     */
+    private static int[] round(double[] row) {
+        final int[] result = new int[row.length];
+        final double[] remainder = new double[row.length];
+        double exactTotal = 0;
+        int total = 0;
+        for (int i = 0; i < row.length; i++) {
+            final double scaled = row[i] * ONE;
+            result[i] = (int) Math.floor(scaled);
+            remainder[i] = scaled - result[i];
+            exactTotal += scaled;
+            total += result[i];
+        }
+        for (int missing = (int) Math.round(exactTotal) - total; missing > 0; missing--) {
+            int largest = 0;
+            for (int i = 1; i < row.length; i++) {
+                if (remainder[i] > remainder[largest]) {
+                    largest = i;
+                }
+            }
+            result[largest]++;
+            remainder[largest] = -1;
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if {@code bias + row . rgb} stays within [0, 255] after the shift for any
+     * RGB input.
+     */
+    private static boolean inRange(int[] row, int bias) {
+        int min = bias, max = bias;
+        for (int coefficient : row) {
+            if (coefficient < 0) {
+                min += 255 * coefficient;
+            } else {
+                max += 255 * coefficient;
+            }
+        }
+        return (min >> SHIFT) >= 0 && (max >> SHIFT) <= 255;
+    }
+
+    public boolean isFullRange() {
+        return mFullRange;
+    }
+
+    public int y(int r, int g, int b) {
+        return clamp((mYR * r + mYG * g + mYB * b + mYBias) >> SHIFT);
+    }
+
+    public int u(int r, int g, int b) {
+        return clamp((mUR * r + mUG * g + mUB * b + C_BIAS) >> SHIFT);
+    }
+
+    public int v(int r, int g, int b) {
+        return clamp((mVR * r + mVG * g + mVB * b + C_BIAS) >> SHIFT);
+    }
+
+    /**
+     * Clamps {@code x} to [0, 255] without branches.
+     */
+    static int clamp(int x) {
+        x &= ~(x >> 31);            // negative -> 0
+        x |= (255 - x) >> 31;       // above 255 -> all ones
+        return x & 0xff;
+    }
+}
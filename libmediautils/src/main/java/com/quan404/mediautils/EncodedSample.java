@@ -0,0 +1,146 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An encoded sample handed to {@link SampleSink}s: either an encoder output buffer, shared by
+ * every sink without a copy, or a copy from a {@link SamplePool}.
+ * <p/>
+ * The sample is reference counted.  A sink that is done with it when
+ * {@link SampleSink#onSample} returns does nothing; one that still needs the data afterwards
+ * either {@link #retain()}s it, keeping the encoder output buffer from the encoder until it
+ * {@link #release()}s it, or copies it with {@link SamplePool#copy} to keep it for longer.
+ * When the last reference is released, the output buffer goes back to the encoder, or the
+ * copy to its pool.
+ * <p/>
+ * The references and the fields are thread-safe, the data is not: every sink reads the same
+ * buffer, and {@link #getData()} moves its position and limit.  Read it on the encoder output
+ * thread, during {@link SampleSink#onSample}; a sink reading the bytes later on another thread
+ * takes a {@link ByteBuffer#duplicate() duplicate} of {@link #getData()} there, or a copy.
+ */
+public final class EncodedSample {
+
+    // same values as MediaCodec.BUFFER_FLAG_*, this module does not depend on Android
+    public static final int FLAG_KEY_FRAME = 1;
+    public static final int FLAG_CODEC_CONFIG = 2;
+    public static final int FLAG_END_OF_STREAM = 4;
+
+    /**
+     * Takes a sample back once every reference is released.
+     */
+    interface Recycler {
+        void recycle(EncodedSample sample);
+    }
+
+    private final Recycler mRecycler;
+    private ByteBuffer mData;
+    private int mIndex;
+    private int mOffset;
+    private int mSize;
+    private long mPresentationTimeUs;
+    private int mFlags;
+    private int mRefs;
+
+    EncodedSample(Recycler recycler) {
+        mRecycler = recycler;
+    }
+
+    /**
+     * Points the sample at {@code size} bytes of {@code data} from {@code offset}, with one
+     * reference.
+     */
+    synchronized void set(int index, ByteBuffer data, int offset, int size,
+            long presentationTimeUs, int flags) {
+        mIndex = index;
+        mData = data;
+        mOffset = offset;
+        mSize = size;
+        mPresentationTimeUs = presentationTimeUs;
+        mFlags = flags;
+        mRefs = 1;
+    }
+
+    /**
+     * Returns the encoder output buffer index, or -1 for a copy.
+     */
+    int getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Returns true while more than one reference is held.
+     */
+    synchronized boolean isShared() {
+        return mRefs > 1;
+    }
+
+    /**
+     * Returns the buffer holding the sample, positioned at its first byte and limited to its
+     * last one.  Each call resets the position, a sink may consume the bytes.  The buffer is
+     * shared by every sink, so only call it on the encoder output thread, during
+     * {@link SampleSink#onSample}.  Only valid until the reference of the caller is released.
+     */
+    public synchronized ByteBuffer getData() {
+        if (mRefs == 0) {
+            throw new IllegalStateException("sample released");
+        }
+        mData.limit(mOffset + mSize).position(mOffset);
+        return mData;
+    }
+
+    public synchronized int getSize() {
+        return mSize;
+    }
+
+    public synchronized long getPresentationTimeUs() {
+        return mPresentationTimeUs;
+    }
+
+    public synchronized int getFlags() {
+        return mFlags;
+    }
+
+    public boolean isKeyFrame() {
+        return (getFlags() & FLAG_KEY_FRAME) != 0;
+    }
+
+    public boolean isCodecConfig() {
+        return (getFlags() & FLAG_CODEC_CONFIG) != 0;
+    }
+
+    public boolean isEndOfStream() {
+        return (getFlags() & FLAG_END_OF_STREAM) != 0;
+    }
+
+    /**
+     * Returns true for a copy from a {@link SamplePool}, which does not hold an encoder buffer.
+     */
+    public synchronized boolean isCopy() {
+        return mIndex < 0;
+    }
+
+    /**
+     * Keeps the sample valid until a matching {@link #release()}.
+     */
+    public synchronized void retain() {
+        if (mRefs == 0) {
+            throw new IllegalStateException("sample released");
+        }
+        mRefs++;
+    }
+
+    /**
+     * Drops a reference; the last one gives the buffer back.
+     */
+    public void release() {
+        synchronized (this) {
+            if (mRefs == 0) {
+                throw new IllegalStateException("sample released twice");
+            }
+            if (--mRefs > 0) {
+                return;
+            }
+        }
+        mRecycler.recycle(this);
+    }
+}
@@ -0,0 +1,153 @@
+package com.quan404.mediautils;
+
+/**
+ * Measures how long each frame spends in an encoder, from the time it is queued to the time
+ * its encoded sample comes out.
+ * <p/>
+ * Frames are matched by presentation time, so samples may come out in another order than the
+ * frames went in (B-frames).  At most {@code capacity} frames are followed at once: when one
+ * more is queued, the oldest one is given up and counted as {@link #getUnmatchedCount()
+ * unmatched}, as are samples whose frame was never queued (codec config).  Latencies go into
+ * a histogram of 1 ms buckets up to {@link #MAX_MS}.  Nothing is allocated after construction.
+ * Thread-safe.
+ */
+public class FrameLatencyMeter {
+
+    /**
+     * Latencies from this many milliseconds up all count in the last bucket of the histogram.
+     */
+    public static final int MAX_MS = 1000;
+
+    private static final long NONE = -1;
+
+    // frames queued and not encoded yet; a slot is free when its time is NONE
+    private final long[] mPendingPts;
+    private final long[] mPendingTimes;
+
+    private final long[] mHistogram = new long[MAX_MS + 1];
+    private long mFrames;
+    private long mTotalNs;
+    private long mMaxNs;
+    private long mUnmatched;
+
+    /**
+     * @param capacity number of frames followed at once, at least what the encoder holds
+     */
+    public FrameLatencyMeter(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+        }
+        mPendingPts = new long[capacity];
+        mPendingTimes = new long[capacity];
+        reset();
+    }
+
+    /**
+     * Forgets every measure and every frame being followed.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < mPendingTimes.length; i++) {
+            mPendingTimes[i] = NONE;
+        }
+        for (int i = 0; i < mHistogram.length; i++) {
+            mHistogram[i] = 0;
+        }
+        mFrames = 0;
+        mTotalNs = 0;
+        mMaxNs = 0;
+        mUnmatched = 0;
+    }
+
+    /**
+     * Records that the frame presented at {@code ptsUs} was queued to the encoder at
+     * {@code timeNs}, from System.nanoTime().
+     */
+    public synchronized void onQueued(long ptsUs, long timeNs) {
+        int slot = -1;
+        for (int i = 0; i < mPendingTimes.length; i++) {
+            if (mPendingTimes[i] == NONE) {
+                slot = i;
+                break;
+            }
+            if (slot < 0 || mPendingTimes[i] < mPendingTimes[slot]) {
+                slot = i;
+            }
+        }
+        if (mPendingTimes[slot] != NONE) {
+            // every slot is taken, give up the oldest frame
+            mUnmatched++;
+        }
+        mPendingPts[slot] = ptsUs;
+        mPendingTimes[slot] = timeNs;
+    }
+
+    /**
+     * Records that the sample presented at {@code ptsUs} came out of the encoder at
+     * {@code timeNs}.  Returns false, counting it as unmatched, if no queued frame has this
+     * presentation time.
+     */
+    public synchronized boolean onEncoded(long ptsUs, long timeNs) {
+        for (int i = 0; i < mPendingTimes.length; i++) {
+            if (mPendingTimes[i] != NONE && mPendingPts[i] == ptsUs) {
+                final long latencyNs = Math.max(0, timeNs - mPendingTimes[i]);
+                mPendingTimes[i] = NONE;
+                mFrames++;
+                mTotalNs += latencyNs;
+                mMaxNs = Math.max(mMaxNs, latencyNs);
+                mHistogram[(int) Math.min(MAX_MS, latencyNs / 1000000L)]++;
+                return true;
+            }
+        }
+        mUnmatched++;
+        return false;
+    }
+
+    /**
+     * Returns the number of frames measured.
+     */
+    public synchronized long getFrameCount() {
+        return mFrames;
+    }
+
+    /**
+     * Returns the number of frames given up and of samples with no queued frame.
+     */
+    public synchronized long getUnmatchedCount() {
+        return mUnmatched;
+    }
+
+    /**
+     * Returns the average latency in milliseconds, 0 before the first frame.
+     */
+    public synchronized double getAverageMs() {
+        return mFrames == 0 ? 0 : mTotalNs / 1000000.0 / mFrames;
+    }
+
+    /**
+     * Returns the highest latency in milliseconds.
+     */
+    public synchronized double getMaxMs() {
+        return mMaxNs / 1000000.0;
+    }
+
+    /**
+     * Returns the latency that {@code percent} percent of the frames did not exceed, rounded up
+     * to the millisecond, or 0 before the first frame.  Latencies of {@link #MAX_MS} and more
+     * all read as MAX_MS.
+     */
+    public synchronized int getPercentileMs(int percent) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("invalid percentile: " + percent);
+        }
+        // the rank of the frame, 1 based, whose latency is asked for
+        final long rank = Math.max(1, (mFrames * percent + 99) / 100);
+        long frames = 0;
+        for (int ms = 0; ms < mHistogram.length; ms++) {
+            frames += mHistogram[ms];
+            if (frames >= rank) {
+                return Math.min(MAX_MS, ms + 1);
+            }
+        }
+        return 0;
+    }
+}
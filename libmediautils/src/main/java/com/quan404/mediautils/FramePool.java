@@ -0,0 +1,192 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed set of frame buffers handed from a capture thread to an encoding thread.
+ * <p/>
+ * Every buffer is allocated up front, as a heap or a direct buffer, and goes round the same
+ * cycle: the capture thread {@link #acquire()}s a free one, fills it and {@link #submit}s it;
+ * the encoding thread {@link #take}s the oldest submitted one, copies it into the encoder and
+ * {@link #release}s it.  acquire() never blocks the camera: when every buffer is queued or
+ * being encoded it returns null, the frame is dropped and {@link #getExhaustedCount()} counts
+ * it.  Nothing is allocated after construction.  Thread-safe.
+ */
+public class FramePool {
+
+    private static final int FREE = 0;
+    private static final int ACQUIRED = 1;     // being filled
+    private static final int QUEUED = 2;       // submitted, not taken yet
+    private static final int TAKEN = 3;        // being encoded
+
+    private final int mFrameSize;
+    private final ByteBuffer[] mBuffers;
+    private final int[] mStates;
+    // submitted buffers, oldest first, as a ring of indices into mBuffers
+    private final int[] mQueue;
+    private int mQueueHead;
+    private int mQueueSize;
+
+    private int mInUse;
+    private int mPeakInUse;
+    private long mAcquired;
+    private long mExhausted;
+
+    /**
+     * @param capacity number of buffers, at least 1; 2 lets the camera fill one while the
+     *                 other is encoded, more absorbs encoder stalls
+     * @param direct   allocate direct buffers, for a plain memory copy into MediaCodec input
+     *                 buffers; heap buffers are backed by an accessible array
+     */
+    public FramePool(int frameSize, int capacity, boolean direct) {
+        if (frameSize <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("invalid pool: " + capacity + " frames of "
+                    + frameSize + " bytes");
+        }
+        mFrameSize = frameSize;
+        mBuffers = new ByteBuffer[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mBuffers[i] = direct ? ByteBuffer.allocateDirect(frameSize)
+                    : ByteBuffer.allocate(frameSize);
+        }
+        mStates = new int[capacity];
+        mQueue = new int[capacity];
+    }
+
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    public int getCapacity() {
+        return mBuffers.length;
+    }
+
+    /**
+     * Returns a free buffer, cleared, or null if there is none.
+     */
+    public synchronized ByteBuffer acquire() {
+        for (int i = 0; i < mBuffers.length; i++) {
+            if (mStates[i] == FREE) {
+                mStates[i] = ACQUIRED;
+                mAcquired++;
+                mInUse++;
+                mPeakInUse = Math.max(mPeakInUse, mInUse);
+                mBuffers[i].clear();
+                return mBuffers[i];
+            }
+        }
+        mExhausted++;
+        return null;
+    }
+
+    /**
+     * Queues an acquired buffer, filled, for {@link #take}.
+     */
+    public synchronized void submit(ByteBuffer buffer) {
+        final int index = indexOf(buffer, ACQUIRED);
+        mStates[index] = QUEUED;
+        mQueue[(mQueueHead + mQueueSize) % mQueue.length] = index;
+        mQueueSize++;
+        notifyAll();
+    }
+
+    /**
+     * Returns the oldest submitted buffer, flipped for reading, waiting at most
+     * {@code timeoutMs} milliseconds for one.  Returns null on timeout.
+     */
+    public synchronized ByteBuffer take(long timeoutMs) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeoutMs * 1000000L;
+        long remainingMs = timeoutMs;
+        while (mQueueSize == 0) {
+            if (remainingMs <= 0) {
+                return null;
+            }
+            wait(remainingMs);
+            remainingMs = (deadline - System.nanoTime()) / 1000000L;
+        }
+        final int index = mQueue[mQueueHead];
+        mQueueHead = (mQueueHead + 1) % mQueue.length;
+        mQueueSize--;
+        mStates[index] = TAKEN;
+        mBuffers[index].flip();
+        return mBuffers[index];
+    }
+
+    /**
+     * Gives back a buffer returned by {@link #acquire()} or {@link #take}.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        final int index = indexOf(buffer, -1);
+        if (mStates[index] == FREE || mStates[index] == QUEUED) {
+            throw new IllegalStateException("buffer " + index + " is not in use");
+        }
+        mStates[index] = FREE;
+        mInUse--;
+    }
+
+    /**
+     * Releases every submitted buffer that was not taken, e.g. once the encoder is done.
+     * Returns how many there were.
+     */
+    public synchronized int drain() {
+        final int drained = mQueueSize;
+        for (; mQueueSize > 0; mQueueSize--) {
+            mStates[mQueue[mQueueHead]] = FREE;
+            mQueueHead = (mQueueHead + 1) % mQueue.length;
+            mInUse--;
+        }
+        return drained;
+    }
+
+    /**
+     * Returns the number of submitted buffers waiting to be taken.
+     */
+    public synchronized int getQueuedCount() {
+        return mQueueSize;
+    }
+
+    /**
+     * Returns the number of buffers that are not free.
+     */
+    public synchronized int getInUseCount() {
+        return mInUse;
+    }
+
+    /**
+     * Returns the highest number of buffers ever in use at once.
+     */
+    public synchronized int getPeakInUseCount() {
+        return mPeakInUse;
+    }
+
+    /**
+     * Returns the number of successful {@link #acquire()} calls.
+     */
+    public synchronized long getAcquiredCount() {
+        return mAcquired;
+    }
+
+    /**
+     * Returns the number of {@link #acquire()} calls that found no free buffer.
+     */
+    public synchronized long getExhaustedCount() {
+        return mExhausted;
+    }
+
+    /**
+     * Returns the index of {@code buffer}, checking that it is in {@code state} unless that is
+     * negative.
+     */
+    private int indexOf(ByteBuffer buffer, int state) {
+        for (int i = 0; i < mBuffers.length; i++) {
+            if (mBuffers[i] == buffer) {
+                if (state >= 0 && mStates[i] != state) {
+                    throw new IllegalStateException("buffer " + i + " in state " + mStates[i]
+                            + ", expected " + state);
+                }
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("buffer not from this pool");
+    }
+}
@@ -0,0 +1,258 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Converts RGBX or RGB565 frames of a mostly static scene by reconverting only what changed
+ * since the previous frame.
+ * <p/>
+ * The frame is split in tiles of {@link #TILE_SIZE} x {@link #TILE_SIZE} pixels.  The source is
+ * compared in place, eight bytes at a time, with a copy of the previous source frame, and the
+ * tiles with a difference are reconverted by the {@link RgbToYuvConverter} into a YUV frame
+ * kept by this converter from one frame to the next; unchanged tiles keep their previous
+ * result.  Tiles start at even coordinates, so each 2x2 chroma block lies in a single tile and
+ * the result is exactly that of a full conversion.  The YUV frame is then copied to the
+ * caller's buffer.
+ * <p/>
+ * When more than {@link #getFallbackRatio()} of the tiles changed, the frame is converted as a
+ * whole instead, with the converter's executor if it has one.  The first frame always is.
+ * <p/>
+ * Everything is allocated up front: a copy of a source frame and a YUV frame.  Not
+ * thread-safe.
+ */
+public class IncrementalYuvConverter {
+
+    /**
+     * Width and height of a tile, in pixels: a macroblock.
+     */
+    public static final int TILE_SIZE = 16;
+
+    private final RgbToYuvConverter mConverter;
+    private final boolean mRgb565;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mBytesPerPixel;
+    private final int mTileColumns;
+    private final int mTileRows;
+    private float mFallbackRatio = 0.5f;
+
+    // previous source frame, and a view of it in the byte order of the source
+    private final byte[] mPrevious;
+    private final ByteBuffer mPreviousView;
+    private final boolean[] mChanged;
+    // YUV frame kept between frames, up to date with mPrevious once a frame is converted
+    private final ByteBuffer mFrame;
+    private boolean mValid;
+
+    private int mChangedTiles;
+    private long mFrames;
+    private long mFullConversions;
+    private long mTotalChangedTiles;
+
+    /**
+     * @param converter   converts the tiles, at the size and in the layout of the frames
+     *                    produced; its color matrix, chroma filter and monochrome mode apply
+     * @param inputFormat {@link InputFormat#RGBX} or {@link InputFormat#RGB565}
+     */
+    public IncrementalYuvConverter(RgbToYuvConverter converter, InputFormat inputFormat) {
+        if (inputFormat == InputFormat.YUYV) {
+            throw new IllegalArgumentException("YUYV frames are not converted incrementally");
+        }
+        mConverter = converter;
+        mRgb565 = inputFormat == InputFormat.RGB565;
+        mWidth = converter.getWidth();
+        mHeight = converter.getHeight();
+        mBytesPerPixel = inputFormat.getBytesPerPixel();
+        mTileColumns = (mWidth + TILE_SIZE - 1) / TILE_SIZE;
+        mTileRows = (mHeight + TILE_SIZE - 1) / TILE_SIZE;
+
+        mPrevious = new byte[getInputSize()];
+        mPreviousView = ByteBuffer.wrap(mPrevious);
+        mChanged = new boolean[mTileColumns * mTileRows];
+        mFrame = ByteBuffer.allocateDirect(converter.getFrameSize());
+    }
+
+    public RgbToYuvConverter getConverter() {
+        return mConverter;
+    }
+
+    /**
+     * Returns the number of bytes read from the source for each frame.
+     */
+    public int getInputSize() {
+        return mBytesPerPixel * mWidth * mHeight;
+    }
+
+    /**
+     * Returns the number of bytes written by each conversion.
+     */
+    public int getFrameSize() {
+        return mConverter.getFrameSize();
+    }
+
+    public float getFallbackRatio() {
+        return mFallbackRatio;
+    }
+
+    /**
+     * Sets the fraction of changed tiles above which a frame is converted as a whole, 0.5 by
+     * default.  Tile by tile conversion reads the source twice and writes the frame in small
+     * pieces: past a point, converting everything is cheaper.
+     */
+    public void setFallbackRatio(float ratio) {
+        if (!(ratio >= 0 && ratio <= 1)) {
+            throw new IllegalArgumentException("invalid ratio " + ratio);
+        }
+        mFallbackRatio = ratio;
+    }
+
+    /**
+     * Makes the next frame be converted as a whole, e.g. after the converter's settings
+     * changed.
+     */
+    public void invalidate() {
+        mValid = false;
+    }
+
+    /**
+     * Converts one frame read from the current position of {@code src} and writes it at the
+     * current position of {@code dst}.  Both buffers are advanced past the frame.
+     */
+    public void convert(ByteBuffer src, ByteBuffer dst) {
+        if (src.remaining() < getInputSize()) {
+            throw new IllegalArgumentException("src too small: " + src.remaining()
+                    + " < " + getInputSize());
+        }
+        if (dst.remaining() < getFrameSize()) {
+            throw new IllegalArgumentException("dst too small: " + dst.remaining()
+                    + " < " + getFrameSize());
+        }
+
+        final int srcBase = src.position();
+        mChangedTiles = compareTiles(src, srcBase);
+        mFrames++;
+        mTotalChangedTiles += mChangedTiles;
+
+        mFrame.clear();
+        src.position(srcBase);
+        if (!mValid || mChangedTiles > mFallbackRatio * mChanged.length) {
+            if (mRgb565) {
+                mConverter.convertRgb565(src, mFrame);
+            } else {
+                mConverter.convertRgbx(src, mFrame);
+            }
+            mFullConversions++;
+            mValid = true;
+        } else if (mChangedTiles > 0) {
+            convertChangedTiles(src);
+        }
+
+        mFrame.clear();
+        dst.put(mFrame);
+        src.position(srcBase + getInputSize());
+    }
+
+    /**
+     * Compares the frame at {@code srcBase} with the previous one, tile row by tile row,
+     * marking the changed tiles and copying the differing row segments into the previous frame.
+     * Returns the number of changed tiles.
+     */
+    private int compareTiles(ByteBuffer src, int srcBase) {
+        Arrays.fill(mChanged, false);
+        // longs are only compared for equality: any byte order does, as long as it is the same
+        mPreviousView.order(src.order());
+        final int rowBytes = mBytesPerPixel * mWidth;
+        final int tileBytes = mBytesPerPixel * TILE_SIZE;
+        int changed = 0;
+        for (int y = 0; y < mHeight; y++) {
+            final int tiles = (y / TILE_SIZE) * mTileColumns;
+            final int row = y * rowBytes;
+            for (int tx = 0; tx < mTileColumns; tx++) {
+                final int start = row + tx * tileBytes;
+                final int length = Math.min(tileBytes, rowBytes - tx * tileBytes);
+                if (!equal(src, srcBase + start, start, length)) {
+                    src.position(srcBase + start);
+                    src.get(mPrevious, start, length);
+                    if (!mChanged[tiles + tx]) {
+                        mChanged[tiles + tx] = true;
+                        changed++;
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns true if {@code length} bytes of {@code src} from {@code offset} on equal those of
+     * the previous frame from {@code previous} on.
+     */
+    private boolean equal(ByteBuffer src, int offset, int previous, int length) {
+        final int words = length & ~7;
+        for (int i = 0; i < words; i += 8) {
+            if (src.getLong(offset + i) != mPreviousView.getLong(previous + i)) {
+                return false;
+            }
+        }
+        for (int i = words; i < length; i++) {
+            if (src.get(offset + i) != mPrevious[previous + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reconverts the changed tiles of the frame at the current position of {@code src}, each
+     * run of changed tiles of a tile row at once.
+     */
+    private void convertChangedTiles(ByteBuffer src) {
+        for (int ty = 0; ty < mTileRows; ty++) {
+            final int top = ty * TILE_SIZE;
+            final int bottom = Math.min(top + TILE_SIZE, mHeight);
+            final int tiles = ty * mTileColumns;
+            for (int tx = 0; tx < mTileColumns; tx++) {
+                if (!mChanged[tiles + tx]) {
+                    continue;
+                }
+                int end = tx + 1;
+                while (end < mTileColumns && mChanged[tiles + end]) {
+                    end++;
+                }
+                mConverter.convertRegion(src, mRgb565, mFrame, tx * TILE_SIZE, top,
+                        Math.min(end * TILE_SIZE, mWidth), bottom);
+                tx = end;
+            }
+        }
+    }
+
+    /**
+     * Returns the fraction of the tiles that changed in the last frame, 0 for a static scene.
+     */
+    public float getChangedTileRatio() {
+        return (float) mChangedTiles / mChanged.length;
+    }
+
+    /**
+     * Returns the fraction of the tiles that changed since the first frame, on average.
+     */
+    public float getAverageChangedTileRatio() {
+        return (mFrames == 0) ? 0 : (float) mTotalChangedTiles / mChanged.length / mFrames;
+    }
+
+    public int getTileCount() {
+        return mChanged.length;
+    }
+
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    /**
+     * Returns the number of frames converted as a whole, the first one included.
+     */
+    public long getFullConversionCount() {
+        return mFullConversions;
+    }
+}
@@ -0,0 +1,29 @@
+package com.quan404.mediautils;
+
+/**
+ * Packed camera frame formats, as delivered by UVCCamera frame callbacks.
+ */
+public enum InputFormat {
+    /**
+     * 4 bytes per pixel in R, G, B, X order (UVCCamera.PIXEL_FORMAT_RGBX).
+     */
+    RGBX(4),
+    /**
+     * 2 bytes per pixel, 5-6-5 bits little endian (UVCCamera.PIXEL_FORMAT_RGB565).
+     */
+    RGB565(2),
+    /**
+     * 4:2:2, 4 bytes per pair of pixels in Y0, U, Y1, V order (UVCCamera.PIXEL_FORMAT_YUV).
+     */
+    YUYV(2);
+
+    private final int mBytesPerPixel;
+
+    InputFormat(int bytesPerPixel) {
+        mBytesPerPixel = bytesPerPixel;
+    }
+
+    public int getBytesPerPixel() {
+        return mBytesPerPixel;
+    }
+}
@@ -0,0 +1,489 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Converts from NV21 (Android camera preview) to the YUV420 semi planar or planar layout of an
+ * encoder input buffer.
+ * <p/>
+ * The destination layout may be wider and taller than the picture: each plane row is
+ * {@link #getStride()} bytes (half of it for planar chroma rows), the luma plane is
+ * {@link #getSliceHeigth()} rows, and {@link #getYPadding()} extra bytes separate the luma
+ * plane from the chroma planes.  Padding bytes are skipped, not written.
+ * <p/>
+ * The picture is written row by row, straight into the destination buffer, through one row of
+ * scratch.  Chroma is swapped or de-interleaved eight bytes at a time, reading and writing longs
+ * through little endian views of the source and scratch arrays, the last few bytes of a row one
+ * by one.  Nothing is allocated per frame once the source array has been seen.  Not thread-safe.
+ * <p/>
+ * The picture can be rotated clockwise by 90, 180 or 270 degrees and mirrored (flipped
+ * horizontally, before the rotation) in the same pass, see {@link #setRotation(int)} and
+ * {@link #setMirrored(boolean)}: a band of rotated rows is built in scratch arrays by a
+ * {@link PlaneRotator}, then written out like the rows of an unrotated picture.  The size given
+ * to {@link #setSize(int, int)} stays the camera's; the destination layout (stride, slice
+ * height) is that of the rotated picture.  For odd sizes the chroma plane is rotated as a whole,
+ * so mirrored chroma may be off by half a sample.
+ * <p/>
+ * After {@link #setMonochrome(boolean)} only luma is copied: the chroma rows are neither
+ * swapped nor de-interleaved, they are set to 128 once per destination buffer.
+ */
+public class NV21Convertor {
+
+    // same values as MediaCodecInfo.CodecCapabilities, this module does not depend on Android
+    private static final int COLOR_FormatYUV420Planar = 19;
+    private static final int COLOR_FormatYUV420PackedPlanar = 20;
+    private static final int COLOR_FormatYUV420SemiPlanar = 21;
+    private static final int COLOR_FormatYUV420PackedSemiPlanar = 39;
+    private static final int COLOR_TI_FormatYUV420PackedSemiPlanar = 0x7f000100;
+
+    private static final long EVEN_BYTES = 0x00ff00ff00ff00ffL;
+
+    private int mSliceHeight, mHeight;
+    private int mStride, mWidth;
+    private int mSize;
+    private boolean mPlanar, mPanesReversed = false;
+    private int mYPadding;
+    private int mRotation;
+    private boolean mMirrored;
+    // monochrome mode only, the destination frames whose chroma is already neutral
+    private NeutralChroma mNeutralChroma;
+
+    // one row of chroma, as U / V halves (planar) or swapped pairs (semi planar)
+    private byte[] mRow;
+    private ByteBuffer mRowView;
+    // little endian view of the last source array, so that byte 0 is the low byte of a long
+    private byte[] mSource;
+    private ByteBuffer mSourceView;
+    // rotated or mirrored pictures only: a band of luma rows and a band of NV21 chroma rows
+    private PlaneRotator mLumaRotator, mChromaRotator;
+    private byte[] mLumaBand, mChromaBand;
+    private ByteBuffer mLumaBandView, mChromaBandView;
+    // convert(byte[]) output, only allocated when that method is used
+    private byte[] mBuffer;
+    private ByteBuffer mWrappedBuffer;
+
+    public void setSize(int width, int height) {
+        mHeight = height;
+        mWidth = width;
+        mSliceHeight = getOutputHeight();
+        mStride = getOutputWidth();
+        mSize = mWidth*mHeight;
+        mLumaRotator = null;
+    }
+
+    /**
+     * Rotates the picture clockwise by {@code degrees}: 0, 90, 180 or 270, as in
+     * Camera.CameraInfo.orientation.  At 90 and 270 degrees the picture written is
+     * {@code height} wide and {@code width} tall; a stride and slice height still matching the
+     * picture are swapped along with it.
+     * <p/>
+     * At 90 and 270 degrees a frame costs three to six times an unrotated one, which is mostly
+     * bulk copies: every long is read from a different source row.  That is still less than
+     * rotating the frame in a pass of its own before converting it.
+     */
+    public void setRotation(int degrees) {
+        if (degrees != 0 && degrees != 90 && degrees != 180 && degrees != 270) {
+            throw new IllegalArgumentException("invalid rotation " + degrees);
+        }
+        final boolean plainLayout = mStride == getOutputWidth()
+                && mSliceHeight == getOutputHeight();
+        mRotation = degrees;
+        if (plainLayout) {
+            mStride = getOutputWidth();
+            mSliceHeight = getOutputHeight();
+        }
+        mLumaRotator = null;
+    }
+
+    /**
+     * Flips the picture horizontally, before rotating it.  Front camera previews are mirrored
+     * on screen, the frames are not.
+     */
+    public void setMirrored(boolean mirrored) {
+        mMirrored = mirrored;
+        mLumaRotator = null;
+    }
+
+    /**
+     * Copies luma only in the following frames, for grayscale scenes.  Chroma is set to 128
+     * once per destination buffer, the first time a frame is written at its position, and not
+     * written again as long as the buffer is among the last 16 seen: encoders cycle through
+     * fewer input buffers than that.  Nothing else may write the chroma of those buffers in
+     * between, and the layout must be set first.
+     */
+    public void setMonochrome(boolean monochrome) {
+        mNeutralChroma = monochrome ? new NeutralChroma() : null;
+    }
+
+    public void setStride(int width) {
+        mStride = width;
+    }
+
+    public void setSliceHeigth(int height) {
+        mSliceHeight = height;
+    }
+
+    public void setPlanar(boolean planar) {
+        mPlanar = planar;
+        mLumaRotator = null;
+    }
+
+    public void setYPadding(int padding) {
+        mYPadding = padding;
+    }
+
+    /**
+     * Returns the size of an NV21 input frame.
+     */
+    public int getInputSize() {
+        return mSize + 2 * getChromaWidth() * getChromaHeight();
+    }
+
+    /**
+     * Returns the number of bytes of the destination layout, padding included.
+     */
+    public int getBufferSize() {
+        final int chromaPlaneSize = getChromaStride() * ((mSliceHeight + 1) / 2);
+        return mStride * mSliceHeight + mYPadding + (mPlanar ? 2 : 1) * chromaPlaneSize;
+    }
+
+    public void setEncoderColorFormat(int colorFormat) {
+        switch (colorFormat) {
+            case COLOR_FormatYUV420SemiPlanar:
+            case COLOR_FormatYUV420PackedSemiPlanar:
+            case COLOR_TI_FormatYUV420PackedSemiPlanar:
+                setPlanar(false);
+                break;
+            case COLOR_FormatYUV420Planar:
+            case COLOR_FormatYUV420PackedPlanar:
+                setPlanar(true);
+                break;
+        }
+    }
+
+    public void setColorPanesReversed(boolean b) {
+        mPanesReversed = b;
+        mLumaRotator = null;
+    }
+
+    public int getStride() {
+        return mStride;
+    }
+
+    public int getSliceHeigth() {
+        return mSliceHeight;
+    }
+
+    public int getYPadding() {
+        return mYPadding;
+    }
+
+
+    public boolean getPlanar() {
+        return mPlanar;
+    }
+
+    public boolean getUVPanesReversed() {
+        return mPanesReversed;
+    }
+
+    public int getRotation() {
+        return mRotation;
+    }
+
+    public boolean getMirrored() {
+        return mMirrored;
+    }
+
+    public boolean getMonochrome() {
+        return mNeutralChroma != null;
+    }
+
+    /**
+     * Returns the width of the picture written, {@code height} once rotated by 90 or 270
+     * degrees.
+     */
+    public int getOutputWidth() {
+        return isTransposed() ? mHeight : mWidth;
+    }
+
+    /**
+     * Returns the height of the picture written.
+     */
+    public int getOutputHeight() {
+        return isTransposed() ? mWidth : mHeight;
+    }
+
+    /**
+     * Returns the layout written by convert(), not taking stride and padding into account.
+     */
+    public Yuv420Format getOutputFormat() {
+        if (mPlanar) {
+            return mPanesReversed ? Yuv420Format.YV12 : Yuv420Format.I420;
+        }
+        return mPanesReversed ? Yuv420Format.NV21 : Yuv420Format.NV12;
+    }
+
+    /**
+     * Converts the NV21 frame {@code data} into {@code buffer}, starting at its current
+     * position.  The position is advanced by {@link #getBufferSize()}; {@code data} is left
+     * untouched.
+     */
+    public void convert(byte[] data, ByteBuffer buffer) {
+        if (mStride < getOutputWidth() || mSliceHeight < getOutputHeight() || mYPadding < 0) {
+            throw new IllegalArgumentException("invalid layout "
+                    + getOutputWidth() + "x" + getOutputHeight()
+                    + " stride " + mStride + " slice height " + mSliceHeight
+                    + " Y padding " + mYPadding);
+        }
+        if (data.length < getInputSize()) {
+            throw new IllegalArgumentException("data too small: " + data.length
+                    + " < " + getInputSize());
+        }
+        if (buffer.remaining() < getBufferSize()) {
+            throw new IllegalArgumentException("buffer too small: " + buffer.remaining()
+                    + " < " + getBufferSize());
+        }
+
+        final int base = buffer.position();
+        final int chromaWidth = getChromaWidth();
+        final int chromaHeight = getChromaHeight();
+        // rotated by 90 or 270 degrees, chroma rows are source columns
+        final int rowPairs = isTransposed() ? chromaHeight : chromaWidth;
+        if (mRow == null || mRow.length < 2 * rowPairs) {
+            mRow = new byte[2 * rowPairs];
+            mRowView = ByteBuffer.wrap(mRow).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (mSource != data) {
+            mSource = data;
+            mSourceView = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (mRotation != 0 || mMirrored) {
+            convertRotated(data, buffer, base);
+            return;
+        }
+
+        // Y, row by row when the stride is wider than the picture
+        if (mStride == mWidth) {
+            buffer.put(data, 0, mSize);
+        } else {
+            for (int j = 0; j < mHeight; j++) {
+                buffer.position(base + j * mStride);
+                buffer.put(data, j * mWidth, mWidth);
+            }
+        }
+        if (mNeutralChroma != null) {
+            writeNeutralChroma(buffer, base);
+            return;
+        }
+
+        final int chromaBase = base + mStride * mSliceHeight + mYPadding;
+        if (!mPlanar) {
+            for (int j = 0; j < chromaHeight; j++) {
+                final int src = mSize + j * 2 * chromaWidth;
+                buffer.position(chromaBase + j * mStride);
+                if (mPanesReversed) {
+                    buffer.put(data, src, 2 * chromaWidth);
+                } else {
+                    swapRow(data, mSourceView, src, chromaWidth);
+                    buffer.put(mRow, 0, 2 * chromaWidth);
+                }
+            }
+        } else {
+            // De-interleave U and V into two planes of half the stride
+            final int chromaStride = getChromaStride();
+            final int planeSize = chromaStride * ((mSliceHeight + 1) / 2);
+            final int firstPlane = chromaBase;
+            final int secondPlane = chromaBase + planeSize;
+            // NV21 pairs are V, U: V goes to the second plane unless the panes are reversed
+            final int vOffset = mPanesReversed ? 0 : chromaWidth;
+            final int uOffset = chromaWidth - vOffset;
+            for (int j = 0; j < chromaHeight; j++) {
+                final int src = mSize + j * 2 * chromaWidth;
+                deinterleaveRow(data, mSourceView, src, chromaWidth, vOffset, uOffset);
+                buffer.position(firstPlane + j * chromaStride);
+                buffer.put(mRow, 0, chromaWidth);
+                buffer.position(secondPlane + j * chromaStride);
+                buffer.put(mRow, chromaWidth, chromaWidth);
+            }
+        }
+
+        buffer.position(base + getBufferSize());
+    }
+
+    /**
+     * convert() for a rotated or mirrored picture: bands of rotated luma rows, then of rotated
+     * chroma rows, each row then being written (and its chroma de-interleaved) as for an
+     * unrotated picture.  Semi planar chroma is swapped by the rotator.
+     */
+    private void convertRotated(byte[] data, ByteBuffer buffer, int base) {
+        if (mLumaRotator == null) {
+            mLumaRotator = new PlaneRotator(mWidth, mHeight, 1, mRotation, mMirrored, false);
+            // semi planar U, V pairs come out of the rotator swapped already
+            mChromaRotator = new PlaneRotator(getChromaWidth(), getChromaHeight(), 2,
+                    mRotation, mMirrored, !mPlanar && !mPanesReversed);
+            mLumaBand = new byte[mLumaRotator.getBandHeight() * mLumaRotator.getOutputWidth()];
+            mLumaBandView = ByteBuffer.wrap(mLumaBand).order(ByteOrder.LITTLE_ENDIAN);
+            mChromaBand = new byte[mChromaRotator.getBandHeight()
+                    * 2 * mChromaRotator.getOutputWidth()];
+            mChromaBandView = ByteBuffer.wrap(mChromaBand).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        final PlaneRotator luma = mLumaRotator;
+        final PlaneRotator chroma = mChromaRotator;
+
+        final int width = luma.getOutputWidth();
+        final int height = luma.getOutputHeight();
+        for (int y0 = 0; y0 < height; y0 += luma.getBandHeight()) {
+            final int rows = Math.min(luma.getBandHeight(), height - y0);
+            luma.rotateRows(data, mSourceView, 0, y0, rows, mLumaBand, mLumaBandView);
+            for (int i = 0; i < rows; i++) {
+                buffer.position(base + (y0 + i) * mStride);
+                buffer.put(mLumaBand, i * width, width);
+            }
+        }
+        if (mNeutralChroma != null) {
+            writeNeutralChroma(buffer, base);
+            return;
+        }
+
+        final int chromaWidth = chroma.getOutputWidth();
+        final int chromaHeight = chroma.getOutputHeight();
+        final int chromaBase = base + mStride * mSliceHeight + mYPadding;
+        final int chromaStride = getChromaStride();
+        final int secondPlane = chromaBase + chromaStride * ((mSliceHeight + 1) / 2);
+        final int vOffset = mPanesReversed ? 0 : chromaWidth;
+        final int uOffset = chromaWidth - vOffset;
+        for (int y0 = 0; y0 < chromaHeight; y0 += chroma.getBandHeight()) {
+            final int rows = Math.min(chroma.getBandHeight(), chromaHeight - y0);
+            chroma.rotateRows(data, mSourceView, mSize, y0, rows, mChromaBand, mChromaBandView);
+            for (int i = 0; i < rows; i++) {
+                final int j = y0 + i;
+                final int src = i * 2 * chromaWidth;
+                if (!mPlanar) {
+                    buffer.position(chromaBase + j * mStride);
+                    buffer.put(mChromaBand, src, 2 * chromaWidth);
+                } else {
+                    deinterleaveRow(mChromaBand, mChromaBandView, src, chromaWidth,
+                            vOffset, uOffset);
+                    buffer.position(chromaBase + j * chromaStride);
+                    buffer.put(mRow, 0, chromaWidth);
+                    buffer.position(secondPlane + j * chromaStride);
+                    buffer.put(mRow, chromaWidth, chromaWidth);
+                }
+            }
+        }
+
+        buffer.position(base + getBufferSize());
+    }
+
+    /**
+     * Sets the chroma of the frame at {@code base} to 128, unless it already is, and moves the
+     * position past the frame.
+     */
+    private void writeNeutralChroma(ByteBuffer buffer, int base) {
+        if (!mNeutralChroma.isFilled(buffer, base)) {
+            final int chromaWidth = isTransposed() ? getChromaHeight() : getChromaWidth();
+            final int chromaHeight = isTransposed() ? getChromaWidth() : getChromaHeight();
+            final int chromaBase = base + mStride * mSliceHeight + mYPadding;
+            final int chromaStride = getChromaStride();
+            if (mPlanar) {
+                final int planeSize = chromaStride * ((mSliceHeight + 1) / 2);
+                mNeutralChroma.fill(buffer, chromaBase, chromaWidth, chromaHeight,
+                        chromaStride);
+                mNeutralChroma.fill(buffer, chromaBase + planeSize, chromaWidth, chromaHeight,
+                        chromaStride);
+            } else {
+                mNeutralChroma.fill(buffer, chromaBase, 2 * chromaWidth, chromaHeight,
+                        chromaStride);
+            }
+        }
+        buffer.position(base + getBufferSize());
+    }
+
+    /**
+     * Converts the NV21 frame {@code data} into an array of {@link #getBufferSize()} bytes.  The
+     * array is owned by the convertor and overwritten by the next call; prefer
+     * {@link #convert(byte[], ByteBuffer)}, which writes straight into the encoder buffer.
+     */
+    public byte[] convert(byte[] data) {
+        if (mBuffer == null || mBuffer.length != getBufferSize()) {
+            mBuffer = new byte[getBufferSize()];
+            mWrappedBuffer = ByteBuffer.wrap(mBuffer);
+        }
+        mWrappedBuffer.clear();
+        convert(data, mWrappedBuffer);
+        return mBuffer;
+    }
+
+    /**
+     * Swaps the V, U pairs of one NV21 chroma row into the scratch row.  Each long holds four
+     * pairs; the bytes left over are swapped one pair at a time.  {@code source} is a little
+     * endian view of {@code data}.
+     */
+    private void swapRow(byte[] data, ByteBuffer source, int src, int chromaWidth) {
+        final ByteBuffer row = mRowView;
+        final int bytes = 2 * chromaWidth;
+        final int words = bytes & ~7;
+        for (int i = 0; i < words; i += 8) {
+            final long x = source.getLong(src + i);
+            row.putLong(i, ((x >>> 8) & EVEN_BYTES) | ((x & EVEN_BYTES) << 8));
+        }
+        final byte[] scratch = mRow;
+        for (int i = words; i < bytes; i += 2) {
+            scratch[i] = data[src + i + 1];
+            scratch[i + 1] = data[src + i];
+        }
+    }
+
+    /**
+     * Splits one NV21 chroma row into its V samples, written at {@code vOffset} in the scratch
+     * row, and its U samples, written at {@code uOffset}.  Two longs of source give one long of
+     * each; the samples left over are copied one by one.
+     */
+    private void deinterleaveRow(byte[] data, ByteBuffer source, int src, int chromaWidth,
+                                 int vOffset, int uOffset) {
+        final ByteBuffer row = mRowView;
+        final int words = chromaWidth & ~7;
+        for (int i = 0; i < words; i += 8) {
+            final long lo = source.getLong(src + 2 * i);
+            final long hi = source.getLong(src + 2 * i + 8);
+            row.putLong(vOffset + i, packEvenBytes(lo) | (packEvenBytes(hi) << 32));
+            row.putLong(uOffset + i, packEvenBytes(lo >>> 8) | (packEvenBytes(hi >>> 8) << 32));
+        }
+        final byte[] scratch = mRow;
+        for (int i = words; i < chromaWidth; i++) {
+            scratch[vOffset + i] = data[src + 2 * i];
+            scratch[uOffset + i] = data[src + 2 * i + 1];
+        }
+    }
+
+    /**
+     * Gathers bytes 0, 2, 4 and 6 of {@code x} into its low four bytes, keeping their order.
+     */
+    private static long packEvenBytes(long x) {
+        x &= EVEN_BYTES;
+        x = (x | (x >>> 8)) & 0x0000ffff0000ffffL;
+        return (x | (x >>> 16)) & 0x00000000ffffffffL;
+    }
+
+    private boolean isTransposed() {
+        return mRotation == 90 || mRotation == 270;
+    }
+
+    private int getChromaWidth() {
+        return (mWidth + 1) / 2;
+    }
+
+    private int getChromaHeight() {
+        return (mHeight + 1) / 2;
+    }
+
+    /**
+     * Returns the row length of a planar chroma plane.  Semi planar chroma rows use the full
+     * stride.
+     */
+    private int getChromaStride() {
+        return mPlanar ? (mStride + 1) / 2 : mStride;
+    }
+}
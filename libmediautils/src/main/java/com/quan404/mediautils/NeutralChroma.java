@@ -0,0 +1,76 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Neutral chroma for the monochrome mode of the converters: 128 in both chroma planes, the same
+ * bytes whatever the layout.
+ * <p/>
+ * The frames whose chroma was already filled are remembered, by destination buffer (compared
+ * by identity) and frame offset, so that chroma is written once per buffer rather than once per
+ * frame.  Encoders and {@link FramePool} cycle through a handful of buffers, and nothing but
+ * the converter writes into them.  Not thread-safe.
+ */
+final class NeutralChroma {
+
+    static final byte VALUE = (byte) 128;
+
+    private static final int CACHE_SIZE = 16;
+
+    private final ByteBuffer[] mBuffers = new ByteBuffer[CACHE_SIZE];
+    private final int[] mBases = new int[CACHE_SIZE];
+    private int mNext;
+    private long mFills;
+    // one row of neutral samples, grown as needed
+    private byte[] mRow = new byte[0];
+
+    /**
+     * Returns true if the chroma of the frame at {@code base} in {@code dst} was already
+     * filled.  Otherwise the frame is remembered as filled, evicting the oldest one, and the
+     * caller fills it.
+     */
+    boolean isFilled(ByteBuffer dst, int base) {
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            if (mBuffers[i] == dst && mBases[i] == base) {
+                return true;
+            }
+        }
+        mBuffers[mNext] = dst;
+        mBases[mNext] = base;
+        mNext = (mNext + 1) % CACHE_SIZE;
+        mFills++;
+        return false;
+    }
+
+    /**
+     * Forgets every frame, e.g. when the converter writes real chroma again.
+     */
+    void reset() {
+        Arrays.fill(mBuffers, null);
+        mNext = 0;
+    }
+
+    /**
+     * Returns the number of frames filled so far.
+     */
+    long getFillCount() {
+        return mFills;
+    }
+
+    /**
+     * Writes {@code rows} rows of {@code length} neutral samples into {@code dst}, the first
+     * at {@code offset}, the next ones {@code stride} bytes apart.  The position of
+     * {@code dst} is left undefined.
+     */
+    void fill(ByteBuffer dst, int offset, int length, int rows, int stride) {
+        if (mRow.length < length) {
+            mRow = new byte[length];
+            Arrays.fill(mRow, VALUE);
+        }
+        for (int j = 0; j < rows; j++) {
+            dst.position(offset + j * stride);
+            dst.put(mRow, 0, length);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rotates (by a multiple of 90 degrees, clockwise) and optionally mirrors one image plane, a
+ * band of output rows at a time.  Elements are one byte (luma) or two (NV21 chroma pairs,
+ * kept together, and swapped to U, V on the way if asked).  Mirroring flips the source
+ * horizontally before the rotation, as a front camera preview is shown.
+ * <p/>
+ * At 0 and 180 degrees each output row is one source row, copied or reversed a long at a
+ * time.  Reversing the pairs of a long and swapping their bytes is reversing its bytes, so
+ * mirrored NV21 chroma becomes NV12 chroma in one byte swap per long.  At 90 and 270 degrees
+ * output rows are source columns: the plane is walked in square tiles of one long per row
+ * (8x8 bytes or 4x4 pairs), each tile being read as eight longs from consecutive source rows,
+ * transposed in registers and written as eight longs to consecutive band rows, in reverse
+ * order when flipping columns.  A band is eight tiles tall, so that each source row is read a
+ * cache line at a time.  Sources and bands are read and written through little endian views,
+ * so that byte 0 is the low byte of a long.  Edges that do not fill a tile are copied element
+ * by element.
+ */
+final class PlaneRotator {
+
+    private static final long EVEN_BYTES = 0x00ff00ff00ff00ffL;
+    private static final long EVEN_SHORTS = 0x0000ffff0000ffffL;
+    private static final long LOW_INT = 0x00000000ffffffffL;
+    // tiles side by side in a band: 64 bytes (a cache line) of each source row read at a time
+    private static final int BAND_TILES = 8;
+
+    private final int mWidth, mHeight;      // source, in elements
+    private final int mElement;             // bytes per element
+    private final int mTile;                // elements per long
+    private final boolean mSwap;            // two byte elements written with their bytes swapped
+    private final boolean mTranspose;       // 90 or 270: output rows are source columns
+    // output (x, y) reads source column W-1-x (or W-1-y when transposing) ...
+    private final boolean mFlipColumns;
+    // ... and source row H-1-y (or H-1-x when transposing)
+    private final boolean mFlipRows;
+
+    PlaneRotator(int width, int height, int element, int degrees, boolean mirrored,
+                 boolean swap) {
+        if (element != 1 && element != 2) {
+            throw new IllegalArgumentException("invalid element size " + element);
+        }
+        if (swap && element != 2) {
+            throw new IllegalArgumentException("only two byte elements can be swapped");
+        }
+        mWidth = width;
+        mHeight = height;
+        mElement = element;
+        mSwap = swap;
+        mTile = 8 / element;
+        mTranspose = degrees == 90 || degrees == 270;
+        mFlipColumns = mirrored ^ (degrees == 180 || degrees == 270);
+        mFlipRows = degrees == 90 || degrees == 180;
+    }
+
+    /**
+     * Returns the width of the rotated plane, in elements.
+     */
+    int getOutputWidth() {
+        return mTranspose ? mHeight : mWidth;
+    }
+
+    /**
+     * Returns the height of the rotated plane, in elements.
+     */
+    int getOutputHeight() {
+        return mTranspose ? mWidth : mHeight;
+    }
+
+    /**
+     * Returns the number of output rows to fill at a time for the tiled path to be used.
+     */
+    int getBandHeight() {
+        return mTranspose ? BAND_TILES * mTile : 1;
+    }
+
+    /**
+     * Writes output rows {@code y0} to {@code y0 + rows - 1} one after the other into
+     * {@code band}, each {@link #getOutputWidth()} elements long.  The source plane starts at
+     * {@code base} in {@code src}; {@code srcView} and {@code bandView} are little endian views
+     * of {@code src} and {@code band}.
+     */
+    void rotateRows(byte[] src, ByteBuffer srcView, int base, int y0, int rows,
+                    byte[] band, ByteBuffer bandView) {
+        if (!mTranspose) {
+            for (int i = 0; i < rows; i++) {
+                final int y = y0 + i;
+                final int row = base + (mFlipRows ? mHeight - 1 - y : y) * mWidth * mElement;
+                copyRow(src, srcView, row, band, bandView, i * mWidth * mElement);
+            }
+        } else if (rows == BAND_TILES * mTile && y0 + rows <= mWidth) {
+            transposeBand(src, srcView, base, y0, band, bandView);
+        } else {
+            // last rows, fewer than a band
+            for (int i = 0; i < rows; i++) {
+                copyElements(src, base, y0 + i, 0, band, i * mHeight * mElement);
+            }
+        }
+    }
+
+    /**
+     * Copies one source row, reversed when flipping columns.  Each case has its own loop, so
+     * that nothing but the two views is read per long.
+     */
+    private void copyRow(byte[] src, ByteBuffer srcView, int row, byte[] band,
+                         ByteBuffer bandView, int out) {
+        final int bytes = mWidth * mElement;
+        if (!mFlipColumns && !mSwap) {
+            System.arraycopy(src, row, band, out, bytes);
+            return;
+        }
+        final int words = bytes & ~7;
+        if (!mFlipColumns) {
+            for (int i = 0; i < words; i += 8) {
+                bandView.putLong(out + i, swapPairs(srcView.getLong(row + i)));
+            }
+        } else {
+            final int last = row + bytes - 8;
+            if (mElement == 1 || mSwap) {
+                for (int i = 0; i < words; i += 8) {
+                    bandView.putLong(out + i, Long.reverseBytes(srcView.getLong(last - i)));
+                }
+            } else {
+                for (int i = 0; i < words; i += 8) {
+                    bandView.putLong(out + i, swapPairs(Long.reverseBytes(srcView.getLong(
+                            last - i))));
+                }
+            }
+        }
+        for (int i = words; i < bytes; i += mElement) {
+            copyElement(src, mFlipColumns ? row + bytes - i - mElement : row + i, band, out + i);
+        }
+    }
+
+    /**
+     * Fills the rows of band {@code y0} (source columns), whole tiles first, the tiles of one
+     * source row range side by side.
+     */
+    private void transposeBand(byte[] src, ByteBuffer srcView, int base, int y0, byte[] band,
+                               ByteBuffer bandView) {
+        final int element = mElement;
+        final int tile = mTile;
+        final int rows = BAND_TILES * tile;
+        final int outRowBytes = mHeight * element;
+        final int tileBytes = tile * outRowBytes;
+        // source row of output column x: first + x * step; tile s of the band starts at
+        // column + s * next.  Flipped columns are read forwards and the rows of each tile
+        // written backwards.
+        final int rowBytes = mWidth * element;
+        final int first = base + (mFlipRows ? (mHeight - 1) * rowBytes : 0)
+                + (mFlipColumns ? mWidth - y0 - tile : y0) * element;
+        final int step = mFlipRows ? -rowBytes : rowBytes;
+        final int next = mFlipColumns ? -8 : 8;
+        final int outStep = mFlipColumns ? -outRowBytes : outRowBytes;
+        final int firstOut = mFlipColumns ? tileBytes - outRowBytes : 0;
+        final int tiles = mHeight - mHeight % tile;
+        for (int x0 = 0; x0 < tiles; x0 += tile) {
+            final int in = first + x0 * step;
+            final int out = firstOut + x0 * element;
+            if (element == 1) {
+                for (int t = 0; t < BAND_TILES; t++) {
+                    transposeBytes(srcView, in + t * next, step, bandView, out + t * tileBytes,
+                            outStep);
+                }
+            } else {
+                for (int t = 0; t < BAND_TILES; t++) {
+                    transposePairs(srcView, in + t * next, step, bandView, out + t * tileBytes,
+                            outStep, mSwap);
+                }
+            }
+        }
+        if (tiles < mHeight) {
+            for (int i = 0; i < rows; i++) {
+                copyElements(src, base, y0 + i, tiles, band, i * outRowBytes);
+            }
+        }
+    }
+
+    /**
+     * Transposes one 8x8 tile of bytes: blocks of 1, 2 then 4 bytes are swapped across the
+     * diagonal, byte i of source row k ending up as byte k of band row i, written at
+     * {@code out + i * outStep}.
+     */
+    private static void transposeBytes(ByteBuffer srcView, int in, int step, ByteBuffer bandView,
+                                       int out, int outStep) {
+        long a0 = srcView.getLong(in);
+        long a1 = srcView.getLong(in + step);
+        long a2 = srcView.getLong(in + 2 * step);
+        long a3 = srcView.getLong(in + 3 * step);
+        long a4 = srcView.getLong(in + 4 * step);
+        long a5 = srcView.getLong(in + 5 * step);
+        long a6 = srcView.getLong(in + 6 * step);
+        long a7 = srcView.getLong(in + 7 * step);
+        long t;
+
+        t = ((a0 >>> 8) ^ a1) & EVEN_BYTES; a1 ^= t; a0 ^= t << 8;
+        t = ((a2 >>> 8) ^ a3) & EVEN_BYTES; a3 ^= t; a2 ^= t << 8;
+        t = ((a4 >>> 8) ^ a5) & EVEN_BYTES; a5 ^= t; a4 ^= t << 8;
+        t = ((a6 >>> 8) ^ a7) & EVEN_BYTES; a7 ^= t; a6 ^= t << 8;
+
+        t = ((a0 >>> 16) ^ a2) & EVEN_SHORTS; a2 ^= t; a0 ^= t << 16;
+        t = ((a1 >>> 16) ^ a3) & EVEN_SHORTS; a3 ^= t; a1 ^= t << 16;
+        t = ((a4 >>> 16) ^ a6) & EVEN_SHORTS; a6 ^= t; a4 ^= t << 16;
+        t = ((a5 >>> 16) ^ a7) & EVEN_SHORTS; a7 ^= t; a5 ^= t << 16;
+
+        t = ((a0 >>> 32) ^ a4) & LOW_INT; a4 ^= t; a0 ^= t << 32;
+        t = ((a1 >>> 32) ^ a5) & LOW_INT; a5 ^= t; a1 ^= t << 32;
+        t = ((a2 >>> 32) ^ a6) & LOW_INT; a6 ^= t; a2 ^= t << 32;
+        t = ((a3 >>> 32) ^ a7) & LOW_INT; a7 ^= t; a3 ^= t << 32;
+
+        bandView.putLong(out, a0);
+        bandView.putLong(out + outStep, a1);
+        bandView.putLong(out + 2 * outStep, a2);
+        bandView.putLong(out + 3 * outStep, a3);
+        bandView.putLong(out + 4 * outStep, a4);
+        bandView.putLong(out + 5 * outStep, a5);
+        bandView.putLong(out + 6 * outStep, a6);
+        bandView.putLong(out + 7 * outStep, a7);
+    }
+
+    /**
+     * Transposes one 4x4 tile of two byte elements, as {@link #transposeBytes} does bytes,
+     * swapping the bytes of each element if {@code swap}.
+     */
+    private static void transposePairs(ByteBuffer srcView, int in, int step,
+                                       ByteBuffer bandView, int out, int outStep,
+                                       boolean swap) {
+        long a0 = srcView.getLong(in);
+        long a1 = srcView.getLong(in + step);
+        long a2 = srcView.getLong(in + 2 * step);
+        long a3 = srcView.getLong(in + 3 * step);
+        long t;
+
+        t = ((a0 >>> 16) ^ a1) & EVEN_SHORTS; a1 ^= t; a0 ^= t << 16;
+        t = ((a2 >>> 16) ^ a3) & EVEN_SHORTS; a3 ^= t; a2 ^= t << 16;
+
+        t = ((a0 >>> 32) ^ a2) & LOW_INT; a2 ^= t; a0 ^= t << 32;
+        t = ((a1 >>> 32) ^ a3) & LOW_INT; a3 ^= t; a1 ^= t << 32;
+
+        if (swap) {
+            a0 = swapPairs(a0);
+            a1 = swapPairs(a1);
+            a2 = swapPairs(a2);
+            a3 = swapPairs(a3);
+        }
+        bandView.putLong(out, a0);
+        bandView.putLong(out + outStep, a1);
+        bandView.putLong(out + 2 * outStep, a2);
+        bandView.putLong(out + 3 * outStep, a3);
+    }
+
+    /**
+     * Copies the elements of transposed output row {@code y}, from column {@code x0} on, one by
+     * one.
+     */
+    private void copyElements(byte[] src, int base, int y, int x0, byte[] band, int out) {
+        final int element = mElement;
+        final int column = mFlipColumns ? mWidth - 1 - y : y;
+        for (int x = x0; x < mHeight; x++) {
+            final int row = mFlipRows ? mHeight - 1 - x : x;
+            copyElement(src, base + (row * mWidth + column) * element, band, out + x * element);
+        }
+    }
+
+    /**
+     * Copies the element at {@code from} to {@code to}, swapping its bytes if asked.
+     */
+    private void copyElement(byte[] src, int from, byte[] band, int to) {
+        if (mElement == 1) {
+            band[to] = src[from];
+        } else if (mSwap) {
+            band[to] = src[from + 1];
+            band[to + 1] = src[from];
+        } else {
+            band[to] = src[from];
+            band[to + 1] = src[from + 1];
+        }
+    }
+
+    /**
+     * Swaps the two bytes of each of the four two byte elements of {@code x}.
+     */
+    private static long swapPairs(long x) {
+        return ((x >>> 8) & EVEN_BYTES) | ((x & EVEN_BYTES) << 8);
+    }
+}
@@ -0,0 +1,390 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Resamples some interleaved 8-bit channels of a packed frame (R, G and B of RGBX, Y of YUYV,
+ * or U and V of YUYV) to another size, one output row at a time.
+ * <p/>
+ * The filter is separable.  Each source row is read in bulk and filtered horizontally only
+ * once, into a ring that holds one more row than the vertical filter has taps; an output row
+ * is the weighted sum of ring rows.  Weights are fixed point in 1/4096 and sum to exactly 1,
+ * so flat areas stay flat and integer factors give exact averages; filtered rows are kept in
+ * 1/256 so that the vertical sums fit in an int.
+ * <p/>
+ * Two taps (bilinear, or area down to half size) is the common case.  There the weights are
+ * rounded to 1/256, and two channels two bytes apart (R and B of RGBX, U and V of YUYV) are
+ * filtered together: one little endian int read per pixel, one multiply per pixel for both
+ * channels, each in its own 16-bit lane.
+ * <p/>
+ * When each output is the plain average of the same number of consecutive inputs in both
+ * directions, a power of two in all, as downscaling by exactly 2 with either filter, the bytes
+ * of each output are summed straight from the source rows and the sum shifted: no weights and
+ * no ring, for the same result.
+ */
+final class PlaneScaler {
+
+    private static final int SHIFT = 12;
+    private static final int ONE = 1 << SHIFT;
+    // filtered rows are stored in 1/(1 << ROW_SHIFT)
+    private static final int ROW_SHIFT = 8;
+
+    private final int mChannels;
+    private final int[] mOffsets;       // byte offset of each channel within a source pixel
+    private final int mDstWidth;
+    private final int mPixelStride;
+    private final int mSrcRowBytes;
+    private final Kernel mHorizontal;
+    private final Kernel mVertical;
+
+    private final byte[] mSrcRow;
+    private final ByteBuffer mSrcView;  // little endian view of mSrcRow
+    // two channels at offsets[0] and offsets[0] + 2 filtered together, two taps only
+    private final boolean mPacked;
+    private final int[][] mRing;        // filtered rows, channel after channel
+    private final int[] mRingRows;      // source row held by each ring slot, -1 if none
+    // box averages in both directions: the sum of an output's inputs shifted by mBoxShift
+    private final boolean mBox;
+    private final int mBoxShift;
+    private final byte[] mSrcRow2;      // second source row of 2x2 boxes
+
+    /**
+     * @param pixelStride bytes between two source pixels (4 for RGBX and YUYV chroma, 2 for YUYV
+     *                    luma)
+     * @param offsets     offset of each channel within a pixel
+     * @param srcRowBytes bytes between two source rows
+     */
+    PlaneScaler(int srcWidth, int srcHeight, int dstWidth, int dstHeight, int pixelStride,
+                int[] offsets, int srcRowBytes, ScaleFilter filter) {
+        mChannels = offsets.length;
+        mOffsets = offsets.clone();
+        mDstWidth = dstWidth;
+        mPixelStride = pixelStride;
+        mSrcRowBytes = srcRowBytes;
+        mHorizontal = new Kernel(srcWidth, dstWidth, filter, pixelStride);
+        mVertical = new Kernel(srcHeight, dstHeight, filter, 1);
+
+        mSrcRow = new byte[srcRowBytes];
+        mSrcView = ByteBuffer.wrap(mSrcRow).order(ByteOrder.LITTLE_ENDIAN);
+        mPacked = mHorizontal.mTaps == 2 && pixelStride == 4 && mChannels >= 2
+                && offsets[mChannels - 1] == offsets[0] + 2 && offsets[0] + 2 < 4
+                && (mChannels == 2 || offsets[1] == offsets[0] + 1);
+        mRing = new int[mVertical.mTaps + 1][mChannels * dstWidth];
+        mRingRows = new int[mRing.length];
+        Arrays.fill(mRingRows, -1);
+        final int boxArea = mHorizontal.mTaps * mVertical.mTaps;
+        mBox = mHorizontal.mBox && mVertical.mBox && Integer.bitCount(boxArea) == 1;
+        mBoxShift = Integer.numberOfTrailingZeros(boxArea);
+        mSrcRow2 = (mBox && boxArea == 4 && mVertical.mTaps == 2)
+                ? new byte[srcRowBytes] : null;
+    }
+
+    /**
+     * Returns the number of values of an output row, {@code channels * dstWidth}.
+     */
+    int getRowLength() {
+        return mChannels * mDstWidth;
+    }
+
+    /**
+     * Forgets the rows of the previous frame.  Call before the first row of each frame.
+     */
+    void startFrame() {
+        Arrays.fill(mRingRows, -1);
+    }
+
+    /**
+     * Computes output row {@code y} of the frame starting at {@code srcBase} in {@code src}.
+     * Channel c of pixel x goes to {@code out[c * dstWidth + x]}, in [0, 255].  Rows are
+     * expected in increasing order; the position of {@code src} is left undefined.
+     */
+    void scaleRow(ByteBuffer src, int srcBase, int y, int[] out) {
+        if (mBox) {
+            boxRow(src, srcBase, y, out);
+            return;
+        }
+        final int taps = mVertical.mTaps;
+        final int[] index = mVertical.mIndex;
+        final int[] weight = mVertical.mWeight;
+        final int length = mChannels * mDstWidth;
+
+        final int shift = SHIFT + ROW_SHIFT;
+        final int half = 1 << (shift - 1);
+        final int[] row0 = filteredRow(src, srcBase, index[y * taps]);
+        final int w0 = weight[y * taps];
+        if (taps == 1) {
+            for (int i = 0; i < length; i++) {
+                out[i] = (w0 * row0[i] + half) >> shift;
+            }
+            return;
+        }
+        final int[] row1 = filteredRow(src, srcBase, index[y * taps + 1]);
+        final int w1 = weight[y * taps + 1];
+        if (taps == 2) {
+            for (int i = 0; i < length; i++) {
+                out[i] = (w0 * row0[i] + w1 * row1[i] + half) >> shift;
+            }
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            out[i] = w0 * row0[i] + w1 * row1[i];
+        }
+        for (int t = 2; t < taps; t++) {
+            final int w = weight[y * taps + t];
+            if (w == 0) {
+                continue;
+            }
+            final int[] row = filteredRow(src, srcBase, index[y * taps + t]);
+            for (int i = 0; i < length; i++) {
+                out[i] += w * row[i];
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            out[i] = (out[i] + half) >> shift;
+        }
+    }
+
+    /**
+     * {@link #scaleRow} for box averages: the source rows of output row {@code y} are read in
+     * turn and the bytes of each output added up, then rounded.  Inputs of consecutive outputs
+     * are a fixed step apart, so no index is looked up per output.
+     */
+    private void boxRow(ByteBuffer src, int srcBase, int y, int[] out) {
+        final int rows = mVertical.mTaps;
+        final int taps = mHorizontal.mTaps;
+        final int first = mHorizontal.mIndex[0];
+        final int step = mHorizontal.mStep;
+        final int width = mDstWidth;
+        final int length = mChannels * width;
+        final int stride = mPixelStride;
+        final byte[] s = mSrcRow;
+        // the rows of a box are consecutive, each bulk read continues where the last ended
+        src.position(srcBase + mVertical.mIndex[y * rows] * mSrcRowBytes);
+        if (mSrcRow2 != null) {
+            // 2x2 blocks, as when halving: both rows at once, nothing accumulated in out
+            final byte[] s1 = mSrcRow2;
+            src.get(s, 0, mSrcRowBytes);
+            src.get(s1, 0, mSrcRowBytes);
+            for (int c = 0; c < mChannels; c++) {
+                final int base = c * width;
+                for (int x = 0, i = first + mOffsets[c]; x < width; x++, i += step) {
+                    out[base + x] = ((s[i] & 0xff) + (s[i + stride] & 0xff)
+                            + (s1[i] & 0xff) + (s1[i + stride] & 0xff) + 2) >> 2;
+                }
+            }
+            return;
+        }
+
+        Arrays.fill(out, 0, length, 0);
+        for (int r = 0; r < rows; r++) {
+            src.get(s, 0, mSrcRowBytes);
+            for (int c = 0; c < mChannels; c++) {
+                final int base = c * width;
+                for (int x = 0, i = first + mOffsets[c]; x < width; x++, i += step) {
+                    int sum = 0;
+                    for (int t = 0, k = i; t < taps; t++, k += stride) {
+                        sum += s[k] & 0xff;
+                    }
+                    out[base + x] += sum;
+                }
+            }
+        }
+        final int shift = mBoxShift;
+        if (shift > 0) {
+            final int half = 1 << (shift - 1);
+            for (int i = 0; i < length; i++) {
+                out[i] = (out[i] + half) >> shift;
+            }
+        }
+    }
+
+    /**
+     * Returns source row {@code y} filtered horizontally, from the ring if it is there.
+     */
+    private int[] filteredRow(ByteBuffer src, int srcBase, int y) {
+        final int slot = y % mRing.length;
+        final int[] row = mRing[slot];
+        if (mRingRows[slot] == y) {
+            return row;
+        }
+        final byte[] s = mSrcRow;
+        src.position(srcBase + y * mSrcRowBytes);
+        src.get(s, 0, mSrcRowBytes);
+
+        final int taps = mHorizontal.mTaps;
+        final int[] index = mHorizontal.mIndex;
+        final int[] weight = mHorizontal.mWeight;
+        final int width = mDstWidth;
+        final int shift = SHIFT - ROW_SHIFT;
+        final int half = 1 << (shift - 1);
+        // every channel of an output pixel at once: the taps are loaded once per pixel
+        final int o0 = mOffsets[0];
+        final int o1 = mOffsets[Math.min(1, mChannels - 1)];
+        final int o2 = mOffsets[mChannels - 1];
+        if (mChannels == 1) {
+            for (int x = 0, k = 0; x < width; x++, k += taps) {
+                int a = 0;
+                for (int t = 0; t < taps; t++) {
+                    a += weight[k + t] * (s[index[k + t] + o0] & 0xff);
+                }
+                row[x] = (a + half) >> shift;
+            }
+        } else if (mPacked) {
+            final ByteBuffer view = mSrcView;
+            final int[] weight8 = mHorizontal.mWeight8;
+            final int lanes = 8 * o0;           // brings the first channel to bit 0
+            final int last = (mChannels - 1) * width;
+            for (int x = 0, k = 0; x < width; x++, k += 2) {
+                final int w0 = weight8[k], w1 = weight8[k + 1];
+                final int p0 = view.getInt(index[k]) >>> lanes;
+                final int p1 = view.getInt(index[k + 1]) >>> lanes;
+                // at most 255 * 256 per lane: no carry from the low lane into the high one
+                final int pair = (p0 & 0x00ff00ff) * w0 + (p1 & 0x00ff00ff) * w1;
+                row[x] = pair & 0xffff;
+                row[last + x] = pair >>> 16;
+                if (mChannels == 3) {
+                    row[width + x] = ((p0 >> 8) & 0xff) * w0 + ((p1 >> 8) & 0xff) * w1;
+                }
+            }
+        } else if (taps == 2) {
+            for (int x = 0, k = 0; x < width; x++, k += 2) {
+                final int w0 = weight[k], w1 = weight[k + 1];
+                final int i0 = index[k], i1 = index[k + 1];
+                row[x] = (w0 * (s[i0 + o0] & 0xff) + w1 * (s[i1 + o0] & 0xff) + half) >> shift;
+                row[width + x] =
+                        (w0 * (s[i0 + o1] & 0xff) + w1 * (s[i1 + o1] & 0xff) + half) >> shift;
+                if (mChannels == 3) {
+                    row[2 * width + x] =
+                            (w0 * (s[i0 + o2] & 0xff) + w1 * (s[i1 + o2] & 0xff) + half) >> shift;
+                }
+            }
+        } else {
+            for (int x = 0, k = 0; x < width; x++, k += taps) {
+                int a = 0, b = 0, c = 0;
+                for (int t = 0; t < taps; t++) {
+                    final int w = weight[k + t];
+                    final int i = index[k + t];
+                    a += w * (s[i + o0] & 0xff);
+                    b += w * (s[i + o1] & 0xff);
+                    c += w * (s[i + o2] & 0xff);
+                }
+                row[x] = (a + half) >> shift;
+                row[width + x] = (b + half) >> shift;
+                if (mChannels == 3) {
+                    row[2 * width + x] = (c + half) >> shift;
+                }
+            }
+        }
+        mRingRows[slot] = y;
+        return row;
+    }
+
+    /**
+     * One dimensional filter: output i is the sum over t of
+     * {@code mWeight[i * mTaps + t] * input[mIndex[i * mTaps + t]]}, weights in 1/4096.
+     * Outputs with fewer taps are padded with zero weights on their last input, so that the
+     * inputs of an output are always consecutive.
+     */
+    static final class Kernel {
+        final int mTaps;
+        final int[] mIndex;     // input position times the stride
+        final int[] mWeight;
+        final int[] mWeight8;   // the same weights in 1/256, two tap kernels only
+        // every output weighs mTaps consecutive inputs equally, the first inputs of
+        // consecutive outputs mStep apart: a box average
+        final boolean mBox;
+        final int mStep;
+
+        Kernel(int srcSize, int dstSize, ScaleFilter filter, int stride) {
+            final double scale = (double) srcSize / dstSize;
+            final int[] first = new int[dstSize];
+            final int[][] weights = new int[dstSize][];
+            int taps = 1;
+            for (int d = 0; d < dstSize; d++) {
+                double[] w;
+                if (filter == ScaleFilter.BILINEAR) {
+                    // pixel centers line up: output d sits at input (d + 0.5) * scale - 0.5
+                    final double s = Math.max(0, Math.min(srcSize - 1,
+                            (d + 0.5) * scale - 0.5));
+                    first[d] = Math.min((int) s, srcSize - 1);
+                    final double f = s - first[d];
+                    w = (first[d] + 1 < srcSize) ? new double[] { 1 - f, f } : new double[] { 1 };
+                } else {
+                    // output d covers input [lo, hi)
+                    final double lo = d * scale;
+                    final double hi = (d + 1) * scale;
+                    first[d] = (int) lo;
+                    final int end = Math.min(srcSize, (int) Math.ceil(hi - 1e-9));
+                    w = new double[Math.max(1, end - first[d])];
+                    for (int i = 0; i < w.length; i++) {
+                        final int x = first[d] + i;
+                        w[i] = (Math.min(hi, x + 1) - Math.max(lo, x)) / scale;
+                    }
+                }
+                weights[d] = quantize(w);
+                // drop inputs whose weight rounded to zero at either end
+                int from = 0, to = weights[d].length;
+                while (to - from > 1 && weights[d][from] == 0) {
+                    from++;
+                }
+                while (to - from > 1 && weights[d][to - 1] == 0) {
+                    to--;
+                }
+                first[d] += from;
+                weights[d] = Arrays.copyOfRange(weights[d], from, to);
+                taps = Math.max(taps, weights[d].length);
+            }
+
+            mTaps = taps;
+            mIndex = new int[dstSize * taps];
+            mWeight = new int[dstSize * taps];
+            for (int d = 0; d < dstSize; d++) {
+                final int[] w = weights[d];
+                for (int t = 0; t < taps; t++) {
+                    final int i = Math.min(t, w.length - 1);
+                    mIndex[d * taps + t] = (first[d] + i) * stride;
+                    mWeight[d * taps + t] = (t < w.length) ? w[t] : 0;
+                }
+            }
+
+            mStep = (dstSize > 1) ? mIndex[taps] - mIndex[0] : 0;
+            boolean box = ONE % taps == 0;
+            for (int i = 0; box && i < mWeight.length; i++) {
+                box = mWeight[i] == ONE / taps
+                        && mIndex[i - i % taps] == mIndex[0] + i / taps * mStep;
+            }
+            mBox = box;
+
+            if (taps == 2) {
+                mWeight8 = new int[dstSize * 2];
+                for (int d = 0; d < dstSize; d++) {
+                    final int w0 = (mWeight[2 * d] + 8) >> 4;
+                    mWeight8[2 * d] = w0;
+                    mWeight8[2 * d + 1] = 256 - w0;
+                }
+            } else {
+                mWeight8 = null;
+            }
+        }
+
+        /**
+         * Rounds weights summing to 1 to 1/4096, keeping their sum: the rounding error goes to
+         * the largest weight.
+         */
+        private static int[] quantize(double[] w) {
+            final int[] result = new int[w.length];
+            int sum = 0, largest = 0;
+            for (int i = 0; i < w.length; i++) {
+                result[i] = (int) Math.round(w[i] * ONE);
+                sum += result[i];
+                if (w[i] > w[largest]) {
+                    largest = i;
+                }
+            }
+            result[largest] += ONE - sum;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.quan404.mediautils;
+
+import java.util.Arrays;
+
+/**
+ * Fixed set of NV21 preview buffers going round between the camera and an encoding thread,
+ * for Camera.setPreviewCallbackWithBuffer().
+ * <p/>
+ * Every buffer is allocated up front and {@link #lendAll lent} to the camera
+ * (Camera.addCallbackBuffer()), which fills them in turn.  The preview callback
+ * {@link #submit}s each filled buffer with its capture time; the encoding thread
+ * {@link #take}s the oldest one, converts it into the encoder and {@link #recycle}s it, which
+ * lends it to the camera again.  The camera holds no buffer while they are all queued or being
+ * encoded: it drops frames until one is recycled, and {@link #getStarvedCount()} counts how
+ * often that happened.  Nothing is allocated after construction.  Thread-safe.
+ */
+public class PreviewBufferRing {
+
+    /**
+     * Where the buffers are lent, Camera.addCallbackBuffer() in practice.
+     */
+    public interface Lender {
+        void addCallbackBuffer(byte[] buffer);
+    }
+
+    private static final int LENT = 0;         // with the camera
+    private static final int QUEUED = 1;       // filled, not taken yet
+    private static final int TAKEN = 2;        // being encoded
+    private static final int IDLE = 3;         // not lent yet, or drained
+
+    private final byte[][] mBuffers;
+    private final int[] mStates;
+    private final long[] mTimestamps;
+    // submitted buffers, oldest first, as a ring of indices into mBuffers
+    private final int[] mQueue;
+    private int mQueueHead;
+    private int mQueueSize;
+    private int mLent;
+    private Lender mLender;
+
+    private long mSubmitted;
+    private long mStarved;
+    private int mPeakQueued;
+
+    /**
+     * @param frameSize size of a preview frame, width * height * 3 / 2 for NV21
+     * @param capacity  number of buffers, at least 2 so that the camera fills one while the
+     *                  other is encoded; more absorbs encoder stalls
+     */
+    public PreviewBufferRing(int frameSize, int capacity) {
+        if (frameSize <= 0 || capacity < 2) {
+            throw new IllegalArgumentException("invalid ring: " + capacity + " buffers of "
+                    + frameSize + " bytes");
+        }
+        mBuffers = new byte[capacity][frameSize];
+        mStates = new int[capacity];
+        Arrays.fill(mStates, IDLE);
+        mTimestamps = new long[capacity];
+        mQueue = new int[capacity];
+    }
+
+    public int getFrameSize() {
+        return mBuffers[0].length;
+    }
+
+    public int getCapacity() {
+        return mBuffers.length;
+    }
+
+    /**
+     * Lends every buffer that is not queued or being encoded to {@code lender}, which also gets
+     * the recycled ones from now on.  Call it before the camera starts its preview.
+     */
+    public synchronized void lendAll(Lender lender) {
+        mLender = lender;
+        for (int i = 0; i < mBuffers.length; i++) {
+            if (mStates[i] == IDLE) {
+                lend(i);
+            }
+        }
+    }
+
+    /**
+     * Queues a buffer filled by the camera, captured at {@code timestampNs}, for {@link #take}.
+     * Returns false, ignoring the buffer, once drained: a callback may still be on its way
+     * when the preview stops.
+     */
+    public synchronized boolean submit(byte[] buffer, long timestampNs) {
+        if (mLender == null) {
+            return false;
+        }
+        final int index = indexOf(buffer, LENT);
+        mStates[index] = QUEUED;
+        mTimestamps[index] = timestampNs;
+        mQueue[(mQueueHead + mQueueSize) % mQueue.length] = index;
+        mQueueSize++;
+        mPeakQueued = Math.max(mPeakQueued, mQueueSize);
+        mSubmitted++;
+        if (--mLent == 0) {
+            mStarved++;
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Returns the oldest submitted buffer, waiting at most {@code timeoutMs} milliseconds for
+     * one.  Returns null on timeout.
+     */
+    public synchronized byte[] take(long timeoutMs) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeoutMs * 1000000L;
+        long remainingMs = timeoutMs;
+        while (mQueueSize == 0) {
+            if (remainingMs <= 0) {
+                return null;
+            }
+            wait(remainingMs);
+            remainingMs = (deadline - System.nanoTime()) / 1000000L;
+        }
+        final int index = mQueue[mQueueHead];
+        mQueueHead = (mQueueHead + 1) % mQueue.length;
+        mQueueSize--;
+        mStates[index] = TAKEN;
+        return mBuffers[index];
+    }
+
+    /**
+     * Returns the capture time given to {@link #submit} with a buffer not recycled yet.
+     */
+    public synchronized long getTimestamp(byte[] buffer) {
+        return mTimestamps[indexOf(buffer, TAKEN)];
+    }
+
+    /**
+     * Lends a buffer returned by {@link #take} to the camera again.
+     */
+    public synchronized void recycle(byte[] buffer) {
+        final int index = indexOf(buffer, TAKEN);
+        if (mLender != null) {
+            lend(index);
+        } else {
+            mStates[index] = IDLE;
+        }
+    }
+
+    /**
+     * Forgets the lender and every buffer it holds or that was not taken, e.g. once the
+     * preview stopped.  Buffers being encoded become idle when recycled.  Returns the number
+     * of submitted buffers that were not taken.
+     */
+    public synchronized int drain() {
+        final int drained = mQueueSize;
+        mQueueSize = 0;
+        for (int i = 0; i < mBuffers.length; i++) {
+            if (mStates[i] != TAKEN) {
+                mStates[i] = IDLE;
+            }
+        }
+        mLent = 0;
+        mLender = null;
+        return drained;
+    }
+
+    /**
+     * Returns the number of buffers the camera holds.
+     */
+    public synchronized int getLentCount() {
+        return mLent;
+    }
+
+    /**
+     * Returns the number of submitted buffers waiting to be taken.
+     */
+    public synchronized int getQueuedCount() {
+        return mQueueSize;
+    }
+
+    /**
+     * Returns the highest number of submitted buffers ever waiting at once.
+     */
+    public synchronized int getPeakQueuedCount() {
+        return mPeakQueued;
+    }
+
+    /**
+     * Returns the number of frames submitted by the camera.
+     */
+    public synchronized long getSubmittedCount() {
+        return mSubmitted;
+    }
+
+    /**
+     * Returns how many times the camera was left without a buffer, dropping frames until the
+     * next recycle.
+     */
+    public synchronized long getStarvedCount() {
+        return mStarved;
+    }
+
+    private void lend(int index) {
+        mStates[index] = LENT;
+        mLent++;
+        mLender.addCallbackBuffer(mBuffers[index]);
+    }
+
+    /**
+     * Returns the index of {@code buffer}, checking that it is in {@code state}.
+     */
+    private int indexOf(byte[] buffer, int state) {
+        for (int i = 0; i < mBuffers.length; i++) {
+            if (mBuffers[i] == buffer) {
+                if (mStates[i] != state) {
+                    throw new IllegalStateException("buffer " + i + " in state " + mStates[i]
+                            + ", expected " + state);
+                }
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("buffer not from this ring");
+    }
+}
@@ -0,0 +1,43 @@
+package com.quan404.mediautils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Sink writing the encoded samples as they are, codec config first, to a channel: for H.264 an
+ * Annex B elementary stream that players and ffmpeg read without a container.  Writes straight
+ * from the encoder output buffer before returning, no copy.  Not thread-safe: samples come from
+ * a single encoder output thread.
+ */
+public class RawStreamWriter implements SampleSink {
+
+    private final WritableByteChannel mChannel;
+    private long mBytes;
+
+    public RawStreamWriter(WritableByteChannel channel) {
+        mChannel = channel;
+    }
+
+    /**
+     * @throws IllegalStateException wrapping the IOException of the channel
+     */
+    @Override
+    public void onSample(EncodedSample sample) {
+        final ByteBuffer data = sample.getData();
+        try {
+            while (data.hasRemaining()) {
+                mBytes += mChannel.write(data);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("raw stream write failed", e);
+        }
+    }
+
+    /**
+     * Returns the number of bytes written.
+     */
+    public long getByteCount() {
+        return mBytes;
+    }
+}
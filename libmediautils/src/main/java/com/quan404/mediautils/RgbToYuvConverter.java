@@ -0,0 +1,525 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts ARGB_8888 pixels (as returned by Bitmap.getPixels), RGBX bytes (as delivered by
+ * UVCCamera.PIXEL_FORMAT_RGBX frame callbacks) or RGB565 pixels (UVCCamera.PIXEL_FORMAT_RGB565,
+ * half the bytes to move per frame) to a YUV 4:2:0 frame.
+ * <p/>
+ * Unlike getNV21 / encodeYUV420SP this does not allocate anything per frame: the converter
+ * owns a couple of row-sized scratch buffers, created once, and writes the result straight
+ * into the caller's ByteBuffer (usually a MediaCodec input buffer) in the layout the encoder
+ * wants.  Create one converter per encoder and reuse it for every frame.
+ * <p/>
+ * Colors are converted with a {@link ColorMatrix}, BT.601 limited range unless
+ * {@link #setColorMatrix(ColorMatrix)} says otherwise.  Chroma is taken from the top-left pixel
+ * of each 2x2 block, or averaged over the block after
+ * {@link #setChromaFilter(ChromaFilter)}.
+ * <p/>
+ * By default a frame is converted on the calling thread.  After
+ * {@link #setExecutor(RowBandExecutor)} each frame is split into bands of row pairs that are
+ * converted in parallel.
+ * <p/>
+ * After {@link #setMonochrome(boolean)} only luma is computed, chroma being set to 128 once
+ * per destination buffer.
+ * <p/>
+ * Not thread-safe.
+ */
+public class RgbToYuvConverter {
+
+    // RGB565 low byte G2 G1 G0 B4..B0 and high byte R4..R0 G5 G4 G3, to their RGB888 bits
+    private static final int[] RGB565_LOW = new int[256];
+    private static final int[] RGB565_HIGH = new int[256];
+
+    static {
+        for (int v = 0; v < 256; v++) {
+            final int b = v & 0x1f;
+            RGB565_LOW[v] = ((v >> 5) << 10) | (b << 3) | (b >> 2);
+            final int r = v >> 3;
+            final int g = v & 0x07;     // top 3 bits of green
+            RGB565_HIGH[v] = ((r << 3 | r >> 2) << 16) | (g << 13) | ((g >> 1) << 8);
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mChromaWidth;
+    private final int mChromaHeight;
+    private final Yuv420Format mFormat;
+    private ColorMatrix mColorMatrix = ColorMatrix.BT601_LIMITED;
+    private ChromaFilter mChromaFilter = ChromaFilter.POINT;
+    // monochrome mode only, the destination frames whose chroma is already neutral
+    private NeutralChroma mNeutralChroma;
+
+    // one set of scratch buffers per band, reused for every frame
+    private BandScratch[] mScratch;
+    private RowBandExecutor mExecutor;
+
+    // frame being converted, either mArgb or mPacked is set
+    private int[] mArgb;
+    private ByteBuffer mPacked;         // RGBX or RGB565 bytes
+    private boolean mRgb565;
+    private int mPackedBase;
+    private ByteBuffer mDst;
+    private int mBase;
+    private final RowBandExecutor.Task mBandTask = new RowBandExecutor.Task() {
+        @Override
+        public void runBand(int band, int top, int bottom) {
+            BandScratch scratch = mScratch[band];
+            final boolean callerThread = band == 0;
+            convertRows(scratch.view(mDst, callerThread),
+                    (mPacked == null) ? null : scratch.view(mPacked, callerThread),
+                    top, bottom, 0, mWidth, scratch);
+        }
+    };
+
+    public RgbToYuvConverter(int width, int height, Yuv420Format format) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid size " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mChromaWidth = (width + 1) / 2;
+        mChromaHeight = (height + 1) / 2;
+        mFormat = format;
+
+        mScratch = new BandScratch[] { new BandScratch() };
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public Yuv420Format getFormat() {
+        return mFormat;
+    }
+
+    public ColorMatrix getColorMatrix() {
+        return mColorMatrix;
+    }
+
+    /**
+     * Selects the color matrix of the following frames, BT.601 limited range by default.  Use
+     * BT.709 for HD content, that is what players assume.
+     */
+    public void setColorMatrix(ColorMatrix colorMatrix) {
+        if (colorMatrix == null) {
+            throw new IllegalArgumentException("colorMatrix is null");
+        }
+        mColorMatrix = colorMatrix;
+    }
+
+    public ChromaFilter getChromaFilter() {
+        return mChromaFilter;
+    }
+
+    /**
+     * Selects how chroma is downsampled in the following frames, {@link ChromaFilter#POINT} by
+     * default.
+     */
+    public void setChromaFilter(ChromaFilter chromaFilter) {
+        if (chromaFilter == null) {
+            throw new IllegalArgumentException("chromaFilter is null");
+        }
+        mChromaFilter = chromaFilter;
+    }
+
+    public boolean isMonochrome() {
+        return mNeutralChroma != null;
+    }
+
+    /**
+     * Computes luma only in the following frames, for grayscale scenes.  Chroma is set to 128
+     * once per destination buffer, the first time a frame is written at its position, and not
+     * written again as long as the buffer is among the last 16 seen: encoders and
+     * {@link FramePool} cycle through fewer buffers than that.  Nothing else may write the
+     * chroma of those buffers in between.
+     */
+    public void setMonochrome(boolean monochrome) {
+        mNeutralChroma = monochrome ? new NeutralChroma() : null;
+    }
+
+    /**
+     * Returns the number of bytes written by each conversion.
+     */
+    public int getFrameSize() {
+        return mWidth * mHeight + 2 * mChromaWidth * mChromaHeight;
+    }
+
+    /**
+     * Converts the following frames in parallel on {@code executor}, or on the calling thread
+     * if null.  The executor is not owned by the converter and may be shared by converters
+     * used from the same thread.
+     */
+    public void setExecutor(RowBandExecutor executor) {
+        final int bands = (executor == null) ? 1 : executor.getThreadCount();
+        if (mScratch.length != bands) {
+            BandScratch[] scratch = new BandScratch[bands];
+            for (int i = 0; i < bands; i++) {
+                scratch[i] = (i < mScratch.length) ? mScratch[i] : new BandScratch();
+            }
+            mScratch = scratch;
+        }
+        mExecutor = executor;
+    }
+
+    /**
+     * Converts one frame.  {@code argb} holds width*height pixels, row after row.  The frame is
+     * written at the current position of {@code dst}, which is advanced past it.
+     */
+    public void convert(int[] argb, ByteBuffer dst) {
+        if (argb.length < mWidth * mHeight) {
+            throw new IllegalArgumentException("argb too small: " + argb.length);
+        }
+        mArgb = argb;
+        try {
+            convertFrame(dst);
+        } finally {
+            mArgb = null;
+        }
+    }
+
+    /**
+     * Converts one frame of RGBX bytes, 4 bytes per pixel in R, G, B, X order, read from the
+     * current position of {@code rgbx}.  The pixels are read in place, so a direct buffer
+     * handed over by UVCCamera is converted without any intermediate copy.  Both buffers are
+     * advanced past the frame.
+     */
+    public void convertRgbx(ByteBuffer rgbx, ByteBuffer dst) {
+        convertPacked(rgbx, false, dst);
+    }
+
+    /**
+     * Converts one frame of RGB565 pixels, 2 bytes per pixel, little endian: G2 G1 G0 B4..B0
+     * then R4..R0 G5 G4 G3, as written by libuvc.  The pixels are read from the current
+     * position of {@code rgb565}, in place, and expanded to 8 bits per channel by replicating
+     * their high bits, so that full scale stays full scale.  Both buffers are advanced past the
+     * frame.
+     */
+    public void convertRgb565(ByteBuffer rgb565, ByteBuffer dst) {
+        convertPacked(rgb565, true, dst);
+    }
+
+    private void convertPacked(ByteBuffer src, boolean rgb565, ByteBuffer dst) {
+        final int frameBytes = (rgb565 ? 2 : 4) * mWidth * mHeight;
+        if (src.remaining() < frameBytes) {
+            throw new IllegalArgumentException((rgb565 ? "rgb565" : "rgbx") + " too small: "
+                    + src.remaining() + " < " + frameBytes);
+        }
+        for (BandScratch scratch : mScratch) {
+            scratch.preparePackedRows();
+        }
+        mPacked = src;
+        mRgb565 = rgb565;
+        mPackedBase = src.position();
+        try {
+            convertFrame(dst);
+        } finally {
+            mPacked = null;
+        }
+        src.position(mPackedBase + frameBytes);
+    }
+
+    /**
+     * Converts the rectangle [left, right) x [top, bottom) of the RGBX or RGB565 frame at the
+     * current position of {@code src} into the frame at the current position of {@code dst},
+     * leaving the rest of {@code dst} alone.  {@code left} and {@code top} are even, and
+     * {@code bottom} too unless it is the height of the frame, so that every 2x2 chroma block
+     * is converted whole and the result is the same as converting the whole frame.  Runs on the
+     * calling thread; the positions of both buffers are left unchanged.
+     */
+    void convertRegion(ByteBuffer src, boolean rgb565, ByteBuffer dst, int left, int top,
+                       int right, int bottom) {
+        if ((left & 1) != 0 || (top & 1) != 0 || ((bottom & 1) != 0 && bottom != mHeight)
+                || left >= right || top >= bottom
+                || right > mWidth || bottom > mHeight) {
+            throw new IllegalArgumentException("invalid region " + left + "," + top + " - "
+                    + right + "," + bottom + " of " + mWidth + "x" + mHeight);
+        }
+        final int srcBase = src.position();
+        final int base = dst.position();
+        final BandScratch scratch = mScratch[0];
+        scratch.preparePackedRows();
+        mPacked = src;
+        mRgb565 = rgb565;
+        mPackedBase = srcBase;
+        mBase = base;
+        try {
+            if (mNeutralChroma != null) {
+                scratch.fillNeutralChroma(mNeutralChroma, dst, base);
+            }
+            convertRows(dst, src, top, bottom, left, right, scratch);
+        } finally {
+            mPacked = null;
+            src.position(srcBase);
+            dst.position(base);
+        }
+    }
+
+    private void convertFrame(ByteBuffer dst) {
+        if (dst.remaining() < getFrameSize()) {
+            throw new IllegalArgumentException("dst too small: " + dst.remaining()
+                    + " < " + getFrameSize());
+        }
+
+        mBase = dst.position();
+        if (mNeutralChroma != null) {
+            mScratch[0].fillNeutralChroma(mNeutralChroma, dst, mBase);
+        }
+        if (mExecutor == null) {
+            convertRows(dst, mPacked, 0, mHeight, 0, mWidth, mScratch[0]);
+        } else {
+            mDst = dst;
+            try {
+                mExecutor.execute(mBandTask, mHeight);
+            } finally {
+                mDst = null;
+            }
+        }
+        dst.position(mBase + getFrameSize());
+    }
+
+    /**
+     * Converts columns [left, right) of rows [top, bottom) of the current frame, {@code top}
+     * and {@code left} being even.  {@code packed} is this band's view of the RGBX or RGB565
+     * source, if any.  The positions of both buffers are left undefined.
+     */
+    private void convertRows(ByteBuffer dst, ByteBuffer packed, int top, int bottom, int left,
+                             int right, BandScratch scratch) {
+        final int width = right - left;
+        for (int j = top; j < bottom; j += 2) {
+            final int rows = (j + 1 < mHeight) ? 2 : 1;
+            if (mArgb != null) {
+                encodeRows(mArgb, j * mWidth + left, mWidth, rows, width, scratch);
+            } else {
+                readPackedRows(packed, j, left, rows, width, scratch);
+                if (mNeutralChroma != null) {
+                    encodePackedLumaRows(rows * width, scratch);
+                } else {
+                    if (mRgb565) {
+                        unpackRgb565Rows(rows * width, scratch);
+                    } else {
+                        unpackRgbxRows(rows * width, scratch);
+                    }
+                    encodeRows(scratch.mArgbRows, 0, width, rows, width, scratch);
+                }
+            }
+            scratch.writeRows(dst, mBase, j, rows, left, width, mNeutralChroma != null);
+        }
+    }
+
+    /**
+     * Reads columns [left, left + width) of {@code rows} rows of RGBX or RGB565 bytes, from
+     * row {@code j} on, into the packed scratch rows.  The bytes are read in bulk, a whole row
+     * pair at once when the columns span the frame, which is much faster than reading a direct
+     * buffer pixel by pixel.
+     */
+    private void readPackedRows(ByteBuffer packed, int j, int left, int rows, int width,
+                                BandScratch scratch) {
+        final int bytesPerPixel = mRgb565 ? 2 : 4;
+        final byte[] src = scratch.mPackedRows;
+        if (width == mWidth) {
+            packed.position(mPackedBase + bytesPerPixel * j * mWidth);
+            packed.get(src, 0, bytesPerPixel * rows * mWidth);
+        } else {
+            for (int r = 0; r < rows; r++) {
+                packed.position(mPackedBase + bytesPerPixel * ((j + r) * mWidth + left));
+                packed.get(src, r * bytesPerPixel * width, bytesPerPixel * width);
+            }
+        }
+    }
+
+    /**
+     * Unpacks the first {@code pixels} RGBX pixels of the packed scratch rows to the ARGB
+     * scratch rows.
+     */
+    private void unpackRgbxRows(int pixels, BandScratch scratch) {
+        final byte[] src = scratch.mPackedRows;
+        final int[] argb = scratch.mArgbRows;
+        for (int i = 0, s = 0; i < pixels; i++, s += 4) {
+            argb[i] = ((src[s] & 0xff) << 16) | ((src[s + 1] & 0xff) << 8) | (src[s + 2] & 0xff);
+        }
+    }
+
+    /**
+     * Same as {@link #unpackRgbxRows} for RGB565 pixels.  Each channel is widened to 8 bits,
+     * v << 3 | v >> 2 for 5 bits and v << 2 | v >> 4 for 6 bits, and the bits of the widened
+     * pixel coming from either byte never overlap: the pixel is the OR of one table entry per
+     * byte.
+     */
+    private void unpackRgb565Rows(int pixels, BandScratch scratch) {
+        final byte[] src = scratch.mPackedRows;
+        final int[] argb = scratch.mArgbRows;
+        final int[] low = RGB565_LOW;
+        final int[] high = RGB565_HIGH;
+        for (int i = 0, s = 0; i < pixels; i++, s += 2) {
+            argb[i] = low[src[s] & 0xff] | high[src[s + 1] & 0xff];
+        }
+    }
+
+    /**
+     * Monochrome conversion of the first {@code pixels} pixels of the packed scratch rows: luma
+     * is computed straight from the bytes, without going through the ARGB scratch rows.
+     */
+    private void encodePackedLumaRows(int pixels, BandScratch scratch) {
+        final byte[] src = scratch.mPackedRows;
+        final byte[] yRows = scratch.mYRows;
+        final ColorMatrix matrix = mColorMatrix;
+        final int bias = matrix.mYBias;
+        final int kR = matrix.mYR, kG = matrix.mYG, kB = matrix.mYB;
+        final boolean clampY = matrix.mClampY;
+        if (mRgb565) {
+            final int[] low = RGB565_LOW;
+            final int[] high = RGB565_HIGH;
+            for (int i = 0, s = 0; i < pixels; i++, s += 2) {
+                final int p = low[src[s] & 0xff] | high[src[s + 1] & 0xff];
+                final int y = (kR * (p >> 16) + kG * ((p >> 8) & 0xff) + kB * (p & 0xff) + bias)
+                        >> ColorMatrix.SHIFT;
+                yRows[i] = (byte) (clampY ? ColorMatrix.clamp(y) : y);
+            }
+        } else {
+            for (int i = 0, s = 0; i < pixels; i++, s += 4) {
+                final int y = (kR * (src[s] & 0xff) + kG * (src[s + 1] & 0xff)
+                        + kB * (src[s + 2] & 0xff) + bias) >> ColorMatrix.SHIFT;
+                yRows[i] = (byte) (clampY ? ColorMatrix.clamp(y) : y);
+            }
+        }
+    }
+
+    /**
+     * Computes luma of {@code rows} rows of {@code width} pixels, the first starting at pixel
+     * {@code index} and the second {@code stride} pixels further, plus chroma of each 2x2 block
+     * unless monochrome, into the scratch buffers.
+     */
+    private void encodeRows(int[] argb, int index, int stride, int rows, int width,
+                            BandScratch scratch) {
+        final ColorMatrix matrix = mColorMatrix;
+
+        final byte[] yRows = scratch.mYRows;
+        final int bias = matrix.mYBias;
+        final int kR = matrix.mYR, kG = matrix.mYG, kB = matrix.mYB;
+        final int kRB = matrix.mYRB;
+        for (int r = 0; r < rows; r++) {
+            final int src = index + r * stride;
+            final int out = r * width;
+            if (matrix.mClampY) {
+                for (int x = 0; x < width; x++) {
+                    final int p = argb[src + x];
+                    final int y = kR * ((p >> 16) & 0xff) + kG * ((p >> 8) & 0xff)
+                            + kB * (p & 0xff);
+                    yRows[out + x] = (byte) ColorMatrix.clamp((y + bias) >> ColorMatrix.SHIFT);
+                }
+            } else {
+                // red and blue weighted by one multiply, see ColorMatrix.mYRB
+                for (int x = 0; x < width; x++) {
+                    final int p = argb[src + x];
+                    final int y = ((p & 0xff00ff) * kRB >>> 16) + kG * ((p >> 8) & 0xff);
+                    yRows[out + x] = (byte) ((y + bias) >> ColorMatrix.SHIFT);
+                }
+            }
+        }
+
+        if (mNeutralChroma != null) {
+            return;
+        }
+
+        final int chromaWidth = (width + 1) / 2;
+        final byte[] uRow = scratch.mURow;
+        final byte[] vRow = scratch.mVRow;
+        final int uOffset = scratch.mUOffset;
+        final int vOffset = scratch.mVOffset;
+        final int step = scratch.mStep;
+        final int uR = matrix.mUR, uG = matrix.mUG, uB = matrix.mUB;
+        final int vR = matrix.mVR, vG = matrix.mVG, vB = matrix.mVB;
+        final int cBias = ColorMatrix.C_BIAS;
+        if (mChromaFilter == ChromaFilter.POINT) {
+            for (int c = 0; c < chromaWidth; c++) {
+                final int p = argb[index + 2 * c];
+                final int R = (p >> 16) & 0xff;
+                final int G = (p >> 8) & 0xff;
+                final int B = p & 0xff;
+                uRow[uOffset + c * step] = (byte) ColorMatrix.clamp(
+                        (uR * R + uG * G + uB * B + cBias) >> ColorMatrix.SHIFT);
+                vRow[vOffset + c * step] = (byte) ColorMatrix.clamp(
+                        (vR * R + vG * G + vB * B + cBias) >> ColorMatrix.SHIFT);
+            }
+        } else {
+            // the last row or column of an odd size frame is averaged with itself
+            final int next = (rows == 2) ? stride : 0;
+            final int pairs = width / 2;
+            for (int c = 0; c < chromaWidth; c++) {
+                final int i = index + 2 * c;
+                final int right = (c < pairs) ? 1 : 0;
+                final int p0 = argb[i];
+                final int p1 = argb[i + right];
+                final int p2 = argb[i + next];
+                final int p3 = argb[i + next + right];
+                // red and blue are summed together in two 16-bit lanes, plus rounding
+                final int rb = (p0 & 0xff00ff) + (p1 & 0xff00ff) + (p2 & 0xff00ff)
+                        + (p3 & 0xff00ff) + 0x20002;
+                final int R = (rb >> 18) & 0xff;
+                final int B = (rb >> 2) & 0xff;
+                final int G = ((p0 >> 8 & 0xff) + (p1 >> 8 & 0xff)
+                        + (p2 >> 8 & 0xff) + (p3 >> 8 & 0xff) + 2) >> 2;
+                uRow[uOffset + c * step] = (byte) ColorMatrix.clamp(
+                        (uR * R + uG * G + uB * B + cBias) >> ColorMatrix.SHIFT);
+                vRow[vOffset + c * step] = (byte) ColorMatrix.clamp(
+                        (vR * R + vG * G + vB * B + cBias) >> ColorMatrix.SHIFT);
+            }
+        }
+    }
+
+    /**
+     * Row buffers of one band, plus the views of the destination buffers it writes into.
+     */
+    private class BandScratch extends YuvScratchRows {
+        private static final int VIEW_CACHE_SIZE = 8;
+
+        byte[] mPackedRows;     // two rows of RGBX or RGB565 input, created on first use
+        int[] mArgbRows;        // the same rows unpacked
+
+        // Each band moves the position of its own duplicate of the destination (and source)
+        // buffer.  Codecs cycle through a handful of input buffers, so the duplicates are cached
+        // per buffer.
+        private final ByteBuffer[] mTargets = new ByteBuffer[VIEW_CACHE_SIZE];
+        private final ByteBuffer[] mViews = new ByteBuffer[VIEW_CACHE_SIZE];
+        private int mNextView;
+
+        BandScratch() {
+            super(mWidth, mHeight, mFormat);
+        }
+
+        void preparePackedRows() {
+            if (mPackedRows == null) {
+                mPackedRows = new byte[8 * mWidth];
+                mArgbRows = new int[2 * mWidth];
+            }
+        }
+
+        /**
+         * Returns a buffer sharing the content of {@code dst} whose position this band is free
+         * to move.  The calling thread's band goes through {@code dst} itself.
+         */
+        ByteBuffer view(ByteBuffer dst, boolean callerThread) {
+            if (callerThread) {
+                return dst;
+            }
+            for (int i = 0; i < VIEW_CACHE_SIZE; i++) {
+                if (mTargets[i] == dst) {
+                    mViews[i].clear();
+                    return mViews[i];
+                }
+            }
+            final int i = mNextView;
+            mNextView = (mNextView + 1) % VIEW_CACHE_SIZE;
+            mTargets[i] = dst;
+            mViews[i] = dst.duplicate();
+            return mViews[i];
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.quan404.mediautils;
+
+/**
+ * Fixed pool of worker threads that process a frame as horizontal bands of rows.
+ * <p/>
+ * A frame of {@code rows} rows is split into {@link #getThreadCount()} bands of nearly equal
+ * height.  Band boundaries always fall on an even row, so each row pair of a 4:2:0 frame (and
+ * therefore each chroma row) belongs to exactly one band.  The calling thread processes the
+ * first band itself and the workers process the others; {@link #execute(Task, int)} returns
+ * once every band is done.
+ * <p/>
+ * The workers are started once and parked between frames, so dispatching a frame does not
+ * allocate anything.  Call {@link #shutdown()} when done.
+ */
+public class RowBandExecutor {
+
+    /**
+     * Work to run on one band of a frame.
+     */
+    public interface Task {
+        /**
+         * Processes rows [top, bottom) of the frame.  Called concurrently for different bands,
+         * each band from a single thread.
+         *
+         * @param band index of the band, in [0, getThreadCount())
+         */
+        void runBand(int band, int top, int bottom);
+    }
+
+    private final Thread[] mWorkers;
+    private final int mBands;
+
+    private final Object mLock = new Object();
+    // fields below are guarded by mLock
+    private int mGeneration;
+    private int mPending;
+    private Task mTask;
+    private int mRows;
+    private Throwable mError;
+    private boolean mShutdown;
+
+    /**
+     * Creates an executor with {@code threadCount} bands.  {@code threadCount - 1} worker
+     * threads are started, the caller of execute() being the last one.
+     */
+    public RowBandExecutor(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be >= 1: " + threadCount);
+        }
+        mBands = threadCount;
+        mWorkers = new Thread[threadCount - 1];
+        for (int i = 0; i < mWorkers.length; i++) {
+            final int band = i + 1;
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop(band);
+                }
+            }, "RowBand-" + band);
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * Creates an executor with one band per available processor.
+     */
+    public static RowBandExecutor forAvailableProcessors() {
+        return new RowBandExecutor(Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getThreadCount() {
+        return mBands;
+    }
+
+    /**
+     * Returns the first row of {@code band} when a frame of {@code rows} rows is split in
+     * {@code bands} bands.  The last band ends at {@code rows}.
+     */
+    static int bandTop(int band, int bands, int rows) {
+        final int pairs = (rows + 1) / 2;
+        return Math.min(rows, 2 * (int) ((long) pairs * band / bands));
+    }
+
+    /**
+     * Runs {@code task} on every band of a frame of {@code rows} rows and waits for all of them.
+     * Calls are serialized; an exception thrown by any band is rethrown here.
+     */
+    public synchronized void execute(Task task, int rows) {
+        synchronized (mLock) {
+            if (mShutdown) {
+                throw new IllegalStateException("executor is shut down");
+            }
+            mTask = task;
+            mRows = rows;
+            mError = null;
+            mPending = mWorkers.length;
+            mGeneration++;
+            mLock.notifyAll();
+        }
+
+        Throwable error = null;
+        try {
+            task.runBand(0, 0, bandTop(1, mBands, rows));
+        } catch (Throwable t) {
+            error = t;
+        }
+
+        // the workers write into the caller's buffers, so always wait for them
+        boolean interrupted = false;
+        synchronized (mLock) {
+            while (mPending > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            mTask = null;
+            if (error == null) {
+                error = mError;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error != null) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    /**
+     * Stops the worker threads, after the frame in progress if any.  The executor cannot be
+     * used afterwards.
+     */
+    public synchronized void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            mLock.notifyAll();
+        }
+    }
+
+    private void workerLoop(int band) {
+        int seen = 0;
+        while (true) {
+            Task task;
+            int rows;
+            synchronized (mLock) {
+                while (mGeneration == seen && !mShutdown) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        // only shutdown() stops a worker
+                    }
+                }
+                if (mShutdown) {
+                    return;
+                }
+                seen = mGeneration;
+                task = mTask;
+                rows = mRows;
+            }
+
+            Throwable error = null;
+            try {
+                task.runBand(band, bandTop(band, mBands, rows), bandTop(band + 1, mBands, rows));
+            } catch (Throwable t) {
+                error = t;
+            }
+
+            synchronized (mLock) {
+                if (error != null && mError == null) {
+                    mError = error;
+                }
+                if (--mPending == 0) {
+                    mLock.notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Hands every encoder output buffer to all its {@link SampleSink}s, without copying it, and
+ * gives it back to the encoder once the last of them is done with it.
+ * <p/>
+ * A sink that writes the sample before returning, like a muxer, costs nothing: the output
+ * buffer is released as soon as {@link #dispatch} returns.  A sink that
+ * {@link EncodedSample#retain() retains} the sample delays the release until it releases it
+ * too, and one that {@link SamplePool#copy copies} it does not delay it at all.  The sample
+ * wrappers are reused, nothing is allocated per sample once as many as the encoder has output
+ * buffers were created.  Thread-safe.
+ */
+public class SampleDispatcher {
+
+    /**
+     * Gives an output buffer back to the encoder, MediaCodec.releaseOutputBuffer() in practice.
+     */
+    public interface Releaser {
+        void releaseOutputBuffer(int index);
+    }
+
+    private final Releaser mReleaser;
+    // replaced as a whole when a sink is added or removed, dispatch() iterates a snapshot
+    private volatile SampleSink[] mSinks = new SampleSink[0];
+
+    // wrappers not in use
+    private EncodedSample[] mFree = new EncodedSample[4];
+    private int mFreeCount;
+
+    private long mDispatched;
+    private long mDeferred;
+
+    private final EncodedSample.Recycler mRecycler = new EncodedSample.Recycler() {
+        @Override
+        public void recycle(EncodedSample sample) {
+            final int index = sample.getIndex();
+            synchronized (SampleDispatcher.this) {
+                if (mFreeCount == mFree.length) {
+                    mFree = Arrays.copyOf(mFree, 2 * mFree.length);
+                }
+                mFree[mFreeCount++] = sample;
+            }
+            mReleaser.releaseOutputBuffer(index);
+        }
+    };
+
+    public SampleDispatcher(Releaser releaser) {
+        mReleaser = releaser;
+    }
+
+    public synchronized void addSink(SampleSink sink) {
+        if (sink == null) {
+            throw new IllegalArgumentException("null sink");
+        }
+        final SampleSink[] sinks = Arrays.copyOf(mSinks, mSinks.length + 1);
+        sinks[sinks.length - 1] = sink;
+        mSinks = sinks;
+    }
+
+    public synchronized void removeSink(SampleSink sink) {
+        for (int i = 0; i < mSinks.length; i++) {
+            if (mSinks[i] == sink) {
+                final SampleSink[] sinks = new SampleSink[mSinks.length - 1];
+                System.arraycopy(mSinks, 0, sinks, 0, i);
+                System.arraycopy(mSinks, i + 1, sinks, i, sinks.length - i);
+                mSinks = sinks;
+                return;
+            }
+        }
+    }
+
+    public int getSinkCount() {
+        return mSinks.length;
+    }
+
+    /**
+     * Hands output buffer {@code index}, {@code size} bytes of {@code data} from
+     * {@code offset}, to every sink in the order they were added.  The buffer is released
+     * before this returns unless a sink retained it.  If a sink throws, the buffer is released
+     * all the same, once the sinks that retained it are done, and the remaining sinks do not
+     * get it.
+     */
+    public void dispatch(int index, ByteBuffer data, int offset, int size,
+            long presentationTimeUs, int flags) {
+        final EncodedSample sample = obtain();
+        sample.set(index, data, offset, size, presentationTimeUs, flags);
+        final SampleSink[] sinks = mSinks;
+        try {
+            for (int i = 0; i < sinks.length; i++) {
+                sinks[i].onSample(sample);
+            }
+        } finally {
+            synchronized (this) {
+                mDispatched++;
+                if (sample.isShared()) {
+                    mDeferred++;
+                }
+            }
+            // the reference of the dispatcher, the last one unless a sink retained it
+            sample.release();
+        }
+    }
+
+    /**
+     * Returns the number of samples dispatched.
+     */
+    public synchronized long getDispatchedCount() {
+        return mDispatched;
+    }
+
+    /**
+     * Returns the number of samples a sink retained past {@link #dispatch}, delaying the
+     * release of their output buffer.
+     */
+    public synchronized long getDeferredCount() {
+        return mDeferred;
+    }
+
+    private synchronized EncodedSample obtain() {
+        if (mFreeCount == 0) {
+            return new EncodedSample(mRecycler);
+        }
+        final EncodedSample sample = mFree[--mFreeCount];
+        mFree[mFreeCount] = null;
+        return sample;
+    }
+}
@@ -0,0 +1,133 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed number of buffers for the {@link EncodedSample}s a sink keeps past
+ * {@link SampleSink#onSample}, so that the encoder output buffer can be released right away.
+ * <p/>
+ * Each buffer starts at {@code capacity} bytes and is replaced by a larger one the first time
+ * a bigger sample is copied into it (key frames are), so allocations stop once every buffer
+ * held the largest sample.  {@link #copy} returns null when every copy is still held, and
+ * {@link #getExhaustedCount()} counts it.  Thread-safe.
+ */
+public class SamplePool {
+
+    private final boolean mDirect;
+    private final EncodedSample[] mSamples;
+    private final ByteBuffer[] mBuffers;
+    private final boolean[] mInUse;
+    private int mInUseCount;
+
+    private long mCopies;
+    private long mExhausted;
+    private long mGrown;
+
+    private final EncodedSample.Recycler mRecycler = new EncodedSample.Recycler() {
+        @Override
+        public void recycle(EncodedSample sample) {
+            synchronized (SamplePool.this) {
+                for (int i = 0; i < mSamples.length; i++) {
+                    if (mSamples[i] == sample) {
+                        mInUse[i] = false;
+                        mInUseCount--;
+                        return;
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * @param count    number of copies held at once
+     * @param capacity initial size of each buffer, e.g. the bit rate over the frame rate
+     * @param direct   allocate direct buffers, as MediaMuxer.writeSampleData() and channels
+     *                 copy heap ones once more
+     */
+    public SamplePool(int count, int capacity, boolean direct) {
+        if (count <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("invalid pool: " + count + " samples of "
+                    + capacity + " bytes");
+        }
+        mDirect = direct;
+        mSamples = new EncodedSample[count];
+        mBuffers = new ByteBuffer[count];
+        mInUse = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            mSamples[i] = new EncodedSample(mRecycler);
+            mBuffers[i] = allocate(capacity);
+        }
+    }
+
+    public int getCount() {
+        return mSamples.length;
+    }
+
+    /**
+     * Returns a copy of {@code sample} holding one reference, to be released by the caller, or
+     * null if every copy is held.
+     */
+    public EncodedSample copy(EncodedSample sample) {
+        final ByteBuffer data = sample.getData();
+        final int size = data.remaining();
+        int slot = -1;
+        ByteBuffer buffer;
+        synchronized (this) {
+            for (int i = 0; i < mSamples.length; i++) {
+                if (!mInUse[i]) {
+                    slot = i;
+                    break;
+                }
+            }
+            if (slot < 0) {
+                mExhausted++;
+                return null;
+            }
+            mInUse[slot] = true;
+            mInUseCount++;
+            mCopies++;
+            if (mBuffers[slot].capacity() < size) {
+                mBuffers[slot] = allocate(size);
+                mGrown++;
+            }
+            buffer = mBuffers[slot];
+        }
+        buffer.clear();
+        buffer.put(data);
+        mSamples[slot].set(-1, buffer, 0, size, sample.getPresentationTimeUs(),
+                sample.getFlags());
+        return mSamples[slot];
+    }
+
+    /**
+     * Returns the number of copies held.
+     */
+    public synchronized int getInUseCount() {
+        return mInUseCount;
+    }
+
+    /**
+     * Returns the number of samples copied.
+     */
+    public synchronized long getCopyCount() {
+        return mCopies;
+    }
+
+    /**
+     * Returns how many times a copy was refused because every one was held.
+     */
+    public synchronized long getExhaustedCount() {
+        return mExhausted;
+    }
+
+    /**
+     * Returns how many times a buffer was replaced by a larger one.
+     */
+    public synchronized long getGrownCount() {
+        return mGrown;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return mDirect ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+}
@@ -0,0 +1,139 @@
+package com.quan404.mediautils;
+
+/**
+ * Sink keeping the last encoded samples in memory, e.g. to save the moments before something
+ * happened, in pooled copies so that the encoder gets its output buffers back right away.
+ * <p/>
+ * Holds at most {@code capacity} samples, dropping the oldest, plus the latest codec config
+ * sample apart, since a decoder needs it first.  {@link #drainTo} hands the codec config and
+ * the samples from the oldest key frame on, the earlier ones cannot be decoded.  Nothing is
+ * allocated per sample once the pooled buffers grew to the largest one.
+ * <p/>
+ * When the pool has no free copy, e.g. a smaller pool or samples a sink retained past
+ * {@link #drainTo}, the oldest samples are dropped to free one, and the new sample is dropped
+ * if none is left.  Thread-safe.
+ */
+public class SampleRing implements SampleSink {
+
+    private final SamplePool mPool;
+    private final EncodedSample[] mSamples;
+    private int mHead;
+    private int mSize;
+    private EncodedSample mConfig;
+    private long mDropped;
+
+    /**
+     * @param capacity       number of samples kept
+     * @param sampleCapacity initial size of the pooled buffers, e.g. the bit rate over the
+     *                       frame rate
+     */
+    public SampleRing(int capacity, int sampleCapacity) {
+        // one more for the codec config
+        this(capacity, new SamplePool(capacity + 1, sampleCapacity, true));
+    }
+
+    /**
+     * @param capacity number of samples kept
+     * @param pool     holds the copies of the samples, possibly fewer than {@code capacity}
+     */
+    public SampleRing(int capacity, SamplePool pool) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+        }
+        mPool = pool;
+        mSamples = new EncodedSample[capacity];
+    }
+
+    @Override
+    public synchronized void onSample(EncodedSample sample) {
+        if (sample.getSize() == 0) {
+            // end of stream
+            return;
+        }
+        if (sample.isCodecConfig()) {
+            final EncodedSample config = copy(sample);
+            if (config == null) {
+                // the previous one is kept, it may still match
+                mDropped++;
+                return;
+            }
+            if (mConfig != null) {
+                mConfig.release();
+            }
+            mConfig = config;
+            return;
+        }
+        if (mSize == mSamples.length) {
+            dropOldest();
+        }
+        final EncodedSample copy = copy(sample);
+        if (copy == null) {
+            mDropped++;
+            return;
+        }
+        mSamples[(mHead + mSize) % mSamples.length] = copy;
+        mSize++;
+    }
+
+    /**
+     * Returns a pooled copy of {@code sample}, dropping the oldest samples kept while the pool
+     * has no free copy, or null if none could be freed.
+     */
+    private EncodedSample copy(EncodedSample sample) {
+        EncodedSample copy;
+        while ((copy = mPool.copy(sample)) == null && mSize > 0) {
+            dropOldest();
+        }
+        return copy;
+    }
+
+    private void dropOldest() {
+        mSamples[mHead].release();
+        mSamples[mHead] = null;
+        mHead = (mHead + 1) % mSamples.length;
+        mSize--;
+        mDropped++;
+    }
+
+    /**
+     * Returns the number of samples kept, not counting the codec config.
+     */
+    public synchronized int getSampleCount() {
+        return mSize;
+    }
+
+    /**
+     * Returns the number of samples dropped, to make room for newer ones or for want of a
+     * pooled copy.
+     */
+    public synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * Hands the codec config and the kept samples, from the oldest key frame on, to
+     * {@code sink}, then forgets the samples.  The codec config is kept for the next time.
+     * Returns the number of samples handed, codec config included.
+     */
+    public synchronized int drainTo(SampleSink sink) {
+        int handed = 0;
+        if (mConfig != null) {
+            sink.onSample(mConfig);
+            handed++;
+        }
+        boolean keyFrameFound = false;
+        for (; mSize > 0; mSize--) {
+            final EncodedSample sample = mSamples[mHead];
+            mSamples[mHead] = null;
+            mHead = (mHead + 1) % mSamples.length;
+            keyFrameFound |= sample.isKeyFrame();
+            if (keyFrameFound) {
+                sink.onSample(sample);
+                handed++;
+            }
+            sample.release();
+        }
+        mHead = 0;
+        return handed;
+    }
+}
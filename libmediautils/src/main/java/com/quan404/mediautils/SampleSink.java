@@ -0,0 +1,15 @@
+package com.quan404.mediautils;
+
+/**
+ * Consumes the encoded samples of a {@link SampleDispatcher}: a muxer, a raw stream writer, a
+ * {@link SampleRing}...
+ */
+public interface SampleSink {
+    /**
+     * Called with each encoded sample, on the encoder output thread.  The sample is only valid
+     * during this call, unless the sink {@link EncodedSample#retain() retains} it or
+     * {@link SamplePool#copy copies} it.  The data is read here, see
+     * {@link EncodedSample#getData()}.
+     */
+    void onSample(EncodedSample sample);
+}
@@ -0,0 +1,17 @@
+package com.quan404.mediautils;
+
+/**
+ * How pixels are resampled when the output size differs from the input size.
+ */
+public enum ScaleFilter {
+    /**
+     * Each output pixel is the average of the input area it covers, partially covered pixels
+     * counting in proportion.  The right choice when downscaling, however large the factor.
+     */
+    AREA,
+    /**
+     * Each output pixel interpolates the two nearest input pixels in each direction.  Sharper
+     * than AREA for small factors and upscaling, aliases when downscaling by more than 2.
+     */
+    BILINEAR
+}
@@ -0,0 +1,351 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts RGBX or YUYV camera frames to a YUV 4:2:0 frame of another size, resampling and
+ * converting in a single pass: no full size intermediate frame is ever written.
+ * <p/>
+ * Source rows are read in bulk and resampled with a {@link ScaleFilter}.  RGBX pixels are
+ * resampled to the output size, then converted with a {@link ColorMatrix}, chroma being the
+ * average of each 2x2 block of output pixels.  YUYV luma is resampled to the output size and
+ * YUYV chroma straight to the output chroma size, without going through RGB.  Halving a YUYV
+ * frame to an even size skips the resampling: each byte written is the rounded average of a
+ * block of source bytes, read once for luma and chroma.  RGB565 frames
+ * are not scaled, {@link RgbToYuvConverter} converts them at their own size.  After
+ * {@link #setMonochrome(boolean)} only luma is resampled and converted, chroma being set to 128
+ * once per destination buffer.
+ * <p/>
+ * The result is written straight into the caller's ByteBuffer (usually a MediaCodec input
+ * buffer), through scratch rows allocated once.  Nothing is allocated per frame.  Not
+ * thread-safe.
+ */
+public class ScalingYuvConverter {
+
+    private final InputFormat mInputFormat;
+    private final int mSrcWidth;
+    private final int mSrcHeight;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mChromaWidth;
+    private final int mChromaHeight;
+    private final Yuv420Format mFormat;
+    private final ScaleFilter mFilter;
+    private ColorMatrix mColorMatrix = ColorMatrix.BT601_LIMITED;
+    // monochrome mode only, the destination frames whose chroma is already neutral
+    private NeutralChroma mNeutralChroma;
+
+    // RGBX: R, G and B of each output pixel.  YUYV: luma, then U and V of each chroma sample
+    private final PlaneScaler mScaler;
+    private final PlaneScaler mChromaScaler;    // YUYV only
+    private final int[] mRow0, mRow1;           // two output rows, or luma rows
+    private final int[] mChromaRow;             // YUYV only
+    private final byte[] mHalfRows;             // four source rows when halving YUYV, or null
+
+    private final YuvScratchRows mRows;
+
+    public ScalingYuvConverter(InputFormat inputFormat, int srcWidth, int srcHeight,
+                               int width, int height, Yuv420Format format, ScaleFilter filter) {
+        if (srcWidth <= 0 || srcHeight <= 0 || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid size " + srcWidth + "x" + srcHeight
+                    + " to " + width + "x" + height);
+        }
+        if (inputFormat == InputFormat.RGB565) {
+            throw new IllegalArgumentException("RGB565 frames cannot be scaled");
+        }
+        if (inputFormat == InputFormat.YUYV && (srcWidth & 1) != 0) {
+            throw new IllegalArgumentException("invalid size " + srcWidth + "x" + srcHeight
+                    + ", YUYV needs an even width");
+        }
+        mInputFormat = inputFormat;
+        mSrcWidth = srcWidth;
+        mSrcHeight = srcHeight;
+        mWidth = width;
+        mHeight = height;
+        mChromaWidth = (width + 1) / 2;
+        mChromaHeight = (height + 1) / 2;
+        mFormat = format;
+        mFilter = filter;
+
+        final int srcRowBytes = inputFormat.getBytesPerPixel() * srcWidth;
+        if (inputFormat == InputFormat.RGBX) {
+            mScaler = new PlaneScaler(srcWidth, srcHeight, width, height, 4,
+                    new int[] { 0, 1, 2 }, srcRowBytes, filter);
+            mChromaScaler = null;
+            mChromaRow = null;
+        } else {
+            mScaler = new PlaneScaler(srcWidth, srcHeight, width, height, 2,
+                    new int[] { 0 }, srcRowBytes, filter);
+            mChromaScaler = new PlaneScaler(srcWidth / 2, srcHeight, mChromaWidth, mChromaHeight,
+                    4, new int[] { 1, 3 }, srcRowBytes, filter);
+            mChromaRow = new int[mChromaScaler.getRowLength()];
+        }
+        final boolean half = inputFormat == InputFormat.YUYV && srcWidth == 2 * width
+                && srcHeight == 2 * height && (width & 1) == 0 && (height & 1) == 0;
+        mHalfRows = half ? new byte[4 * srcRowBytes] : null;
+        mRow0 = new int[mScaler.getRowLength()];
+        mRow1 = new int[mScaler.getRowLength()];
+
+        mRows = new YuvScratchRows(width, height, format);
+    }
+
+    public InputFormat getInputFormat() {
+        return mInputFormat;
+    }
+
+    public int getSrcWidth() {
+        return mSrcWidth;
+    }
+
+    public int getSrcHeight() {
+        return mSrcHeight;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public Yuv420Format getFormat() {
+        return mFormat;
+    }
+
+    public ScaleFilter getFilter() {
+        return mFilter;
+    }
+
+    public ColorMatrix getColorMatrix() {
+        return mColorMatrix;
+    }
+
+    /**
+     * Selects the color matrix of the following RGBX frames, BT.601 limited range by default.
+     * YUYV frames are already YUV and are not affected.
+     */
+    public void setColorMatrix(ColorMatrix colorMatrix) {
+        if (colorMatrix == null) {
+            throw new IllegalArgumentException("colorMatrix is null");
+        }
+        mColorMatrix = colorMatrix;
+    }
+
+    public boolean isMonochrome() {
+        return mNeutralChroma != null;
+    }
+
+    /**
+     * Computes luma only in the following frames, for grayscale scenes.  Chroma is set to 128
+     * once per destination buffer, as by {@link RgbToYuvConverter#setMonochrome(boolean)}.
+     */
+    public void setMonochrome(boolean monochrome) {
+        mNeutralChroma = monochrome ? new NeutralChroma() : null;
+    }
+
+    /**
+     * Returns the number of bytes read from the source for each frame.
+     */
+    public int getInputSize() {
+        return mInputFormat.getBytesPerPixel() * mSrcWidth * mSrcHeight;
+    }
+
+    /**
+     * Returns the number of bytes written by each conversion.
+     */
+    public int getFrameSize() {
+        return mWidth * mHeight + 2 * mChromaWidth * mChromaHeight;
+    }
+
+    /**
+     * Converts one frame read from the current position of {@code src} and writes it at the
+     * current position of {@code dst}.  Both buffers are advanced past the frame.
+     */
+    public void convert(ByteBuffer src, ByteBuffer dst) {
+        if (src.remaining() < getInputSize()) {
+            throw new IllegalArgumentException("src too small: " + src.remaining()
+                    + " < " + getInputSize());
+        }
+        if (dst.remaining() < getFrameSize()) {
+            throw new IllegalArgumentException("dst too small: " + dst.remaining()
+                    + " < " + getFrameSize());
+        }
+
+        final int srcBase = src.position();
+        final int base = dst.position();
+        final boolean monochrome = mNeutralChroma != null;
+        if (monochrome) {
+            mRows.fillNeutralChroma(mNeutralChroma, dst, base);
+        }
+        if (mHalfRows != null) {
+            for (int j = 0; j < mHeight; j += 2) {
+                halveRows(src, srcBase, j, monochrome);
+                mRows.writeRows(dst, base, j, 2, monochrome);
+            }
+            src.position(srcBase + getInputSize());
+            dst.position(base + getFrameSize());
+            return;
+        }
+        mScaler.startFrame();
+        if (mChromaScaler != null && !monochrome) {
+            mChromaScaler.startFrame();
+        }
+        for (int j = 0; j < mHeight; j += 2) {
+            final int rows = (j + 1 < mHeight) ? 2 : 1;
+            mScaler.scaleRow(src, srcBase, j, mRow0);
+            if (rows == 2) {
+                mScaler.scaleRow(src, srcBase, j + 1, mRow1);
+            }
+            if (mInputFormat == InputFormat.RGBX) {
+                encodeRows(rows);
+            } else {
+                if (!monochrome) {
+                    mChromaScaler.scaleRow(src, srcBase, j >> 1, mChromaRow);
+                }
+                splitRows(rows);
+            }
+            mRows.writeRows(dst, base, j, rows, monochrome);
+        }
+        src.position(srcBase + getInputSize());
+        dst.position(base + getFrameSize());
+    }
+
+    /**
+     * Converts the resampled RGB rows to luma and, unless monochrome, 2x2 averaged chroma, into
+     * the scratch rows.
+     */
+    private void encodeRows(int rows) {
+        final int width = mWidth;
+        final ColorMatrix matrix = mColorMatrix;
+        final int yR = matrix.mYR, yG = matrix.mYG, yB = matrix.mYB, yBias = matrix.mYBias;
+        final byte[] yRows = mRows.mYRows;
+        for (int r = 0; r < rows; r++) {
+            final int[] rgb = (r == 0) ? mRow0 : mRow1;
+            for (int x = 0; x < width; x++) {
+                final int y = (yR * rgb[x] + yG * rgb[width + x] + yB * rgb[2 * width + x]
+                        + yBias) >> ColorMatrix.SHIFT;
+                yRows[r * width + x] = (byte) (matrix.mClampY ? ColorMatrix.clamp(y) : y);
+            }
+        }
+        if (mNeutralChroma != null) {
+            return;
+        }
+
+        // the last row or column of an odd size frame is averaged with itself
+        final int[] top = mRow0;
+        final int[] bottom = (rows == 2) ? mRow1 : mRow0;
+        final int uR = matrix.mUR, uG = matrix.mUG, uB = matrix.mUB;
+        final int vR = matrix.mVR, vG = matrix.mVG, vB = matrix.mVB;
+        final int cBias = ColorMatrix.C_BIAS;
+        final byte[] uRow = mRows.mURow;
+        final byte[] vRow = mRows.mVRow;
+        final int uOffset = mRows.mUOffset;
+        final int vOffset = mRows.mVOffset;
+        final int step = mRows.mStep;
+        final int pairs = width / 2;
+        for (int c = 0; c < mChromaWidth; c++) {
+            final int x0 = 2 * c;
+            final int x1 = (c < pairs) ? x0 + 1 : x0;
+            final int R = (top[x0] + top[x1] + bottom[x0] + bottom[x1] + 2) >> 2;
+            final int G = (top[width + x0] + top[width + x1]
+                    + bottom[width + x0] + bottom[width + x1] + 2) >> 2;
+            final int B = (top[2 * width + x0] + top[2 * width + x1]
+                    + bottom[2 * width + x0] + bottom[2 * width + x1] + 2) >> 2;
+            uRow[uOffset + c * step] = (byte) ColorMatrix.clamp(
+                    (uR * R + uG * G + uB * B + cBias) >> ColorMatrix.SHIFT);
+            vRow[vOffset + c * step] = (byte) ColorMatrix.clamp(
+                    (vR * R + vG * G + vB * B + cBias) >> ColorMatrix.SHIFT);
+        }
+    }
+
+    /**
+     * Halves the four YUYV source rows of output rows {@code j} and {@code j + 1} into the
+     * scratch rows.  Luma is the average of 2x2 blocks.  A chroma sample averages the two U
+     * (or V) bytes of each row, over the four rows with AREA and the middle two with BILINEAR,
+     * as the resampling kernels weigh them at this factor.
+     */
+    private void halveRows(ByteBuffer src, int srcBase, int j, boolean monochrome) {
+        final int width = mWidth;
+        final int rowBytes = 4 * width;
+        final byte[] s = mHalfRows;
+        src.position(srcBase + 2 * j * rowBytes);
+        src.get(s, 0, 4 * rowBytes);
+
+        final byte[] yRows = mRows.mYRows;
+        for (int r = 0; r < 2; r++) {
+            final int top = 2 * r * rowBytes;
+            final int bottom = top + rowBytes;
+            final int out = r * width;
+            for (int x = 0, i = 0; x < width; x++, i += 4) {
+                yRows[out + x] = (byte) (((s[top + i] & 0xff) + (s[top + i + 2] & 0xff)
+                        + (s[bottom + i] & 0xff) + (s[bottom + i + 2] & 0xff) + 2) >> 2);
+            }
+        }
+        if (monochrome) {
+            return;
+        }
+
+        final int chromaWidth = mChromaWidth;
+        final byte[] uRow = mRows.mURow;
+        final byte[] vRow = mRows.mVRow;
+        final int uOffset = mRows.mUOffset;
+        final int vOffset = mRows.mVOffset;
+        final int step = mRows.mStep;
+        if (mFilter == ScaleFilter.AREA) {
+            final int r1 = rowBytes, r2 = 2 * rowBytes, r3 = 3 * rowBytes;
+            for (int c = 0, i = 1; c < chromaWidth; c++, i += 8) {
+                final int u = (s[i] & 0xff) + (s[i + 4] & 0xff)
+                        + (s[r1 + i] & 0xff) + (s[r1 + i + 4] & 0xff)
+                        + (s[r2 + i] & 0xff) + (s[r2 + i + 4] & 0xff)
+                        + (s[r3 + i] & 0xff) + (s[r3 + i + 4] & 0xff);
+                final int v = (s[i + 2] & 0xff) + (s[i + 6] & 0xff)
+                        + (s[r1 + i + 2] & 0xff) + (s[r1 + i + 6] & 0xff)
+                        + (s[r2 + i + 2] & 0xff) + (s[r2 + i + 6] & 0xff)
+                        + (s[r3 + i + 2] & 0xff) + (s[r3 + i + 6] & 0xff);
+                uRow[uOffset + c * step] = (byte) ((u + 4) >> 3);
+                vRow[vOffset + c * step] = (byte) ((v + 4) >> 3);
+            }
+        } else {
+            final int r1 = rowBytes, r2 = 2 * rowBytes;
+            for (int c = 0, i = 1; c < chromaWidth; c++, i += 8) {
+                final int u = (s[r1 + i] & 0xff) + (s[r1 + i + 4] & 0xff)
+                        + (s[r2 + i] & 0xff) + (s[r2 + i + 4] & 0xff);
+                final int v = (s[r1 + i + 2] & 0xff) + (s[r1 + i + 6] & 0xff)
+                        + (s[r2 + i + 2] & 0xff) + (s[r2 + i + 6] & 0xff);
+                uRow[uOffset + c * step] = (byte) ((u + 2) >> 2);
+                vRow[vOffset + c * step] = (byte) ((v + 2) >> 2);
+            }
+        }
+    }
+
+    /**
+     * Copies the resampled YUYV luma and, unless monochrome, chroma rows to the scratch rows.
+     */
+    private void splitRows(int rows) {
+        final int width = mWidth;
+        final byte[] yRows = mRows.mYRows;
+        for (int x = 0; x < width; x++) {
+            yRows[x] = (byte) mRow0[x];
+        }
+        if (rows == 2) {
+            for (int x = 0; x < width; x++) {
+                yRows[width + x] = (byte) mRow1[x];
+            }
+        }
+        if (mNeutralChroma != null) {
+            return;
+        }
+        final int[] chroma = mChromaRow;
+        final int chromaWidth = mChromaWidth;
+        final byte[] uRow = mRows.mURow;
+        final byte[] vRow = mRows.mVRow;
+        final int uOffset = mRows.mUOffset;
+        final int vOffset = mRows.mVOffset;
+        final int step = mRows.mStep;
+        for (int c = 0; c < chromaWidth; c++) {
+            uRow[uOffset + c * step] = (byte) chroma[c];
+            vRow[vOffset + c * step] = (byte) chroma[chromaWidth + c];
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.quan404.mediautils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Timed sequence of stills: each one is shown for its own duration, one after the other.
+ * <p/>
+ * Lookups by presentation time go through the end times of the stills, so an encoding loop
+ * asking for every frame of a long playlist finds each still in logarithmic time.
+ *
+ * @param <K> identifies a still, as for {@link StillFrameCache}
+ */
+public class SlideshowPlaylist<K> {
+
+    private final List<K> mStills = new ArrayList<K>();
+    private long[] mEndUs = new long[8];      // end time of still i, in microseconds
+
+    /**
+     * Appends {@code still}, shown for {@code durationUs} microseconds.
+     */
+    public SlideshowPlaylist<K> add(K still, long durationUs) {
+        if (durationUs <= 0) {
+            throw new IllegalArgumentException("invalid duration " + durationUs + " us for "
+                    + still);
+        }
+        final int n = mStills.size();
+        if (n == mEndUs.length) {
+            mEndUs = Arrays.copyOf(mEndUs, 2 * n);
+        }
+        mEndUs[n] = getDurationUs() + durationUs;
+        mStills.add(still);
+        return this;
+    }
+
+    public int size() {
+        return mStills.size();
+    }
+
+    public K getStill(int index) {
+        return mStills.get(index);
+    }
+
+    /**
+     * Returns the total duration, in microseconds.
+     */
+    public long getDurationUs() {
+        final int n = mStills.size();
+        return (n == 0) ? 0 : mEndUs[n - 1];
+    }
+
+    /**
+     * Returns the number of frames needed to show the whole playlist at {@code frameRate}, the
+     * last frame starting before the end.
+     */
+    public int getFrameCount(int frameRate) {
+        if (frameRate <= 0) {
+            throw new IllegalArgumentException("invalid frame rate " + frameRate);
+        }
+        return (int) ((getDurationUs() * frameRate + 999999) / 1000000);
+    }
+
+    /**
+     * Returns the still shown at {@code timeUs}, counted from the start of the playlist.
+     */
+    public K getStillAt(long timeUs) {
+        final int n = mStills.size();
+        if (timeUs < 0 || timeUs >= getDurationUs()) {
+            throw new IllegalArgumentException("time " + timeUs + " us outside of [0, "
+                    + getDurationUs() + ")");
+        }
+        // first still ending after timeUs
+        int index = Arrays.binarySearch(mEndUs, 0, n, timeUs);
+        index = (index >= 0) ? index + 1 : -index - 1;
+        return mStills.get(index);
+    }
+}
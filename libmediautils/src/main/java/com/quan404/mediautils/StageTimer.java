@@ -0,0 +1,107 @@
+package com.quan404.mediautils;
+
+/**
+ * Accumulates how long each stage of a pipeline takes, e.g. waiting for an encoder input buffer,
+ * filling it, waiting for the output and muxing it: the number of times a stage ran, its total
+ * and its highest duration.  Stages are numbered from 0 in the order of their names.  Nothing is
+ * allocated after construction, except by {@link #describe()}.  Thread-safe.
+ */
+public class StageTimer {
+
+    private final String[] mNames;
+    private final long[] mCounts;
+    private final long[] mTotalNs;
+    private final long[] mMaxNs;
+
+    public StageTimer(String... names) {
+        if (names.length == 0) {
+            throw new IllegalArgumentException("no stage");
+        }
+        mNames = names.clone();
+        mCounts = new long[names.length];
+        mTotalNs = new long[names.length];
+        mMaxNs = new long[names.length];
+    }
+
+    public int getStageCount() {
+        return mNames.length;
+    }
+
+    public String getName(int stage) {
+        return mNames[stage];
+    }
+
+    /**
+     * Records that {@code stage} took {@code elapsedNs} nanoseconds, from System.nanoTime().
+     */
+    public synchronized void record(int stage, long elapsedNs) {
+        if (elapsedNs < 0) {
+            // not monotonic across cores on some devices
+            elapsedNs = 0;
+        }
+        mCounts[stage]++;
+        mTotalNs[stage] += elapsedNs;
+        if (elapsedNs > mMaxNs[stage]) {
+            mMaxNs[stage] = elapsedNs;
+        }
+    }
+
+    /**
+     * Records that {@code stage} ran from {@code startNs} until now, and returns now, the start
+     * of the next stage.
+     */
+    public long recordSince(int stage, long startNs) {
+        final long now = System.nanoTime();
+        record(stage, now - startNs);
+        return now;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < mNames.length; i++) {
+            mCounts[i] = 0;
+            mTotalNs[i] = 0;
+            mMaxNs[i] = 0;
+        }
+    }
+
+    /**
+     * Returns the number of times {@code stage} ran.
+     */
+    public synchronized long getCount(int stage) {
+        return mCounts[stage];
+    }
+
+    /**
+     * Returns the time spent in {@code stage}, in nanoseconds.
+     */
+    public synchronized long getTotalNs(int stage) {
+        return mTotalNs[stage];
+    }
+
+    /**
+     * Returns the average duration of {@code stage} in milliseconds, 0 before it ran.
+     */
+    public synchronized double getAverageMs(int stage) {
+        return mCounts[stage] == 0 ? 0 : mTotalNs[stage] / 1000000.0 / mCounts[stage];
+    }
+
+    /**
+     * Returns the longest duration of {@code stage} in milliseconds.
+     */
+    public synchronized double getMaxMs(int stage) {
+        return mMaxNs[stage] / 1000000.0;
+    }
+
+    /**
+     * Returns one line per stage, "name: count x average us, max us, total ms", to be logged.
+     */
+    public synchronized String[] describe() {
+        final String[] lines = new String[mNames.length];
+        for (int i = 0; i < mNames.length; i++) {
+            final long averageUs = mCounts[i] == 0 ? 0 : mTotalNs[i] / mCounts[i] / 1000L;
+            lines[i] = mNames[i] + ": " + mCounts[i] + " x " + averageUs + " us, max "
+                    + mMaxNs[i] / 1000L + " us, total " + mTotalNs[i] / 1000000L + " ms";
+        }
+        return lines;
+    }
+}
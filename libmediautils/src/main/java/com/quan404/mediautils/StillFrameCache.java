@@ -0,0 +1,148 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of encoder-ready frames made from still images, for slideshows.
+ * <p/>
+ * A still is decoded and converted by the {@link Loader} the first time it is shown, then
+ * copied from the cache with one bulk put for every frame it stays on screen.  At most
+ * {@link #getMaxBytes()} bytes of frames are kept; past that the least recently shown still
+ * is dropped and its buffer reused for the new one, so a long playlist allocates no more than
+ * the cache holds.  Not thread-safe.
+ *
+ * @param <K> identifies a still, e.g. a resource id or a file
+ */
+public class StillFrameCache<K> {
+
+    /**
+     * Produces the frame of a still.
+     */
+    public interface Loader<K> {
+        /**
+         * Writes the frame of {@code still}, {@link StillFrameCache#getFrameSize()} bytes, at
+         * the current position of {@code dst}.
+         */
+        void load(K still, ByteBuffer dst);
+    }
+
+    private final Loader<K> mLoader;
+    private final int mFrameSize;
+    private final long mMaxBytes;
+    private final boolean mDirect;
+    // access ordered: the eldest entry is the least recently shown still
+    private final LinkedHashMap<K, ByteBuffer> mFrames = new LinkedHashMap<K, ByteBuffer>(16,
+            0.75f, true);
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    /**
+     * @param maxBytes upper bound of the frames kept, at least one frame
+     * @param direct   keep frames in direct buffers, for a plain memory copy into MediaCodec
+     *                 input buffers
+     */
+    public StillFrameCache(Loader<K> loader, int frameSize, long maxBytes, boolean direct) {
+        if (loader == null) {
+            throw new IllegalArgumentException("loader == null");
+        }
+        if (frameSize <= 0 || maxBytes < frameSize) {
+            throw new IllegalArgumentException("invalid sizes: frame " + frameSize
+                    + " bytes, cache " + maxBytes + " bytes");
+        }
+        mLoader = loader;
+        mFrameSize = frameSize;
+        mMaxBytes = maxBytes;
+        mDirect = direct;
+    }
+
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * Returns the number of bytes of frames currently kept.
+     */
+    public long getCachedBytes() {
+        return (long) mFrames.size() * mFrameSize;
+    }
+
+    public int getCachedCount() {
+        return mFrames.size();
+    }
+
+    /**
+     * Returns the number of frames copied from the cache.
+     */
+    public long getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * Returns the number of stills loaded, i.e. decoded and converted.
+     */
+    public long getMissCount() {
+        return mMisses;
+    }
+
+    public long getEvictionCount() {
+        return mEvictions;
+    }
+
+    /**
+     * Copies the frame of {@code still} at the current position of {@code dst}, which is
+     * advanced by {@link #getFrameSize()}.  The still is loaded first if it is not cached.
+     */
+    public void copyFrame(K still, ByteBuffer dst) {
+        if (dst.remaining() < mFrameSize) {
+            throw new IllegalArgumentException("dst too small: " + dst.remaining()
+                    + " < " + mFrameSize);
+        }
+        ByteBuffer frame = mFrames.get(still);
+        if (frame != null) {
+            mHits++;
+        } else {
+            mMisses++;
+            frame = load(still);
+        }
+        frame.clear();
+        dst.put(frame);
+    }
+
+    /**
+     * Drops every cached frame.
+     */
+    public void clear() {
+        mFrames.clear();
+    }
+
+    private ByteBuffer load(K still) {
+        ByteBuffer frame = null;
+        Iterator<Map.Entry<K, ByteBuffer>> eldest = mFrames.entrySet().iterator();
+        while (getCachedBytes() + mFrameSize > mMaxBytes && eldest.hasNext()) {
+            frame = eldest.next().getValue();
+            eldest.remove();
+            mEvictions++;
+        }
+        if (frame == null) {
+            frame = mDirect ? ByteBuffer.allocateDirect(mFrameSize)
+                    : ByteBuffer.allocate(mFrameSize);
+        }
+        frame.clear();
+        mLoader.load(still, frame);
+        if (frame.position() != mFrameSize) {
+            throw new IllegalStateException("loader wrote " + frame.position() + " bytes for "
+                    + still + ", expected " + mFrameSize);
+        }
+        mFrames.put(still, frame);
+        return frame;
+    }
+}
@@ -0,0 +1,89 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+import java.util.EnumMap;
+
+/**
+ * Serves the frames of a {@link TestPatternGenerator} with one bulk copy each.
+ * <p/>
+ * There are only {@link TestPatternGenerator#getFrameCount()} distinct frames: each is
+ * generated the first time it is asked for in a given {@link Yuv420Format} and kept, so an
+ * encoder soak test spends its time in the codec rather than drawing.  Frames are kept in
+ * direct buffers when {@code direct} is set, making the copy into a MediaCodec input buffer a
+ * plain memory copy.  The cache holds up to {@link #getMaxCacheSize()} bytes per format used,
+ * e.g. 8 frames of 1080p take 24 MB.  Not thread-safe.
+ */
+public class TestPatternCache {
+
+    private final TestPatternGenerator mGenerator;
+    private final boolean mDirect;
+    private final EnumMap<Yuv420Format, ByteBuffer[]> mFrames =
+            new EnumMap<Yuv420Format, ByteBuffer[]>(Yuv420Format.class);
+
+    public TestPatternCache(TestPatternGenerator generator, boolean direct) {
+        if (generator == null) {
+            throw new IllegalArgumentException("generator == null");
+        }
+        mGenerator = generator;
+        mDirect = direct;
+    }
+
+    public TestPatternGenerator getGenerator() {
+        return mGenerator;
+    }
+
+    public int getFrameSize() {
+        return mGenerator.getFrameSize();
+    }
+
+    /**
+     * Returns the number of bytes held once every frame has been generated, for one format.
+     */
+    public long getMaxCacheSize() {
+        return (long) mGenerator.getFrameCount() * mGenerator.getFrameSize();
+    }
+
+    /**
+     * Copies frame N in {@code format} at the current position of {@code dst}, which is
+     * advanced by {@link #getFrameSize()}.
+     */
+    public void copyFrame(int frameIndex, Yuv420Format format, ByteBuffer dst) {
+        if (dst.remaining() < getFrameSize()) {
+            throw new IllegalArgumentException("dst too small: " + dst.remaining()
+                    + " < " + getFrameSize());
+        }
+        ByteBuffer frame = getFrame(frameIndex, format);
+        frame.clear();
+        dst.put(frame);
+    }
+
+    /**
+     * Generates every frame in {@code format} that is not cached yet, so that the encoding
+     * loop only ever copies.
+     */
+    public void prepare(Yuv420Format format) {
+        for (int i = 0; i < mGenerator.getFrameCount(); i++) {
+            getFrame(i, format);
+        }
+    }
+
+    private ByteBuffer getFrame(int frameIndex, Yuv420Format format) {
+        ByteBuffer[] frames = mFrames.get(format);
+        if (frames == null) {
+            frames = new ByteBuffer[mGenerator.getFrameCount()];
+            mFrames.put(format, frames);
+        }
+        int n = frameIndex % frames.length;
+        if (n < 0) {
+            n += frames.length;
+        }
+        if (frames[n] == null) {
+            final int size = mGenerator.getFrameSize();
+            ByteBuffer frame = mDirect ? ByteBuffer.allocateDirect(size)
+                    : ByteBuffer.allocate(size);
+            mGenerator.generateFrame(n, format, frame);
+            frames[n] = frame;
+        }
+        return frames[n];
+    }
+}
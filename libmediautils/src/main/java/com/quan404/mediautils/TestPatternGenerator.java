@@ -0,0 +1,160 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Generates the YUV 4:2:0 test frames fed to the encoders of the sample apps.  We have an
+ * 8-frame animation sequence that wraps around.  It looks like this:
+ * <pre>
+ *   0 1 2 3
+ *   7 6 5 4
+ * </pre>
+ * Frame N draws rectangle N in {@link #TEST_Y}, {@link #TEST_U}, {@link #TEST_V} and leaves the
+ * rest set to the zero-fill color.
+ * <p/>
+ * Larger sequences use a grid of more rectangles, walked the same way: left to right on even
+ * grid rows, right to left on odd ones.  Any size is accepted; the rectangles of a row (or
+ * column) share the picture between them when it does not divide evenly, and odd sizes get the
+ * usual rounded up chroma planes.
+ * <p/>
+ * Every frame is drawn from scratch; {@link TestPatternCache} keeps them once drawn.  Not
+ * thread-safe.
+ */
+public class TestPatternGenerator {
+
+    public static final int TEST_Y = 120;                  // YUV values for colored rect
+    public static final int TEST_U = 160;
+    public static final int TEST_V = 200;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mColumns;
+    private final int mRows;
+    private final byte[] mRow;      // one row of the frame being generated
+
+    public TestPatternGenerator(int width, int height) {
+        this(width, height, 4, 2);
+    }
+
+    /**
+     * Creates a generator of {@code columns * rows} frames, one per rectangle of the grid.
+     */
+    public TestPatternGenerator(int width, int height, int columns, int rows) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid size " + width + "x" + height);
+        }
+        if (columns <= 0 || rows <= 0 || columns > width || rows > height) {
+            throw new IllegalArgumentException("invalid grid " + columns + "x" + rows
+                    + " for " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mColumns = columns;
+        mRows = rows;
+        mRow = new byte[Math.max(width, 2 * getChromaWidth())];
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the number of distinct frames, after which the sequence wraps around.
+     */
+    public int getFrameCount() {
+        return mColumns * mRows;
+    }
+
+    /**
+     * Returns the size of a frame, luma plus two quarter size chroma planes.
+     */
+    public int getFrameSize() {
+        return mWidth * mHeight + 2 * getChromaWidth() * getChromaHeight();
+    }
+
+    /**
+     * Generates data for frame N into the supplied buffer, NV12 if {@code semiPlanar}, I420
+     * otherwise.
+     */
+    public void generateFrame(int frameIndex, boolean semiPlanar, byte[] frameData) {
+        generateFrame(frameIndex, semiPlanar ? Yuv420Format.NV12 : Yuv420Format.I420,
+                ByteBuffer.wrap(frameData));
+    }
+
+    /**
+     * Generates data for frame N in {@code format} at the current position of {@code dst},
+     * which is advanced by {@link #getFrameSize()}.
+     */
+    public void generateFrame(int frameIndex, Yuv420Format format, ByteBuffer dst) {
+        if (dst.remaining() < getFrameSize()) {
+            throw new IllegalArgumentException("dst too small: " + dst.remaining()
+                    + " < " + getFrameSize());
+        }
+        frameIndex %= getFrameCount();
+        if (frameIndex < 0) {
+            frameIndex += getFrameCount();
+        }
+        //frameIndex = (frameIndex / 8) % 8;    // use this instead for debug -- easier to see
+        final int gridRow = frameIndex / mColumns;
+        final int gridColumn = (gridRow % 2 == 0)
+                ? frameIndex % mColumns : mColumns - 1 - frameIndex % mColumns;
+        final int startX = gridColumn * mWidth / mColumns;
+        final int endX = (gridColumn + 1) * mWidth / mColumns;
+        final int startY = gridRow * mHeight / mRows;
+        final int endY = (gridRow + 1) * mHeight / mRows;
+
+        // Set to zero.  In YUV this is a dull green.  One row at a time, the rectangle in it.
+        final int base = dst.position();
+        final byte[] row = mRow;
+        for (int y = 0; y < mHeight; y++) {
+            Arrays.fill(row, (byte) 0);
+            if (y >= startY && y < endY) {
+                Arrays.fill(row, startX, endX, (byte) TEST_Y);
+            }
+            dst.put(row, 0, mWidth);
+        }
+
+        // chroma sample (x, y) is colored when luma sample (2x, 2y) is inside the rectangle
+        final int chromaWidth = getChromaWidth();
+        final int chromaStartX = (startX + 1) / 2;
+        final int chromaEndX = (endX + 1) / 2;
+        final byte first = (byte) (format.isVFirst() ? TEST_V : TEST_U);
+        final byte second = (byte) (format.isVFirst() ? TEST_U : TEST_V);
+        for (int plane = 0; plane < (format.isPlanar() ? 2 : 1); plane++) {
+            for (int y = 0; y < getChromaHeight(); y++) {
+                Arrays.fill(row, (byte) 0);
+                final boolean inside = 2 * y >= startY && 2 * y < endY;
+                if (format.isPlanar()) {
+                    // full-size Y, followed by quarter-size U and quarter-size V
+                    // e.g. Nexus 10 OMX.Exynos.AVC.Encoder COLOR_FormatYUV420Planar
+                    if (inside) {
+                        Arrays.fill(row, chromaStartX, chromaEndX, plane == 0 ? first : second);
+                    }
+                    dst.put(row, 0, chromaWidth);
+                } else {
+                    for (int x = chromaStartX; inside && x < chromaEndX; x++) {
+                        // full-size Y, followed by UV pairs at half resolution
+                        // e.g. Nexus 4 OMX.qcom.video.encoder.avc COLOR_FormatYUV420SemiPlanar
+                        row[2 * x] = first;
+                        row[2 * x + 1] = second;
+                    }
+                    dst.put(row, 0, 2 * chromaWidth);
+                }
+            }
+        }
+        dst.position(base + getFrameSize());
+    }
+
+    private int getChromaWidth() {
+        return (mWidth + 1) / 2;
+    }
+
+    private int getChromaHeight() {
+        return (mHeight + 1) / 2;
+    }
+}
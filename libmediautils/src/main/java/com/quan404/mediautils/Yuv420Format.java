@@ -0,0 +1,50 @@
+package com.quan404.mediautils;
+
+/**
+ * Memory layouts of a YUV 4:2:0 frame, as expected by the MediaCodec encoders.
+ * <p/>
+ * All of them start with a full-size Y plane.  They only differ in how the two quarter-size
+ * chroma planes are stored after it.
+ */
+public enum Yuv420Format {
+    /**
+     * Quarter-size U plane followed by quarter-size V plane.
+     * e.g. COLOR_FormatYUV420Planar
+     */
+    I420(true, false),
+    /**
+     * Quarter-size V plane followed by quarter-size U plane.
+     */
+    YV12(true, true),
+    /**
+     * Interleaved UV pairs at half resolution.
+     * e.g. COLOR_FormatYUV420SemiPlanar
+     */
+    NV12(false, false),
+    /**
+     * Interleaved VU pairs at half resolution, the Android camera default.
+     */
+    NV21(false, true);
+
+    private final boolean mPlanar;
+    private final boolean mVFirst;
+
+    Yuv420Format(boolean planar, boolean vFirst) {
+        mPlanar = planar;
+        mVFirst = vFirst;
+    }
+
+    /**
+     * Returns true if U and V are stored in two separate planes.
+     */
+    public boolean isPlanar() {
+        return mPlanar;
+    }
+
+    /**
+     * Returns true if V comes before U, either as a plane or inside each chroma pair.
+     */
+    public boolean isVFirst() {
+        return mVFirst;
+    }
+}
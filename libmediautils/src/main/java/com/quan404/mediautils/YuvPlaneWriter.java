@@ -0,0 +1,210 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Copies a packed YUV 4:2:0 frame into the three planes of an Image, as returned by
+ * MediaCodec.getInputImage() for COLOR_FormatYUV420Flexible.
+ * <p/>
+ * Each plane is described by its buffer, row stride and pixel stride, the values of
+ * Image.Plane.  Frames laid out as {@link #getPreferredFormat()} are copied one row at a time.
+ * With a chroma pixel stride of 2 the U and V planes are interleaved, usually as two views of
+ * the same memory, and each row copy also writes the samples of the other plane in between:
+ * this is only done when the frame interleaves them in the same order as the memory, which is
+ * probed by writing through one view and reading through the other.  Any other layout falls
+ * back to one sample at a time.  Not thread-safe.
+ */
+public class YuvPlaneWriter {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final ByteBuffer[] mPlanes = new ByteBuffer[3];
+    private final int[] mBases = new int[3];
+    private final int[] mRowStrides = new int[3];
+    private final int[] mPixelStrides = new int[3];
+
+    public YuvPlaneWriter(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid size " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the size of a packed frame, luma plus two quarter size chroma planes.
+     */
+    public int getFrameSize() {
+        return mWidth * mHeight + 2 * getChromaWidth() * getChromaHeight();
+    }
+
+    /**
+     * Sets plane {@code index}, 0 for Y, 1 for U and 2 for V.  The plane starts at the
+     * current position of {@code buffer}.
+     */
+    public void setPlane(int index, ByteBuffer buffer, int rowStride, int pixelStride) {
+        if (index < 0 || index > 2) {
+            throw new IllegalArgumentException("invalid plane " + index);
+        }
+        final int width = (index == 0) ? mWidth : getChromaWidth();
+        final int height = (index == 0) ? mHeight : getChromaHeight();
+        if (pixelStride < 1 || rowStride < (width - 1) * pixelStride + 1) {
+            throw new IllegalArgumentException("invalid strides for plane " + index
+                    + ": row " + rowStride + ", pixel " + pixelStride);
+        }
+        if (buffer.remaining() < (height - 1) * rowStride + (width - 1) * pixelStride + 1) {
+            throw new IllegalArgumentException("plane " + index + " too small: "
+                    + buffer.remaining() + " bytes for " + width + "x" + height);
+        }
+        mPlanes[index] = buffer;
+        mBases[index] = buffer.position();
+        mRowStrides[index] = rowStride;
+        mPixelStrides[index] = pixelStride;
+    }
+
+    /**
+     * Returns the packed layout copied one row at a time into the current planes: NV12 or
+     * NV21 when the chroma planes are interleaved, in the order they share memory, I420
+     * otherwise.
+     */
+    public Yuv420Format getPreferredFormat() {
+        checkPlanes();
+        if (!isInterleaved()) {
+            return Yuv420Format.I420;
+        }
+        final Yuv420Format shared = getSharedOrder();
+        return (shared != null) ? shared : Yuv420Format.NV12;
+    }
+
+    /**
+     * Copies the frame at the current position of {@code frame}, laid out as {@code format},
+     * into the planes.  The position of {@code frame} is left unchanged.
+     */
+    public void write(ByteBuffer frame, Yuv420Format format) {
+        checkPlanes();
+        if (frame.remaining() < getFrameSize()) {
+            throw new IllegalArgumentException("frame too small: " + frame.remaining()
+                    + " < " + getFrameSize());
+        }
+        final int position = frame.position();
+        final int limit = frame.limit();
+        final int chromaWidth = getChromaWidth();
+        final int chromaHeight = getChromaHeight();
+        final int chromaBase = position + mWidth * mHeight;
+        try {
+            writePlane(0, frame, position, mWidth, 1, mWidth, mHeight, true);
+            if (format.isPlanar()) {
+                final int planeSize = chromaWidth * chromaHeight;
+                final int first = format.isVFirst() ? 2 : 1;
+                writePlane(first, frame, chromaBase, chromaWidth, 1, chromaWidth, chromaHeight,
+                        true);
+                writePlane(3 - first, frame, chromaBase + planeSize, chromaWidth, 1,
+                        chromaWidth, chromaHeight, true);
+            } else {
+                // rows copied into planes sharing memory in the other order would overwrite
+                // each other's samples
+                final Yuv420Format shared = isInterleaved() ? getSharedOrder() : null;
+                final boolean rows = shared == null || shared == format;
+                final int first = format.isVFirst() ? 2 : 1;
+                writePlane(first, frame, chromaBase, 2 * chromaWidth, 2, chromaWidth,
+                        chromaHeight, rows);
+                writePlane(3 - first, frame, chromaBase + 1, 2 * chromaWidth, 2, chromaWidth,
+                        chromaHeight, rows);
+            }
+        } finally {
+            frame.limit(limit).position(position);
+        }
+    }
+
+    /**
+     * Copies a width x height plane of the frame, starting at {@code offset} with the given
+     * strides, into plane {@code index}.  Rows are copied whole when {@code rows} is set and
+     * the pixel strides agree.
+     */
+    private void writePlane(int index, ByteBuffer frame, int offset, int rowStride,
+                            int pixelStride, int width, int height, boolean rows) {
+        final ByteBuffer plane = mPlanes[index];
+        final int base = mBases[index];
+        final int planeRowStride = mRowStrides[index];
+        final int planePixelStride = mPixelStrides[index];
+        if (rows && planePixelStride == pixelStride) {
+            // row copies, the last sample of the row ends the copy so that an interleaved
+            // plane never writes past its own samples
+            final int length = (width - 1) * pixelStride + 1;
+            for (int y = 0; y < height; y++) {
+                final int src = offset + y * rowStride;
+                frame.limit(src + length).position(src);
+                plane.position(base + y * planeRowStride);
+                plane.put(frame);
+            }
+            frame.limit(frame.capacity());
+        } else {
+            for (int y = 0; y < height; y++) {
+                final int src = offset + y * rowStride;
+                final int dst = base + y * planeRowStride;
+                for (int x = 0; x < width; x++) {
+                    plane.put(dst + x * planePixelStride, frame.get(src + x * pixelStride));
+                }
+            }
+        }
+        plane.position(base);
+    }
+
+    private boolean isInterleaved() {
+        return mPixelStrides[1] == 2 && mPixelStrides[2] == 2;
+    }
+
+    /**
+     * Returns NV12 if V is stored right after each U sample, in the same memory, NV21 if U is
+     * stored right after each V sample, null if the chroma planes do not overlap.
+     */
+    private Yuv420Format getSharedOrder() {
+        if (isShared(mPlanes[1], mBases[1] + 1, mPlanes[2], mBases[2])) {
+            return Yuv420Format.NV12;
+        }
+        if (isShared(mPlanes[2], mBases[2] + 1, mPlanes[1], mBases[1])) {
+            return Yuv420Format.NV21;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if byte {@code indexA} of {@code a} is byte {@code indexB} of {@code b}.
+     * Both are left as they were.
+     */
+    private static boolean isShared(ByteBuffer a, int indexA, ByteBuffer b, int indexB) {
+        if (indexA >= a.limit()) {
+            return false;
+        }
+        final byte saved = a.get(indexA);
+        final byte probe = (byte) ~b.get(indexB);
+        a.put(indexA, probe);
+        final boolean shared = b.get(indexB) == probe;
+        a.put(indexA, saved);
+        return shared;
+    }
+
+    private void checkPlanes() {
+        for (int i = 0; i < 3; i++) {
+            if (mPlanes[i] == null) {
+                throw new IllegalStateException("plane " + i + " not set");
+            }
+        }
+    }
+
+    private int getChromaWidth() {
+        return (mWidth + 1) / 2;
+    }
+
+    private int getChromaHeight() {
+        return (mHeight + 1) / 2;
+    }
+}
@@ -0,0 +1,110 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Scratch rows of the converters that produce a YUV 4:2:0 frame one row pair at a time: two
+ * rows of luma and one row of chroma, plus the code copying them to their place in the frame.
+ * <p/>
+ * Chroma sample c of a row pair goes to {@code mURow[mUOffset + c * mStep]} and
+ * {@code mVRow[mVOffset + c * mStep]}: two rows for the planar formats, a single row already
+ * interleaved in the order of the format for the semi planar ones, so that either is copied to
+ * the frame in bulk.  Not thread-safe.
+ */
+class YuvScratchRows {
+
+    final byte[] mYRows;    // two rows of luma
+    final byte[] mURow;     // one row of U (planar) or interleaved chroma (semi planar)
+    final byte[] mVRow;     // one row of V (planar) or mURow (semi planar)
+    final int mUOffset, mVOffset, mStep;
+
+    private final int mFrameWidth;
+    private final int mFrameHeight;
+    private final int mFrameChromaWidth;
+    private final int mFrameChromaHeight;
+    private final Yuv420Format mFrameFormat;
+
+    YuvScratchRows(int width, int height, Yuv420Format format) {
+        mFrameWidth = width;
+        mFrameHeight = height;
+        mFrameChromaWidth = (width + 1) / 2;
+        mFrameChromaHeight = (height + 1) / 2;
+        mFrameFormat = format;
+
+        mYRows = new byte[2 * width];
+        if (format.isPlanar()) {
+            mURow = new byte[mFrameChromaWidth];
+            mVRow = new byte[mFrameChromaWidth];
+            mUOffset = 0;
+            mVOffset = 0;
+            mStep = 1;
+        } else {
+            mURow = new byte[2 * mFrameChromaWidth];
+            mVRow = mURow;
+            mUOffset = format.isVFirst() ? 1 : 0;
+            mVOffset = 1 - mUOffset;
+            mStep = 2;
+        }
+    }
+
+    /**
+     * Sets the chroma of the frame at {@code base} in {@code dst} to 128, unless
+     * {@code neutralChroma} remembers doing it already.  The position of {@code dst} is left
+     * undefined.
+     */
+    void fillNeutralChroma(NeutralChroma neutralChroma, ByteBuffer dst, int base) {
+        if (!neutralChroma.isFilled(dst, base)) {
+            neutralChroma.fill(dst, base + mFrameWidth * mFrameHeight,
+                    2 * mFrameChromaWidth * mFrameChromaHeight, 1, 0);
+        }
+    }
+
+    /**
+     * Copies the scratch rows of row pair {@code j} to their place in the frame at
+     * {@code base} in {@code dst}, luma only if {@code lumaOnly}.  The position of {@code dst}
+     * is left undefined.
+     */
+    void writeRows(ByteBuffer dst, int base, int j, int rows, boolean lumaOnly) {
+        writeRows(dst, base, j, rows, 0, mFrameWidth, lumaOnly);
+    }
+
+    /**
+     * Same as {@link #writeRows(ByteBuffer, int, int, int, boolean)} for the {@code width}
+     * pixels from column {@code left} on, {@code left} being even.  The luma rows are then
+     * {@code width} bytes apart in the scratch rows.
+     */
+    void writeRows(ByteBuffer dst, int base, int j, int rows, int left, int width,
+                   boolean lumaOnly) {
+        final int frameWidth = mFrameWidth;
+        if (width == frameWidth) {
+            dst.position(base + j * frameWidth);
+            dst.put(mYRows, 0, rows * frameWidth);
+        } else {
+            for (int r = 0; r < rows; r++) {
+                dst.position(base + (j + r) * frameWidth + left);
+                dst.put(mYRows, r * width, width);
+            }
+        }
+        if (lumaOnly) {
+            return;
+        }
+
+        final int lumaSize = frameWidth * mFrameHeight;
+        final int chromaPlaneSize = mFrameChromaWidth * mFrameChromaHeight;
+        final boolean vFirst = mFrameFormat.isVFirst();
+        final int chromaRow = j >> 1;
+        final int chromaLeft = left >> 1;
+        final int chromaWidth = (width + 1) / 2;
+        if (mFrameFormat.isPlanar()) {
+            final int uPlane = base + lumaSize + (vFirst ? chromaPlaneSize : 0);
+            final int vPlane = base + lumaSize + (vFirst ? 0 : chromaPlaneSize);
+            dst.position(uPlane + chromaRow * mFrameChromaWidth + chromaLeft);
+            dst.put(mURow, 0, chromaWidth);
+            dst.position(vPlane + chromaRow * mFrameChromaWidth + chromaLeft);
+            dst.put(mVRow, 0, chromaWidth);
+        } else {
+            dst.position(base + lumaSize + (chromaRow * mFrameChromaWidth + chromaLeft) * 2);
+            dst.put(mURow, 0, 2 * chromaWidth);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.quan404.mediautils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts YUYV frames (packed 4:2:2, Y0 U Y1 V, as delivered by UVCCamera.PIXEL_FORMAT_YUV
+ * frame callbacks) to a YUV 4:2:0 frame, without going through RGB.
+ * <p/>
+ * Luma is copied as is.  The chroma of each pair of rows is the rounded average of the two
+ * rows, the last row of an odd height frame being used alone.  After
+ * {@link #setMonochrome(boolean)} only luma is copied, chroma being set to 128 once per
+ * destination buffer.
+ * <p/>
+ * Two source rows at a time are read in bulk into scratch arrays owned by the converter, and
+ * the result is written straight into the caller's ByteBuffer (usually a MediaCodec input
+ * buffer).  Nothing is allocated per frame.  Not thread-safe.
+ */
+public class YuyvToYuvConverter {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mChromaWidth;
+    private final int mChromaHeight;
+    private final Yuv420Format mFormat;
+
+    private final byte[] mSrcRows;     // two rows of YUYV
+    private final YuvScratchRows mRows;
+    // monochrome mode only, the destination frames whose chroma is already neutral
+    private NeutralChroma mNeutralChroma;
+
+    public YuyvToYuvConverter(int width, int height, Yuv420Format format) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0) {
+            throw new IllegalArgumentException("invalid size " + width + "x" + height
+                    + ", YUYV needs an even width");
+        }
+        mWidth = width;
+        mHeight = height;
+        mChromaWidth = width / 2;
+        mChromaHeight = (height + 1) / 2;
+        mFormat = format;
+
+        mSrcRows = new byte[4 * width];
+        mRows = new YuvScratchRows(width, height, format);
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public Yuv420Format getFormat() {
+        return mFormat;
+    }
+
+    public boolean isMonochrome() {
+        return mNeutralChroma != null;
+    }
+
+    /**
+     * Copies luma only in the following frames, for grayscale scenes.  Chroma is set to 128
+     * once per destination buffer, the first time a frame is written at its position, and not
+     * written again as long as the buffer is among the last 16 seen.  Nothing else may write
+     * the chroma of those buffers in between.
+     */
+    public void setMonochrome(boolean monochrome) {
+        mNeutralChroma = monochrome ? new NeutralChroma() : null;
+    }
+
+    /**
+     * Returns the number of bytes read from the source for each frame.
+     */
+    public int getInputSize() {
+        return 2 * mWidth * mHeight;
+    }
+
+    /**
+     * Returns the number of bytes written by each conversion.
+     */
+    public int getFrameSize() {
+        return mWidth * mHeight + 2 * mChromaWidth * mChromaHeight;
+    }
+
+    /**
+     * Converts one frame read from the current position of {@code yuyv} and writes it at the
+     * current position of {@code dst}.  Both buffers are advanced past the frame.
+     */
+    public void convert(ByteBuffer yuyv, ByteBuffer dst) {
+        if (yuyv.remaining() < getInputSize()) {
+            throw new IllegalArgumentException("yuyv too small: " + yuyv.remaining()
+                    + " < " + getInputSize());
+        }
+        if (dst.remaining() < getFrameSize()) {
+            throw new IllegalArgumentException("dst too small: " + dst.remaining()
+                    + " < " + getFrameSize());
+        }
+
+        final int base = dst.position();
+        if (mNeutralChroma != null) {
+            mRows.fillNeutralChroma(mNeutralChroma, dst, base);
+        }
+        final int rowBytes = 2 * mWidth;
+        for (int j = 0; j < mHeight; j += 2) {
+            final int rows = (j + 1 < mHeight) ? 2 : 1;
+            yuyv.get(mSrcRows, 0, rows * rowBytes);
+            splitRows(rows);
+            mRows.writeRows(dst, base, j, rows, mNeutralChroma != null);
+        }
+        dst.position(base + getFrameSize());
+    }
+
+    /**
+     * Splits the YUYV scratch rows into luma and, unless monochrome, averaged chroma.
+     */
+    private void splitRows(int rows) {
+        final byte[] src = mSrcRows;
+        final byte[] y = mRows.mYRows;
+        for (int i = 0, end = rows * mWidth; i < end; i++) {
+            y[i] = src[2 * i];
+        }
+        if (mNeutralChroma != null) {
+            return;
+        }
+
+        final byte[] uRow = mRows.mURow;
+        final byte[] vRow = mRows.mVRow;
+        final int uOffset = mRows.mUOffset;
+        final int vOffset = mRows.mVOffset;
+        final int step = mRows.mStep;
+        final int next = (rows == 2) ? 2 * mWidth : 0;
+        for (int c = 0, s = 0; c < mChromaWidth; c++, s += 4) {
+            uRow[uOffset + c * step] =
+                    (byte) (((src[s + 1] & 0xff) + (src[next + s + 1] & 0xff) + 1) >> 1);
+            vRow[vOffset + c * step] =
+                    (byte) (((src[s + 3] & 0xff) + (src[next + s + 3] & 0xff) + 1) >> 1);
+        }
+    }
+}
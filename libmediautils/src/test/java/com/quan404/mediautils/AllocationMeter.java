@@ -0,0 +1,33 @@
+package com.quan404.mediautils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reads the number of bytes allocated by the current thread, using the HotSpot extension of
+ * ThreadMXBean.  Used by the tests checking that the hot paths do not allocate.
+ */
+final class AllocationMeter {
+
+    private static final ThreadMXBean BEAN = ManagementFactory.getThreadMXBean();
+
+    private AllocationMeter() {
+    }
+
+    /**
+     * Returns true if the running JVM can report per-thread allocations.
+     */
+    static boolean isSupported() {
+        return BEAN instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) BEAN).isThreadAllocatedMemorySupported();
+    }
+
+    /**
+     * Returns the bytes allocated so far by the calling thread.  The call itself does not
+     * allocate, so two consecutive readings return the same value.
+     */
+    static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) BEAN)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
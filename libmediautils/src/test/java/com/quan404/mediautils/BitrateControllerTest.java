@@ -0,0 +1,190 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class BitrateControllerTest {
+
+    private static final int TARGET = 6000000;
+    private static final int FRAME_RATE = 30;
+    private static final long SECOND_US = 1000000L;
+
+    /**
+     * Stands for the encoder: produces 30 frames per second, a sync frame as large as four
+     * others every second, for {@code complexity} times the bitrate it is asked for.  With
+     * {@code syncFrameApply}, a new bitrate only applies from the next sync frame, as with
+     * several hardware encoders.
+     */
+    private static class SimulatedCodec implements BitrateController.Listener {
+        final BitrateController mController;
+        final boolean mSyncFrameApply;
+        final List<Integer> mChanges = new ArrayList<Integer>();
+        double mComplexity = 1;
+        int mBitRate;
+        int mPendingBitRate;
+        int mFrame;
+
+        SimulatedCodec(BitrateController controller, boolean syncFrameApply) {
+            mController = controller;
+            mSyncFrameApply = syncFrameApply;
+            mBitRate = controller.getBitRate();
+            mPendingBitRate = mBitRate;
+            controller.setListener(this);
+        }
+
+        @Override
+        public void onBitrateChanged(int bitRate) {
+            mChanges.add(bitRate);
+            mPendingBitRate = bitRate;
+            if (!mSyncFrameApply) {
+                mBitRate = bitRate;
+            }
+        }
+
+        void encode(int seconds) {
+            for (int i = 0; i < seconds * FRAME_RATE; i++) {
+                final boolean sync = mFrame % FRAME_RATE == 0;
+                if (sync) {
+                    mBitRate = mPendingBitRate;
+                }
+                final double frameBytes = mBitRate * mComplexity / 8 / (FRAME_RATE + 3);
+                final int size = (int) (sync ? 4 * frameBytes : frameBytes);
+                mController.onEncoded(mFrame * SECOND_US / FRAME_RATE, size);
+                mFrame++;
+            }
+        }
+    }
+
+    private static void assertNearTarget(BitrateController controller) {
+        final int measured = controller.getMeasuredBitRate();
+        assertTrue("measured " + measured,
+                Math.abs(measured - TARGET) <= TARGET * BitrateController.TOLERANCE_PERCENT / 100);
+    }
+
+    @Test
+    public void lowersTheBitrateOnABusyScene() {
+        BitrateController controller = new BitrateController(TARGET, 1000000, 8000000, SECOND_US);
+        SimulatedCodec codec = new SimulatedCodec(controller, false);
+        codec.encode(5);
+        assertEquals(0, controller.getAdjustmentCount());
+        assertNearTarget(controller);
+
+        codec.mComplexity = 2;
+        codec.encode(20);
+        assertNearTarget(controller);
+        assertTrue(controller.getDecreaseCount() > 0);
+        assertEquals(0, controller.getIncreaseCount());
+        assertEquals(codec.mBitRate, controller.getBitRate());
+        assertTrue(controller.getBitRate() < TARGET / 2 * 1.1);
+
+        // the scene calms down again
+        codec.mComplexity = 1;
+        codec.encode(20);
+        assertNearTarget(controller);
+        assertTrue(controller.getIncreaseCount() > 0);
+    }
+
+    @Test
+    public void waitsForEncodersApplyingOnSyncFrames() {
+        BitrateController controller = new BitrateController(TARGET, 1000000, 8000000, SECOND_US);
+        SimulatedCodec codec = new SimulatedCodec(controller, true);
+        codec.mComplexity = 2;
+        codec.encode(30);
+
+        assertNearTarget(controller);
+        // each change is measured before the next, no swing past the target down to the floor
+        for (int bitRate : codec.mChanges) {
+            assertTrue("asked for " + bitRate, bitRate >= TARGET / 2 * 0.9);
+        }
+    }
+
+    @Test
+    public void staysWithinBounds() {
+        BitrateController controller = new BitrateController(TARGET, 4000000, 7000000, SECOND_US);
+        SimulatedCodec codec = new SimulatedCodec(controller, false);
+        codec.mComplexity = 4;
+        codec.encode(20);
+        assertEquals(4000000, controller.getBitRate());
+        long adjustments = controller.getAdjustmentCount();
+        codec.encode(5);
+        // held on the bound, the listener is not called again
+        assertEquals(adjustments, controller.getAdjustmentCount());
+        assertEquals(adjustments, codec.mChanges.size());
+
+        codec.mComplexity = 0.25;
+        codec.encode(20);
+        assertEquals(7000000, controller.getBitRate());
+    }
+
+    @Test
+    public void ignoresCodecConfigAndEmptySamples() {
+        BitrateController controller = new BitrateController(TARGET, 1000000, 8000000, SECOND_US);
+        controller.onEncoded(0, 0);
+        controller.onEncoded(0, 1000);
+        controller.onEncoded(SECOND_US, 0);
+        assertEquals(0, controller.getWindowCount());
+        controller.onEncoded(2 * SECOND_US, 1000);
+        assertEquals(1, controller.getWindowCount());
+        assertEquals(4000, controller.getMeasuredBitRate());
+        // far below the target: half way to twice the bitrate
+        assertEquals(1, controller.getIncreaseCount());
+        assertEquals(8000000, controller.getBitRate());
+
+        controller.reset();
+        assertEquals(TARGET, controller.getBitRate());
+        assertEquals(0, controller.getAdjustmentCount());
+        assertEquals("target 6000 kb/s, requested 6000 kb/s, measured 0 kb/s, 0 increases and"
+                + " 0 decreases over 0 windows", controller.describe());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTargetOutsideBounds() {
+        new BitrateController(TARGET, 1000000, 5000000, SECOND_US);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyWindow() {
+        new BitrateController(TARGET, 1000000, 8000000, 0);
+    }
+
+    @Test
+    public void controlsWithoutAllocating() {
+        assumeTrue(AllocationMeter.isSupported());
+        final int samples = 20000;
+        BitrateController controller = new BitrateController(TARGET, 1000000, 8000000, SECOND_US);
+        controller.setListener(new BitrateController.Listener() {
+            @Override
+            public void onBitrateChanged(int bitRate) {
+            }
+        });
+
+        // warm up with the very call measured: its first run once compiled may allocate
+        final int warmUpRounds = 10;
+        for (int round = 0; round < warmUpRounds; round++) {
+            encode(controller, round * samples, samples);
+        }
+        long before = AllocationMeter.allocatedBytes();
+        encode(controller, warmUpRounds * samples, samples);
+        long allocated = AllocationMeter.allocatedBytes() - before;
+
+        assertEquals(0, allocated);
+        assertTrue(controller.getAdjustmentCount() > 0);
+    }
+
+    /**
+     * Feeds {@code samples} frames from frame {@code first} on, alternately busy and still
+     * seconds, so that the bitrate keeps moving.
+     */
+    private static void encode(BitrateController controller, long first, int samples) {
+        for (long frame = first; frame < first + samples; frame++) {
+            final int size = (frame / FRAME_RATE) % 2 == 0 ? 50000 : 5000;
+            controller.onEncoded(frame * SECOND_US / FRAME_RATE, size);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.quan404.mediautils.ColorFormatNegotiator.COLOR_FormatYUV420Flexible;
+import static com.quan404.mediautils.ColorFormatNegotiator.COLOR_FormatYUV420PackedPlanar;
+import static com.quan404.mediautils.ColorFormatNegotiator.COLOR_FormatYUV420Planar;
+import static com.quan404.mediautils.ColorFormatNegotiator.COLOR_FormatYUV420SemiPlanar;
+import static com.quan404.mediautils.ColorFormatNegotiator.COLOR_TI_FormatYUV420PackedSemiPlanar;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ColorFormatNegotiatorTest {
+
+    // COLOR_FormatSurface and COLOR_Format32bitARGB8888, never chosen
+    private static final int SURFACE = 0x7f000789;
+    private static final int ARGB8888 = 16;
+
+    @Test
+    public void prefersSemiPlanarForNV21() {
+        ColorFormatNegotiator negotiator = new ColorFormatNegotiator(true);
+        int[] formats = { COLOR_FormatYUV420Flexible, COLOR_FormatYUV420Planar,
+                COLOR_FormatYUV420SemiPlanar };
+        ColorFormatNegotiator.Choice choice =
+                negotiator.negotiate(ColorFormatNegotiator.Source.NV21, formats);
+        assertEquals(COLOR_FormatYUV420SemiPlanar, choice.getColorFormat());
+        assertEquals(Yuv420Format.NV12, choice.getLayout());
+
+        List<ColorFormatNegotiator.Choice> ranking =
+                negotiator.rank(ColorFormatNegotiator.Source.NV21, formats);
+        assertEquals(3, ranking.size());
+        assertEquals(COLOR_FormatYUV420Planar, ranking.get(1).getColorFormat());
+        assertTrue(ranking.get(2).isFlexible());
+    }
+
+    @Test
+    public void keepsCodecOrderOnTies() {
+        ColorFormatNegotiator negotiator = new ColorFormatNegotiator(false);
+        int[] formats = { SURFACE, COLOR_FormatYUV420PackedPlanar,
+                COLOR_TI_FormatYUV420PackedSemiPlanar, COLOR_FormatYUV420Planar };
+        List<ColorFormatNegotiator.Choice> ranking =
+                negotiator.rank(ColorFormatNegotiator.Source.RGBX, formats);
+        assertEquals(3, ranking.size());
+        assertEquals(COLOR_FormatYUV420PackedPlanar, ranking.get(0).getColorFormat());
+        assertEquals(COLOR_TI_FormatYUV420PackedSemiPlanar, ranking.get(1).getColorFormat());
+        assertEquals(COLOR_FormatYUV420Planar, ranking.get(2).getColorFormat());
+    }
+
+    @Test
+    public void flexibleOnlyWithInputImages() {
+        int[] formats = { SURFACE, COLOR_FormatYUV420Flexible };
+        assertNull(new ColorFormatNegotiator(false).negotiate(ColorFormatNegotiator.Source.YUYV,
+                formats));
+        ColorFormatNegotiator.Choice choice = new ColorFormatNegotiator(true).negotiate(
+                ColorFormatNegotiator.Source.YUYV, formats);
+        assertEquals(COLOR_FormatYUV420Flexible, choice.getColorFormat());
+        assertNull(choice.getLayout());
+    }
+
+    @Test
+    public void describesEveryFormat() {
+        int[] formats = { ARGB8888, COLOR_FormatYUV420Planar, COLOR_FormatYUV420SemiPlanar,
+                COLOR_FormatYUV420Flexible };
+        List<String> lines = new ColorFormatNegotiator(false).describe(
+                ColorFormatNegotiator.Source.NV21, formats);
+        assertEquals(5, lines.size());
+        assertTrue(lines.get(0).startsWith("chosen: COLOR_FormatYUV420SemiPlanar"));
+        assertTrue(lines.get(1).startsWith("candidate: COLOR_FormatYUV420Planar"));
+        assertEquals("unsupported: 0x10", lines.get(2));
+        assertEquals("unsupported: COLOR_FormatYUV420Flexible (needs getInputImage)",
+                lines.get(3));
+    }
+}
@@ -0,0 +1,152 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ColorMatrixTest {
+
+    private static final ColorMatrix[] MATRICES = {
+            ColorMatrix.BT601_LIMITED, ColorMatrix.BT601_FULL,
+            ColorMatrix.BT709_LIMITED, ColorMatrix.BT709_FULL,
+    };
+
+    @Test
+    public void bt601LimitedMatchesIntegerFormula() {
+        ColorMatrix m = ColorMatrix.BT601_LIMITED;
+        for (int r = 0; r < 256; r++) {
+            for (int g = 0; g < 256; g += 3) {
+                for (int b = 0; b < 256; b += 5) {
+                    assertEquals(((66 * r + 129 * g + 25 * b + 128) >> 8) + 16, m.y(r, g, b));
+                    assertEquals(((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128, m.u(r, g, b));
+                    assertEquals(((112 * r - 94 * g - 18 * b + 128) >> 8) + 128, m.v(r, g, b));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void graysHaveNeutralChromaAndFullLumaRange() {
+        for (ColorMatrix m : MATRICES) {
+            for (int x = 0; x < 256; x++) {
+                assertEquals(128, m.u(x, x, x));
+                assertEquals(128, m.v(x, x, x));
+            }
+            assertEquals(m.isFullRange() ? 0 : 16, m.y(0, 0, 0));
+            assertEquals(m.isFullRange() ? 255 : 235, m.y(255, 255, 255));
+        }
+    }
+
+    @Test
+    public void matchesFloatingPointDefinition() {
+        double[][] weights = { { 0.299, 0.114 }, { 0.299, 0.114 },
+                { 0.2126, 0.0722 }, { 0.2126, 0.0722 } };
+        for (int k = 0; k < MATRICES.length; k++) {
+            ColorMatrix m = MATRICES[k];
+            double kr = weights[k][0], kb = weights[k][1], kg = 1 - kr - kb;
+            double yScale = m.isFullRange() ? 1 : 219.0 / 255;
+            double cScale = m.isFullRange() ? 1 : 224.0 / 255;
+            double yOffset = m.isFullRange() ? 0 : 16;
+            for (int r = 0; r < 256; r += 5) {
+                for (int g = 0; g < 256; g += 7) {
+                    for (int b = 0; b < 256; b += 3) {
+                        double y = kr * r + kg * g + kb * b;
+                        double u = 0.5 * (b - y) / (1 - kb);
+                        double v = 0.5 * (r - y) / (1 - kr);
+                        assertNear(yOffset + yScale * y, m.y(r, g, b));
+                        assertNear(128 + cScale * u, m.u(r, g, b));
+                        assertNear(128 + cScale * v, m.v(r, g, b));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void standardMatricesNeverClampLuma() {
+        for (ColorMatrix m : MATRICES) {
+            assertTrue(!m.mClampY);
+        }
+        assertTrue(ColorMatrix.create(0.5, 0.6, true).mClampY);
+        // in range, but red cannot be weighted in the same multiply as blue
+        assertTrue(ColorMatrix.create(-0.02, 0.114, false).mClampY);
+    }
+
+    @Test
+    public void packedRedBlueMultiplyMatchesLuma() {
+        for (ColorMatrix m : MATRICES) {
+            for (int r = 0; r < 256; r++) {
+                for (int b = 0; b < 256; b++) {
+                    for (int g = 0; g < 256; g += 85) {
+                        final int p = 0xff000000 | (r << 16) | (g << 8) | b;
+                        final int y = ((p & 0xff00ff) * m.mYRB >>> 16) + m.mYG * g + m.mYBias;
+                        assertEquals(m.y(r, g, b), y >> ColorMatrix.SHIFT);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void clampIsSaturating() {
+        assertEquals(0, ColorMatrix.clamp(Integer.MIN_VALUE));
+        assertEquals(0, ColorMatrix.clamp(-1));
+        assertEquals(0, ColorMatrix.clamp(0));
+        assertEquals(128, ColorMatrix.clamp(128));
+        assertEquals(255, ColorMatrix.clamp(255));
+        assertEquals(255, ColorMatrix.clamp(256));
+        assertEquals(255, ColorMatrix.clamp(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void converterUsesSelectedMatrix() {
+        final int width = 16, height = 8;
+        int[] argb = LegacyYuv.randomArgb(width, height, 11);
+        RgbToYuvConverter converter = new RgbToYuvConverter(width, height, Yuv420Format.I420);
+        converter.setColorMatrix(ColorMatrix.BT709_FULL);
+        ByteBuffer dst = ByteBuffer.allocate(converter.getFrameSize());
+        converter.convert(argb, dst);
+
+        ColorMatrix m = ColorMatrix.BT709_FULL;
+        byte[] expected = new byte[converter.getFrameSize()];
+        final int lumaSize = width * height;
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                int p = argb[j * width + i];
+                int r = (p >> 16) & 0xff, g = (p >> 8) & 0xff, b = p & 0xff;
+                expected[j * width + i] = (byte) m.y(r, g, b);
+                if (j % 2 == 0 && i % 2 == 0) {
+                    int c = (j / 2) * (width / 2) + i / 2;
+                    expected[lumaSize + c] = (byte) m.u(r, g, b);
+                    expected[lumaSize + lumaSize / 4 + c] = (byte) m.v(r, g, b);
+                }
+            }
+        }
+        assertArrayEquals(expected, dst.array());
+    }
+
+    /**
+     * The default matrix gives the output of the previous arithmetic encodeYUV420SP loop; how
+     * long each takes is measured by RgbToYuvBenchmark.
+     */
+    @Test
+    public void defaultMatrixMatchesArithmeticLoop() {
+        final int width = 64;
+        final int height = 48;
+        int[] argb = LegacyYuv.randomArgb(width, height, 12);
+        byte[] legacy = new byte[width * height * 3 / 2];
+        LegacyYuv.encodeYUV420SP(legacy, argb, width, height);
+        RgbToYuvConverter converter = new RgbToYuvConverter(width, height, Yuv420Format.NV21);
+        ByteBuffer dst = ByteBuffer.allocate(converter.getFrameSize());
+        converter.convert(argb, dst);
+        assertArrayEquals(legacy, dst.array());
+    }
+
+    private static void assertNear(double expected, int actual) {
+        assertTrue("expected " + expected + " got " + actual, Math.abs(expected - actual) <= 1.5);
+    }
+}
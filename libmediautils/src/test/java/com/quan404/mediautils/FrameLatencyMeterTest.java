@@ -0,0 +1,84 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameLatencyMeterTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void matchesSamplesOutOfOrder() {
+        FrameLatencyMeter meter = new FrameLatencyMeter(4);
+        meter.onQueued(0, 0);
+        meter.onQueued(33333, 33 * MS);
+        meter.onQueued(66666, 66 * MS);
+        // B-frame stream: the third frame comes out before the second
+        assertTrue(meter.onEncoded(0, 10 * MS));
+        assertTrue(meter.onEncoded(66666, 80 * MS));
+        assertTrue(meter.onEncoded(33333, 81 * MS));
+
+        assertEquals(3, meter.getFrameCount());
+        assertEquals(0, meter.getUnmatchedCount());
+        assertEquals((10 + 14 + 48) / 3.0, meter.getAverageMs(), 1e-9);
+        assertEquals(48, meter.getMaxMs(), 1e-9);
+    }
+
+    @Test
+    public void countsSamplesWithNoFrame() {
+        FrameLatencyMeter meter = new FrameLatencyMeter(2);
+        // codec config, before any frame
+        assertFalse(meter.onEncoded(0, 0));
+        meter.onQueued(0, 0);
+        assertTrue(meter.onEncoded(0, MS));
+        // a frame is only matched once
+        assertFalse(meter.onEncoded(0, 2 * MS));
+        assertEquals(1, meter.getFrameCount());
+        assertEquals(2, meter.getUnmatchedCount());
+    }
+
+    @Test
+    public void givesUpOldestFrameWhenFull() {
+        FrameLatencyMeter meter = new FrameLatencyMeter(2);
+        meter.onQueued(0, 0);
+        meter.onQueued(1, MS);
+        meter.onQueued(2, 2 * MS);
+        assertEquals(1, meter.getUnmatchedCount());
+        assertFalse(meter.onEncoded(0, 3 * MS));
+        assertTrue(meter.onEncoded(1, 3 * MS));
+        assertTrue(meter.onEncoded(2, 3 * MS));
+        assertEquals(2, meter.getUnmatchedCount());
+    }
+
+    @Test
+    public void readsPercentilesFromHistogram() {
+        FrameLatencyMeter meter = new FrameLatencyMeter(1);
+        assertEquals(0, meter.getPercentileMs(50));
+        // 1 ms to 100 ms, one frame each
+        for (int frame = 1; frame <= 100; frame++) {
+            meter.onQueued(frame, 0);
+            meter.onEncoded(frame, frame * MS - 1);
+        }
+        assertEquals(1, meter.getPercentileMs(0));
+        assertEquals(50, meter.getPercentileMs(50));
+        assertEquals(90, meter.getPercentileMs(90));
+        assertEquals(100, meter.getPercentileMs(100));
+
+        meter.onQueued(0, 0);
+        meter.onEncoded(0, 5000 * MS);
+        assertEquals(FrameLatencyMeter.MAX_MS, meter.getPercentileMs(100));
+        assertEquals(5000, meter.getMaxMs(), 1e-9);
+
+        meter.reset();
+        assertEquals(0, meter.getFrameCount());
+        assertEquals(0, meter.getPercentileMs(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidPercentile() {
+        new FrameLatencyMeter(1).getPercentileMs(101);
+    }
+}
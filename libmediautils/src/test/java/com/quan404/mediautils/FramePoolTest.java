@@ -0,0 +1,120 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+public class FramePoolTest {
+
+    @Test
+    public void takesFramesInSubmitOrder() throws InterruptedException {
+        FramePool pool = new FramePool(16, 3, false);
+        for (int frame = 0; frame < 3; frame++) {
+            ByteBuffer buffer = pool.acquire();
+            buffer.put((byte) frame);
+            pool.submit(buffer);
+        }
+        assertEquals(3, pool.getQueuedCount());
+        for (int frame = 0; frame < 3; frame++) {
+            ByteBuffer buffer = pool.take(0);
+            assertEquals(1, buffer.remaining());
+            assertEquals(frame, buffer.get(0));
+            pool.release(buffer);
+        }
+        assertNull(pool.take(0));
+        assertEquals(0, pool.getInUseCount());
+        assertEquals(3, pool.getPeakInUseCount());
+    }
+
+    @Test
+    public void countsExhaustion() {
+        FramePool pool = new FramePool(16, 2, true);
+        ByteBuffer first = pool.acquire();
+        ByteBuffer second = pool.acquire();
+        assertNotNull(second);
+        assertNull(pool.acquire());
+        assertNull(pool.acquire());
+        assertEquals(2, pool.getExhaustedCount());
+        assertEquals(2, pool.getAcquiredCount());
+
+        pool.release(first);
+        assertSame(first, pool.acquire());
+        assertEquals(2, pool.getExhaustedCount());
+    }
+
+    @Test
+    public void drainsUntakenFrames() {
+        FramePool pool = new FramePool(16, 2, false);
+        pool.submit(pool.acquire());
+        pool.submit(pool.acquire());
+        assertEquals(2, pool.drain());
+        assertEquals(0, pool.getInUseCount());
+        assertNotNull(pool.acquire());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsForeignBuffer() {
+        new FramePool(16, 2, false).release(ByteBuffer.allocate(16));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsDoubleRelease() {
+        FramePool pool = new FramePool(16, 2, false);
+        ByteBuffer buffer = pool.acquire();
+        pool.release(buffer);
+        pool.release(buffer);
+    }
+
+    @Test
+    public void handsFramesAcrossThreadsWithoutAllocating() throws Exception {
+        assumeTrue(AllocationMeter.isSupported());
+        final int frames = 20000;
+        final FramePool pool = new FramePool(1280 * 720 * 3 / 2, 3, true);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int submitted = 0;
+                while (submitted < frames) {
+                    ByteBuffer buffer = pool.acquire();
+                    if (buffer == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    buffer.putInt(submitted++);
+                    pool.submit(buffer);
+                }
+            }
+        });
+        // warm up the consumer side with the very call measured, its first run once compiled
+        // may allocate, then measure the last round
+        final int round = 500;
+        producer.start();
+        for (int frame = 0; frame < frames - round; frame += round) {
+            consume(pool, frame, frame + round);
+        }
+        long before = AllocationMeter.allocatedBytes();
+        consume(pool, frames - round, frames);
+        long consumerAllocated = AllocationMeter.allocatedBytes() - before;
+        producer.join();
+
+        assertEquals(0, consumerAllocated);
+    }
+
+    /**
+     * Takes frames {@code from} to {@code to} (excluded), checks them and releases them.
+     */
+    private static void consume(FramePool pool, int from, int to) throws InterruptedException {
+        for (int frame = from; frame < to; frame++) {
+            ByteBuffer buffer = pool.take(2500);
+            assertNotNull(buffer);
+            assertEquals(frame, buffer.getInt(0));
+            pool.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalYuvConverterTest {
+
+    /**
+     * Paints a width x height rectangle of random pixels at x, y into an RGBX or RGB565 frame.
+     */
+    private static void paint(ByteBuffer frame, int frameWidth, int bytesPerPixel, int x, int y,
+                              int width, int height, Random random) {
+        for (int j = y; j < y + height; j++) {
+            for (int i = x; i < x + width; i++) {
+                for (int b = 0; b < bytesPerPixel; b++) {
+                    frame.put((j * frameWidth + i) * bytesPerPixel + b, (byte) random.nextInt());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void matchesFullConversion() {
+        int[][] sizes = { { 64, 48 }, { 37, 23 }, { 16, 2 } };
+        for (int[] size : sizes) {
+            final int width = size[0], height = size[1];
+            for (InputFormat input : new InputFormat[] { InputFormat.RGBX, InputFormat.RGB565 }) {
+                for (Yuv420Format format : Yuv420Format.values()) {
+                    RgbToYuvConverter tiles = new RgbToYuvConverter(width, height, format);
+                    tiles.setChromaFilter(ChromaFilter.BOX);
+                    IncrementalYuvConverter converter = new IncrementalYuvConverter(tiles, input);
+                    RgbToYuvConverter reference = new RgbToYuvConverter(width, height, format);
+                    reference.setChromaFilter(ChromaFilter.BOX);
+
+                    final int bytesPerPixel = input.getBytesPerPixel();
+                    ByteBuffer src = ByteBuffer.allocateDirect(bytesPerPixel * width * height);
+                    Random random = new Random(width + format.ordinal());
+                    paint(src, width, bytesPerPixel, 0, 0, width, height, random);
+                    for (int frame = 0; frame < 8; frame++) {
+                        // a few rectangles anywhere, odd sizes and positions included
+                        for (int i = 0; i < frame % 3; i++) {
+                            final int x = random.nextInt(width);
+                            final int y = random.nextInt(height);
+                            paint(src, width, bytesPerPixel, x, y,
+                                    1 + random.nextInt(width - x), 1 + random.nextInt(height - y),
+                                    random);
+                        }
+                        ByteBuffer expected = ByteBuffer.allocate(reference.getFrameSize());
+                        ByteBuffer actual = ByteBuffer.allocate(converter.getFrameSize());
+                        src.clear();
+                        if (input == InputFormat.RGB565) {
+                            reference.convertRgb565(src, expected);
+                        } else {
+                            reference.convertRgbx(src, expected);
+                        }
+                        src.clear();
+                        converter.convert(src, actual);
+                        assertEquals(src.capacity(), src.position());
+                        assertEquals(actual.capacity(), actual.position());
+                        assertArrayEquals(input + " " + format + " " + width + "x" + height
+                                + " frame " + frame, expected.array(), actual.array());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void countsChangedTiles() {
+        final int width = 64, height = 48;
+        RgbToYuvConverter tiles = new RgbToYuvConverter(width, height, Yuv420Format.NV12);
+        IncrementalYuvConverter converter = new IncrementalYuvConverter(tiles, InputFormat.RGBX);
+        assertEquals(12, converter.getTileCount());
+        ByteBuffer src = ByteBuffer.allocate(converter.getInputSize());
+        ByteBuffer dst = ByteBuffer.allocate(converter.getFrameSize());
+        Random random = new Random(1);
+        paint(src, width, 4, 0, 0, width, height, random);
+
+        convert(converter, src, dst);
+        assertEquals(1, converter.getFullConversionCount());
+        convert(converter, src, dst);
+        assertEquals(0, converter.getChangedTileRatio(), 0);
+
+        // one pixel, then one pixel across four tiles
+        paint(src, width, 4, 20, 20, 1, 1, random);
+        convert(converter, src, dst);
+        assertEquals(1f / 12, converter.getChangedTileRatio(), 1e-6);
+        paint(src, width, 4, 15, 15, 2, 2, random);
+        convert(converter, src, dst);
+        assertEquals(4f / 12, converter.getChangedTileRatio(), 1e-6);
+        assertEquals(1, converter.getFullConversionCount());
+        assertEquals(4, converter.getFrameCount());
+        assertEquals((12 + 0 + 1 + 4) / 12f / 4, converter.getAverageChangedTileRatio(), 1e-6);
+    }
+
+    @Test
+    public void fallsBackWhenMostTilesChange() {
+        final int width = 64, height = 48;
+        RgbToYuvConverter tiles = new RgbToYuvConverter(width, height, Yuv420Format.I420);
+        IncrementalYuvConverter converter = new IncrementalYuvConverter(tiles, InputFormat.RGBX);
+        ByteBuffer src = ByteBuffer.allocate(converter.getInputSize());
+        ByteBuffer dst = ByteBuffer.allocate(converter.getFrameSize());
+        Random random = new Random(2);
+
+        convert(converter, src, dst);
+        // half the tiles is not most of them: the first row of tiles and half the second
+        paint(src, width, 4, 0, 0, width, 16, random);
+        paint(src, width, 4, 0, 16, 32, 1, random);
+        convert(converter, src, dst);
+        assertEquals(0.5f, converter.getChangedTileRatio(), 0);
+        assertEquals(1, converter.getFullConversionCount());
+        paint(src, width, 4, 0, 0, width, 32, random);
+        convert(converter, src, dst);
+        assertEquals(8f / 12, converter.getChangedTileRatio(), 1e-6);
+        assertEquals(2, converter.getFullConversionCount());
+
+        converter.invalidate();
+        convert(converter, src, dst);
+        assertEquals(0, converter.getChangedTileRatio(), 0);
+        assertEquals(3, converter.getFullConversionCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsYuyv() {
+        new IncrementalYuvConverter(new RgbToYuvConverter(16, 16, Yuv420Format.NV12),
+                InputFormat.YUYV);
+    }
+
+    private static void convert(IncrementalYuvConverter converter, ByteBuffer src,
+                                ByteBuffer dst) {
+        src.clear();
+        dst.clear();
+        converter.convert(src, dst);
+    }
+}
@@ -0,0 +1,324 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class NV21ConvertorTest {
+
+    // { width, height, stride, slice height }: plain, 16 line aligned, wider stride, odd sizes,
+    // chroma rows that are not a whole number of longs
+    private static final int[][] LAYOUTS = {
+            { 64, 48, 64, 48 },
+            { 64, 40, 64, 48 },
+            { 60, 48, 64, 48 },
+            { 176, 144, 192, 160 },
+            { 33, 17, 48, 32 },
+            { 30, 6, 30, 6 },
+            { 14, 4, 16, 4 },
+            { 2, 2, 2, 2 },
+    };
+    private static final int[] Y_PADDINGS = { 0, 1024, 7 };
+
+    @Test
+    public void matchesReferenceForEveryLayout() {
+        for (int[] layout : LAYOUTS) {
+            for (int yPadding : Y_PADDINGS) {
+                for (int format = 0; format < 4; format++) {
+                    final boolean planar = format >= 2;
+                    final boolean reversed = (format & 1) != 0;
+                    NV21Convertor convertor = newConvertor(layout, yPadding, planar, reversed);
+                    byte[] nv21 = randomNv21(convertor.getInputSize(), layout[0] + layout[1]);
+                    byte[] expected = reference(nv21, layout, yPadding, planar, reversed);
+                    String message = layout[0] + "x" + layout[1] + " stride " + layout[2]
+                            + " slice " + layout[3] + " padding " + yPadding + " "
+                            + convertor.getOutputFormat();
+
+                    assertEquals(message, expected.length, convertor.getBufferSize());
+                    assertArrayEquals(message, expected, convert(convertor, nv21, false));
+                    assertArrayEquals(message, expected, convert(convertor, nv21, true));
+                    assertArrayEquals(message, expected, convertor.convert(nv21));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rotatedMatchesRotatedReference() {
+        for (int[] layout : LAYOUTS) {
+            for (int degrees = 0; degrees < 360; degrees += 90) {
+                for (int mirrored = 0; mirrored < 2; mirrored++) {
+                    for (int format = 0; format < 4; format++) {
+                        final boolean planar = format >= 2;
+                        final boolean reversed = (format & 1) != 0;
+                        NV21Convertor convertor = newConvertor(layout, 0, planar, reversed);
+                        convertor.setRotation(degrees);
+                        convertor.setMirrored(mirrored != 0);
+                        // same padding around the rotated picture
+                        final boolean transposed = degrees % 180 != 0;
+                        final int width = transposed ? layout[1] : layout[0];
+                        final int height = transposed ? layout[0] : layout[1];
+                        convertor.setStride(width + layout[2] - layout[0]);
+                        convertor.setSliceHeigth(height + layout[3] - layout[1]);
+                        assertEquals(width, convertor.getOutputWidth());
+                        assertEquals(height, convertor.getOutputHeight());
+
+                        byte[] nv21 = randomNv21(convertor.getInputSize(), layout[0] + degrees);
+                        byte[] rotated = rotate(nv21, layout[0], layout[1], degrees,
+                                mirrored != 0);
+                        byte[] expected = reference(rotated, new int[] { width, height,
+                                convertor.getStride(), convertor.getSliceHeigth() }, 0,
+                                planar, reversed);
+                        String message = layout[0] + "x" + layout[1] + " rotated " + degrees
+                                + (mirrored != 0 ? " mirrored " : " ")
+                                + convertor.getOutputFormat();
+
+                        assertArrayEquals(message, expected, convert(convertor, nv21, false));
+                        assertArrayEquals(message, expected, convert(convertor, nv21, true));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void monochromeCopiesLumaOnly() {
+        for (int[] layout : LAYOUTS) {
+            for (int degrees = 0; degrees < 360; degrees += 90) {
+                for (int format = 0; format < 4; format++) {
+                    final boolean planar = format >= 2;
+                    NV21Convertor convertor = newConvertor(layout, 7, planar, (format & 1) != 0);
+                    convertor.setRotation(degrees);
+                    // same padding around the rotated picture
+                    convertor.setStride(convertor.getOutputWidth() + layout[2] - layout[0]);
+                    convertor.setSliceHeigth(convertor.getOutputHeight() + layout[3] - layout[1]);
+                    byte[] nv21 = randomNv21(convertor.getInputSize(), layout[0] + degrees);
+                    byte[] expected = convert(convertor, nv21, false);
+                    convertor.setMonochrome(true);
+                    assertTrue(convertor.getMonochrome());
+                    byte[] gray = convert(convertor, nv21, false);
+                    String message = layout[0] + "x" + layout[1] + " rotated " + degrees + " "
+                            + convertor.getOutputFormat();
+
+                    // same luma, chroma samples set to 128, padding left alone
+                    final int chromaBase = convertor.getStride() * convertor.getSliceHeigth()
+                            + convertor.getYPadding();
+                    final int chromaStride = planar ? (convertor.getStride() + 1) / 2
+                            : convertor.getStride();
+                    final int planeRows = (convertor.getSliceHeigth() + 1) / 2;
+                    final int rowSamples = (planar ? 1 : 2)
+                            * ((convertor.getOutputWidth() + 1) / 2);
+                    final int rows = (convertor.getOutputHeight() + 1) / 2;
+                    for (int i = 0; i < gray.length; i++) {
+                        final int chroma = i - chromaBase;
+                        final boolean sample = chroma >= 0 && chroma % chromaStride < rowSamples
+                                && (chroma / chromaStride) % planeRows < rows;
+                        assertEquals(message + " byte " + i,
+                                (chroma < 0) ? expected[i] : sample ? NeutralChroma.VALUE : 0,
+                                gray[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rotationSwapsPlainLayout() {
+        NV21Convertor convertor = newConvertor(new int[] { 64, 48, 64, 48 }, 0, false, false);
+        convertor.setRotation(90);
+        assertEquals(48, convertor.getStride());
+        assertEquals(64, convertor.getSliceHeigth());
+        convertor.setRotation(270);
+        assertEquals(48, convertor.getStride());
+        convertor.setRotation(0);
+        assertEquals(64, convertor.getStride());
+
+        convertor.setStride(80);
+        convertor.setRotation(90);
+        assertEquals(80, convertor.getStride());
+        assertEquals(48, convertor.getSliceHeigth());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherRotations() {
+        new NV21Convertor().setRotation(45);
+    }
+
+    @Test
+    public void plainLayoutMatchesRgbConverter() {
+        int[] argb = LegacyYuv.randomArgb(64, 48, 9);
+        byte[] nv21 = new byte[64 * 48 * 3 / 2];
+        LegacyYuv.encodeYUV420SP(nv21, argb, 64, 48);
+        for (Yuv420Format format : Yuv420Format.values()) {
+            NV21Convertor convertor = newConvertor(new int[] { 64, 48, 64, 48 }, 0,
+                    format.isPlanar(), format.isVFirst());
+            assertEquals(format, convertor.getOutputFormat());
+
+            RgbToYuvConverter converter = new RgbToYuvConverter(64, 48, format);
+            ByteBuffer expected = ByteBuffer.allocate(converter.getFrameSize());
+            converter.convert(argb, expected);
+            assertArrayEquals(format.toString(), expected.array(), convert(convertor, nv21, false));
+        }
+    }
+
+    @Test
+    public void leavesInputUntouched() {
+        NV21Convertor convertor = newConvertor(new int[] { 64, 48, 64, 48 }, 0, false, false);
+        byte[] nv21 = randomNv21(convertor.getInputSize(), 1);
+        byte[] copy = nv21.clone();
+        convertor.convert(nv21, ByteBuffer.allocate(convertor.getBufferSize()));
+        assertArrayEquals(copy, nv21);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsStrideNarrowerThanWidth() {
+        NV21Convertor convertor = newConvertor(new int[] { 64, 48, 32, 48 }, 0, false, false);
+        convertor.convert(new byte[convertor.getInputSize()], ByteBuffer.allocate(1 << 16));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallBuffer() {
+        NV21Convertor convertor = newConvertor(new int[] { 64, 48, 64, 64 }, 0, true, false);
+        convertor.convert(new byte[convertor.getInputSize()],
+                ByteBuffer.allocate(convertor.getBufferSize() - 1));
+    }
+
+    /**
+     * Converts into a direct buffer with every output format, plain, rotated and mirrored, and
+     * in monochrome, and checks that nothing is allocated once warmed up.
+     */
+    @Test
+    public void steadyStateIsAllocationFree() {
+        assumeTrue(AllocationMeter.isSupported());
+        final int[] layout = { 320, 240, 384, 320 };
+        for (int format = 0; format < 4; format++) {
+            NV21Convertor convertor = newConvertor(layout, 0, format >= 2, (format & 1) != 0);
+            byte[] nv21 = randomNv21(convertor.getInputSize(), 3);
+            ByteBuffer dst = ByteBuffer.allocateDirect(convertor.getBufferSize());
+            for (int mode = 0; mode < 3; mode++) {
+                convertor.setRotation(mode == 1 ? 90 : 0);
+                convertor.setMirrored(mode == 1);
+                convertor.setMonochrome(mode == 2);
+                // warm up with the very call measured: its first run once compiled may allocate
+                for (int round = 0; round < 50; round++) {
+                    convertFrames(convertor, nv21, dst, 5);
+                }
+                long before = AllocationMeter.allocatedBytes();
+                convertFrames(convertor, nv21, dst, 5);
+                long allocated = AllocationMeter.allocatedBytes() - before;
+                assertEquals(convertor.getOutputFormat() + " mode " + mode, 0, allocated);
+            }
+        }
+    }
+
+    private static void convertFrames(NV21Convertor convertor, byte[] nv21, ByteBuffer dst,
+                                      int frames) {
+        for (int i = 0; i < frames; i++) {
+            dst.clear();
+            convertor.convert(nv21, dst);
+        }
+    }
+
+    private static NV21Convertor newConvertor(int[] layout, int yPadding, boolean planar,
+                                              boolean reversed) {
+        NV21Convertor convertor = new NV21Convertor();
+        convertor.setSize(layout[0], layout[1]);
+        convertor.setStride(layout[2]);
+        convertor.setSliceHeigth(layout[3]);
+        convertor.setYPadding(yPadding);
+        convertor.setPlanar(planar);
+        convertor.setColorPanesReversed(reversed);
+        return convertor;
+    }
+
+    private static byte[] convert(NV21Convertor convertor, byte[] nv21, boolean direct) {
+        ByteBuffer dst = direct ? ByteBuffer.allocateDirect(convertor.getBufferSize())
+                : ByteBuffer.allocate(convertor.getBufferSize());
+        convertor.convert(nv21, dst);
+        assertEquals(convertor.getBufferSize(), dst.position());
+        byte[] out = new byte[convertor.getBufferSize()];
+        dst.flip();
+        dst.get(out);
+        return out;
+    }
+
+    private static byte[] randomNv21(int size, long seed) {
+        byte[] nv21 = new byte[size];
+        new Random(seed).nextBytes(nv21);
+        return nv21;
+    }
+
+    /**
+     * Rotates an NV21 frame pixel by pixel, mirroring it first.
+     */
+    private static byte[] rotate(byte[] nv21, int width, int height, int degrees,
+                                 boolean mirrored) {
+        byte[] out = new byte[nv21.length];
+        rotatePlane(nv21, 0, width, height, 1, degrees, mirrored, out);
+        rotatePlane(nv21, width * height, (width + 1) / 2, (height + 1) / 2, 2, degrees,
+                mirrored, out);
+        return out;
+    }
+
+    private static void rotatePlane(byte[] src, int base, int width, int height, int element,
+                                    int degrees, boolean mirrored, byte[] out) {
+        final int outWidth = degrees % 180 == 0 ? width : height;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int sx = mirrored ? width - 1 - x : x;
+                final int ox, oy;
+                switch (degrees) {
+                    case 90: ox = height - 1 - y; oy = x; break;
+                    case 180: ox = width - 1 - x; oy = height - 1 - y; break;
+                    case 270: ox = y; oy = width - 1 - x; break;
+                    default: ox = x; oy = y; break;
+                }
+                for (int b = 0; b < element; b++) {
+                    out[base + (oy * outWidth + ox) * element + b] =
+                            src[base + (y * width + sx) * element + b];
+                }
+            }
+        }
+    }
+
+    /**
+     * Pixel by pixel conversion, padding left at zero.
+     */
+    private static byte[] reference(byte[] nv21, int[] layout, int yPadding, boolean planar,
+                                    boolean reversed) {
+        final int width = layout[0], height = layout[1], stride = layout[2], slice = layout[3];
+        final int cw = (width + 1) / 2, ch = (height + 1) / 2;
+        final int chromaRows = (slice + 1) / 2;
+        final int chromaStride = planar ? (stride + 1) / 2 : stride;
+        final int chromaBase = stride * slice + yPadding;
+        byte[] out = new byte[chromaBase + (planar ? 2 : 1) * chromaStride * chromaRows];
+
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                out[j * stride + i] = nv21[j * width + i];
+            }
+        }
+        for (int j = 0; j < ch; j++) {
+            for (int i = 0; i < cw; i++) {
+                byte v = nv21[width * height + j * 2 * cw + 2 * i];
+                byte u = nv21[width * height + j * 2 * cw + 2 * i + 1];
+                byte first = reversed ? v : u;
+                byte second = reversed ? u : v;
+                if (planar) {
+                    out[chromaBase + j * chromaStride + i] = first;
+                    out[chromaBase + chromaStride * chromaRows + j * chromaStride + i] = second;
+                } else {
+                    out[chromaBase + j * stride + 2 * i] = first;
+                    out[chromaBase + j * stride + 2 * i + 1] = second;
+                }
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,152 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+public class PreviewBufferRingTest {
+
+    /**
+     * Stands for the camera: fills the lent buffers in the order they were added.
+     */
+    private static class FakeCamera implements PreviewBufferRing.Lender {
+        final Deque<byte[]> mBuffers = new ArrayDeque<byte[]>();
+
+        @Override
+        public synchronized void addCallbackBuffer(byte[] buffer) {
+            mBuffers.addLast(buffer);
+        }
+
+        synchronized byte[] fill(int frame) {
+            byte[] buffer = mBuffers.pollFirst();
+            if (buffer != null) {
+                buffer[0] = (byte) frame;
+            }
+            return buffer;
+        }
+    }
+
+    @Test
+    public void lendsEveryBufferAndTakesInSubmitOrder() throws InterruptedException {
+        PreviewBufferRing ring = new PreviewBufferRing(16, 3);
+        FakeCamera camera = new FakeCamera();
+        ring.lendAll(camera);
+        assertEquals(3, camera.mBuffers.size());
+        assertEquals(3, ring.getLentCount());
+
+        for (int frame = 0; frame < 3; frame++) {
+            ring.submit(camera.fill(frame), 1000 + frame);
+        }
+        assertEquals(3, ring.getQueuedCount());
+        assertEquals(1, ring.getStarvedCount());
+        for (int frame = 0; frame < 3; frame++) {
+            byte[] buffer = ring.take(0);
+            assertEquals(frame, buffer[0]);
+            assertEquals(1000 + frame, ring.getTimestamp(buffer));
+            ring.recycle(buffer);
+            assertSame(buffer, camera.mBuffers.peekLast());
+        }
+        assertNull(ring.take(0));
+        assertEquals(3, ring.getLentCount());
+        assertEquals(3, ring.getSubmittedCount());
+        assertEquals(3, ring.getPeakQueuedCount());
+    }
+
+    @Test
+    public void ignoresFramesOnceDrained() throws InterruptedException {
+        PreviewBufferRing ring = new PreviewBufferRing(16, 2);
+        FakeCamera camera = new FakeCamera();
+        ring.lendAll(camera);
+        ring.submit(camera.fill(0), 0);
+        ring.submit(camera.fill(1), 1);
+        byte[] taken = ring.take(0);
+
+        assertEquals(1, ring.drain());
+        assertEquals(0, ring.getLentCount());
+        assertFalse(ring.submit(taken, 2));
+        // the buffer being encoded is not lent again, the other one was forgotten
+        ring.recycle(taken);
+        assertEquals(0, camera.mBuffers.size());
+
+        // a new preview gets both
+        ring.lendAll(camera);
+        assertEquals(2, camera.mBuffers.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsForeignBuffer() {
+        PreviewBufferRing ring = new PreviewBufferRing(16, 2);
+        ring.lendAll(new FakeCamera());
+        ring.submit(new byte[16], 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsDoubleRecycle() throws InterruptedException {
+        PreviewBufferRing ring = new PreviewBufferRing(16, 2);
+        FakeCamera camera = new FakeCamera();
+        ring.lendAll(camera);
+        ring.submit(camera.fill(0), 0);
+        byte[] buffer = ring.take(0);
+        ring.recycle(buffer);
+        ring.recycle(buffer);
+    }
+
+    @Test
+    public void cyclesBuffersAcrossThreadsWithoutAllocating() throws Exception {
+        assumeTrue(AllocationMeter.isSupported());
+        final int frames = 20000;
+        final PreviewBufferRing ring = new PreviewBufferRing(1280 * 720 * 3 / 2, 3);
+        final FakeCamera camera = new FakeCamera();
+        ring.lendAll(camera);
+        Thread preview = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int submitted = 0;
+                while (submitted < frames) {
+                    byte[] buffer = camera.fill(submitted);
+                    if (buffer == null) {
+                        // starved, the camera would drop the frame
+                        Thread.yield();
+                        continue;
+                    }
+                    ring.submit(buffer, submitted++);
+                }
+            }
+        });
+        // warm up the consumer side with the very call measured, its first run once compiled
+        // may allocate, then measure the last round
+        final int round = 500;
+        preview.start();
+        for (int frame = 0; frame < frames - round; frame += round) {
+            consume(ring, frame, frame + round);
+        }
+        long before = AllocationMeter.allocatedBytes();
+        consume(ring, frames - round, frames);
+        long consumerAllocated = AllocationMeter.allocatedBytes() - before;
+        preview.join();
+
+        assertEquals(0, consumerAllocated);
+    }
+
+    /**
+     * Takes frames {@code from} to {@code to} (excluded), checks them and recycles them.
+     */
+    private static void consume(PreviewBufferRing ring, int from, int to)
+            throws InterruptedException {
+        for (int frame = from; frame < to; frame++) {
+            byte[] buffer = ring.take(2500);
+            assertNotNull(buffer);
+            assertEquals((byte) frame, buffer[0]);
+            assertEquals(frame, ring.getTimestamp(buffer));
+            ring.recycle(buffer);
+        }
+    }
+}
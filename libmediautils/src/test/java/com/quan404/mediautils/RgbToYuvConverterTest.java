@@ -0,0 +1,448 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class RgbToYuvConverterTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void nv21MatchesLegacyEncoder() {
+        int[] argb = LegacyYuv.randomArgb(WIDTH, HEIGHT, 1);
+        byte[] expected = new byte[WIDTH * HEIGHT * 3 / 2];
+        LegacyYuv.encodeYUV420SP(expected, argb, WIDTH, HEIGHT);
+
+        assertArrayEquals(expected, convert(argb, Yuv420Format.NV21, false));
+        assertArrayEquals(expected, convert(argb, Yuv420Format.NV21, true));
+    }
+
+    @Test
+    public void otherLayoutsAreReorderedNv21() {
+        int[] argb = LegacyYuv.randomArgb(WIDTH, HEIGHT, 2);
+        byte[] nv21 = convert(argb, Yuv420Format.NV21, false);
+        byte[] nv12 = convert(argb, Yuv420Format.NV12, false);
+        byte[] i420 = convert(argb, Yuv420Format.I420, false);
+        byte[] yv12 = convert(argb, Yuv420Format.YV12, false);
+
+        final int lumaSize = WIDTH * HEIGHT;
+        final int quarter = lumaSize / 4;
+        for (int i = 0; i < lumaSize; i++) {
+            assertEquals(nv21[i], nv12[i]);
+            assertEquals(nv21[i], i420[i]);
+            assertEquals(nv21[i], yv12[i]);
+        }
+        for (int i = 0; i < quarter; i++) {
+            byte v = nv21[lumaSize + 2 * i];
+            byte u = nv21[lumaSize + 2 * i + 1];
+            assertEquals(u, nv12[lumaSize + 2 * i]);
+            assertEquals(v, nv12[lumaSize + 2 * i + 1]);
+            assertEquals(u, i420[lumaSize + i]);
+            assertEquals(v, i420[lumaSize + quarter + i]);
+            assertEquals(v, yv12[lumaSize + i]);
+            assertEquals(u, yv12[lumaSize + quarter + i]);
+        }
+    }
+
+    @Test
+    public void writesAtBufferPosition() {
+        int[] argb = LegacyYuv.randomArgb(WIDTH, HEIGHT, 3);
+        RgbToYuvConverter converter = new RgbToYuvConverter(WIDTH, HEIGHT, Yuv420Format.NV12);
+        ByteBuffer dst = ByteBuffer.allocate(converter.getFrameSize() + 10);
+        dst.position(10);
+        converter.convert(argb, dst);
+        assertEquals(10 + converter.getFrameSize(), dst.position());
+        assertEquals(0, dst.get(9));
+    }
+
+    @Test
+    public void oddSizesRoundChromaUp() {
+        RgbToYuvConverter converter = new RgbToYuvConverter(5, 3, Yuv420Format.I420);
+        assertEquals(5 * 3 + 2 * 3 * 2, converter.getFrameSize());
+        ByteBuffer dst = ByteBuffer.allocate(converter.getFrameSize());
+        converter.convert(LegacyYuv.randomArgb(5, 3, 4), dst);
+        assertEquals(converter.getFrameSize(), dst.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallDestination() {
+        RgbToYuvConverter converter = new RgbToYuvConverter(WIDTH, HEIGHT, Yuv420Format.NV12);
+        converter.convert(new int[WIDTH * HEIGHT], ByteBuffer.allocate(WIDTH * HEIGHT));
+    }
+
+    @Test
+    public void rgbxMatchesArgb() {
+        int[] argb = LegacyYuv.randomArgb(WIDTH, HEIGHT, 6);
+        for (Yuv420Format format : Yuv420Format.values()) {
+            byte[] expected = convert(argb, format, false);
+            for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN,
+                    ByteOrder.LITTLE_ENDIAN }) {
+                assertArrayEquals(format + " " + order, expected,
+                        convertRgbx(toRgbx(argb, WIDTH, HEIGHT, false, order), format, false));
+                assertArrayEquals(format + " " + order, expected,
+                        convertRgbx(toRgbx(argb, WIDTH, HEIGHT, true, order), format, true));
+            }
+        }
+    }
+
+    @Test
+    public void readsRgbxAtBufferPosition() {
+        int[] argb = LegacyYuv.randomArgb(WIDTH, HEIGHT, 7);
+        ByteBuffer frame = toRgbx(argb, WIDTH, HEIGHT, true, ByteOrder.nativeOrder());
+        ByteBuffer src = ByteBuffer.allocateDirect(frame.capacity() + 12);
+        src.position(12);
+        src.put(frame);
+        src.position(12);
+
+        RgbToYuvConverter converter = new RgbToYuvConverter(WIDTH, HEIGHT, Yuv420Format.NV12);
+        ByteBuffer dst = ByteBuffer.allocate(converter.getFrameSize());
+        converter.convertRgbx(src, dst);
+        assertEquals(src.capacity(), src.position());
+
+        byte[] out = new byte[converter.getFrameSize()];
+        dst.flip();
+        dst.get(out);
+        assertArrayEquals(convert(argb, Yuv420Format.NV12, false), out);
+    }
+
+    @Test
+    public void rgb565MatchesExpandedArgb() {
+        int[] argb = LegacyYuv.randomArgb(WIDTH, HEIGHT, 9);
+        ByteBuffer rgb565 = ByteBuffer.allocateDirect(2 * WIDTH * HEIGHT);
+        int[] expanded = new int[argb.length];
+        for (int i = 0; i < argb.length; i++) {
+            final int r = (argb[i] >> 19) & 0x1f;
+            final int g = (argb[i] >> 10) & 0x3f;
+            final int b = (argb[i] >> 3) & 0x1f;
+            // libuvc's byte order, low byte first
+            rgb565.put((byte) ((g << 5) | b)).put((byte) ((r << 3) | (g >> 3)));
+            expanded[i] = 0xff000000 | ((r << 3 | r >> 2) << 16) | ((g << 2 | g >> 4) << 8)
+                    | (b << 3 | b >> 2);
+        }
+        for (Yuv420Format format : Yuv420Format.values()) {
+            RgbToYuvConverter converter = new RgbToYuvConverter(WIDTH, HEIGHT, format);
+            ByteBuffer dst = ByteBuffer.allocate(converter.getFrameSize());
+            rgb565.clear();
+            converter.convertRgb565(rgb565, dst);
+            assertEquals(rgb565.capacity(), rgb565.position());
+            assertArrayEquals(format.toString(), convert(expanded, format, false), dst.array());
+        }
+    }
+
+    @Test
+    public void rgb565KeepsFullScale() {
+        RgbToYuvConverter converter = new RgbToYuvConverter(2, 2, Yuv420Format.I420);
+        ByteBuffer white = ByteBuffer.allocate(8);
+        while (white.hasRemaining()) {
+            white.put((byte) 0xff);
+        }
+        white.flip();
+        ByteBuffer dst = ByteBuffer.allocate(converter.getFrameSize());
+        converter.convertRgb565(white, dst);
+        ByteBuffer expected = ByteBuffer.allocate(converter.getFrameSize());
+        converter.convert(new int[] { 0xffffffff, 0xffffffff, 0xffffffff, 0xffffffff }, expected);
+        assertArrayEquals(expected.array(), dst.array());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallRgbxSource() {
+        RgbToYuvConverter converter = new RgbToYuvConverter(WIDTH, HEIGHT, Yuv420Format.NV12);
+        converter.convertRgbx(ByteBuffer.allocateDirect(4 * WIDTH * HEIGHT - 1),
+                ByteBuffer.allocate(converter.getFrameSize()));
+    }
+
+    @Test
+    public void boxFilterAveragesEachBlock() {
+        int[][] sizes = { { WIDTH, HEIGHT }, { 5, 3 }, { 33, 17 } };
+        for (int[] size : sizes) {
+            final int width = size[0], height = size[1];
+            final int cw = (width + 1) / 2, ch = (height + 1) / 2;
+            int[] argb = LegacyYuv.randomArgb(width, height, width);
+            RgbToYuvConverter converter = new RgbToYuvConverter(width, height, Yuv420Format.I420);
+            converter.setChromaFilter(ChromaFilter.BOX);
+            ByteBuffer dst = ByteBuffer.allocate(converter.getFrameSize());
+            converter.convert(argb, dst);
+
+            ColorMatrix m = converter.getColorMatrix();
+            for (int j = 0; j < ch; j++) {
+                for (int i = 0; i < cw; i++) {
+                    // blocks cut by the frame edge repeat their last row / column
+                    int x0 = 2 * i, x1 = Math.min(2 * i + 1, width - 1);
+                    int y0 = 2 * j, y1 = Math.min(2 * j + 1, height - 1);
+                    int[] block = { argb[y0 * width + x0], argb[y0 * width + x1],
+                            argb[y1 * width + x0], argb[y1 * width + x1] };
+                    int r = average(block, 16), g = average(block, 8), b = average(block, 0);
+                    String message = width + "x" + height + " at " + i + "," + j;
+                    assertEquals(message, m.u(r, g, b),
+                            dst.get(width * height + j * cw + i) & 0xff);
+                    assertEquals(message, m.v(r, g, b),
+                            dst.get(width * height + cw * ch + j * cw + i) & 0xff);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void boxFilterKeepsLumaAndFlatBlocks() {
+        // every 2x2 block is uniform, so both filters give the same frame
+        int[] argb = new int[WIDTH * HEIGHT];
+        int[] colors = LegacyYuv.randomArgb(WIDTH / 2, HEIGHT / 2, 13);
+        for (int j = 0; j < HEIGHT; j++) {
+            for (int i = 0; i < WIDTH; i++) {
+                argb[j * WIDTH + i] = colors[(j / 2) * (WIDTH / 2) + i / 2];
+            }
+        }
+        for (Yuv420Format format : Yuv420Format.values()) {
+            RgbToYuvConverter converter = new RgbToYuvConverter(WIDTH, HEIGHT, format);
+            ByteBuffer point = ByteBuffer.allocate(converter.getFrameSize());
+            converter.convert(argb, point);
+            converter.setChromaFilter(ChromaFilter.BOX);
+            ByteBuffer box = ByteBuffer.allocate(converter.getFrameSize());
+            converter.convert(argb, box);
+            assertArrayEquals(format.toString(), point.array(), box.array());
+        }
+    }
+
+    /**
+     * Box chroma of a noisy picture varies less from one sample to the next than point chroma:
+     * less chroma detail for the encoder to spend bits on.
+     */
+    @Test
+    public void boxFilterSmoothsNoisyChroma() {
+        int[] argb = LegacyYuv.randomArgb(WIDTH, HEIGHT, 14);
+        RgbToYuvConverter converter = new RgbToYuvConverter(WIDTH, HEIGHT, Yuv420Format.I420);
+        ByteBuffer dst = ByteBuffer.allocate(converter.getFrameSize());
+        converter.convert(argb, dst);
+        final long pointActivity = chromaActivity(dst);
+        converter.setChromaFilter(ChromaFilter.BOX);
+        dst.clear();
+        converter.convert(argb, dst);
+        final long boxActivity = chromaActivity(dst);
+
+        assertTrue("point " + pointActivity + ", box " + boxActivity,
+                boxActivity < pointActivity / 2);
+    }
+
+    /**
+     * Converts frames into a direct buffer and checks that nothing is allocated once the
+     * converter is warmed up.
+     */
+    @Test
+    public void steadyStateIsAllocationFree() {
+        assumeTrue(AllocationMeter.isSupported());
+        final int width = 320;
+        final int height = 240;
+        int[] argb = LegacyYuv.randomArgb(width, height, 5);
+        RgbToYuvConverter converter = new RgbToYuvConverter(width, height, Yuv420Format.NV12);
+        ByteBuffer dst = ByteBuffer.allocateDirect(converter.getFrameSize());
+
+        // warm up with the very call measured: its first run once compiled may allocate
+        for (int round = 0; round < 50; round++) {
+            convertFrames(converter, argb, dst, 5);
+        }
+        long before = AllocationMeter.allocatedBytes();
+        convertFrames(converter, argb, dst, 5);
+        assertEquals(0, AllocationMeter.allocatedBytes() - before);
+    }
+
+    /**
+     * Same as {@link #steadyStateIsAllocationFree()} from direct RGBX and RGB565 buffers, as
+     * handed over by the UVC frame callback, in color and in monochrome.
+     */
+    @Test
+    public void packedSteadyStateIsAllocationFree() {
+        assumeTrue(AllocationMeter.isSupported());
+        final int width = 320;
+        final int height = 240;
+        int[] argb = LegacyYuv.randomArgb(width, height, 8);
+        ByteBuffer rgbx = toRgbx(argb, width, height, true, ByteOrder.nativeOrder());
+        ByteBuffer rgb565 = ByteBuffer.allocateDirect(2 * width * height);
+        for (int p : argb) {
+            rgb565.putShort((short) (((p >> 8) & 0xf800) | ((p >> 5) & 0x07e0)
+                    | ((p >> 3) & 0x1f)));
+        }
+        RgbToYuvConverter converter = new RgbToYuvConverter(width, height, Yuv420Format.NV12);
+        ByteBuffer dst = ByteBuffer.allocateDirect(converter.getFrameSize());
+
+        for (int mode = 0; mode < 2; mode++) {
+            converter.setMonochrome(mode != 0);
+            for (int source = 1; source < 3; source++) {
+                for (int round = 0; round < 50; round++) {
+                    convertFrames(converter, source, argb, rgbx, rgb565, dst, 5);
+                }
+                long before = AllocationMeter.allocatedBytes();
+                convertFrames(converter, source, argb, rgbx, rgb565, dst, 5);
+                long allocated = AllocationMeter.allocatedBytes() - before;
+                assertEquals("source " + source + " monochrome " + converter.isMonochrome(), 0,
+                        allocated);
+            }
+        }
+    }
+
+    @Test
+    public void monochromeKeepsLumaWithNeutralChroma() {
+        final int width = WIDTH - 1;
+        final int height = HEIGHT - 1;
+        int[] argb = LegacyYuv.randomArgb(width, height, 17);
+        ByteBuffer rgbx = toRgbx(argb, width, height, true, ByteOrder.nativeOrder());
+        ByteBuffer rgb565 = ByteBuffer.allocate(2 * width * height);
+        new Random(17).nextBytes(rgb565.array());
+        for (ColorMatrix matrix : new ColorMatrix[] { ColorMatrix.BT601_LIMITED,
+                ColorMatrix.BT709_FULL }) {
+            for (Yuv420Format format : Yuv420Format.values()) {
+                RgbToYuvConverter converter = new RgbToYuvConverter(width, height, format);
+                converter.setColorMatrix(matrix);
+                for (int source = 0; source < 3; source++) {
+                    ByteBuffer color = ByteBuffer.allocate(converter.getFrameSize());
+                    ByteBuffer gray = ByteBuffer.allocate(converter.getFrameSize());
+                    converter.setMonochrome(false);
+                    convert(converter, source, argb, rgbx, rgb565, color);
+                    converter.setMonochrome(true);
+                    assertTrue(converter.isMonochrome());
+                    convert(converter, source, argb, rgbx, rgb565, gray);
+                    assertEquals(gray.capacity(), gray.position());
+
+                    final int lumaSize = width * height;
+                    for (int i = 0; i < gray.capacity(); i++) {
+                        assertEquals(format + " source " + source + " byte " + i,
+                                (i < lumaSize) ? color.get(i) : NeutralChroma.VALUE,
+                                gray.get(i));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void monochromeFillsChromaOncePerBuffer() {
+        int[] argb = LegacyYuv.randomArgb(WIDTH, HEIGHT, 18);
+        RgbToYuvConverter converter = new RgbToYuvConverter(WIDTH, HEIGHT, Yuv420Format.I420);
+        converter.setMonochrome(true);
+        ByteBuffer first = ByteBuffer.allocate(converter.getFrameSize());
+        ByteBuffer second = ByteBuffer.allocate(converter.getFrameSize());
+        converter.convert(argb, first);
+        converter.convert(argb, second);
+
+        // chroma written over by someone else stays so: it is not written again
+        final int chroma = WIDTH * HEIGHT;
+        first.put(chroma, (byte) 7);
+        first.clear();
+        converter.convert(argb, first);
+        assertEquals(7, first.get(chroma));
+        assertEquals(NeutralChroma.VALUE, second.get(chroma));
+
+        // until the converter is switched back and forth
+        converter.setMonochrome(false);
+        converter.setMonochrome(true);
+        first.clear();
+        converter.convert(argb, first);
+        assertEquals(NeutralChroma.VALUE, first.get(chroma));
+    }
+
+    private static void convertFrames(RgbToYuvConverter converter, int[] argb, ByteBuffer dst,
+                                      int frames) {
+        for (int i = 0; i < frames; i++) {
+            dst.clear();
+            converter.convert(argb, dst);
+        }
+    }
+
+    private static void convertFrames(RgbToYuvConverter converter, int source, int[] argb,
+                                      ByteBuffer rgbx, ByteBuffer rgb565, ByteBuffer dst,
+                                      int frames) {
+        for (int i = 0; i < frames; i++) {
+            dst.clear();
+            convert(converter, source, argb, rgbx, rgb565, dst);
+        }
+    }
+
+    /**
+     * Returns the sum of the absolute differences between horizontally neighbouring chroma
+     * samples of the I420 frame in {@code dst}.
+     */
+    private static long chromaActivity(ByteBuffer dst) {
+        final int lumaSize = WIDTH * HEIGHT;
+        final int chromaWidth = WIDTH / 2;
+        final int chromaSize = 2 * chromaWidth * (HEIGHT / 2);
+        long activity = 0;
+        for (int i = 1; i < chromaSize; i++) {
+            if (i % chromaWidth != 0) {
+                activity += Math.abs((dst.get(lumaSize + i) & 0xff)
+                        - (dst.get(lumaSize + i - 1) & 0xff));
+            }
+        }
+        return activity;
+    }
+
+    /**
+     * Converts the ARGB (source 0), RGBX (1) or RGB565 (2) frame into {@code dst}.
+     */
+    private static void convert(RgbToYuvConverter converter, int source, int[] argb,
+                                ByteBuffer rgbx, ByteBuffer rgb565, ByteBuffer dst) {
+        if (source == 0) {
+            converter.convert(argb, dst);
+        } else if (source == 1) {
+            rgbx.clear();
+            converter.convertRgbx(rgbx, dst);
+        } else {
+            rgb565.clear();
+            converter.convertRgb565(rgb565, dst);
+        }
+    }
+
+    private static byte[] convert(int[] argb, Yuv420Format format, boolean direct) {
+        RgbToYuvConverter converter = new RgbToYuvConverter(WIDTH, HEIGHT, format);
+        ByteBuffer dst = direct ? ByteBuffer.allocateDirect(converter.getFrameSize())
+                : ByteBuffer.allocate(converter.getFrameSize());
+        converter.convert(argb, dst);
+        byte[] out = new byte[converter.getFrameSize()];
+        dst.flip();
+        dst.get(out);
+        return out;
+    }
+
+    private static byte[] convertRgbx(ByteBuffer rgbx, Yuv420Format format, boolean direct) {
+        RgbToYuvConverter converter = new RgbToYuvConverter(WIDTH, HEIGHT, format);
+        ByteBuffer dst = direct ? ByteBuffer.allocateDirect(converter.getFrameSize())
+                : ByteBuffer.allocate(converter.getFrameSize());
+        converter.convertRgbx(rgbx, dst);
+        byte[] out = new byte[converter.getFrameSize()];
+        dst.flip();
+        dst.get(out);
+        return out;
+    }
+
+    private static int average(int[] pixels, int shift) {
+        int sum = 0;
+        for (int p : pixels) {
+            sum += (p >> shift) & 0xff;
+        }
+        return (sum + 2) >> 2;
+    }
+
+    /**
+     * Lays out ARGB pixels as R, G, B, X bytes the way libuvc's uvc_any2rgbx does.
+     */
+    static ByteBuffer toRgbx(int[] argb, int width, int height, boolean direct, ByteOrder order) {
+        ByteBuffer rgbx = direct ? ByteBuffer.allocateDirect(4 * width * height)
+                : ByteBuffer.allocate(4 * width * height);
+        for (int i = 0; i < width * height; i++) {
+            rgbx.put((byte) (argb[i] >> 16));
+            rgbx.put((byte) (argb[i] >> 8));
+            rgbx.put((byte) argb[i]);
+            rgbx.put((byte) 0xff);
+        }
+        rgbx.flip();
+        rgbx.order(order);
+        return rgbx;
+    }
+}
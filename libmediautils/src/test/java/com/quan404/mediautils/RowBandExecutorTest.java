@@ -0,0 +1,187 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class RowBandExecutorTest {
+
+    @Test
+    public void bandsCoverAllRowsOnEvenBoundaries() {
+        for (int bands = 1; bands <= 8; bands++) {
+            for (int rows = 1; rows <= 50; rows++) {
+                assertEquals(0, RowBandExecutor.bandTop(0, bands, rows));
+                assertEquals(rows, RowBandExecutor.bandTop(bands, bands, rows));
+                for (int band = 1; band < bands; band++) {
+                    int top = RowBandExecutor.bandTop(band, bands, rows);
+                    assertTrue(top % 2 == 0 || top == rows);
+                    assertTrue(top >= RowBandExecutor.bandTop(band - 1, bands, rows));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void runsEveryRowExactlyOnce() {
+        RowBandExecutor executor = new RowBandExecutor(3);
+        try {
+            final AtomicIntegerArray visits = new AtomicIntegerArray(101);
+            for (int frame = 0; frame < 10; frame++) {
+                executor.execute(new RowBandExecutor.Task() {
+                    @Override
+                    public void runBand(int band, int top, int bottom) {
+                        for (int row = top; row < bottom; row++) {
+                            visits.incrementAndGet(row);
+                        }
+                    }
+                }, visits.length());
+            }
+            for (int row = 0; row < visits.length(); row++) {
+                assertEquals(10, visits.get(row));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void rethrowsWorkerFailure() {
+        RowBandExecutor executor = new RowBandExecutor(2);
+        try {
+            executor.execute(new RowBandExecutor.Task() {
+                @Override
+                public void runBand(int band, int top, int bottom) {
+                    if (band == 1) {
+                        throw new IllegalStateException("band " + band);
+                    }
+                }
+            }, 16);
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals("band 1", expected.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelConversionMatchesSerial() {
+        // odd sizes put a single luma row and a partial chroma row in the last band
+        int[][] sizes = { { 64, 48 }, { 66, 50 }, { 33, 17 }, { 8, 2 } };
+        for (Yuv420Format format : Yuv420Format.values()) {
+            for (int[] size : sizes) {
+                int[] argb = LegacyYuv.randomArgb(size[0], size[1], size[0] * size[1]);
+                byte[] serial = convert(argb, size[0], size[1], format, null, false);
+                byte[] serialBox = convert(argb, size[0], size[1], format, null, false,
+                        ChromaFilter.BOX);
+                for (int threads = 2; threads <= 5; threads++) {
+                    RowBandExecutor executor = new RowBandExecutor(threads);
+                    try {
+                        assertArrayEquals(format + " " + threads, serial,
+                                convert(argb, size[0], size[1], format, executor, false));
+                        assertArrayEquals(format + " " + threads, serial,
+                                convert(argb, size[0], size[1], format, executor, true));
+                        assertArrayEquals(format + " box " + threads, serialBox,
+                                convert(argb, size[0], size[1], format, executor, true,
+                                        ChromaFilter.BOX));
+                    } finally {
+                        executor.shutdown();
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parallelRgbxConversionMatchesArgb() {
+        int[][] sizes = { { 64, 48 }, { 33, 17 } };
+        for (Yuv420Format format : Yuv420Format.values()) {
+            for (int[] size : sizes) {
+                int[] argb = LegacyYuv.randomArgb(size[0], size[1], size[0] + size[1]);
+                byte[] serial = convert(argb, size[0], size[1], format, null, false);
+                ByteBuffer rgbx = RgbToYuvConverterTest.toRgbx(argb, size[0], size[1], true,
+                        ByteOrder.nativeOrder());
+                for (int threads = 2; threads <= 5; threads++) {
+                    RowBandExecutor executor = new RowBandExecutor(threads);
+                    try {
+                        RgbToYuvConverter converter =
+                                new RgbToYuvConverter(size[0], size[1], format);
+                        converter.setExecutor(executor);
+                        ByteBuffer dst = ByteBuffer.allocateDirect(converter.getFrameSize());
+                        rgbx.clear();
+                        converter.convertRgbx(rgbx, dst);
+                        byte[] out = new byte[converter.getFrameSize()];
+                        dst.flip();
+                        dst.get(out);
+                        assertArrayEquals(format + " " + threads, serial, out);
+                    } finally {
+                        executor.shutdown();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Parallel conversions allocate nothing on the calling thread once warmed up, the
+     * executor handing the bands over through its own fields.
+     */
+    @Test
+    public void parallelConversionIsAllocationFree() {
+        assumeTrue(AllocationMeter.isSupported());
+        final int width = 320;
+        final int height = 240;
+        int[] argb = LegacyYuv.randomArgb(width, height, 7);
+        RgbToYuvConverter converter = new RgbToYuvConverter(width, height, Yuv420Format.NV12);
+        ByteBuffer dst = ByteBuffer.allocateDirect(converter.getFrameSize());
+        RowBandExecutor executor = new RowBandExecutor(2);
+        try {
+            converter.setExecutor(executor);
+            // warm up with the very call measured: its first run once compiled may allocate
+            for (int round = 0; round < 50; round++) {
+                convertFrames(converter, argb, dst, 5);
+            }
+            long before = AllocationMeter.allocatedBytes();
+            convertFrames(converter, argb, dst, 5);
+            assertEquals(0, AllocationMeter.allocatedBytes() - before);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void convertFrames(RgbToYuvConverter converter, int[] argb, ByteBuffer dst,
+                                      int frames) {
+        for (int i = 0; i < frames; i++) {
+            dst.clear();
+            converter.convert(argb, dst);
+        }
+    }
+
+    private static byte[] convert(int[] argb, int width, int height, Yuv420Format format,
+                                  RowBandExecutor executor, boolean direct) {
+        return convert(argb, width, height, format, executor, direct, ChromaFilter.POINT);
+    }
+
+    private static byte[] convert(int[] argb, int width, int height, Yuv420Format format,
+                                  RowBandExecutor executor, boolean direct, ChromaFilter filter) {
+        RgbToYuvConverter converter = new RgbToYuvConverter(width, height, format);
+        converter.setExecutor(executor);
+        converter.setChromaFilter(filter);
+        ByteBuffer dst = direct ? ByteBuffer.allocateDirect(converter.getFrameSize())
+                : ByteBuffer.allocate(converter.getFrameSize());
+        converter.convert(argb, dst);
+        assertEquals(converter.getFrameSize(), dst.position());
+        byte[] out = new byte[converter.getFrameSize()];
+        dst.flip();
+        dst.get(out);
+        return out;
+    }
+}
@@ -0,0 +1,204 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+public class SampleDispatcherTest {
+
+    /**
+     * Stands for the encoder: records the output buffers given back.
+     */
+    private static class FakeEncoder implements SampleDispatcher.Releaser {
+        final List<Integer> mReleased = new ArrayList<Integer>();
+
+        @Override
+        public synchronized void releaseOutputBuffer(int index) {
+            mReleased.add(index);
+        }
+    }
+
+    /**
+     * Consumes the bytes of each sample, as a muxer would.
+     */
+    private static class ConsumingSink implements SampleSink {
+        final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+        ByteBuffer mLastData;
+
+        @Override
+        public void onSample(EncodedSample sample) {
+            mLastData = sample.getData();
+            while (mLastData.hasRemaining()) {
+                mBytes.write(mLastData.get());
+            }
+        }
+    }
+
+    private static ByteBuffer outputBuffer(int size) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < size; i++) {
+            buffer.put((byte) i);
+        }
+        return buffer;
+    }
+
+    @Test
+    public void releasesRightAwayWithoutCopy() {
+        FakeEncoder encoder = new FakeEncoder();
+        SampleDispatcher dispatcher = new SampleDispatcher(encoder);
+        ConsumingSink sink = new ConsumingSink();
+        dispatcher.addSink(sink);
+
+        ByteBuffer data = outputBuffer(16);
+        dispatcher.dispatch(3, data, 4, 8, 1000, EncodedSample.FLAG_KEY_FRAME);
+
+        assertSame(data, sink.mLastData);
+        assertArrayEquals(new byte[] { 4, 5, 6, 7, 8, 9, 10, 11 }, sink.mBytes.toByteArray());
+        assertEquals(1, encoder.mReleased.size());
+        assertEquals(3, (int) encoder.mReleased.get(0));
+        assertEquals(0, dispatcher.getDeferredCount());
+    }
+
+    @Test
+    public void fansOutTheSameBytesToEverySink() {
+        FakeEncoder encoder = new FakeEncoder();
+        SampleDispatcher dispatcher = new SampleDispatcher(encoder);
+        ConsumingSink first = new ConsumingSink();
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        RawStreamWriter writer = new RawStreamWriter(Channels.newChannel(raw));
+        dispatcher.addSink(first);
+        dispatcher.addSink(writer);
+
+        // the first sink consumed the buffer, the writer gets it positioned again
+        dispatcher.dispatch(0, outputBuffer(16), 2, 4, 0, EncodedSample.FLAG_CODEC_CONFIG);
+        dispatcher.dispatch(1, outputBuffer(16), 0, 3, 0, EncodedSample.FLAG_KEY_FRAME);
+
+        assertArrayEquals(new byte[] { 2, 3, 4, 5, 0, 1, 2 }, first.mBytes.toByteArray());
+        assertArrayEquals(new byte[] { 2, 3, 4, 5, 0, 1, 2 }, raw.toByteArray());
+        assertEquals(7, writer.getByteCount());
+        assertEquals(2, encoder.mReleased.size());
+
+        dispatcher.removeSink(first);
+        assertEquals(1, dispatcher.getSinkCount());
+    }
+
+    @Test
+    public void defersReleaseUntilRetainedSampleIsReleased() {
+        FakeEncoder encoder = new FakeEncoder();
+        SampleDispatcher dispatcher = new SampleDispatcher(encoder);
+        final List<EncodedSample> retained = new ArrayList<EncodedSample>();
+        dispatcher.addSink(new SampleSink() {
+            @Override
+            public void onSample(EncodedSample sample) {
+                sample.retain();
+                retained.add(sample);
+            }
+        });
+        dispatcher.addSink(new ConsumingSink());
+
+        dispatcher.dispatch(5, outputBuffer(8), 0, 8, 0, 0);
+        assertTrue(encoder.mReleased.isEmpty());
+        assertEquals(1, dispatcher.getDeferredCount());
+
+        EncodedSample sample = retained.get(0);
+        assertFalse(sample.isCopy());
+        assertEquals(8, sample.getData().remaining());
+        sample.release();
+        assertEquals(1, encoder.mReleased.size());
+        assertEquals(5, (int) encoder.mReleased.get(0));
+        try {
+            sample.getData();
+            fail("released sample readable");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void releasesWhenSinkThrows() {
+        FakeEncoder encoder = new FakeEncoder();
+        SampleDispatcher dispatcher = new SampleDispatcher(encoder);
+        dispatcher.addSink(new SampleSink() {
+            @Override
+            public void onSample(EncodedSample sample) {
+                throw new IllegalStateException("muxer failed");
+            }
+        });
+        try {
+            dispatcher.dispatch(2, outputBuffer(8), 0, 8, 0, 0);
+            fail("exception swallowed");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(1, encoder.mReleased.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsDoubleRelease() {
+        SampleDispatcher dispatcher = new SampleDispatcher(new FakeEncoder());
+        final List<EncodedSample> samples = new ArrayList<EncodedSample>();
+        dispatcher.addSink(new SampleSink() {
+            @Override
+            public void onSample(EncodedSample sample) {
+                samples.add(sample);
+            }
+        });
+        dispatcher.dispatch(0, outputBuffer(8), 0, 8, 0, 0);
+        samples.get(0).release();
+    }
+
+    @Test
+    public void dispatchesWithoutAllocating() {
+        assumeTrue(AllocationMeter.isSupported());
+        final int samples = 2000;
+        SampleDispatcher dispatcher = new SampleDispatcher(new SampleDispatcher.Releaser() {
+            @Override
+            public void releaseOutputBuffer(int index) {
+            }
+        });
+        final long[] bytes = new long[1];
+        dispatcher.addSink(new SampleSink() {
+            @Override
+            public void onSample(EncodedSample sample) {
+                bytes[0] += sample.getData().remaining();
+            }
+        });
+        dispatcher.addSink(new SampleSink() {
+            @Override
+            public void onSample(EncodedSample sample) {
+                // handed to another stage and released there
+                sample.retain();
+                sample.release();
+            }
+        });
+        ByteBuffer data = outputBuffer(4096);
+
+        // warm up with the very call measured: its first run once compiled may allocate
+        final int warmUpRounds = 200;
+        for (int round = 0; round < warmUpRounds; round++) {
+            dispatchAll(dispatcher, data, samples);
+        }
+        long before = AllocationMeter.allocatedBytes();
+        dispatchAll(dispatcher, data, samples);
+        long allocated = AllocationMeter.allocatedBytes() - before;
+
+        assertEquals(4096L * samples * (warmUpRounds + 1), bytes[0]);
+        assertEquals(0, allocated);
+    }
+
+    private static void dispatchAll(SampleDispatcher dispatcher, ByteBuffer data, int samples) {
+        for (int i = 0; i < samples; i++) {
+            dispatcher.dispatch(i & 3, data, 0, data.capacity(), i, 0);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SampleRingTest {
+
+    private static class RecordingSink implements SampleSink {
+        final List<Long> mTimes = new ArrayList<Long>();
+        final List<Byte> mFirstBytes = new ArrayList<Byte>();
+
+        @Override
+        public void onSample(EncodedSample sample) {
+            assertTrue(sample.isCopy());
+            mTimes.add(sample.getPresentationTimeUs());
+            mFirstBytes.add(sample.getData().get());
+        }
+    }
+
+    private final List<Integer> mReleased = new ArrayList<Integer>();
+    private final SampleDispatcher mDispatcher = new SampleDispatcher(
+            new SampleDispatcher.Releaser() {
+                @Override
+                public void releaseOutputBuffer(int index) {
+                    mReleased.add(index);
+                }
+            });
+
+    private void dispatch(int size, long timeUs, int flags) {
+        final ByteBuffer data = ByteBuffer.allocateDirect(Math.max(size, 1));
+        data.put(0, (byte) timeUs);
+        mDispatcher.dispatch(mReleased.size(), data, 0, size, timeUs, flags);
+    }
+
+    @Test
+    public void releasesOutputBuffersRightAway() {
+        SampleRing ring = new SampleRing(4, 16);
+        mDispatcher.addSink(ring);
+
+        dispatch(16, 0, EncodedSample.FLAG_KEY_FRAME);
+        dispatch(8, 1, 0);
+
+        assertEquals(2, mReleased.size());
+        assertEquals(2, ring.getSampleCount());
+        assertEquals(0, mDispatcher.getDeferredCount());
+    }
+
+    @Test
+    public void dropsOldestSamples() {
+        SampleRing ring = new SampleRing(3, 16);
+        mDispatcher.addSink(ring);
+
+        for (int i = 0; i < 5; i++) {
+            dispatch(8, i, 0);
+        }
+        assertEquals(3, ring.getSampleCount());
+        assertEquals(2, ring.getDroppedCount());
+    }
+
+    @Test
+    public void dropsOldestSamplesWhenThePoolIsExhausted() {
+        // the codec config and two samples, for a ring of four
+        SamplePool pool = new SamplePool(3, 16, false);
+        SampleRing ring = new SampleRing(4, pool);
+        mDispatcher.addSink(ring);
+
+        dispatch(4, 100, EncodedSample.FLAG_CODEC_CONFIG);
+        for (int i = 0; i < 5; i++) {
+            dispatch(8, i, i == 3 ? EncodedSample.FLAG_KEY_FRAME : 0);
+        }
+        assertEquals(2, ring.getSampleCount());
+        assertEquals(3, ring.getDroppedCount());
+        assertEquals(3, pool.getInUseCount());
+
+        RecordingSink sink = new RecordingSink();
+        assertEquals(3, ring.drainTo(sink));
+        assertEquals(100, (long) sink.mTimes.get(0));
+        assertEquals(3, (long) sink.mTimes.get(1));
+        assertEquals(4, (long) sink.mTimes.get(2));
+        // only the codec config is still held
+        assertEquals(1, pool.getInUseCount());
+    }
+
+    @Test
+    public void dropsSampleWhenNoCopyCanBeFreed() {
+        SamplePool pool = new SamplePool(2, 16, false);
+        SampleRing ring = new SampleRing(4, pool);
+        mDispatcher.addSink(ring);
+        dispatch(4, 100, EncodedSample.FLAG_CODEC_CONFIG);
+        dispatch(8, 0, EncodedSample.FLAG_KEY_FRAME);
+
+        // a sink keeps the drained key frame, the pool only has the codec config left
+        final List<EncodedSample> retained = new ArrayList<EncodedSample>();
+        ring.drainTo(new SampleSink() {
+            @Override
+            public void onSample(EncodedSample sample) {
+                if (!sample.isCodecConfig()) {
+                    sample.retain();
+                    retained.add(sample);
+                }
+            }
+        });
+        dispatch(8, 1, 0);
+        assertEquals(0, ring.getSampleCount());
+        assertEquals(1, ring.getDroppedCount());
+
+        // draining again neither hands nor releases a missing sample
+        RecordingSink sink = new RecordingSink();
+        assertEquals(1, ring.drainTo(sink));
+        assertEquals(100, (long) sink.mTimes.get(0));
+
+        retained.get(0).release();
+        dispatch(8, 2, EncodedSample.FLAG_KEY_FRAME);
+        assertEquals(1, ring.getSampleCount());
+    }
+
+    @Test
+    public void drainsConfigThenFromOldestKeyFrame() {
+        SampleRing ring = new SampleRing(4, 4);
+        mDispatcher.addSink(ring);
+
+        dispatch(4, 100, EncodedSample.FLAG_CODEC_CONFIG);
+        dispatch(8, 0, EncodedSample.FLAG_KEY_FRAME);
+        dispatch(4, 1, 0);
+        dispatch(4, 2, 0);
+        dispatch(8, 3, EncodedSample.FLAG_KEY_FRAME);
+        // drops the first key frame, samples 1 and 2 cannot be decoded
+        dispatch(4, 4, 0);
+        // end of stream, nothing kept
+        dispatch(0, 5, EncodedSample.FLAG_END_OF_STREAM);
+
+        RecordingSink sink = new RecordingSink();
+        assertEquals(3, ring.drainTo(sink));
+        assertEquals(3, sink.mTimes.size());
+        assertEquals(100, (long) sink.mTimes.get(0));
+        assertEquals(3, (long) sink.mTimes.get(1));
+        assertEquals(4, (long) sink.mTimes.get(2));
+        assertEquals(3, (byte) sink.mFirstBytes.get(1));
+        assertEquals(0, ring.getSampleCount());
+
+        // the codec config is kept for the next recording
+        dispatch(4, 6, EncodedSample.FLAG_KEY_FRAME);
+        sink = new RecordingSink();
+        assertEquals(2, ring.drainTo(sink));
+        assertEquals(100, (long) sink.mTimes.get(0));
+        assertEquals(6, (long) sink.mTimes.get(1));
+    }
+
+    @Test
+    public void poolGrowsToLargestSampleThenStops() {
+        final SamplePool pool = new SamplePool(2, 4, false);
+        mDispatcher.addSink(new SampleSink() {
+            @Override
+            public void onSample(EncodedSample sample) {
+            }
+        });
+        final List<EncodedSample> copies = new ArrayList<EncodedSample>();
+        mDispatcher.addSink(new SampleSink() {
+            @Override
+            public void onSample(EncodedSample sample) {
+                copies.add(pool.copy(sample));
+            }
+        });
+
+        dispatch(16, 0, EncodedSample.FLAG_KEY_FRAME);
+        dispatch(4, 1, 0);
+        dispatch(4, 2, 0);
+        assertEquals(2, pool.getInUseCount());
+        assertNull(copies.get(2));
+        assertEquals(1, pool.getExhaustedCount());
+        assertEquals(1, pool.getGrownCount());
+
+        copies.get(0).release();
+        copies.get(1).release();
+        assertEquals(0, pool.getInUseCount());
+
+        dispatch(16, 3, EncodedSample.FLAG_KEY_FRAME);
+        assertEquals(16, copies.get(3).getSize());
+        assertEquals(3, copies.get(3).getData().get());
+        // the grown buffer was reused
+        assertEquals(1, pool.getGrownCount());
+        assertEquals(3, pool.getCopyCount());
+    }
+}
@@ -0,0 +1,334 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class ScalingYuvConverterTest {
+
+    @Test
+    public void sameSizeRgbxMatchesBoxFilteredConverter() {
+        int[][] sizes = { { 64, 48 }, { 33, 17 }, { 2, 1 } };
+        for (int[] size : sizes) {
+            final int width = size[0], height = size[1];
+            int[] argb = LegacyYuv.randomArgb(width, height, width + height);
+            ByteBuffer rgbx = RgbToYuvConverterTest.toRgbx(argb, width, height, false,
+                    ByteOrder.BIG_ENDIAN);
+            for (Yuv420Format format : Yuv420Format.values()) {
+                RgbToYuvConverter reference = new RgbToYuvConverter(width, height, format);
+                reference.setChromaFilter(ChromaFilter.BOX);
+                reference.setColorMatrix(ColorMatrix.BT709_LIMITED);
+                ByteBuffer expected = ByteBuffer.allocate(reference.getFrameSize());
+                reference.convert(argb, expected);
+                for (ScaleFilter filter : ScaleFilter.values()) {
+                    ScalingYuvConverter converter = new ScalingYuvConverter(InputFormat.RGBX,
+                            width, height, width, height, format, filter);
+                    converter.setColorMatrix(ColorMatrix.BT709_LIMITED);
+                    assertArrayEquals(format + " " + filter + " " + width + "x" + height,
+                            expected.array(), convert(converter, rgbx));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sameSizeYuyvMatchesYuyvConverter() {
+        int[][] sizes = { { 64, 48 }, { 6, 4 }, { 2, 2 } };
+        for (int[] size : sizes) {
+            final int width = size[0], height = size[1];
+            ByteBuffer yuyv = ByteBuffer.wrap(randomBytes(2 * width * height, width));
+            for (Yuv420Format format : Yuv420Format.values()) {
+                YuyvToYuvConverter reference = new YuyvToYuvConverter(width, height, format);
+                ByteBuffer expected = ByteBuffer.allocate(reference.getFrameSize());
+                yuyv.clear();
+                reference.convert(yuyv, expected);
+                for (ScaleFilter filter : ScaleFilter.values()) {
+                    ScalingYuvConverter converter = new ScalingYuvConverter(InputFormat.YUYV,
+                            width, height, width, height, format, filter);
+                    assertArrayEquals(format + " " + filter + " " + width + "x" + height,
+                            expected.array(), convert(converter, yuyv));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void halfSizeAreaAveragesEachBlock() {
+        final int width = 64, height = 48;
+        byte[] yuyv = randomBytes(2 * width * height, 5);
+        ScalingYuvConverter converter = new ScalingYuvConverter(InputFormat.YUYV, width, height,
+                width / 2, height / 2, Yuv420Format.I420, ScaleFilter.AREA);
+        byte[] out = convert(converter, ByteBuffer.wrap(yuyv));
+        for (int y = 0; y < height / 2; y++) {
+            for (int x = 0; x < width / 2; x++) {
+                int sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += yuyv[2 * ((2 * y + k / 2) * width + 2 * x + k % 2)] & 0xff;
+                }
+                assertEquals((sum + 2) >> 2, out[y * width / 2 + x] & 0xff);
+            }
+        }
+    }
+
+    @Test
+    public void halfSizeChromaAveragesItsRows() {
+        final int width = 64, height = 48;
+        final int cw = width / 4, ch = height / 4;
+        byte[] yuyv = randomBytes(2 * width * height, 7);
+        for (ScaleFilter filter : ScaleFilter.values()) {
+            ScalingYuvConverter converter = new ScalingYuvConverter(InputFormat.YUYV, width,
+                    height, width / 2, height / 2, Yuv420Format.I420, filter);
+            byte[] out = convert(converter, ByteBuffer.wrap(yuyv));
+            // AREA covers the four source rows of a chroma sample, BILINEAR the middle two
+            final int from = (filter == ScaleFilter.AREA) ? 0 : 1;
+            final int rows = (filter == ScaleFilter.AREA) ? 4 : 2;
+            for (int y = 0; y < ch; y++) {
+                for (int x = 0; x < cw; x++) {
+                    int u = 0, v = 0;
+                    for (int k = 0; k < 2 * rows; k++) {
+                        final int i = 2 * ((4 * y + from + k / 2) * width + 4 * x + 2 * (k % 2));
+                        u += yuyv[i + 1] & 0xff;
+                        v += yuyv[i + 3] & 0xff;
+                    }
+                    final int half = rows, shift = (rows == 4) ? 3 : 2;
+                    assertEquals(filter.toString(), (u + half) >> shift,
+                            out[width * height / 4 + y * cw + x] & 0xff);
+                    assertEquals(filter.toString(), (v + half) >> shift,
+                            out[width * height / 4 + cw * ch + y * cw + x] & 0xff);
+                }
+            }
+        }
+    }
+
+    /**
+     * Every filter, at downscaling, upscaling and fractional factors, against a floating point
+     * resampling of the luma and chroma planes of a YUYV frame.
+     */
+    @Test
+    public void matchesFloatingPointResampling() {
+        final int width = 40, height = 30;
+        byte[] yuyv = randomBytes(2 * width * height, 6);
+        int[][] targets = { { 20, 15 }, { 16, 12 }, { 32, 24 }, { 26, 22 }, { 64, 48 },
+                { 9, 7 }, { 2, 2 } };
+        for (int[] target : targets) {
+            for (ScaleFilter filter : ScaleFilter.values()) {
+                final int w = target[0], h = target[1];
+                final int cw = (w + 1) / 2, ch = (h + 1) / 2;
+                ScalingYuvConverter converter = new ScalingYuvConverter(InputFormat.YUYV,
+                        width, height, w, h, Yuv420Format.I420, filter);
+                byte[] out = convert(converter, ByteBuffer.wrap(yuyv));
+                String message = filter + " to " + w + "x" + h;
+
+                double[][] y = resample(plane(yuyv, width, height, width, 2, 0), w, h, filter);
+                double[][] u = resample(plane(yuyv, width, height, width / 2, 4, 1), cw, ch,
+                        filter);
+                double[][] v = resample(plane(yuyv, width, height, width / 2, 4, 3), cw, ch,
+                        filter);
+                for (int j = 0; j < h; j++) {
+                    for (int i = 0; i < w; i++) {
+                        assertNear(message, y[j][i], out[j * w + i]);
+                    }
+                }
+                for (int j = 0; j < ch; j++) {
+                    for (int i = 0; i < cw; i++) {
+                        assertNear(message, u[j][i], out[w * h + j * cw + i]);
+                        assertNear(message, v[j][i], out[w * h + cw * ch + j * cw + i]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void flatRgbxStaysFlat() {
+        final int width = 37, height = 23;
+        final int[] argb = new int[width * height];
+        Arrays.fill(argb, 0xff3080c0);
+        ByteBuffer rgbx = RgbToYuvConverterTest.toRgbx(argb, width, height, true,
+                ByteOrder.BIG_ENDIAN);
+        ColorMatrix m = ColorMatrix.BT601_LIMITED;
+        for (ScaleFilter filter : ScaleFilter.values()) {
+            ScalingYuvConverter converter = new ScalingYuvConverter(InputFormat.RGBX, width,
+                    height, 16, 10, Yuv420Format.NV12, filter);
+            byte[] out = convert(converter, rgbx);
+            for (int i = 0; i < 160; i++) {
+                assertEquals(m.y(0x30, 0x80, 0xc0), out[i] & 0xff);
+            }
+            for (int i = 160; i < out.length; i += 2) {
+                assertEquals(m.u(0x30, 0x80, 0xc0), out[i] & 0xff);
+                assertEquals(m.v(0x30, 0x80, 0xc0), out[i + 1] & 0xff);
+            }
+        }
+    }
+
+    @Test
+    public void monochromeKeepsLumaWithNeutralChroma() {
+        final int srcWidth = 34, srcHeight = 18, width = 21, height = 11;
+        for (InputFormat input : new InputFormat[] { InputFormat.RGBX, InputFormat.YUYV }) {
+            ByteBuffer src = ByteBuffer.wrap(randomBytes(input.getBytesPerPixel()
+                    * srcWidth * srcHeight, srcWidth));
+            for (Yuv420Format format : Yuv420Format.values()) {
+                ScalingYuvConverter converter = new ScalingYuvConverter(input, srcWidth,
+                        srcHeight, width, height, format, ScaleFilter.BILINEAR);
+                byte[] color = convert(converter, src);
+                converter.setMonochrome(true);
+                assertTrue(converter.isMonochrome());
+                byte[] gray = convert(converter, src);
+                for (int i = 0; i < gray.length; i++) {
+                    assertEquals(input + " " + format + " byte " + i,
+                            (i < width * height) ? color[i] : NeutralChroma.VALUE, gray[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void advancesBothBuffers() {
+        ScalingYuvConverter converter = new ScalingYuvConverter(InputFormat.RGBX, 32, 16, 12, 8,
+                Yuv420Format.NV21, ScaleFilter.BILINEAR);
+        ByteBuffer src = ByteBuffer.allocateDirect(converter.getInputSize() + 6);
+        ByteBuffer dst = ByteBuffer.allocate(converter.getFrameSize() + 4);
+        src.position(6);
+        dst.position(4);
+        converter.convert(src, dst);
+        assertEquals(src.capacity(), src.position());
+        assertEquals(dst.capacity(), dst.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddYuyvWidth() {
+        new ScalingYuvConverter(InputFormat.YUYV, 15, 8, 8, 4, Yuv420Format.NV12,
+                ScaleFilter.AREA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRgb565() {
+        new ScalingYuvConverter(InputFormat.RGB565, 16, 8, 8, 4, Yuv420Format.NV12,
+                ScaleFilter.AREA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortSource() {
+        ScalingYuvConverter converter = new ScalingYuvConverter(InputFormat.RGBX, 16, 8, 8, 4,
+                Yuv420Format.NV12, ScaleFilter.AREA);
+        converter.convert(ByteBuffer.allocate(converter.getInputSize() - 1),
+                ByteBuffer.allocate(converter.getFrameSize()));
+    }
+
+    /**
+     * Scales frames from direct buffers, as handed over by the frame callback, and checks that
+     * nothing is allocated once warmed up, for every input and filter.
+     */
+    @Test
+    public void steadyStateIsAllocationFree() {
+        assumeTrue(AllocationMeter.isSupported());
+        final int width = 320, height = 240;
+        ByteBuffer dst = ByteBuffer.allocateDirect(width * height * 3 / 2);
+        for (InputFormat input : new InputFormat[] { InputFormat.RGBX, InputFormat.YUYV }) {
+            ByteBuffer src = ByteBuffer.allocateDirect(input.getBytesPerPixel() * width * height);
+            src.put(randomBytes(src.capacity(), 7));
+            for (ScaleFilter filter : ScaleFilter.values()) {
+                ScalingYuvConverter converter = new ScalingYuvConverter(input, width, height,
+                        width / 2, height / 2, Yuv420Format.NV12, filter);
+                // warm up with the very call measured: its first run once compiled may allocate
+                for (int round = 0; round < 50; round++) {
+                    convertFrames(converter, src, dst, 5);
+                }
+                long before = AllocationMeter.allocatedBytes();
+                convertFrames(converter, src, dst, 5);
+                long allocated = AllocationMeter.allocatedBytes() - before;
+                assertEquals(input + " " + filter, 0, allocated);
+            }
+        }
+    }
+
+    private static void convertFrames(ScalingYuvConverter converter, ByteBuffer src,
+                                      ByteBuffer dst, int frames) {
+        for (int i = 0; i < frames; i++) {
+            src.clear();
+            dst.clear();
+            converter.convert(src, dst);
+        }
+    }
+
+    private static byte[] convert(ScalingYuvConverter converter, ByteBuffer src) {
+        src.clear();
+        ByteBuffer dst = ByteBuffer.allocate(converter.getFrameSize());
+        converter.convert(src, dst);
+        return dst.array();
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Extracts one channel of a YUYV frame: {@code width} samples per row, {@code stride} bytes
+     * apart, starting at {@code offset}.
+     */
+    private static double[][] plane(byte[] yuyv, int frameWidth, int height, int width,
+                                    int stride, int offset) {
+        double[][] plane = new double[height][width];
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                plane[j][i] = yuyv[2 * j * frameWidth + i * stride + offset] & 0xff;
+            }
+        }
+        return plane;
+    }
+
+    private static double[][] resample(double[][] plane, int width, int height,
+                                       ScaleFilter filter) {
+        double[][] rows = new double[plane.length][];
+        for (int j = 0; j < plane.length; j++) {
+            rows[j] = resample(plane[j], width, filter);
+        }
+        double[][] out = new double[height][width];
+        double[] column = new double[plane.length];
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < plane.length; j++) {
+                column[j] = rows[j][i];
+            }
+            double[] resampled = resample(column, height, filter);
+            for (int j = 0; j < height; j++) {
+                out[j][i] = resampled[j];
+            }
+        }
+        return out;
+    }
+
+    private static double[] resample(double[] in, int size, ScaleFilter filter) {
+        final double scale = (double) in.length / size;
+        double[] out = new double[size];
+        for (int d = 0; d < size; d++) {
+            if (filter == ScaleFilter.BILINEAR) {
+                double s = Math.max(0, Math.min(in.length - 1, (d + 0.5) * scale - 0.5));
+                int i = (int) s;
+                double f = s - i;
+                out[d] = in[i] * (1 - f) + ((f > 0) ? in[i + 1] * f : 0);
+            } else {
+                double lo = d * scale, hi = (d + 1) * scale, sum = 0;
+                for (int i = (int) lo; i < in.length && i < hi; i++) {
+                    sum += in[i] * (Math.min(hi, i + 1) - Math.max(lo, i));
+                }
+                out[d] = sum / scale;
+            }
+        }
+        return out;
+    }
+
+    private static void assertNear(String message, double expected, byte actual) {
+        assertTrue(message + ": expected " + expected + " got " + (actual & 0xff),
+                Math.abs(expected - (actual & 0xff)) <= 1.5);
+    }
+}
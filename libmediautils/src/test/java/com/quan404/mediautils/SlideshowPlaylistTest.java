@@ -0,0 +1,57 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SlideshowPlaylistTest {
+
+    @Test
+    public void findsStillShownAtEachTime() {
+        SlideshowPlaylist<String> playlist = new SlideshowPlaylist<String>();
+        playlist.add("a", 1000000).add("b", 500000).add("c", 2500000);
+        assertEquals(3, playlist.size());
+        assertEquals(4000000, playlist.getDurationUs());
+        assertEquals("a", playlist.getStillAt(0));
+        assertEquals("a", playlist.getStillAt(999999));
+        assertEquals("b", playlist.getStillAt(1000000));
+        assertEquals("b", playlist.getStillAt(1499999));
+        assertEquals("c", playlist.getStillAt(1500000));
+        assertEquals("c", playlist.getStillAt(3999999));
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        SlideshowPlaylist<Integer> playlist = new SlideshowPlaylist<Integer>();
+        for (int i = 0; i < 100; i++) {
+            playlist.add(i, 1000 + i);
+        }
+        long start = 0;
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), playlist.getStillAt(start));
+            start += 1000 + i;
+            assertEquals(Integer.valueOf(i), playlist.getStillAt(start - 1));
+        }
+        assertEquals(start, playlist.getDurationUs());
+    }
+
+    @Test
+    public void countsFramesStartingBeforeTheEnd() {
+        SlideshowPlaylist<String> playlist = new SlideshowPlaylist<String>();
+        playlist.add("a", 5000000);
+        assertEquals(75, playlist.getFrameCount(15));
+        playlist.add("b", 10000);
+        // a 76th frame starts at 5000000 us, inside b
+        assertEquals(76, playlist.getFrameCount(15));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTimePastTheEnd() {
+        new SlideshowPlaylist<String>().add("a", 1000).getStillAt(1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyDuration() {
+        new SlideshowPlaylist<String>().add("a", 0);
+    }
+}
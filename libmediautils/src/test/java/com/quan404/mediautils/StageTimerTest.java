@@ -0,0 +1,69 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StageTimerTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void accumulatesEachStageApart() {
+        StageTimer timer = new StageTimer("wait", "fill");
+        timer.record(0, 2 * MS);
+        timer.record(0, 4 * MS);
+        timer.record(1, MS);
+
+        assertEquals(2, timer.getStageCount());
+        assertEquals("fill", timer.getName(1));
+        assertEquals(2, timer.getCount(0));
+        assertEquals(6 * MS, timer.getTotalNs(0));
+        assertEquals(3, timer.getAverageMs(0), 1e-9);
+        assertEquals(4, timer.getMaxMs(0), 1e-9);
+        assertEquals(1, timer.getCount(1));
+        assertEquals(1, timer.getMaxMs(1), 1e-9);
+    }
+
+    @Test
+    public void clampsNegativeDurations() {
+        StageTimer timer = new StageTimer("wait");
+        timer.record(0, -5);
+        assertEquals(1, timer.getCount(0));
+        assertEquals(0, timer.getTotalNs(0));
+    }
+
+    @Test
+    public void recordSinceReturnsStartOfNextStage() {
+        StageTimer timer = new StageTimer("wait", "fill");
+        long start = System.nanoTime();
+        long next = timer.recordSince(0, start);
+        assertTrue(next >= start);
+        timer.recordSince(1, next);
+        assertEquals(next - start, timer.getTotalNs(0));
+        assertEquals(1, timer.getCount(1));
+    }
+
+    @Test
+    public void describesAndResets() {
+        StageTimer timer = new StageTimer("wait", "fill");
+        timer.record(0, 3 * MS);
+        timer.record(0, 1 * MS);
+        assertArrayEquals(new String[] {
+                "wait: 2 x 2000 us, max 3000 us, total 4 ms",
+                "fill: 0 x 0 us, max 0 us, total 0 ms"
+        }, timer.describe());
+
+        timer.reset();
+        assertEquals(0, timer.getCount(0));
+        assertEquals(0, timer.getAverageMs(0), 1e-9);
+        assertEquals(0, timer.getMaxMs(0), 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNoStage() {
+        new StageTimer();
+    }
+}
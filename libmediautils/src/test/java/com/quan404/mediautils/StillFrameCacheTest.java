@@ -0,0 +1,83 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class StillFrameCacheTest {
+
+    /**
+     * Fills each frame with the still number, and records the loads.
+     */
+    private static class CountingLoader implements StillFrameCache.Loader<Integer> {
+        final List<Integer> mLoaded = new ArrayList<Integer>();
+        final int mFrameSize;
+
+        CountingLoader(int frameSize) {
+            mFrameSize = frameSize;
+        }
+
+        @Override
+        public void load(Integer still, ByteBuffer dst) {
+            mLoaded.add(still);
+            for (int i = 0; i < mFrameSize; i++) {
+                dst.put((byte) (int) still);
+            }
+        }
+    }
+
+    @Test
+    public void loadsEachStillOnce() {
+        CountingLoader loader = new CountingLoader(24);
+        StillFrameCache<Integer> cache = new StillFrameCache<Integer>(loader, 24, 3 * 24, false);
+        ByteBuffer dst = ByteBuffer.allocate(24);
+        int[] shown = { 1, 1, 1, 2, 2, 3, 1, 2, 3, 3 };
+        for (int still : shown) {
+            dst.clear();
+            cache.copyFrame(still, dst);
+            assertEquals(24, dst.position());
+            assertEquals(still, dst.get(0));
+            assertEquals(still, dst.get(23));
+        }
+        assertEquals(Arrays.asList(1, 2, 3), loader.mLoaded);
+        assertEquals(3, cache.getMissCount());
+        assertEquals(7, cache.getHitCount());
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(72, cache.getCachedBytes());
+    }
+
+    @Test
+    public void evictsLeastRecentlyShown() {
+        CountingLoader loader = new CountingLoader(16);
+        // room for two frames and a half: two
+        StillFrameCache<Integer> cache = new StillFrameCache<Integer>(loader, 16, 40, true);
+        ByteBuffer dst = ByteBuffer.allocateDirect(16);
+        int[] shown = { 1, 2, 1, 3, 1, 2 };
+        for (int still : shown) {
+            dst.clear();
+            cache.copyFrame(still, dst);
+            assertEquals(still, dst.get(0));
+        }
+        // 3 evicts 2 (1 was shown since), 2 then evicts 3
+        assertEquals(Arrays.asList(1, 2, 3, 2), loader.mLoaded);
+        assertEquals(2, cache.getEvictionCount());
+        assertEquals(2, cache.getCachedCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsShortFrames() {
+        StillFrameCache<Integer> cache = new StillFrameCache<Integer>(new CountingLoader(15),
+                16, 16, false);
+        cache.copyFrame(1, ByteBuffer.allocate(16));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCacheSmallerThanAFrame() {
+        new StillFrameCache<Integer>(new CountingLoader(16), 16, 15, false);
+    }
+}
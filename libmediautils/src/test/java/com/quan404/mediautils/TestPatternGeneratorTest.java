@@ -0,0 +1,145 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TestPatternGeneratorTest {
+
+    @Test
+    public void drawsOneRectanglePerFrame() {
+        final int width = 64, height = 32;
+        TestPatternGenerator generator = new TestPatternGenerator(width, height);
+        byte[] frame = new byte[generator.getFrameSize()];
+        for (int index = 0; index < 16; index++) {
+            for (boolean semiPlanar : new boolean[] { false, true }) {
+                Arrays.fill(frame, (byte) 1);
+                generator.generateFrame(index, semiPlanar, frame);
+                // 0 1 2 3 on the top row, 7 6 5 4 on the bottom one
+                final int n = index % 8;
+                final int startX = (n < 4 ? n : 7 - n) * width / 4;
+                final int startY = n < 4 ? 0 : height / 2;
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        final boolean inside = x >= startX && x < startX + width / 4
+                                && y >= startY && y < startY + height / 2;
+                        final int lumaSize = width * height;
+                        final int u, v;
+                        if (semiPlanar) {
+                            u = lumaSize + (y / 2) * width + (x / 2) * 2;
+                            v = u + 1;
+                        } else {
+                            u = lumaSize + (y / 2) * (width / 2) + x / 2;
+                            v = u + lumaSize / 4;
+                        }
+                        String message = "frame " + index + " at " + x + "," + y;
+                        assertEquals(message, inside ? TestPatternGenerator.TEST_Y : 0,
+                                frame[y * width + x] & 0xff);
+                        assertEquals(message, inside ? TestPatternGenerator.TEST_U : 0,
+                                frame[u] & 0xff);
+                        assertEquals(message, inside ? TestPatternGenerator.TEST_V : 0,
+                                frame[v] & 0xff);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void largerGridsAndOddSizesMatchReference() {
+        int[][] configs = { { 64, 32, 4, 2 }, { 37, 23, 5, 3 }, { 50, 30, 8, 8 }, { 3, 1, 3, 1 } };
+        for (int[] config : configs) {
+            final int width = config[0], height = config[1];
+            TestPatternGenerator generator = new TestPatternGenerator(width, height,
+                    config[2], config[3]);
+            assertEquals(config[2] * config[3], generator.getFrameCount());
+            for (int index = 0; index < generator.getFrameCount() + 2; index++) {
+                for (Yuv420Format format : Yuv420Format.values()) {
+                    ByteBuffer frame = ByteBuffer.allocate(generator.getFrameSize() + 3);
+                    frame.position(3);
+                    generator.generateFrame(index, format, frame);
+                    assertEquals(frame.capacity(), frame.position());
+                    assertArrayEquals(width + "x" + height + " frame " + index + " " + format,
+                            reference(config, index, format),
+                            Arrays.copyOfRange(frame.array(), 3, frame.capacity()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cacheServesGeneratedFrames() {
+        TestPatternGenerator generator = new TestPatternGenerator(48, 20, 6, 2);
+        for (boolean direct : new boolean[] { false, true }) {
+            TestPatternCache cache = new TestPatternCache(generator, direct);
+            assertEquals(12L * generator.getFrameSize(), cache.getMaxCacheSize());
+            cache.prepare(Yuv420Format.NV12);
+            for (int index = 0; index < 30; index++) {
+                for (Yuv420Format format : Yuv420Format.values()) {
+                    ByteBuffer expected = ByteBuffer.allocate(generator.getFrameSize());
+                    generator.generateFrame(index, format, expected);
+                    ByteBuffer dst = ByteBuffer.allocateDirect(generator.getFrameSize() + 8);
+                    dst.position(8);
+                    cache.copyFrame(index, format, dst);
+                    assertEquals(dst.capacity(), dst.position());
+                    dst.position(8);
+                    assertEquals(ByteBuffer.wrap(expected.array()), dst);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsGridLargerThanPicture() {
+        new TestPatternGenerator(4, 4, 5, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptySize() {
+        new TestPatternGenerator(0, 32);
+    }
+
+    /**
+     * Pixel by pixel frame: the rectangle of grid cell N, snaking down the grid.
+     */
+    private static byte[] reference(int[] config, int index, Yuv420Format format) {
+        final int width = config[0], height = config[1], columns = config[2], rows = config[3];
+        final int n = index % (columns * rows);
+        final int row = n / columns;
+        final int column = (row % 2 == 0) ? n % columns : columns - 1 - n % columns;
+        final int x0 = column * width / columns, x1 = (column + 1) * width / columns;
+        final int y0 = row * height / rows, y1 = (row + 1) * height / rows;
+        final int cw = (width + 1) / 2, ch = (height + 1) / 2;
+        final int lumaSize = width * height;
+        byte[] out = new byte[lumaSize + 2 * cw * ch];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (x >= x0 && x < x1 && y >= y0 && y < y1) {
+                    out[y * width + x] = (byte) TestPatternGenerator.TEST_Y;
+                }
+            }
+        }
+        for (int y = 0; y < ch; y++) {
+            for (int x = 0; x < cw; x++) {
+                if (2 * x >= x0 && 2 * x < x1 && 2 * y >= y0 && 2 * y < y1) {
+                    byte u = (byte) TestPatternGenerator.TEST_U;
+                    byte v = (byte) TestPatternGenerator.TEST_V;
+                    byte first = format.isVFirst() ? v : u;
+                    byte second = format.isVFirst() ? u : v;
+                    if (format.isPlanar()) {
+                        out[lumaSize + y * cw + x] = first;
+                        out[lumaSize + cw * ch + y * cw + x] = second;
+                    } else {
+                        out[lumaSize + 2 * (y * cw + x)] = first;
+                        out[lumaSize + 2 * (y * cw + x) + 1] = second;
+                    }
+                }
+            }
+        }
+        return out;
+    }
+}
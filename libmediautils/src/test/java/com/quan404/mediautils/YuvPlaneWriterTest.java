@@ -0,0 +1,125 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class YuvPlaneWriterTest {
+
+    private static final int WIDTH = 13;
+    private static final int HEIGHT = 7;
+    private static final int CHROMA_WIDTH = (WIDTH + 1) / 2;
+    private static final int CHROMA_HEIGHT = (HEIGHT + 1) / 2;
+
+    /**
+     * Returns a random frame in {@code format}, and the chroma planes it holds in u and v.
+     */
+    private static ByteBuffer randomFrame(Yuv420Format format, byte[] y, byte[] u, byte[] v) {
+        Random random = new Random(format.ordinal());
+        random.nextBytes(y);
+        random.nextBytes(u);
+        random.nextBytes(v);
+        ByteBuffer frame = ByteBuffer.allocate(y.length + u.length + v.length);
+        frame.put(y);
+        byte[] first = format.isVFirst() ? v : u;
+        byte[] second = format.isVFirst() ? u : v;
+        if (format.isPlanar()) {
+            frame.put(first).put(second);
+        } else {
+            for (int i = 0; i < u.length; i++) {
+                frame.put(first[i]).put(second[i]);
+            }
+        }
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Writes a {@code format} frame to planes laid out as {@code image}: I420 for separate
+     * planes, NV12 or NV21 for one interleaved plane seen twice.
+     */
+    private static void check(Yuv420Format format, Yuv420Format image) {
+        final boolean interleaved = !image.isPlanar();
+        byte[] y = new byte[WIDTH * HEIGHT];
+        byte[] u = new byte[CHROMA_WIDTH * CHROMA_HEIGHT];
+        byte[] v = new byte[CHROMA_WIDTH * CHROMA_HEIGHT];
+        ByteBuffer frame = randomFrame(format, y, u, v);
+
+        // padded rows, like the images of hardware encoders
+        final int lumaStride = WIDTH + 3;
+        final int chromaStride = interleaved ? 2 * CHROMA_WIDTH + 2 : CHROMA_WIDTH + 5;
+        final int pixelStride = interleaved ? 2 : 1;
+        ByteBuffer luma = ByteBuffer.allocate(HEIGHT * lumaStride);
+        ByteBuffer uPlane;
+        ByteBuffer vPlane;
+        if (interleaved) {
+            // one chroma plane seen twice, the second view one byte after the first
+            ByteBuffer chroma = ByteBuffer.allocate(CHROMA_HEIGHT * chromaStride);
+            ByteBuffer first = chroma.duplicate();
+            first.limit(chroma.capacity() - 1);
+            ByteBuffer second = chroma.duplicate();
+            second.position(1);
+            uPlane = image.isVFirst() ? second : first;
+            vPlane = image.isVFirst() ? first : second;
+        } else {
+            uPlane = ByteBuffer.allocate(CHROMA_HEIGHT * chromaStride);
+            vPlane = ByteBuffer.allocate(CHROMA_HEIGHT * chromaStride);
+        }
+
+        YuvPlaneWriter writer = new YuvPlaneWriter(WIDTH, HEIGHT);
+        writer.setPlane(0, luma, lumaStride, 1);
+        writer.setPlane(1, uPlane, chromaStride, pixelStride);
+        writer.setPlane(2, vPlane, chromaStride, pixelStride);
+        assertEquals(image, writer.getPreferredFormat());
+        writer.write(frame, format);
+        assertEquals(0, frame.position());
+
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(y[row * WIDTH + x], luma.get(row * lumaStride + x));
+            }
+        }
+        final int uBase = uPlane.position();
+        final int vBase = vPlane.position();
+        for (int row = 0; row < CHROMA_HEIGHT; row++) {
+            for (int x = 0; x < CHROMA_WIDTH; x++) {
+                final int at = row * chromaStride + x * pixelStride;
+                assertEquals(format + " U " + x + "," + row, u[row * CHROMA_WIDTH + x],
+                        uPlane.get(uBase + at));
+                assertEquals(format + " V " + x + "," + row, v[row * CHROMA_WIDTH + x],
+                        vPlane.get(vBase + at));
+            }
+        }
+    }
+
+    @Test
+    public void writesEveryLayoutToPlanarImage() {
+        for (Yuv420Format format : Yuv420Format.values()) {
+            check(format, Yuv420Format.I420);
+        }
+    }
+
+    @Test
+    public void writesEveryLayoutToSemiPlanarImage() {
+        for (Yuv420Format format : Yuv420Format.values()) {
+            check(format, Yuv420Format.NV12);
+            check(format, Yuv420Format.NV21);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortPlane() {
+        YuvPlaneWriter writer = new YuvPlaneWriter(WIDTH, HEIGHT);
+        writer.setPlane(1, ByteBuffer.allocate(CHROMA_WIDTH * CHROMA_HEIGHT - 1), CHROMA_WIDTH, 1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsMissingPlane() {
+        YuvPlaneWriter writer = new YuvPlaneWriter(WIDTH, HEIGHT);
+        writer.setPlane(0, ByteBuffer.allocate(WIDTH * HEIGHT), WIDTH, 1);
+        writer.write(ByteBuffer.allocate(writer.getFrameSize()), Yuv420Format.I420);
+    }
+}
@@ -0,0 +1,169 @@
+package com.quan404.mediautils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class YuyvToYuvConverterTest {
+
+    @Test
+    public void matchesReferenceForEveryFormat() {
+        int[][] sizes = { { 64, 48 }, { 6, 5 }, { 2, 1 } };
+        for (int[] size : sizes) {
+            final int width = size[0], height = size[1];
+            byte[] yuyv = randomBytes(2 * width * height, width + height);
+            for (Yuv420Format format : Yuv420Format.values()) {
+                byte[] expected = reference(yuyv, width, height, format);
+                assertArrayEquals(format + " " + width + "x" + height, expected,
+                        convert(yuyv, width, height, format, false));
+                assertArrayEquals(format + " " + width + "x" + height, expected,
+                        convert(yuyv, width, height, format, true));
+            }
+        }
+    }
+
+    @Test
+    public void advancesBothBuffers() {
+        YuyvToYuvConverter converter = new YuyvToYuvConverter(16, 8, Yuv420Format.NV12);
+        ByteBuffer src = ByteBuffer.allocateDirect(converter.getInputSize() + 6);
+        ByteBuffer dst = ByteBuffer.allocate(converter.getFrameSize() + 4);
+        src.position(6);
+        dst.position(4);
+        converter.convert(src, dst);
+        assertEquals(src.capacity(), src.position());
+        assertEquals(dst.capacity(), dst.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddWidth() {
+        new YuyvToYuvConverter(15, 8, Yuv420Format.NV12);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortSource() {
+        YuyvToYuvConverter converter = new YuyvToYuvConverter(16, 8, Yuv420Format.NV12);
+        converter.convert(ByteBuffer.allocate(converter.getInputSize() - 1),
+                ByteBuffer.allocate(converter.getFrameSize()));
+    }
+
+    @Test
+    public void monochromeCopiesLumaOnly() {
+        final int width = 6, height = 5;
+        byte[] yuyv = randomBytes(2 * width * height, 20);
+        for (Yuv420Format format : Yuv420Format.values()) {
+            byte[] expected = reference(yuyv, width, height, format);
+            YuyvToYuvConverter converter = new YuyvToYuvConverter(width, height, format);
+            converter.setMonochrome(true);
+            assertTrue(converter.isMonochrome());
+            ByteBuffer dst = ByteBuffer.allocate(converter.getFrameSize());
+            converter.convert(ByteBuffer.wrap(yuyv), dst);
+            assertEquals(dst.capacity(), dst.position());
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(format + " byte " + i,
+                        (i < width * height) ? expected[i] : NeutralChroma.VALUE, dst.get(i));
+            }
+
+            // the chroma of a buffer already seen is not written again
+            dst.put(width * height, (byte) 7);
+            dst.clear();
+            converter.convert(ByteBuffer.wrap(yuyv), dst);
+            assertEquals(7, dst.get(width * height));
+        }
+    }
+
+    /**
+     * Converts frames from a direct buffer, as handed over by the frame callback, and checks
+     * that nothing is allocated once warmed up, in color and in monochrome.
+     */
+    @Test
+    public void steadyStateIsAllocationFree() {
+        assumeTrue(AllocationMeter.isSupported());
+        YuyvToYuvConverter converter = new YuyvToYuvConverter(320, 240, Yuv420Format.NV12);
+        ByteBuffer yuyv = ByteBuffer.allocateDirect(converter.getInputSize());
+        yuyv.put(randomBytes(yuyv.capacity(), 15));
+        ByteBuffer dst = ByteBuffer.allocateDirect(converter.getFrameSize());
+
+        for (int mode = 0; mode < 2; mode++) {
+            converter.setMonochrome(mode != 0);
+            // warm up with the very call measured: its first run once compiled may allocate
+            for (int round = 0; round < 50; round++) {
+                convertFrames(converter, yuyv, dst, 20);
+            }
+            long before = AllocationMeter.allocatedBytes();
+            convertFrames(converter, yuyv, dst, 20);
+            long allocated = AllocationMeter.allocatedBytes() - before;
+            assertEquals("monochrome " + converter.isMonochrome(), 0, allocated);
+        }
+    }
+
+    private static void convertFrames(YuyvToYuvConverter converter, ByteBuffer yuyv,
+                                      ByteBuffer dst, int frames) {
+        for (int i = 0; i < frames; i++) {
+            yuyv.clear();
+            dst.clear();
+            converter.convert(yuyv, dst);
+        }
+    }
+
+    private static byte[] convert(byte[] yuyv, int width, int height, Yuv420Format format,
+                                  boolean direct) {
+        YuyvToYuvConverter converter = new YuyvToYuvConverter(width, height, format);
+        ByteBuffer src = direct ? ByteBuffer.allocateDirect(yuyv.length)
+                : ByteBuffer.allocate(yuyv.length);
+        src.put(yuyv);
+        src.flip();
+        ByteBuffer dst = direct ? ByteBuffer.allocateDirect(converter.getFrameSize())
+                : ByteBuffer.allocate(converter.getFrameSize());
+        converter.convert(src, dst);
+        byte[] out = new byte[converter.getFrameSize()];
+        dst.flip();
+        dst.get(out);
+        return out;
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Sample by sample conversion: chroma averaged over two rows, rounding up.
+     */
+    private static byte[] reference(byte[] yuyv, int width, int height, Yuv420Format format) {
+        final int cw = width / 2, ch = (height + 1) / 2;
+        final int lumaSize = width * height;
+        byte[] out = new byte[lumaSize + 2 * cw * ch];
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                out[j * width + i] = yuyv[2 * (j * width + i)];
+            }
+        }
+        for (int j = 0; j < ch; j++) {
+            int top = 2 * j * 2 * width;
+            int bottom = Math.min(2 * j + 1, height - 1) * 2 * width;
+            for (int i = 0; i < cw; i++) {
+                int u = ((yuyv[top + 4 * i + 1] & 0xff)
+                        + (yuyv[bottom + 4 * i + 1] & 0xff) + 1) / 2;
+                int v = ((yuyv[top + 4 * i + 3] & 0xff)
+                        + (yuyv[bottom + 4 * i + 3] & 0xff) + 1) / 2;
+                byte first = (byte) (format.isVFirst() ? v : u);
+                byte second = (byte) (format.isVFirst() ? u : v);
+                if (format.isPlanar()) {
+                    out[lumaSize + j * cw + i] = first;
+                    out[lumaSize + cw * ch + j * cw + i] = second;
+                } else {
+                    out[lumaSize + 2 * (j * cw + i)] = first;
+                    out[lumaSize + 2 * (j * cw + i) + 1] = second;
+                }
+            }
+        }
+        return out;
+    }
+}
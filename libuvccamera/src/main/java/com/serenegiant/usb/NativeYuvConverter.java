@@ -0,0 +1,197 @@
+package com.serenegiant.usb;
+/*
+ * AudioVideoRecorder
+ * Audio Video Recorder in Android using MediaCodec / MediaRecorder
+ *
+ * Copyright (c) 2015 Quan Hua
+ *
+ * File name: NativeYuvConverter.java
+ *
+ * Licensed under the MIT License, see the LICENSE file at the root of the repository.
+ * The other sources of libuvccamera may have a different license, see the respective
+ * files.
+ */
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts frames between direct ByteBuffers in native code (libyuvconvert), from RGBX, YUYV,
+ * NV21, NV12 or I420 to NV21, NV12 or I420, e.g. from a frame callback to a MediaCodec input
+ * buffer.
+ * <p/>
+ * The inner loops are plain C written for the compiler to vectorize them.  They are built twice,
+ * for the baseline instruction set of the ABI and with NEON, and the NEON build is used when
+ * the CPU has it.  RGB is converted with the BT.601 limited range matrix, with the same
+ * rounding as the Java converters of mediautils, and chroma is taken from the top-left pixel
+ * of each 2x2 block unless {@link #setBoxFilter(boolean)}: the results are identical to
+ * theirs.  Width and height must be even.
+ * <p/>
+ * Only the benchmarks use it for now (NativeYuvConverterBenchmark, against the Java
+ * converters).  recorduvccamera converts with the Java converters of mediautils, which also
+ * scale, convert only the tiles that changed, write monochrome frames and share the work
+ * between threads.
+ * <p/>
+ * The library is loaded on first use: check {@link #isAvailable()} before creating a
+ * converter.  Not thread-safe.
+ */
+public class NativeYuvConverter {
+
+	// keep in sync with yuvconvert.h
+	public static final int FORMAT_RGBX = 0;
+	public static final int FORMAT_YUYV = 1;
+	public static final int FORMAT_NV21 = 2;
+	public static final int FORMAT_NV12 = 3;
+	public static final int FORMAT_I420 = 4;
+
+	private static final int FLAG_BOX_FILTER = 0x01;
+
+	private static boolean isLoaded;
+	private static boolean isAvailable;
+
+	private final int mWidth;
+	private final int mHeight;
+	private final int mInputFormat;
+	private final int mOutputFormat;
+	private final int mInputSize;
+	private final int mFrameSize;
+	private int mFlags;
+
+	/**
+	 * @param inputFormat one of the FORMAT_* constants
+	 * @param outputFormat {@link #FORMAT_NV21}, {@link #FORMAT_NV12} or {@link #FORMAT_I420}
+	 */
+	public NativeYuvConverter(final int width, final int height,
+		final int inputFormat, final int outputFormat) {
+
+		if (!isAvailable()) {
+			throw new IllegalStateException("libyuvconvert is not available");
+		}
+		if ((width <= 0) || (height <= 0) || ((width | height) & 1) != 0) {
+			throw new IllegalArgumentException("invalid size " + width + "x" + height
+				+ ", width and height must be even");
+		}
+		if ((inputFormat < FORMAT_RGBX) || (inputFormat > FORMAT_I420)) {
+			throw new IllegalArgumentException("invalid input format " + inputFormat);
+		}
+		if ((outputFormat < FORMAT_NV21) || (outputFormat > FORMAT_I420)) {
+			throw new IllegalArgumentException("invalid output format " + outputFormat);
+		}
+		mWidth = width;
+		mHeight = height;
+		mInputFormat = inputFormat;
+		mOutputFormat = outputFormat;
+		mInputSize = getFrameSize(inputFormat, width, height);
+		mFrameSize = getFrameSize(outputFormat, width, height);
+	}
+
+	/**
+	 * Loads libyuvconvert if not done yet.  Returns false if it cannot be loaded, e.g. on a
+	 * host JVM without the library built by jni/yuvconvert/Makefile on java.library.path.
+	 */
+	public static synchronized boolean isAvailable() {
+		if (!isLoaded) {
+			isLoaded = true;
+			try {
+				System.loadLibrary("yuvconvert");
+				isAvailable = true;
+			} catch (final UnsatisfiedLinkError e) {
+				isAvailable = false;
+			}
+		}
+		return isAvailable;
+	}
+
+	/**
+	 * Returns true if the CPU runs the vectorized kernels (NEON, or AVX2 on a host).
+	 */
+	public static boolean isSimdSupported() {
+		return isAvailable() && nativeIsSimdSupported();
+	}
+
+	/**
+	 * Selects the vectorized kernels, if supported, or the portable ones, for every converter.
+	 * For tests and benchmarks: the vectorized ones are used by default when supported.
+	 * Returns true if the vectorized kernels are now in use.
+	 */
+	public static boolean setSimdEnabled(final boolean enabled) {
+		return isAvailable() && nativeSetSimdEnabled(enabled);
+	}
+
+	private static int getFrameSize(final int format, final int width, final int height) {
+		switch (format) {
+		case FORMAT_RGBX:
+			return 4 * width * height;
+		case FORMAT_YUYV:
+			return 2 * width * height;
+		default:
+			return width * height * 3 / 2;
+		}
+	}
+
+	public int getWidth() {
+		return mWidth;
+	}
+
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * Returns the number of bytes read from the source for each frame.
+	 */
+	public int getInputSize() {
+		return mInputSize;
+	}
+
+	/**
+	 * Returns the number of bytes written by each conversion.
+	 */
+	public int getFrameSize() {
+		return mFrameSize;
+	}
+
+	public boolean isBoxFilter() {
+		return (mFlags & FLAG_BOX_FILTER) != 0;
+	}
+
+	/**
+	 * Averages the four pixels of each 2x2 block for chroma instead of taking the top-left one,
+	 * like ChromaFilter.BOX.  RGBX input only, YUYV chroma is always the average of two rows.
+	 */
+	public void setBoxFilter(final boolean boxFilter) {
+		mFlags = boxFilter ? (mFlags | FLAG_BOX_FILTER) : (mFlags & ~FLAG_BOX_FILTER);
+	}
+
+	/**
+	 * Converts one frame read from the current position of {@code src} and writes it at the
+	 * current position of {@code dst}.  Both buffers must be direct; they are advanced past the
+	 * frame.
+	 */
+	public void convert(final ByteBuffer src, final ByteBuffer dst) {
+		if (!src.isDirect() || !dst.isDirect()) {
+			throw new IllegalArgumentException("direct buffers only");
+		}
+		if (src.remaining() < mInputSize) {
+			throw new IllegalArgumentException("src too small: " + src.remaining()
+				+ " < " + mInputSize);
+		}
+		if (dst.remaining() < mFrameSize) {
+			throw new IllegalArgumentException("dst too small: " + dst.remaining()
+				+ " < " + mFrameSize);
+		}
+		final int result = nativeConvert(src, src.position(), mInputFormat,
+			dst, dst.position(), mOutputFormat, mWidth, mHeight, mFlags);
+		if (result != 0) {
+			// checked above, only a mismatch with the native side gets here
+			throw new IllegalStateException("nativeConvert failed: " + result);
+		}
+		src.position(src.position() + mInputSize);
+		dst.position(dst.position() + mFrameSize);
+	}
+
+	private static final native int nativeConvert(final ByteBuffer src, final int srcOffset,
+		final int srcFormat, final ByteBuffer dst, final int dstOffset, final int dstFormat,
+		final int width, final int height, final int flags);
+	private static final native boolean nativeIsSimdSupported();
+	private static final native boolean nativeSetSimdEnabled(final boolean enabled);
+}
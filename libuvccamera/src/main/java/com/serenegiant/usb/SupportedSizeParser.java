@@ -0,0 +1,77 @@
+package com.serenegiant.usb;
+/*
+ * UVCCamera
+ * library and sample to access to UVC web camera on non-rooted Android device
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: SupportedSizeParser.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+ * Files in the jni/libjpeg, jni/libusb, jin/libuvc, jni/rapidjson folder may have a different license, see the respective files.
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.text.TextUtils;
+
+/**
+ * Parses the supported size JSON returned by the native camera, e.g.
+ * {"formats":[{"index":1,"type":4,"default":1,"size":["640x480","1280x720"]}]}.
+ * Kept apart from UVCCamera, which loads the native libraries, so that it can run on a plain JVM.
+ */
+public class SupportedSizeParser {
+
+	/**
+	 * @param type format type to keep (4:YUYV, 6:MJPEG), -1 for all
+	 * @param supportedSize JSON string from UVCCamera#getSupportedSize
+	 */
+	public static List<Size> parse(final int type, final String supportedSize) {
+		final List<Size> result = new ArrayList<Size>();
+		if (!TextUtils.isEmpty(supportedSize))
+		try {
+			final JSONObject json = new JSONObject(supportedSize);
+			final JSONArray formats = json.getJSONArray("formats");
+			final int format_nums = formats.length();
+			for (int i = 0; i < format_nums; i++) {
+				final JSONObject format = formats.getJSONObject(i);
+				final int format_type = format.getInt("type");
+				if ((format_type == type) || (type == -1)) {
+					addSize(format, format_type, result);
+				}
+			}
+		} catch (final JSONException e) {
+		}
+		return result;
+	}
+
+	private static final void addSize(final JSONObject format, final int type, final List<Size> size_list) throws JSONException {
+		final JSONArray size = format.getJSONArray("size");
+		final int size_nums = size.length();
+		for (int j = 0; j < size_nums; j++) {
+			final String[] sz = size.getString(j).split("x");
+			try {
+				size_list.add(new Size(type, j, Integer.parseInt(sz[0]), Integer.parseInt(sz[1])));
+			} catch (final Exception e) {
+				break;
+			}
+		}
+	}
+}
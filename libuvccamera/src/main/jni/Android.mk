@@ -4,4 +4,5 @@ include $(CLEAR_VARS)
 include $(PROJ_PATH)/UVCCamera/Android.mk
 include $(PROJ_PATH)/libjpeg/android/jni/Android.mk
 include $(PROJ_PATH)/libusb/android/jni/Android.mk
-include $(PROJ_PATH)/libuvc/android/jni/Android.mk
\ No newline at end of file
+include $(PROJ_PATH)/libuvc/android/jni/Android.mk
+include $(PROJ_PATH)/yuvconvert/Android.mk
@@ -0,0 +1,44 @@
+#/*
+# * AudioVideoRecorder
+# * Audio Video Recorder in Android using MediaCodec / MediaRecorder
+# *
+# * Copyright (c) 2015 Quan Hua
+# *
+# * File name: Android.mk
+# *
+# * Licensed under the MIT License, see the LICENSE file at the root of the repository.
+# * The other sources of libuvccamera may have a different license, see the respective
+# * files.
+#*/
+
+######################################################################
+# Make shared library libyuvconvert.so
+######################################################################
+# Color conversion between direct ByteBuffers, for NativeYuvConverter.  Depends on nothing but
+# the C library so that it also builds on a Linux host, see Makefile.
+LOCAL_PATH	:= $(call my-dir)
+include $(CLEAR_VARS)
+
+LOCAL_CFLAGS := -I$(LOCAL_PATH)/
+LOCAL_CFLAGS += -std=c99 -O3 -fstrict-aliasing -Werror
+
+LOCAL_STATIC_LIBRARIES := cpufeatures
+
+LOCAL_ARM_MODE := arm
+
+LOCAL_SRC_FILES := \
+		yuvconvert.c \
+		yuvconvert_portable.c \
+		serenegiant_usb_NativeYuvConverter.c
+
+# the vectorized kernels: NEON is optional on ARMv7, checked at run time with cpufeatures
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+LOCAL_SRC_FILES += yuvconvert_simd.c.neon
+else
+LOCAL_SRC_FILES += yuvconvert_simd.c
+endif
+
+LOCAL_MODULE    := yuvconvert
+include $(BUILD_SHARED_LIBRARY)
+
+$(call import-module,android/cpufeatures)
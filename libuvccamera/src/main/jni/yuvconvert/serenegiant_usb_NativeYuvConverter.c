@@ -0,0 +1,74 @@
+/*
+ * AudioVideoRecorder
+ * Audio Video Recorder in Android using MediaCodec / MediaRecorder
+ *
+ * Copyright (c) 2015 Quan Hua
+ *
+ * File name: serenegiant_usb_NativeYuvConverter.c
+ *
+ * Licensed under the MIT License, see the LICENSE file at the root of the repository.
+ * The other sources of libuvccamera may have a different license, see the respective
+ * files.
+ */
+
+#include <jni.h>
+
+#include "yuvconvert.h"
+
+#define NUM_ARRAY_ELEMENTS(p) ((int) sizeof(p) / sizeof(p[0]))
+
+/* a buffer is not direct or too small, which NativeYuvConverter checks first */
+#define ERROR_BUFFER	-3
+
+static jint nativeConvert(JNIEnv *env, jclass clazz,
+	jobject src, jint src_offset, jint src_format,
+	jobject dst, jint dst_offset, jint dst_format,
+	jint width, jint height, jint flags) {
+
+	uint8_t *src_address = (*env)->GetDirectBufferAddress(env, src);
+	uint8_t *dst_address = (*env)->GetDirectBufferAddress(env, dst);
+	const size_t src_size = yuv_frame_size(src_format, width, height);
+	const size_t dst_size = yuv_frame_size(dst_format, width, height);
+
+	if (!src_size || !dst_size) {
+		return YUV_ERROR_FORMAT;
+	}
+	if (!src_address || !dst_address || (src_offset < 0) || (dst_offset < 0)
+		|| (size_t) (*env)->GetDirectBufferCapacity(env, src) < src_offset + src_size
+		|| (size_t) (*env)->GetDirectBufferCapacity(env, dst) < dst_offset + dst_size) {
+		return ERROR_BUFFER;
+	}
+	return yuv_convert(src_address + src_offset, src_format, dst_address + dst_offset,
+		dst_format, width, height, flags);
+}
+
+static jboolean nativeIsSimdSupported(JNIEnv *env, jclass clazz) {
+	return yuv_simd_supported() ? JNI_TRUE : JNI_FALSE;
+}
+
+static jboolean nativeSetSimdEnabled(JNIEnv *env, jclass clazz, jboolean enabled) {
+	return yuv_set_simd_enabled(enabled) ? JNI_TRUE : JNI_FALSE;
+}
+
+static JNINativeMethod methods[] = {
+	{ "nativeConvert",			"(Ljava/nio/ByteBuffer;IILjava/nio/ByteBuffer;IIIII)I",
+		(void *) nativeConvert },
+	{ "nativeIsSimdSupported",	"()Z", (void *) nativeIsSimdSupported },
+	{ "nativeSetSimdEnabled",	"(Z)Z", (void *) nativeSetSimdEnabled },
+};
+
+jint JNI_OnLoad(JavaVM *vm, void *reserved) {
+	JNIEnv *env;
+	jclass clazz;
+
+	if ((*vm)->GetEnv(vm, (void **) &env, JNI_VERSION_1_6) != JNI_OK) {
+		return JNI_ERR;
+	}
+	clazz = (*env)->FindClass(env, "com/serenegiant/usb/NativeYuvConverter");
+	if (!clazz || (*env)->RegisterNatives(env, clazz, methods, NUM_ARRAY_ELEMENTS(methods)) < 0) {
+		return JNI_ERR;
+	}
+	// select the kernels now rather than on the first frame
+	yuv_set_simd_enabled(1);
+	return JNI_VERSION_1_6;
+}
@@ -0,0 +1,192 @@
+/*
+ * AudioVideoRecorder
+ * Audio Video Recorder in Android using MediaCodec / MediaRecorder
+ *
+ * Copyright (c) 2015 Quan Hua
+ *
+ * File name: yuvconvert.c
+ *
+ * Licensed under the MIT License, see the LICENSE file at the root of the repository.
+ * The other sources of libuvccamera may have a different license, see the respective
+ * files.
+ */
+
+#include <string.h>
+
+#if defined(__ANDROID__) && defined(__arm__)
+#include <cpu-features.h>
+#endif
+
+#include "yuvconvert.h"
+#include "yuvconvert_kernels.h"
+
+/* chroma samples converted at a time into the stack before being interleaved */
+#define CHUNK	256
+
+static const yuv_kernels_t *kernels;
+
+int yuv_simd_supported(void) {
+#if defined(__ANDROID__) && defined(__arm__)
+	return (android_getCpuFamily() == ANDROID_CPU_FAMILY_ARM)
+		&& (android_getCpuFeatures() & ANDROID_CPU_ARM_FEATURE_NEON) != 0;
+#elif defined(__aarch64__)
+	return 1;	// NEON is part of ARMv8
+#elif (defined(__x86_64__) || defined(__i386__)) && defined(__GNUC__) && !defined(__ANDROID__)
+	__builtin_cpu_init();
+	return __builtin_cpu_supports("avx2");
+#else
+	return 0;	// yuvconvert_simd.c is built without any extension
+#endif
+}
+
+int yuv_set_simd_enabled(int enabled) {
+	const int simd = enabled && yuv_simd_supported();
+	kernels = simd ? &yuv_kernels_simd : &yuv_kernels_portable;
+	return simd;
+}
+
+static const yuv_kernels_t *get_kernels(void) {
+	if (!kernels) {
+		// every thread selects the same table, racing here is harmless
+		yuv_set_simd_enabled(1);
+	}
+	return kernels;
+}
+
+static int is_yuv420(int format) {
+	return (format == YUV_FORMAT_NV21) || (format == YUV_FORMAT_NV12)
+		|| (format == YUV_FORMAT_I420);
+}
+
+size_t yuv_frame_size(int format, int width, int height) {
+	const size_t pixels = (size_t) width * height;
+	switch (format) {
+	case YUV_FORMAT_RGBX:
+		return 4 * pixels;
+	case YUV_FORMAT_YUYV:
+		return 2 * pixels;
+	case YUV_FORMAT_NV21:
+	case YUV_FORMAT_NV12:
+	case YUV_FORMAT_I420:
+		return pixels + 2 * (((size_t) width + 1) / 2) * (((size_t) height + 1) / 2);
+	default:
+		return 0;
+	}
+}
+
+/**
+ * Converts the chroma of a pair of rows of RGBX or YUYV, samples c0 to c0 + n, into u and v.
+ */
+static void packed_chroma(const yuv_kernels_t *k, int format, int box,
+	const uint8_t *row0, const uint8_t *row1, int c0, uint8_t *u, uint8_t *v, int n) {
+
+	if (format == YUV_FORMAT_YUYV) {
+		k->yuyv_chroma(row0 + 4 * c0, row1 + 4 * c0, u, v, n);
+	} else if (box) {
+		k->rgbx_chroma_box(row0 + 8 * c0, row1 + 8 * c0, u, v, n);
+	} else {
+		k->rgbx_chroma_point(row0 + 8 * c0, u, v, n);
+	}
+}
+
+/**
+ * RGBX or YUYV to any 4:2:0 layout, one pair of rows at a time.  Planar chroma is written in
+ * place, semi-planar chroma goes through the stack CHUNK samples at a time to be interleaved.
+ */
+static void packed_to_yuv420(const yuv_kernels_t *k, const uint8_t *src, int src_format,
+	uint8_t *dst, int dst_format, int width, int height, int box) {
+
+	const int bytes_per_pixel = (src_format == YUV_FORMAT_YUYV) ? 2 : 4;
+	const size_t src_row = (size_t) bytes_per_pixel * width;
+	const int chroma_width = width / 2;
+	const size_t luma_size = (size_t) width * height;
+	const size_t chroma_plane = (size_t) chroma_width * (height / 2);
+	uint8_t u[CHUNK], v[CHUNK];
+	int j, c;
+
+	for (j = 0; j < height; j += 2) {
+		const uint8_t *row0 = src + j * src_row;
+		const uint8_t *row1 = row0 + src_row;
+		uint8_t *y = dst + (size_t) j * width;
+		uint8_t *chroma;
+		if (src_format == YUV_FORMAT_YUYV) {
+			k->yuyv_luma(row0, y, width);
+			k->yuyv_luma(row1, y + width, width);
+		} else {
+			k->rgbx_luma(row0, y, width);
+			k->rgbx_luma(row1, y + width, width);
+		}
+
+		if (dst_format == YUV_FORMAT_I420) {
+			chroma = dst + luma_size + (size_t) (j / 2) * chroma_width;
+			packed_chroma(k, src_format, box, row0, row1, 0,
+				chroma, chroma + chroma_plane, chroma_width);
+			continue;
+		}
+		chroma = dst + luma_size + (size_t) j * chroma_width;
+		for (c = 0; c < chroma_width; c += CHUNK) {
+			const int n = (chroma_width - c < CHUNK) ? chroma_width - c : CHUNK;
+			packed_chroma(k, src_format, box, row0, row1, c, u, v, n);
+			if (dst_format == YUV_FORMAT_NV21) {
+				k->interleave(v, u, chroma + 2 * c, n);
+			} else {
+				k->interleave(u, v, chroma + 2 * c, n);
+			}
+		}
+	}
+}
+
+/**
+ * Between 4:2:0 layouts: luma is copied, chroma copied, swapped, interleaved or
+ * de-interleaved as a whole.
+ */
+static void yuv420_to_yuv420(const yuv_kernels_t *k, const uint8_t *src, int src_format,
+	uint8_t *dst, int dst_format, int width, int height) {
+
+	const size_t luma_size = (size_t) width * height;
+	const int chroma_plane = (width / 2) * (height / 2);
+	const uint8_t *src_chroma = src + luma_size;
+	uint8_t *dst_chroma = dst + luma_size;
+
+	memcpy(dst, src, luma_size);
+	if (src_format == dst_format) {
+		memcpy(dst_chroma, src_chroma, 2 * (size_t) chroma_plane);
+	} else if (src_format == YUV_FORMAT_I420) {
+		// U and V planes to pairs
+		if (dst_format == YUV_FORMAT_NV21) {
+			k->interleave(src_chroma + chroma_plane, src_chroma, dst_chroma, chroma_plane);
+		} else {
+			k->interleave(src_chroma, src_chroma + chroma_plane, dst_chroma, chroma_plane);
+		}
+	} else if (dst_format == YUV_FORMAT_I420) {
+		// pairs to U and V planes
+		if (src_format == YUV_FORMAT_NV21) {
+			k->deinterleave(src_chroma, dst_chroma + chroma_plane, dst_chroma, chroma_plane);
+		} else {
+			k->deinterleave(src_chroma, dst_chroma, dst_chroma + chroma_plane, chroma_plane);
+		}
+	} else {
+		// NV21 <-> NV12
+		k->swap_pairs(src_chroma, dst_chroma, chroma_plane);
+	}
+}
+
+int yuv_convert(const uint8_t *src, int src_format, uint8_t *dst, int dst_format,
+	int width, int height, int flags) {
+
+	const yuv_kernels_t *k = get_kernels();
+
+	if (!yuv_frame_size(src_format, 2, 2) || !is_yuv420(dst_format)) {
+		return YUV_ERROR_FORMAT;
+	}
+	if ((width <= 0) || (height <= 0) || (width & 1) || (height & 1)) {
+		return YUV_ERROR_SIZE;
+	}
+	if (is_yuv420(src_format)) {
+		yuv420_to_yuv420(k, src, src_format, dst, dst_format, width, height);
+	} else {
+		packed_to_yuv420(k, src, src_format, dst, dst_format, width, height,
+			(flags & YUV_FLAG_BOX_FILTER) != 0);
+	}
+	return YUV_OK;
+}
@@ -0,0 +1,73 @@
+/*
+ * AudioVideoRecorder
+ * Audio Video Recorder in Android using MediaCodec / MediaRecorder
+ *
+ * Copyright (c) 2015 Quan Hua
+ *
+ * File name: yuvconvert.h
+ *
+ * Licensed under the MIT License, see the LICENSE file at the root of the repository.
+ * The other sources of libuvccamera may have a different license, see the respective
+ * files.
+ */
+
+#ifndef YUVCONVERT_H_
+#define YUVCONVERT_H_
+
+#include <stddef.h>
+#include <stdint.h>
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/*
+ * Frame layouts, tightly packed (no stride or padding).
+ * Keep in sync with NativeYuvConverter.FORMAT_*.
+ */
+#define YUV_FORMAT_RGBX	0	/* 4 bytes per pixel, R G B X */
+#define YUV_FORMAT_YUYV	1	/* packed 4:2:2, Y0 U Y1 V */
+#define YUV_FORMAT_NV21	2	/* Y plane, then interleaved V U */
+#define YUV_FORMAT_NV12	3	/* Y plane, then interleaved U V */
+#define YUV_FORMAT_I420	4	/* Y plane, U plane, V plane */
+
+/* chroma of each 2x2 block averaged over the 4 pixels instead of taken from the top-left one */
+#define YUV_FLAG_BOX_FILTER	0x01
+
+#define YUV_OK			0
+#define YUV_ERROR_FORMAT	-1	/* unknown format, or not a 4:2:0 destination */
+#define YUV_ERROR_SIZE		-2	/* width or height not even and positive */
+
+/**
+ * Returns the size in bytes of a width x height frame in the format, 0 if unknown.
+ */
+size_t yuv_frame_size(int format, int width, int height);
+
+/**
+ * Converts one width x height frame from src into dst, which must not overlap.
+ * src can be in any of the formats, dst must be NV21, NV12 or I420.  Both sizes must be even.
+ * RGB is converted with the BT.601 limited range matrix of the Java converters, with the same
+ * 8.8 fixed point rounding, so the results are identical.
+ * Returns YUV_OK or one of the YUV_ERROR_* codes.  Thread-safe.
+ */
+int yuv_convert(const uint8_t *src, int src_format, uint8_t *dst, int dst_format,
+	int width, int height, int flags);
+
+/**
+ * Returns 1 if the CPU runs the vectorized kernels (NEON on ARM, AVX2 on x86), 0 if only the
+ * portable ones.
+ */
+int yuv_simd_supported(void);
+
+/**
+ * Selects the vectorized kernels when enabled and supported, the portable ones otherwise.
+ * They are selected when supported by default.  Meant for tests and benchmarks, not to be
+ * called while converting.  Returns 1 if the vectorized kernels are now in use.
+ */
+int yuv_set_simd_enabled(int enabled);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif /* YUVCONVERT_H_ */
@@ -0,0 +1,48 @@
+/*
+ * AudioVideoRecorder
+ * Audio Video Recorder in Android using MediaCodec / MediaRecorder
+ *
+ * Copyright (c) 2015 Quan Hua
+ *
+ * File name: yuvconvert_kernels.h
+ *
+ * Licensed under the MIT License, see the LICENSE file at the root of the repository.
+ * The other sources of libuvccamera may have a different license, see the respective
+ * files.
+ */
+
+#ifndef YUVCONVERT_KERNELS_H_
+#define YUVCONVERT_KERNELS_H_
+
+#include <stdint.h>
+
+/*
+ * Row kernels, the inner loops of the conversions.  The same C source (yuvconvert_kernels.inc)
+ * is compiled twice: for the baseline instruction set of the ABI, the portable fallback, and
+ * with SIMD enabled (NEON, AVX2) for the CPUs that have it.  The loops are written for the
+ * compiler to vectorize them: restrict pointers, no branches, 16-bit arithmetic.
+ */
+typedef struct yuv_kernels {
+	/* width pixels of RGBX to width luma samples */
+	void (*rgbx_luma)(const uint8_t *src, uint8_t *y, int width);
+	/* n chroma samples from the top-left pixel of each pair of RGBX pixels */
+	void (*rgbx_chroma_point)(const uint8_t *src, uint8_t *u, uint8_t *v, int n);
+	/* n chroma samples from the average of each 2x2 block, src0 and src1 the two rows */
+	void (*rgbx_chroma_box)(const uint8_t *src0, const uint8_t *src1, uint8_t *u, uint8_t *v,
+		int n);
+	/* width pixels of YUYV to width luma samples */
+	void (*yuyv_luma)(const uint8_t *src, uint8_t *y, int width);
+	/* n chroma samples, the rounded average of two rows of YUYV */
+	void (*yuyv_chroma)(const uint8_t *src0, const uint8_t *src1, uint8_t *u, uint8_t *v, int n);
+	/* n pairs a[i] b[i] */
+	void (*interleave)(const uint8_t *a, const uint8_t *b, uint8_t *dst, int n);
+	/* n pairs to a[i] b[i] */
+	void (*deinterleave)(const uint8_t *src, uint8_t *a, uint8_t *b, int n);
+	/* n pairs with their two bytes swapped */
+	void (*swap_pairs)(const uint8_t *src, uint8_t *dst, int n);
+} yuv_kernels_t;
+
+extern const yuv_kernels_t yuv_kernels_portable;
+extern const yuv_kernels_t yuv_kernels_simd;
+
+#endif /* YUVCONVERT_KERNELS_H_ */
@@ -0,0 +1,20 @@
+/*
+ * AudioVideoRecorder
+ * Audio Video Recorder in Android using MediaCodec / MediaRecorder
+ *
+ * Copyright (c) 2015 Quan Hua
+ *
+ * File name: yuvconvert_portable.c
+ *
+ * Licensed under the MIT License, see the LICENSE file at the root of the repository.
+ * The other sources of libuvccamera may have a different license, see the respective
+ * files.
+ */
+
+/*
+ * The row kernels compiled for the baseline instruction set of the ABI: scalar code on ARMv7
+ * without NEON, SSE2 on x86_64.  Used when the CPU lacks the SIMD extension.
+ */
+
+#define YUV_KERNELS yuv_kernels_portable
+#include "yuvconvert_kernels.inc"
@@ -0,0 +1,20 @@
+/*
+ * AudioVideoRecorder
+ * Audio Video Recorder in Android using MediaCodec / MediaRecorder
+ *
+ * Copyright (c) 2015 Quan Hua
+ *
+ * File name: yuvconvert_simd.c
+ *
+ * Licensed under the MIT License, see the LICENSE file at the root of the repository.
+ * The other sources of libuvccamera may have a different license, see the respective
+ * files.
+ */
+
+/*
+ * The row kernels compiled with the SIMD extension: NEON on ARM (built as a .neon source by
+ * the NDK), AVX2 on x86 hosts.  Only called after yuv_simd_supported() checked the CPU.
+ */
+
+#define YUV_KERNELS yuv_kernels_simd
+#include "yuvconvert_kernels.inc"
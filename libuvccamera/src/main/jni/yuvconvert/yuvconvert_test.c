@@ -0,0 +1,278 @@
+/*
+ * AudioVideoRecorder
+ * Audio Video Recorder in Android using MediaCodec / MediaRecorder
+ *
+ * Copyright (c) 2015 Quan Hua
+ *
+ * File name: yuvconvert_test.c
+ *
+ * Licensed under the MIT License, see the LICENSE file at the root of the repository.
+ * The other sources of libuvccamera may have a different license, see the respective
+ * files.
+ */
+
+/*
+ * Unit test of yuvconvert on a Linux host, see Makefile.  Every conversion is checked with
+ * both kernel tables against a straightforward per pixel implementation of the formulas of
+ * ColorMatrix and of the Java converters, then timed at 1280x720.
+ */
+
+#define _POSIX_C_SOURCE 199309L	/* clock_gettime */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+#include "yuvconvert.h"
+
+#define NUM_SIZES(a) ((int) (sizeof(a) / sizeof(a[0])))
+
+static const char *NAMES[] = { "RGBX", "YUYV", "NV21", "NV12", "I420" };
+
+static int failures;
+
+static int clamp(int x) {
+	return (x < 0) ? 0 : (x > 255) ? 255 : x;
+}
+
+/* ColorMatrix.BT601_LIMITED, through the same integer math */
+static int ref_y(int r, int g, int b) {
+	return clamp((66 * r + 129 * g + 25 * b + (16 << 8) + 128) >> 8);
+}
+
+static int ref_u(int r, int g, int b) {
+	return clamp((-38 * r - 74 * g + 112 * b + (128 << 8) + 128) >> 8);
+}
+
+static int ref_v(int r, int g, int b) {
+	return clamp((112 * r - 94 * g - 18 * b + (128 << 8) + 128) >> 8);
+}
+
+/* where chroma sample (x, y) of a 4:2:0 frame is */
+static size_t u_index(int format, int width, int height, int x, int y) {
+	const size_t luma = (size_t) width * height;
+	const int cw = width / 2;
+	switch (format) {
+	case YUV_FORMAT_NV21:	return luma + 2 * ((size_t) y * cw + x) + 1;
+	case YUV_FORMAT_NV12:	return luma + 2 * ((size_t) y * cw + x);
+	default:				return luma + (size_t) y * cw + x;
+	}
+}
+
+static size_t v_index(int format, int width, int height, int x, int y) {
+	const size_t luma = (size_t) width * height;
+	const int cw = width / 2, ch = height / 2;
+	switch (format) {
+	case YUV_FORMAT_NV21:	return luma + 2 * ((size_t) y * cw + x);
+	case YUV_FORMAT_NV12:	return luma + 2 * ((size_t) y * cw + x) + 1;
+	default:				return luma + (size_t) cw * ch + (size_t) y * cw + x;
+	}
+}
+
+static void reference(const uint8_t *src, int src_format, uint8_t *dst, int dst_format,
+	int width, int height, int box) {
+
+	int x, y;
+	for (y = 0; y < height; y++) {
+		for (x = 0; x < width; x++) {
+			const size_t p = (size_t) y * width + x;
+			switch (src_format) {
+			case YUV_FORMAT_RGBX:
+				dst[p] = ref_y(src[4 * p], src[4 * p + 1], src[4 * p + 2]);
+				break;
+			case YUV_FORMAT_YUYV:
+				dst[p] = src[2 * p];
+				break;
+			default:
+				dst[p] = src[p];
+				break;
+			}
+		}
+	}
+	for (y = 0; y < height / 2; y++) {
+		for (x = 0; x < width / 2; x++) {
+			const size_t p0 = (size_t) 2 * y * width + 2 * x, p1 = p0 + width;
+			int u, v;
+			if (src_format == YUV_FORMAT_RGBX) {
+				int r = src[4 * p0], g = src[4 * p0 + 1], b = src[4 * p0 + 2];
+				if (box) {
+					r = (r + src[4 * p0 + 4] + src[4 * p1] + src[4 * p1 + 4] + 2) >> 2;
+					g = (g + src[4 * p0 + 5] + src[4 * p1 + 1] + src[4 * p1 + 5] + 2) >> 2;
+					b = (b + src[4 * p0 + 6] + src[4 * p1 + 2] + src[4 * p1 + 6] + 2) >> 2;
+				}
+				u = ref_u(r, g, b);
+				v = ref_v(r, g, b);
+			} else if (src_format == YUV_FORMAT_YUYV) {
+				u = (src[2 * p0 + 1] + src[2 * p1 + 1] + 1) >> 1;
+				v = (src[2 * p0 + 3] + src[2 * p1 + 3] + 1) >> 1;
+			} else {
+				u = src[u_index(src_format, width, height, x, y)];
+				v = src[v_index(src_format, width, height, x, y)];
+			}
+			dst[u_index(dst_format, width, height, x, y)] = u;
+			dst[v_index(dst_format, width, height, x, y)] = v;
+		}
+	}
+}
+
+static void fill_random(uint8_t *data, size_t size) {
+	size_t i;
+	for (i = 0; i < size; i++) {
+		data[i] = rand();
+	}
+}
+
+static void check(int condition, const char *message, int src_format, int dst_format,
+	int width, int height, int flags, int simd) {
+
+	if (!condition) {
+		fprintf(stderr, "FAILED %s: %s to %s %dx%d flags %d simd %d\n", message,
+			NAMES[src_format], NAMES[dst_format], width, height, flags, simd);
+		failures++;
+	}
+}
+
+/* sizes include a chroma width above the 256 samples converted at a time */
+static void test_matches_reference(void) {
+	static const int SIZES[][2] = { { 2, 2 }, { 6, 4 }, { 34, 18 }, { 1200, 6 } };
+	int s, src_format, dst_format, flags, simd;
+
+	for (s = 0; s < NUM_SIZES(SIZES); s++) {
+		const int width = SIZES[s][0], height = SIZES[s][1];
+		for (src_format = YUV_FORMAT_RGBX; src_format <= YUV_FORMAT_I420; src_format++) {
+			const size_t src_size = yuv_frame_size(src_format, width, height);
+			const size_t dst_size = yuv_frame_size(YUV_FORMAT_I420, width, height);
+			uint8_t *src = malloc(src_size);
+			uint8_t *expected = malloc(dst_size);
+			uint8_t *actual = malloc(dst_size + 1);
+			fill_random(src, src_size);
+			for (dst_format = YUV_FORMAT_NV21; dst_format <= YUV_FORMAT_I420; dst_format++) {
+				for (flags = 0; flags <= YUV_FLAG_BOX_FILTER; flags++) {
+					reference(src, src_format, expected, dst_format, width, height, flags);
+					for (simd = 0; simd <= yuv_simd_supported(); simd++) {
+						yuv_set_simd_enabled(simd);
+						memset(actual, 0xa5, dst_size + 1);
+						check(yuv_convert(src, src_format, actual, dst_format,
+							width, height, flags) == YUV_OK, "result",
+							src_format, dst_format, width, height, flags, simd);
+						check(!memcmp(expected, actual, dst_size), "content",
+							src_format, dst_format, width, height, flags, simd);
+						check(actual[dst_size] == 0xa5, "overrun",
+							src_format, dst_format, width, height, flags, simd);
+					}
+				}
+			}
+			free(src);
+			free(expected);
+			free(actual);
+		}
+	}
+	yuv_set_simd_enabled(1);
+}
+
+/* the extremes of every channel, where 16-bit arithmetic would overflow if it could */
+static void test_extreme_colors(void) {
+	uint8_t src[4 * 4 * 2], expected[12], actual[12];
+	int i, simd;
+	for (i = 0; i < 1 << 6; i++) {
+		int p;
+		for (p = 0; p < 8; p++) {
+			src[4 * p] = (i & 1) ? 255 : 0;
+			src[4 * p + 1] = (i & 2) ? 255 : 0;
+			src[4 * p + 2] = (i & 4) ? 255 : 0;
+			src[4 * p + 3] = (i & 8) ? 255 : 0;
+		}
+		src[4] = (i & 16) ? 255 : 0;
+		src[6] = (i & 32) ? 255 : 0;
+		reference(src, YUV_FORMAT_RGBX, expected, YUV_FORMAT_I420, 4, 2, i & 1);
+		for (simd = 0; simd <= yuv_simd_supported(); simd++) {
+			yuv_set_simd_enabled(simd);
+			yuv_convert(src, YUV_FORMAT_RGBX, actual, YUV_FORMAT_I420, 4, 2, i & 1);
+			check(!memcmp(expected, actual, sizeof(actual)), "extremes",
+				YUV_FORMAT_RGBX, YUV_FORMAT_I420, 4, 2, i & 1, simd);
+		}
+	}
+	yuv_set_simd_enabled(1);
+}
+
+static void test_rejects_invalid_arguments(void) {
+	uint8_t frame[4 * 4 * 4];
+	check(yuv_convert(frame, YUV_FORMAT_RGBX, frame + 32, YUV_FORMAT_YUYV, 2, 2, 0)
+		== YUV_ERROR_FORMAT, "YUYV destination", 0, 1, 2, 2, 0, 0);
+	check(yuv_convert(frame, 7, frame + 32, YUV_FORMAT_NV21, 2, 2, 0)
+		== YUV_ERROR_FORMAT, "unknown source", 0, 2, 2, 2, 0, 0);
+	check(yuv_convert(frame, YUV_FORMAT_RGBX, frame + 32, YUV_FORMAT_NV21, 3, 2, 0)
+		== YUV_ERROR_SIZE, "odd width", 0, 2, 3, 2, 0, 0);
+	check(yuv_convert(frame, YUV_FORMAT_RGBX, frame + 32, YUV_FORMAT_NV21, 2, 0, 0)
+		== YUV_ERROR_SIZE, "empty", 0, 2, 2, 0, 0, 0);
+	check(yuv_frame_size(YUV_FORMAT_I420, 6, 4) == 36, "size", 4, 4, 6, 4, 0, 0);
+	check(yuv_frame_size(YUV_FORMAT_RGBX, 6, 4) == 96, "size", 0, 0, 6, 4, 0, 0);
+}
+
+static double now_ms(void) {
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec * 1e3 + ts.tv_nsec / 1e6;
+}
+
+/* best of 10 rounds of 20 frames */
+static double time_conversion(const uint8_t *src, int src_format, uint8_t *dst, int dst_format,
+	int width, int height, int flags) {
+
+	double best = 1e9;
+	int round, i;
+	for (round = 0; round < 10; round++) {
+		const double start = now_ms();
+		for (i = 0; i < 20; i++) {
+			yuv_convert(src, src_format, dst, dst_format, width, height, flags);
+		}
+		if ((now_ms() - start) / 20 < best) {
+			best = (now_ms() - start) / 20;
+		}
+	}
+	return best;
+}
+
+static void print_throughput(void) {
+	const int width = 1280, height = 720;
+	static const int CASES[][3] = {
+		{ YUV_FORMAT_RGBX, YUV_FORMAT_NV21, 0 },
+		{ YUV_FORMAT_RGBX, YUV_FORMAT_NV12, YUV_FLAG_BOX_FILTER },
+		{ YUV_FORMAT_YUYV, YUV_FORMAT_NV12, 0 },
+		{ YUV_FORMAT_NV21, YUV_FORMAT_NV12, 0 },
+		{ YUV_FORMAT_NV21, YUV_FORMAT_I420, 0 },
+	};
+	uint8_t *src = malloc(yuv_frame_size(YUV_FORMAT_RGBX, width, height));
+	uint8_t *dst = malloc(yuv_frame_size(YUV_FORMAT_I420, width, height));
+	int i;
+	fill_random(src, yuv_frame_size(YUV_FORMAT_RGBX, width, height));
+	for (i = 0; i < NUM_SIZES(CASES); i++) {
+		double portable, simd = 0;
+		yuv_set_simd_enabled(0);
+		portable = time_conversion(src, CASES[i][0], dst, CASES[i][1], width, height,
+			CASES[i][2]);
+		if (yuv_set_simd_enabled(1)) {
+			simd = time_conversion(src, CASES[i][0], dst, CASES[i][1], width, height,
+				CASES[i][2]);
+		}
+		printf("%s to %s%s %dx%d: portable %.2f ms, simd %.2f ms\n", NAMES[CASES[i][0]],
+			NAMES[CASES[i][1]], CASES[i][2] ? " (box)" : "", width, height, portable, simd);
+	}
+	free(src);
+	free(dst);
+}
+
+int main(void) {
+	srand(1);
+	test_matches_reference();
+	test_extreme_colors();
+	test_rejects_invalid_arguments();
+	if (failures) {
+		fprintf(stderr, "%d failures\n", failures);
+		return 1;
+	}
+	printf("OK, simd %s\n", yuv_simd_supported() ? "supported" : "not supported");
+	print_throughput();
+	return 0;
+}
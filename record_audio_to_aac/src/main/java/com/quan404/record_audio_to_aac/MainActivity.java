@@ -3,7 +3,6 @@ package com.quan404.record_audio_to_aac;
 import android.app.Activity;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
-import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaCodecList;
 import android.media.MediaFormat;
@@ -15,6 +14,8 @@ import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 
+import com.quan404.encoder.EncoderSession;
+
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -90,10 +91,9 @@ public class MainActivity extends Activity {
         private short[] buffer = null;
         private int bufferSize = 0;
 
-        private MediaCodec mEncoder;
+        private EncoderSession mSession;
         private String MIME_TYPE = "audio/mp4a-latm";
-        private ByteBuffer[] inputBuffers;
-        private ByteBuffer[] encoderOutputBuffers;
+        private final int EOS_TIMEOUT_MS = 2500;
 
         private MediaMuxer mMuxer;
         @Override
@@ -109,14 +109,16 @@ public class MainActivity extends Activity {
                         break;
                     case PROCESSING:
                         // pass data to encoder
-                        passDataToEncoder(false);
-                        // pass data from encoder to muxer
-                        passDataToMuxer();
+                        passDataToEncoder();
+                        // pass data from encoder to muxer, the recorder paces the loop
+                        mSession.drainOutput(0);
                         break;
                     case STOP:
-                        // send EOS signal
-                        passDataToEncoder(true);
-                        while(passDataToMuxer() == false);
+                        // send EOS signal, and drain the remaining output
+                        mSession.signalEndOfInput();
+                        if (!mSession.drainToEndOfStream(EOS_TIMEOUT_MS)) {
+                            Log.e(TAG, "encoder end of stream wait timed out");
+                        }
 
                         // release AudioRecord
                         releaseAudioRecord();
@@ -179,46 +181,36 @@ public class MainActivity extends Activity {
 
                 Log.d(TAG, "format: " + format);
                 // Create a MediaCodec for the desired codec, then configure it as an encoder with
-                // our desired properties.
-                mEncoder = MediaCodec.createByCodecName(codecInfo.getName());
-                mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-
-                mEncoder.start();
-
-                inputBuffers = mEncoder.getInputBuffers();
-                encoderOutputBuffers  = mEncoder.getOutputBuffers();
+                // our desired properties.  It starts once the muxer is there.
+                mSession = new EncoderSession(codecInfo.getName(), format);
 
             } catch (Exception e){
                 e.printStackTrace();
             }
         }
-        private void passDataToEncoder(boolean inputDone){
-            int bufferIndex = mEncoder.dequeueInputBuffer(10000);
+        private void passDataToEncoder(){
+            int bufferIndex = mSession.dequeueInputBuffer(10000);
             if (bufferIndex>=0) {
-                inputBuffers[bufferIndex].clear();
+                ByteBuffer inputBuffer = mSession.getInputBuffer(bufferIndex);
                 // read audio data
-                int len = recorder.read(inputBuffers[bufferIndex], bufferSize);
+                int len = recorder.read(inputBuffer, bufferSize);
 
                 if (len == AudioRecord.ERROR_INVALID_OPERATION || len == AudioRecord.ERROR_BAD_VALUE) {
                     Log.e(TAG, "An error occured with the AudioRecord API !");
+                    // the buffer goes back empty
+                    len = 0;
                 } else {
-                    Log.v(TAG, "Pushing raw audio to the decoder: len=" + len + " bs: " + inputBuffers[bufferIndex].capacity() + " inputDone = " + inputDone);
-                    if(inputDone){
-                        mEncoder.queueInputBuffer(bufferIndex, 0, 0, System.nanoTime() / 1000,
-                                MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-
-                        Log.d(TAG, "sent input EOS (with zero-length frame)");
-                    }else{
-                        mEncoder.queueInputBuffer(bufferIndex, 0, len, System.nanoTime() / 1000, 0);
-                    }
+                    Log.v(TAG, "Pushing raw audio to the decoder: len=" + len + " bs: " + inputBuffer.capacity());
                 }
+                mSession.queueInputBuffer(bufferIndex, len, System.nanoTime() / 1000);
             }
         }
 
         private void releaseMediaCodec(){
-            if (mEncoder != null) {
-                mEncoder.stop();
-                mEncoder.release();
+            if (mSession != null) {
+                mSession.logStats();
+                mSession.release();
+                mSession = null;
             }
         }
         private void prepareMediaMuxer(){
@@ -237,62 +229,9 @@ public class MainActivity extends Activity {
             } catch (IOException ioe) {
                 throw new RuntimeException("MediaMuxer creation failed", ioe);
             }
-        }
-        private boolean passDataToMuxer(){
-            boolean encoderDone = false;
-            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-            int encoderStatus = mEncoder.dequeueOutputBuffer(info, 10000);
-            if (encoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                // no output available yet
-                Log.d(TAG, "no output from encoder available");
-            } else if (encoderStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                // not expected for an encoder
-                encoderOutputBuffers = mEncoder.getOutputBuffers();
-                Log.d(TAG, "encoder output buffers changed");
-            } else if (encoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                // not expected for an encoder
-                MediaFormat newFormat = mEncoder.getOutputFormat();
-                Log.d(TAG, "encoder output format changed: " + newFormat);
-
-                // init muxer
-                mMuxer.addTrack(newFormat);
-                mMuxer.start();
-            } else if (encoderStatus < 0) {
-                Log.e(TAG, "unexpected result from encoder.dequeueOutputBuffer: " + encoderStatus);
-            } else { // encoderStatus >= 0
-                ByteBuffer encodedData = encoderOutputBuffers[encoderStatus];
-
-                if (encodedData == null) {
-                    Log.e(TAG, "encoderOutputBuffer " + encoderStatus + " was null");
-                }else{
-                    // It's usually necessary to adjust the ByteBuffer values to match BufferInfo.
-                    encodedData.position(info.offset);
-                    encodedData.limit(info.offset + info.size);
-
-                    if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                        // Codec config info.  Only expected on first packet.  One way to
-                        // handle this is to manually stuff the data into the MediaFormat
-                        // and pass that to configure().  We do that here to exercise the API.
-                    } else {
-                        encoderDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
-                        Log.d(TAG, "passed " + info.size + " bytes to decoder"
-                                + (encoderDone ? " (EOS)" : ""));
-
-                        // pass to muxer
-                        if(encoderDone){
-                            info.presentationTimeUs = 0;
-                            info.size = 0;
-                            info.offset = 0;
-                        }
-                        Log.d(TAG, "before sent " + info.size + " bytes to muxer info.presentationTimeUs = " + info.presentationTimeUs + " info.size = " + info.size + " info.offset = " + info.offset);
-                        mMuxer.writeSampleData(0, encodedData, info);
-                        Log.d(TAG, "sent " + info.size + " bytes to muxer " + info.presentationTimeUs);
-                    }
-                    mEncoder.releaseOutputBuffer(encoderStatus, false);
-                }
-            } // end else encoderStatus
-
-            return encoderDone;
+            // the session adds the track and starts the muxer on the output format change
+            mSession.setMuxer(mMuxer);
+            mSession.start();
         }
         private void releaseMediaMuxer(){
             if (mMuxer != null) {
@@ -1,18 +1,19 @@
 package com.quan404.recorduvccamera;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.usb.UsbDevice;
-import android.media.MediaCodec;
+import android.media.Image;
 import android.media.MediaCodecInfo;
 import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.media.MediaMuxer;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.util.Log;
@@ -23,6 +24,21 @@ import android.view.View;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.Toast;
+import com.quan404.encoder.EncoderSession;
+import com.quan404.mediautils.BitrateController;
+import com.quan404.mediautils.ChromaFilter;
+import com.quan404.mediautils.ColorFormatNegotiator;
+import com.quan404.mediautils.FrameLatencyMeter;
+import com.quan404.mediautils.FramePool;
+import com.quan404.mediautils.IncrementalYuvConverter;
+import com.quan404.mediautils.InputFormat;
+import com.quan404.mediautils.RgbToYuvConverter;
+import com.quan404.mediautils.RowBandExecutor;
+import com.quan404.mediautils.ScaleFilter;
+import com.quan404.mediautils.ScalingYuvConverter;
+import com.quan404.mediautils.Yuv420Format;
+import com.quan404.mediautils.YuvPlaneWriter;
+import com.quan404.mediautils.YuyvToYuvConverter;
 import com.serenegiant.usb.CameraDialog;
 import com.serenegiant.usb.IFrameCallback;
 import com.serenegiant.usb.USBMonitor;
@@ -38,12 +54,18 @@ import java.util.concurrent.TimeUnit;
 public class MainActivity extends Activity implements CameraDialog.CameraDialogParent{
     private static final String TAG = "Record UVC Camera";
     private static final boolean DEBUG = true;
+    // YUYV: record the camera's frames as they are.  RGBX and RGB565: convert (and draw) RGB
+    // frames, RGB565 moving half the bytes of RGBX through JNI but only recorded at the preview
+    // size
+    private static final InputFormat CAPTURE_FORMAT = InputFormat.YUYV;
+    // size of the recorded video, the preview is scaled down (or up) to it while converting
+    private static final int RECORD_WIDTH = UVCCamera.DEFAULT_PREVIEW_WIDTH;
+    private static final int RECORD_HEIGHT = UVCCamera.DEFAULT_PREVIEW_HEIGHT;
 
     private SurfaceView surfaceView;
     private Thread myThread;
 
-    private Object mFrameSyncObject = new Object();     // guards mFrameAvailable
-    private boolean mFrameAvailable = false;
+    private volatile EncodingThread mEncodingThread;     // converts the camera frames while recording
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -93,12 +115,15 @@ public class MainActivity extends Activity implements CameraDialog.CameraDialogP
                     isActive = true;
                     mUVCCamera.setPreviewDisplay(mPreviewSurface);
                     mIFrameCallbackLeft = new MyIFrameCallback();
-                    mUVCCamera.setFrameCallback(mIFrameCallbackLeft, UVCCamera.PIXEL_FORMAT_RGBX);
+                    mUVCCamera.setFrameCallback(mIFrameCallbackLeft,
+                            getPixelFormat(CAPTURE_FORMAT));
                     mUVCCamera.startPreview();
                     isPreview = true;
                 }
 
-                myThread = new Thread(new EncodingThread(UVCCamera.DEFAULT_PREVIEW_WIDTH, UVCCamera.DEFAULT_PREVIEW_HEIGHT, 6000000));
+                mEncodingThread = new EncodingThread(UVCCamera.DEFAULT_PREVIEW_WIDTH, UVCCamera.DEFAULT_PREVIEW_HEIGHT,
+                        RECORD_WIDTH, RECORD_HEIGHT, 6000000);
+                myThread = new Thread(mEncodingThread);
                 myThread.start();
             }
         });
@@ -254,39 +279,34 @@ public class MainActivity extends Activity implements CameraDialog.CameraDialogP
         }
     };
 
-    private byte[] nv21Data = null;
     private class MyIFrameCallback implements IFrameCallback{
-        private Bitmap bitmap = Bitmap.createBitmap(UVCCamera.DEFAULT_PREVIEW_WIDTH, UVCCamera.DEFAULT_PREVIEW_HEIGHT, Bitmap.Config.ARGB_8888);
-        private boolean stillProcessing = true;
+        private Bitmap bitmap = Bitmap.createBitmap(UVCCamera.DEFAULT_PREVIEW_WIDTH, UVCCamera.DEFAULT_PREVIEW_HEIGHT,
+                CAPTURE_FORMAT == InputFormat.RGB565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888);
         @Override
         public void onFrame(ByteBuffer frame) {
             frame.clear();
 
-            synchronized (bitmap) {
-                bitmap.copyPixelsFromBuffer(frame.asReadOnlyBuffer());
-            }
-
-            try{
-                Canvas canvasSurface = surfaceView.getHolder().lockCanvas(null);
-                canvasSurface.drawBitmap(bitmap, 0, 0, null);
-                surfaceView.getHolder().unlockCanvasAndPost(canvasSurface);
-            }catch (Exception e){
-                e.printStackTrace();
-            }
-
-            if (stillProcessing){
-                nv21Data = getNV21(bitmap.getWidth(), bitmap.getHeight(), bitmap, false);
+            // YUYV frames are not drawn, the camera preview surface already shows them
+            if (CAPTURE_FORMAT != InputFormat.YUYV) {
+                synchronized (bitmap) {
+                    bitmap.copyPixelsFromBuffer(frame.asReadOnlyBuffer());
+                }
 
-                synchronized (mFrameSyncObject){
-                    if(mFrameAvailable){
-                        Log.e(TAG, "mFrameAvailable already set");
-                        stillProcessing = false;
-                    }
-                    mFrameAvailable = true;
-                    mFrameSyncObject.notifyAll();
+                try{
+                    Canvas canvasSurface = surfaceView.getHolder().lockCanvas(null);
+                    canvasSurface.drawBitmap(bitmap, 0, 0, null);
+                    surfaceView.getHolder().unlockCanvasAndPost(canvasSurface);
+                }catch (Exception e){
+                    e.printStackTrace();
                 }
             }
 
+            // The native frame is only valid during this call: convert it into a pooled buffer
+            // now, EncodingThread copies it into the encoder when it gets there.
+            final EncodingThread encodingThread = mEncodingThread;
+            if (encodingThread != null) {
+                encodingThread.offerFrame(frame);
+            }
         }
     }
     private IFrameCallback mIFrameCallbackLeft;
@@ -302,18 +322,39 @@ public class MainActivity extends Activity implements CameraDialog.CameraDialogP
         /**
          * MediaCodec Stuffs
          */
-        private MediaCodec mEncoder = null;
+        private EncoderSession mSession = null;
 
         // parameters for the encoder
         private String MIME_TYPE = "video/avc";    // H.264 Advanced Video Coding
         private int IFRAME_INTERVAL = 10;          // 10 seconds between I-frames
         private int FRAME_RATE = 15;
         private int DURATION_SEC = 15;             // 8 seconds of video
-
+        private boolean PARALLEL_CONVERSION = true; // convert each frame on all cores
+        private int FRAME_POOL_SIZE = 3;            // converted frames waiting for, or in, the encoder
+        // POINT is cheaper, BOX averages each 2x2 block: less chroma noise for the encoder
+        private ChromaFilter CHROMA_FILTER = ChromaFilter.POINT;
+        // only used when the recorded size differs from the preview size
+        private ScaleFilter SCALE_FILTER = ScaleFilter.AREA;
+        // grayscale (IR) cameras: luma only, the chroma of each pooled frame is set to gray once
+        private boolean MONOCHROME = false;
+        // RGB frames at the preview size: only reconvert the 16x16 tiles that changed since the
+        // previous frame, for cameras watching a mostly static scene
+        private boolean INCREMENTAL_CONVERSION = false;
+        // keep the encoded stream near mBitRate, from half to one and a half times it asked for
+        // (Android 4.4 and later): the bitrate of a UVC stream swings with the scene
+        private boolean ADAPTIVE_BITRATE = true;
+        private long BITRATE_WINDOW_US = 1000000;   // measured over 1 second
+
+        private int mPreviewWidth;
+        private int mPreviewHeight;
         private int mWidth;
         private int mHeight;
         private int mBitRate;
         private int colorFormat;
+        private ColorFormatNegotiator.Choice mColorChoice;
+        // from the frame queued to its sample out, a second of frames followed at once
+        private final FrameLatencyMeter mLatency = new FrameLatencyMeter(FRAME_RATE);
+        private BitrateController mBitrateController;   // ADAPTIVE_BITRATE
         /**
          * MediaMuxer
          */
@@ -322,8 +363,14 @@ public class MainActivity extends Activity implements CameraDialog.CameraDialogP
         private File OUTPUT_DIR = Environment.getExternalStorageDirectory();
 
         public EncodingThread(int width, int height, int bitrate){
+            this(width, height, width, height, bitrate);
+        }
+
+        public EncodingThread(int previewWidth, int previewHeight, int width, int height, int bitrate){
             if (DEBUG) Log.d(TAG, "Constructor");
 
+            mPreviewWidth = previewWidth;
+            mPreviewHeight = previewHeight;
             mWidth = width;
             mHeight = height;
             mBitRate = bitrate;
@@ -402,7 +449,17 @@ public class MainActivity extends Activity implements CameraDialog.CameraDialogP
             }
         }
 
-        private NV21Convertor convertor;
+        private YuyvToYuvConverter mYuyvConverter;      // YUYV frames
+        private RgbToYuvConverter mYuvConverter;        // RGBX or RGB565 frames
+        private IncrementalYuvConverter mIncrementalConverter;  // same, changed tiles only
+        private ScalingYuvConverter mScalingConverter;  // recorded size != preview size
+        private RowBandExecutor mConversionExecutor;
+        // converted frames from the camera callback, null until the converters are ready
+        private volatile FramePool mFramePool;
+        private final Object mConversionLock = new Object();   // held while the callback converts
+        // COLOR_FormatYUV420Flexible: pooled frames are copied to the input image planes
+        private YuvPlaneWriter mPlaneWriter;
+        private Yuv420Format mImageFormat;
 
         private void prepareEncoder(){
             try {
@@ -416,7 +473,9 @@ public class MainActivity extends Activity implements CameraDialog.CameraDialogP
                 if (DEBUG) Log.d(TAG, "found codec: " + codecInfo.getName());
 
 
-                colorFormat = selectColorFormat(codecInfo, MIME_TYPE);
+                mColorChoice = selectColorFormat(codecInfo, MIME_TYPE,
+                        ColorFormatNegotiator.Source.valueOf(CAPTURE_FORMAT.name()));
+                colorFormat = mColorChoice.getColorFormat();
 
                 if (DEBUG) Log.d(TAG, "found colorFormat: " + colorFormat);
                 // We avoid the device-specific limitations on width and height by using values that
@@ -430,195 +489,296 @@ public class MainActivity extends Activity implements CameraDialog.CameraDialogP
                 format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, IFRAME_INTERVAL);
                 if (DEBUG) Log.d(TAG, "format: " + format);
                 // Create a MediaCodec for the desired codec, then configure it as an encoder with
-                // our desired properties.
-                mEncoder = MediaCodec.createByCodecName(codecInfo.getName());
-                mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-
-                convertor = new NV21Convertor();
-                convertor.setSize(mWidth, mHeight);
-                convertor.setSliceHeigth(mHeight);
-                convertor.setStride(mWidth);
-                convertor.setYPadding(0);
-                convertor.setEncoderColorFormat(colorFormat);
-
-                mEncoder.start();
+                // our desired properties.  It starts once the muxer is there.
+                mSession = new EncoderSession(codecInfo.getName(), format);
+                mSession.setLatencyMeter(mLatency);
+                if (ADAPTIVE_BITRATE && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    mBitrateController = new BitrateController(mBitRate, mBitRate / 2,
+                            mBitRate / 2 * 3, BITRATE_WINDOW_US);
+                    mSession.setBitrateController(mBitrateController);
+                }
+
+                // semi planar encoders expect UV pairs, planar ones U before V; the layout of
+                // flexible ones is only known from the first input image
+                if (!mColorChoice.isFlexible()) {
+                    prepareConverters(mColorChoice.getLayout());
+                }
             } catch (Exception e){
                 e.printStackTrace();
             }
         }
 
+        private void prepareConverters(Yuv420Format yuvFormat) {
+            final int frameSize;
+            if (mWidth != mPreviewWidth || mHeight != mPreviewHeight) {
+                // scaled in the same pass, the full size frame is never stored
+                mScalingConverter = new ScalingYuvConverter(
+                        CAPTURE_FORMAT,
+                        mPreviewWidth, mPreviewHeight, mWidth, mHeight, yuvFormat, SCALE_FILTER);
+                mScalingConverter.setMonochrome(MONOCHROME);
+                frameSize = mScalingConverter.getFrameSize();
+                if (DEBUG) Log.d(TAG, "scaling " + mPreviewWidth + "x" + mPreviewHeight
+                        + " to " + mWidth + "x" + mHeight + " (" + SCALE_FILTER + ")");
+            } else if (CAPTURE_FORMAT == InputFormat.YUYV) {
+                // only repacks bytes, no need for more threads
+                mYuyvConverter = new YuyvToYuvConverter(mWidth, mHeight, yuvFormat);
+                mYuyvConverter.setMonochrome(MONOCHROME);
+                frameSize = mYuyvConverter.getFrameSize();
+            } else {
+                mYuvConverter = new RgbToYuvConverter(mWidth, mHeight, yuvFormat);
+                mYuvConverter.setChromaFilter(CHROMA_FILTER);
+                mYuvConverter.setMonochrome(MONOCHROME);
+                frameSize = mYuvConverter.getFrameSize();
+                if (PARALLEL_CONVERSION) {
+                    // 720p does not fit in a frame interval on a single core
+                    mConversionExecutor = RowBandExecutor.forAvailableProcessors();
+                    mYuvConverter.setExecutor(mConversionExecutor);
+                    if (DEBUG) Log.d(TAG, "converting with " + mConversionExecutor.getThreadCount() + " threads");
+                }
+                if (INCREMENTAL_CONVERSION) {
+                    mIncrementalConverter = new IncrementalYuvConverter(mYuvConverter,
+                            CAPTURE_FORMAT);
+                }
+            }
+            // the camera starts handing frames over from here on
+            mFramePool = new FramePool(frameSize, FRAME_POOL_SIZE, true);
+        }
+
+        /**
+         * Converts a camera frame into a pooled buffer for the encoder.  Called on the camera
+         * callback thread; the frame is dropped if the encoder is not ready yet or if every
+         * pooled buffer is still waiting to be encoded.  The pooled buffer goes back to the pool
+         * if the frame is not submitted.
+         */
+        public void offerFrame(ByteBuffer frame) {
+            final FramePool pool = mFramePool;
+            if (pool == null) {
+                return;
+            }
+            final ByteBuffer yuv = pool.acquire();
+            if (yuv == null) {
+                // the encoder is behind, the pool counts the frame
+                return;
+            }
+            boolean submitted = false;
+            try {
+                synchronized (mConversionLock) {
+                    if (mFramePool == null) {
+                        // released meanwhile
+                        return;
+                    }
+                    frame.clear();
+                    if (mScalingConverter != null) {
+                        mScalingConverter.convert(frame, yuv);
+                    } else if (CAPTURE_FORMAT == InputFormat.YUYV) {
+                        mYuyvConverter.convert(frame, yuv);
+                    } else if (mIncrementalConverter != null) {
+                        mIncrementalConverter.convert(frame, yuv);
+                    } else if (CAPTURE_FORMAT == InputFormat.RGB565) {
+                        mYuvConverter.convertRgb565(frame, yuv);
+                    } else {
+                        mYuvConverter.convertRgbx(frame, yuv);
+                    }
+                }
+                pool.submit(yuv);
+                submitted = true;
+            } finally {
+                if (!submitted) {
+                    // released meanwhile, or the conversion failed: the buffer is not lost
+                    pool.release(yuv);
+                }
+            }
+        }
+
+        /**
+         * Returns the oldest converted camera frame, waiting for one as long as it takes, or
+         * null if this thread is interrupted, with its interrupt flag set again.
+         */
+        private ByteBuffer takeFrame() {
+            final int TIMEOUT_MS = 2500;
+            ByteBuffer frame = null;
+            while (frame == null) {
+                try {
+                    frame = mFramePool.take(TIMEOUT_MS);
+                } catch (InterruptedException e) {
+                    // the activity stopped
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                if (frame == null) {
+                    Log.e(TAG, "Camera frame wait timed out");
+                }
+            }
+            return frame;
+        }
+
+        /**
+         * Points the plane writer at input image {@code index}.  The converters are created on
+         * the first image, once its layout is known.
+         */
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private void prepareInputImage(int index) {
+            Image image = mSession.getInputImage(index);
+            Image.Plane[] planes = image.getPlanes();
+            if (mPlaneWriter == null) {
+                mPlaneWriter = new YuvPlaneWriter(mWidth, mHeight);
+            }
+            for (int i = 0; i < planes.length; i++) {
+                mPlaneWriter.setPlane(i, planes[i].getBuffer(), planes[i].getRowStride(),
+                        planes[i].getPixelStride());
+            }
+            if (mImageFormat == null) {
+                mImageFormat = mPlaneWriter.getPreferredFormat();
+                prepareConverters(mImageFormat);
+                Log.i(TAG, "input image chroma pixel stride " + planes[1].getPixelStride()
+                        + ", converting to " + mImageFormat);
+            }
+        }
+
         private void releaseEncoder(){
             if (DEBUG) Log.d(TAG, "releasing codec");
 
-            if (mEncoder != null) {
-                mEncoder.stop();
-                mEncoder.release();
+            if (mSession != null) {
+                mSession.logStats();
+                mSession.release();
+            }
+
+            final FramePool pool = mFramePool;
+            if (pool != null) {
+                synchronized (mConversionLock) {
+                    // no more frames from the camera callback
+                    mFramePool = null;
+                }
+                pool.drain();
+                Log.i(TAG, "frame pool: " + pool.getAcquiredCount() + " frames converted, "
+                        + pool.getExhaustedCount() + " dropped with all " + pool.getCapacity()
+                        + " buffers in use, peak " + pool.getPeakInUseCount() + " in use");
+            }
+            if (mIncrementalConverter != null) {
+                Log.i(TAG, "incremental conversion: "
+                        + Math.round(100 * mIncrementalConverter.getAverageChangedTileRatio())
+                        + "% of the tiles changed per frame, "
+                        + mIncrementalConverter.getFullConversionCount() + " of "
+                        + mIncrementalConverter.getFrameCount() + " frames converted whole");
+                mIncrementalConverter = null;
+            }
+
+            if (mConversionExecutor != null) {
+                mConversionExecutor.shutdown();
+                mConversionExecutor = null;
             }
         }
 
+        /**
+         * Records DURATION_SEC of camera frames in two stages: this thread feeds the encoder with
+         * the frames converted by the camera callback, which hands them over through the
+         * bounded mFramePool, while an output thread muxes every encoded sample as soon as the
+         * encoder outputs it, whether or not the camera is late with the next frame.
+         */
         private void doGenerateSaveVideo(){
             if (DEBUG) Log.d(TAG, "---------- doGenerateSaveVideo ------------");
-            /**
-             * Init parameters
-             */
-            final int TIMEOUT_USEC = 10000;
-            ByteBuffer[] encoderInputBuffers = mEncoder.getInputBuffers();
-            ByteBuffer[] encoderOutputBuffers = mEncoder.getOutputBuffers();
-
-            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-            int generateIndex = 0;
-            int NUM_FRAMES = DURATION_SEC * FRAME_RATE; // number of frame required to generate
+            mLatency.reset();
 
-            // The size of a frame of video data, in the formats we handle, is stride*sliceHeight
-            // for Y, and (stride/2)*(sliceHeight/2) for each of the Cb and Cr channels.  Application
-            // of algebra and assuming that stride==width and sliceHeight==height yields:
-            byte[] frameData = new byte[mWidth * mHeight * 3 / 2];
+            // the session adds the track and starts the muxer on the output format change
+            mSession.setMuxer(mMuxer);
+            mSession.start();
 
-            /**
-             * Populate imageData byte[] with an image
-             */
-
-            /**
-             * Loop through 5 seconds and generate + save file
-             */
+            Thread outputThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drainEncoder();
+                }
+            }, "EncoderOutput");
+            outputThread.start();
 
-            boolean inputDone = false;
-            boolean encoderDone = false;
-            while (!encoderDone) {
-                if(DEBUG) Log.d(TAG, "---- Loop ----");
-                /**
-                 * Generate
-                 */
-                if(!inputDone){
-                    int inputBufIndex = 0;
-
-                    inputBufIndex = mEncoder.dequeueInputBuffer(TIMEOUT_USEC);
-                    if (DEBUG) Log.d(TAG, "inputBufIndex=" + inputBufIndex);
-
-                    if ( inputBufIndex >= 0 ) {
-                        long ptsUsec = computePresentationTime(generateIndex);
-                        if ( generateIndex == NUM_FRAMES ) {
-                            inputDone = true;
-                            // Send an empty frame with the end-of-stream flag set.  If we set EOS
-                            // on a frame with data, that frame data will be ignored, and the
-                            // output will be short one frame.
-
-                            mEncoder.queueInputBuffer(inputBufIndex, 0, 0, ptsUsec,
-                                MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-
-                            if (DEBUG) Log.d(TAG, "sent input EOS (with zero-length frame)");
-                        } else {
-                            ByteBuffer inputBuf = encoderInputBuffers[inputBufIndex];
-
-                            // the buffer should be sized to hold one full frame
-                            inputBuf.clear();
-
-
-                            /**
-                             * use a bitmap in resource
-                             * */
-                            final BitmapFactory.Options options = new BitmapFactory.Options();
-                            options.inScaled = false;   // No pre-scaling
-                            // Read in the resource
-                            synchronized (mFrameSyncObject) {
-                                while (!mFrameAvailable) {
-                                    try{
-                                        final int TIMEOUT_MS = 2500;
-                                        mFrameSyncObject.wait(TIMEOUT_MS);
-                                        if(!mFrameAvailable){
-                                            Log.e(TAG, "Camera frame wait timed out");
-                                        }
-                                    }catch (Exception e){
-                                        e.printStackTrace();
-                                    }
-                                }
-                                mFrameAvailable = false;
-                            }
-                            if(nv21Data != null){
-                                convertor.convert(nv21Data, inputBuf);
+            feedEncoder(outputThread);
 
-                                mEncoder.queueInputBuffer(inputBufIndex, 0, frameData.length, ptsUsec, 0);
+            // the encoder is released once the output thread is done with it
+            boolean interrupted = false;
+            while (outputThread.isAlive()) {
+                try {
+                    outputThread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            Log.i(TAG, "encoder latency: " + mLatency.getFrameCount() + " frames, average "
+                    + Math.round(mLatency.getAverageMs()) + " ms, p90 "
+                    + mLatency.getPercentileMs(90) + " ms, max "
+                    + Math.round(mLatency.getMaxMs()) + " ms");
+            if (mBitrateController != null) {
+                Log.i(TAG, "bitrate: " + mBitrateController.describe());
+            }
+            if (DEBUG) Log.d(TAG, "---------- end - doGenerateSaveVideo ------------");
+        }
 
-                                if (DEBUG) Log.d(TAG, "submitted frame " + generateIndex + " to enc");
-                            } else {
-                                if (DEBUG) Log.e(TAG, "nv21Data is null");
-                            }
+        /**
+         * Input stage: queues NUM_FRAMES camera frames, then the end of the stream.  Ends the
+         * stream early if this thread is interrupted, and gives up if {@code outputThread} died,
+         * no input buffer would be freed any more.
+         */
+        private void feedEncoder(Thread outputThread){
+            final int TIMEOUT_USEC = 10000;
+            int NUM_FRAMES = DURATION_SEC * FRAME_RATE; // number of frame required to generate
 
-                        }
-                        generateIndex++;
+            for (int generateIndex = 0; generateIndex <= NUM_FRAMES; generateIndex++) {
+                // the output thread frees the input buffers, no need to drain here
+                int inputBufIndex;
+                while ((inputBufIndex = mSession.dequeueInputBuffer(TIMEOUT_USEC)) < 0) {
+                    if (!outputThread.isAlive()) {
+                        Log.e(TAG, "encoder output stopped, no more input");
+                        return;
                     }
                 }
 
-                // Check for output from the encoder.  If there's no output yet, we either need to
-                // provide more input, or we need to wait for the encoder to work its magic.  We
-                // can't actually tell which is the case, so if we can't get an output buffer right
-                // away we loop around and see if it wants more input.
-                //
-                // Once we get EOS from the encoder, we don't need to do this anymore.
-                if(!encoderDone){
-                    int encoderStatus = mEncoder.dequeueOutputBuffer(info, TIMEOUT_USEC);
-                    if (encoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                        // no output available yet
-                        if (DEBUG) Log.d(TAG, "no output from encoder available");
-//                        break;
-                    } else if (encoderStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                        // not expected for an encoder
-                        encoderOutputBuffers = mEncoder.getOutputBuffers();
-                        if (DEBUG) Log.d(TAG, "encoder output buffers changed");
-                    } else if (encoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                        // not expected for an encoder
-                        MediaFormat newFormat = mEncoder.getOutputFormat();
-                        if (DEBUG) Log.d(TAG, "encoder output format changed: " + newFormat);
-
-                        // now that we have the Magic Goodies, start the muxer
-                        mMuxer.addTrack(newFormat);
-                        mMuxer.start();
-
-                    } else if (encoderStatus < 0) {
-                        Log.e(TAG, "unexpected result from encoder.dequeueOutputBuffer: " + encoderStatus);
-                    } else { // encoderStatus >= 0
-                        ByteBuffer encodedData = encoderOutputBuffers[encoderStatus];
-                        if (encodedData == null) {
-                            Log.e(TAG, "encoderOutputBuffer " + encoderStatus + " was null");
-                        }
-                        // It's usually necessary to adjust the ByteBuffer values to match BufferInfo.
-                        encodedData.position(info.offset);
-                        encodedData.limit(info.offset + info.size);
-
-                        /**
-                         * Save to mp4
-                         */
-                        byte[] data = new byte[info.size];
-                        encodedData.get(data);
-                        encodedData.position(info.offset);
-                        try {
-                            encodedData.position(info.offset);
-                            encodedData.limit(info.offset + info.size);
-
-                            mMuxer.writeSampleData(0, encodedData, info);
-                            Log.d(TAG, "sent " + info.size + " bytes to muxer");
-
-                        } catch (Exception ioe) {
-                            Log.w(TAG, "failed writing debug data to file");
-                            throw new RuntimeException(ioe);
-                        }
+                long ptsUsec = computePresentationTime(generateIndex);
+                if ( generateIndex == NUM_FRAMES ) {
+                    // Send an empty frame with the end-of-stream flag set.
+                    mSession.queueEndOfStream(inputBufIndex, ptsUsec);
+                } else {
+                    final boolean inputImage = mColorChoice.isFlexible();
+                    if (inputImage) {
+                        prepareInputImage(inputBufIndex);
+                    }
 
-                        if ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                            // Codec config info.  Only expected on first packet.  One way to
-                            // handle this is to manually stuff the data into the MediaFormat
-                            // and pass that to configure().  We do that here to exercise the API.
+                    /**
+                     * use the oldest camera frame, already converted by the camera callback
+                     * */
+                    ByteBuffer frame = takeFrame();
+                    if (frame == null) {
+                        Log.w(TAG, "interrupted, ending the stream after " + generateIndex
+                                + " frames");
+                        mSession.queueEndOfStream(inputBufIndex, ptsUsec);
+                        return;
+                    }
+                    final int size = frame.remaining();
+                    if (inputImage) {
+                        mPlaneWriter.write(frame, mImageFormat);
+                    } else {
+                        // the buffer should be sized to hold one full frame
+                        mSession.getInputBuffer(inputBufIndex).put(frame);
+                    }
+                    mFramePool.release(frame);
+                    mSession.queueInputBuffer(inputBufIndex, size, ptsUsec);
 
-                        } else {
-                            encoderDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
-                            if (DEBUG) Log.d(TAG, "passed " + info.size + " bytes to decoder"
-                                    + (encoderDone ? " (EOS)" : ""));
-                        }
-                        mEncoder.releaseOutputBuffer(encoderStatus, false);
-                    } // end else encoderStatus
+                    if (DEBUG) Log.d(TAG, "submitted frame " + generateIndex + " to enc");
                 }
-            }// end while
+            }
+        }
 
-            if (DEBUG) Log.d(TAG, "---------- end - doGenerateSaveVideo ------------");
+        /**
+         * Output stage, on its own thread: muxes the encoded samples until the end of the stream.
+         * dequeueOutputBuffer() returns as soon as a sample is out, the timeout only bounds the
+         * wait while the encoder has nothing.
+         */
+        private void drainEncoder(){
+            final int TIMEOUT_USEC = 10000;
+            while (!mSession.drainOutput(TIMEOUT_USEC)) {
+                // no output available yet
+            }
         }
 
         /**
@@ -633,6 +793,20 @@ public class MainActivity extends Activity implements CameraDialog.CameraDialogP
      * Helper functions
      */
 
+    /**
+     * Returns the UVCCamera frame callback pixel format delivering {@code format} frames.
+     */
+    private static int getPixelFormat(InputFormat format) {
+        switch (format) {
+            case YUYV:
+                return UVCCamera.PIXEL_FORMAT_YUV;
+            case RGB565:
+                return UVCCamera.PIXEL_FORMAT_RGB565;
+            default:
+                return UVCCamera.PIXEL_FORMAT_RGBX;
+        }
+    }
+
     /**
      * Returns the first codec capable of encoding the specified MIME type, or null if no
      * match was found.
@@ -655,106 +829,24 @@ public class MainActivity extends Activity implements CameraDialog.CameraDialogP
     }
 
     /**
-     * Returns a color format that is supported by the codec and by this test code.  If no
-     * match is found, this throws a test failure -- the set of formats known to the test
-     * should be expanded for new platforms.
+     * Returns the color format of the codec that is cheapest to fill from {@code source}
+     * frames, and logs how every format it lists was ranked.  If none is supported, this
+     * throws a test failure -- the set of formats known to the test should be expanded for new
+     * platforms.
      */
-    private static int selectColorFormat(MediaCodecInfo codecInfo, String mimeType) {
-        MediaCodecInfo.CodecCapabilities capabilities = codecInfo.getCapabilitiesForType(mimeType);
-        for (int i = 0; i < capabilities.colorFormats.length; i++) {
-            int colorFormat = capabilities.colorFormats[i];
-            if (isRecognizedFormat(colorFormat)) {
-                return colorFormat;
-            }
+    private static ColorFormatNegotiator.Choice selectColorFormat(MediaCodecInfo codecInfo,
+            String mimeType, ColorFormatNegotiator.Source source) {
+        int[] colorFormats = codecInfo.getCapabilitiesForType(mimeType).colorFormats;
+        // input images, needed by COLOR_FormatYUV420Flexible, came with Lollipop
+        ColorFormatNegotiator negotiator = new ColorFormatNegotiator(
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP);
+        for (String line : negotiator.describe(source, colorFormats)) {
+            Log.i(TAG, codecInfo.getName() + " " + line);
         }
-        return 0;   // not reached
-    }
-    /**
-     * Returns true if this is a color format that this test code understands (i.e. we know how
-     * to read and generate frames in this format).
-     */
-    private static boolean isRecognizedFormat(int colorFormat) {
-        switch (colorFormat) {
-            // these are the formats we know how to handle for this test
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_TI_FormatYUV420PackedSemiPlanar:
-                return true;
-            default:
-                return false;
-        }
-    }
-    /**
-     * Returns true if the specified color format is semi-planar YUV.  Throws an exception
-     * if the color format is not recognized (e.g. not YUV).
-     */
-    private static boolean isSemiPlanarYUV(int colorFormat) {
-        switch (colorFormat) {
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar:
-                return false;
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar:
-            case MediaCodecInfo.CodecCapabilities.COLOR_TI_FormatYUV420PackedSemiPlanar:
-                return true;
-            default:
-                throw new RuntimeException("unknown format " + colorFormat);
-        }
-    }
-
-    /**
-     * Conversion tool
-     */
-    // untested function
-    byte [] getNV21(int inputWidth, int inputHeight, Bitmap scaled, boolean needRecycle) {
-
-        int [] argb = new int[inputWidth * inputHeight];
-
-        scaled.getPixels(argb, 0, inputWidth, 0, 0, inputWidth, inputHeight);
-
-        byte [] yuv = new byte[inputWidth*inputHeight*3/2];
-        encodeYUV420SP(yuv, argb, inputWidth, inputHeight);
-
-        if (needRecycle){
-            scaled.recycle();
-        }
-        return yuv;
-    }
-
-    void encodeYUV420SP(byte[] yuv420sp, int[] argb, int width, int height) {
-        final int frameSize = width * height;
-
-        int yIndex = 0;
-        int uvIndex = frameSize;
-
-        int a, R, G, B, Y, U, V;
-        int index = 0;
-        for (int j = 0; j < height; j++) {
-            for (int i = 0; i < width; i++) {
-
-                a = (argb[index] & 0xff000000) >> 24; // a is not used obviously
-                R = (argb[index] & 0xff0000) >> 16;
-                G = (argb[index] & 0xff00) >> 8;
-                B = (argb[index] & 0xff) >> 0;
-
-                // well known RGB to YUV algorithm
-                Y = ( (  66 * R + 129 * G +  25 * B + 128) >> 8) +  16;
-                U = ( ( -38 * R -  74 * G + 112 * B + 128) >> 8) + 128;
-                V = ( ( 112 * R -  94 * G -  18 * B + 128) >> 8) + 128;
-
-                // NV21 has a plane of Y and interleaved planes of VU each sampled by a factor of 2
-                //    meaning for every 4 Y pixels there are 1 V and 1 U.  Note the sampling is every other
-                //    pixel AND every other scanline.
-                yuv420sp[yIndex++] = (byte) ((Y < 0) ? 0 : ((Y > 255) ? 255 : Y));
-                if (j % 2 == 0 && index % 2 == 0) {
-                    yuv420sp[uvIndex++] = (byte)((V<0) ? 0 : ((V > 255) ? 255 : V));
-                    yuv420sp[uvIndex++] = (byte)((U<0) ? 0 : ((U > 255) ? 255 : U));
-                }
-
-                index ++;
-            }
+        ColorFormatNegotiator.Choice choice = negotiator.negotiate(source, colorFormats);
+        if (choice == null) {
+            throw new RuntimeException("no supported color format in " + codecInfo.getName());
         }
+        return choice;
     }
-}
\ No newline at end of file
+}
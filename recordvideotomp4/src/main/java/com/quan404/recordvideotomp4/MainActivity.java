@@ -1,10 +1,12 @@
 package com.quan404.recordvideotomp4;
 
 import android.app.Activity;
+import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
 import android.media.MediaFormat;
 import android.media.MediaMuxer;
 import android.opengl.EGL14;
@@ -16,9 +18,11 @@ import android.opengl.EGLSurface;
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
+import android.os.Build;
 import android.os.Environment;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -27,7 +31,17 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.Toast;
 
+import com.quan404.encoder.AsyncEncoderSession;
+import com.quan404.encoder.EncoderSession;
+import com.quan404.mediautils.BitrateController;
+import com.quan404.mediautils.ColorFormatNegotiator;
+import com.quan404.mediautils.FrameLatencyMeter;
+import com.quan404.mediautils.NV21Convertor;
+import com.quan404.mediautils.PreviewBufferRing;
+import com.quan404.mediautils.RawStreamWriter;
+
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -40,6 +54,17 @@ import java.nio.FloatBuffer;
  * <p/>
  * Required: Android 4.3 ( API 18 )
  * <p/>
+ * With PREVIEW_CALLBACK_BUFFERS, for devices where GL is slow or broken, the NV21 preview frames
+ * are received through Camera.setPreviewCallbackWithBuffer() instead, in a few preallocated
+ * buffers lent to the camera again once converted into the encoder input buffers.  The
+ * conversion turns them upright, as Camera.CameraInfo.orientation says, and mirrors those of a
+ * front camera, as its preview is shown.
+ * <p/>
+ * With ASYNC_ENCODER, on Android 5.0 and later, the encoder output is muxed from the encoder
+ * callbacks as soon as it comes out instead of being polled between two frames.  The time the
+ * frames spent in the encoder is logged at the end, either way.  With SAVE_RAW_STREAM as well,
+ * the same samples are also written to a raw H.264 stream, without copying them.
+ * <p/>
  * Output: /sdcard/recordvideo.mp4
  */
 public class MainActivity extends Activity {
@@ -54,6 +79,19 @@ public class MainActivity extends Activity {
     private static final int IFRAME_INTERVAL = 5;           // 5 seconds between I-frames
     private static final long DURATION_SEC = 8;             // 8 seconds of video
     private static final int BITRATE = 6000000;            // 6000000 Mbps
+    // record the NV21 preview callbacks through the byte buffer input of the encoder, no GL
+    private static final boolean PREVIEW_CALLBACK_BUFFERS = false;
+    // preview buffers going round: one filled by the camera, one converted, one spare
+    private static final int PREVIEW_BUFFER_COUNT = 3;
+    // drive the encoder from its callbacks (AsyncEncoderSession) rather than polling it
+    private static final boolean ASYNC_ENCODER = true;
+    // ASYNC_ENCODER: also save the H.264 elementary stream next to the MP4 file
+    private static final boolean SAVE_RAW_STREAM = false;
+    // keep the encoded stream near BITRATE by adjusting the encoder live, Android 4.4 and later
+    private static final boolean ADAPTIVE_BITRATE = true;
+    private static final int MIN_BITRATE = 2000000;
+    private static final int MAX_BITRATE = 8000000;
+    private static final long BITRATE_WINDOW_US = 1000000;   // measured over 1 second
     /**
      * Shader functions for frame editing
      */
@@ -74,17 +112,30 @@ public class MainActivity extends Activity {
     /**
      * Encoder & Muxer
      */
-    private MediaCodec mEncoder;
+    private EncoderSession mEncoder;        // polling
     private MediaMuxer mMuxer;
-    private int mTrackIndex;
-    private boolean mMuxerStarted;
     private CodecInputSurface mInputSurface;
-    private MediaCodec.BufferInfo mBufferInfo;
+    private AsyncEncoderSession mSession;   // ASYNC_ENCODER, replaces mEncoder
+    private FileOutputStream mRawStream;    // SAVE_RAW_STREAM
+    private BitrateController mBitrateController;   // ADAPTIVE_BITRATE
+    // from the frame queued to its sample out, a second of frames followed at once
+    private final FrameLatencyMeter mLatency = new FrameLatencyMeter(FRAME_RATE);
     /**
      * Camera Stuff
      */
     private Camera mCamera;
+    private int mCameraOrientation;         // Camera.CameraInfo.orientation of mCamera
+    private boolean mCameraFacingFront;
     private SurfaceTextureManager mStManager;
+    /**
+     * Preview callback mode
+     */
+    private NV21Convertor mConvertor;
+    // written on the recording thread, read on the main and session threads as well
+    private volatile PreviewBufferRing mPreviewBuffers;
+    private SurfaceTexture mDummyTexture;   // the camera needs a preview target all the same
+    private long mDroppedFrames;            // no encoder input buffer free in time
+    private volatile long mStartWhen;       // read on the session thread as well
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -103,6 +154,10 @@ public class MainActivity extends Activity {
                     @Override
                     public void run() {
                         prepareCamera(FRAME_WIDTH, FRAME_HEIGHT);
+                        if (PREVIEW_CALLBACK_BUFFERS) {
+                            recordPreviewCallbacks();
+                            return;
+                        }
                         prepareEncoder(FRAME_WIDTH, FRAME_HEIGHT, BITRATE);
                         mInputSurface.makeCurrent();
                         prepareSurfaceTexture();
@@ -163,11 +218,14 @@ public class MainActivity extends Activity {
                             // the encoder before supplying additional input, the system guarantees that we
                             // can supply another frame without blocking.
                             if (DEBUG) Log.d(TAG, "sending frame to encoder");
+                            // before: with mSession, the sample may come out before this returns
+                            mLatency.onQueued(st.getTimestamp() / 1000, System.nanoTime());
                             mInputSurface.swapBuffers();
                         }
 
                         // send end-of-stream to encoder, and drain remaining output
                         drainEncoder(true);
+                        logLatency();
                     }
                 }).start();
 
@@ -201,12 +259,23 @@ public class MainActivity extends Activity {
                 Camera.getCameraInfo(i, cameraInfo);
                 if (cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
                     mCamera = Camera.open(i);
+                    mCameraOrientation = cameraInfo.orientation;
+                    mCameraFacingFront = true;
                 }
             }
 
             // Else open rear camera
             if (mCamera == null) {
                 mCamera = Camera.open();
+                mCameraFacingFront = false;
+                // the first rear camera, the one Camera.open() opens
+                for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
+                    Camera.getCameraInfo(i, cameraInfo);
+                    if (cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_BACK) {
+                        mCameraOrientation = cameraInfo.orientation;
+                        break;
+                    }
+                }
             }
 
             // Else throw an Error
@@ -217,6 +286,11 @@ public class MainActivity extends Activity {
             // Select a preview size that match the expectedWidth & expectedHeight
             Camera.Parameters params = mCamera.getParameters();
             choosePreviewSize(params, expectedWidth, expectedHeight);
+            if (PREVIEW_CALLBACK_BUFFERS) {
+                // the GL path keeps the default parameters of the camera, as it always did
+                params.setPreviewFormat(ImageFormat.NV21);
+                mCamera.setParameters(params);
+            }
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -250,10 +324,25 @@ public class MainActivity extends Activity {
             Log.d(TAG, "releaseCamera");
         }
         if (mCamera != null) {
+            if (mPreviewBuffers != null) {
+                mCamera.setPreviewCallbackWithBuffer(null);
+            }
             mCamera.stopPreview();
             mCamera.release();
             mCamera = null;
         }
+        if (mPreviewBuffers != null) {
+            final int untaken = mPreviewBuffers.drain();
+            Log.i(TAG, "preview buffers: " + mPreviewBuffers.getSubmittedCount() + " frames, "
+                    + mDroppedFrames + " dropped for lack of encoder input, " + untaken
+                    + " left unencoded, camera starved " + mPreviewBuffers.getStarvedCount()
+                    + " times, peak " + mPreviewBuffers.getPeakQueuedCount() + " queued");
+            mPreviewBuffers = null;
+        }
+        if (mDummyTexture != null) {
+            mDummyTexture.release();
+            mDummyTexture = null;
+        }
     }
 
 
@@ -265,13 +354,40 @@ public class MainActivity extends Activity {
             Log.d(TAG, "prepareEncoder");
         }
 
-        mBufferInfo = new MediaCodec.BufferInfo();
+        mLatency.reset();
+        if (ADAPTIVE_BITRATE && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            mBitrateController = new BitrateController(bitRate, MIN_BITRATE, MAX_BITRATE,
+                    BITRATE_WINDOW_US);
+        }
+        // Preview callback frames are converted into the input buffers, in the layout that is
+        // cheapest to produce from NV21
+        MediaCodecInfo codecInfo = null;
+        int colorFormat = MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface;
+        if (PREVIEW_CALLBACK_BUFFERS) {
+            codecInfo = selectCodec(MIME_TYPE);
+            if (codecInfo == null) {
+                throw new RuntimeException("no encoder for " + MIME_TYPE);
+            }
+            ColorFormatNegotiator.Choice choice = selectColorFormat(codecInfo, MIME_TYPE);
+            colorFormat = choice.getColorFormat();
+            mConvertor = new NV21Convertor();
+            mConvertor.setSize(width, height);
+            mConvertor.setPlanar(choice.getLayout().isPlanar());
+            mConvertor.setColorPanesReversed(choice.getLayout().isVFirst());
+            // upright, and a front camera mirrored as its preview: the convertor mirrors before
+            // rotating, which reverses the rotation
+            mConvertor.setMirrored(mCameraFacingFront);
+            mConvertor.setRotation(mCameraFacingFront ? (360 - mCameraOrientation) % 360
+                    : mCameraOrientation);
+            // the encoder records the upright picture, taller than wide in portrait
+            width = mConvertor.getOutputWidth();
+            height = mConvertor.getOutputHeight();
+        }
         MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
 
         // Set some properties.  Failing to specify some of these can cause the MediaCodec
         // configure() call to throw an unhelpful exception.
-        format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
-                MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, colorFormat);
         format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate);
         format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
         format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, IFRAME_INTERVAL);
@@ -287,10 +403,27 @@ public class MainActivity extends Activity {
         // "display" EGL context is created, then modify the eglCreateContext call to
         // take eglGetCurrentContext() as the share_context argument.
         try {
-            mEncoder = MediaCodec.createEncoderByType(MIME_TYPE);
-            mEncoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-            mInputSurface = new CodecInputSurface(mEncoder.createInputSurface());
-            mEncoder.start();
+            if (ASYNC_ENCODER && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                mSession = new AsyncEncoderSession(codecInfo != null ? codecInfo.getName() : null,
+                        format, PREVIEW_CALLBACK_BUFFERS ? mPreviewSource : null);
+                mSession.setLatencyMeter(mLatency);
+                if (mBitrateController != null) {
+                    mSession.setBitrateController(mBitrateController);
+                }
+                if (!PREVIEW_CALLBACK_BUFFERS) {
+                    mInputSurface = new CodecInputSurface(mSession.createInputSurface());
+                }
+            } else {
+                mEncoder = new EncoderSession(codecInfo != null ? codecInfo.getName() : null,
+                        format);
+                mEncoder.setLatencyMeter(mLatency);
+                if (mBitrateController != null) {
+                    mEncoder.setBitrateController(mBitrateController);
+                }
+                if (!PREVIEW_CALLBACK_BUFFERS) {
+                    mInputSurface = new CodecInputSurface(mEncoder.createInputSurface());
+                }
+            }
         } catch (IOException ioe) {
             throw new RuntimeException("MediaCodec creation failed", ioe);
         }
@@ -314,8 +447,24 @@ public class MainActivity extends Activity {
             throw new RuntimeException("MediaMuxer creation failed", ioe);
         }
 
-        mTrackIndex = -1;
-        mMuxerStarted = false;
+        // adds the track and starts the muxer once the output format is known
+        if (mSession != null) {
+            mSession.setMuxer(mMuxer);
+            if (SAVE_RAW_STREAM) {
+                String rawPath = new File(OUTPUT_DIR,
+                        "test." + width + "x" + height + ".h264").toString();
+                try {
+                    mRawStream = new FileOutputStream(rawPath);
+                } catch (IOException ioe) {
+                    throw new RuntimeException("raw stream creation failed", ioe);
+                }
+                mSession.addSink(new RawStreamWriter(mRawStream.getChannel()));
+            }
+            mSession.start();
+        } else {
+            mEncoder.setMuxer(mMuxer);
+            mEncoder.start();
+        }
     }
 
     /**
@@ -323,8 +472,21 @@ public class MainActivity extends Activity {
      */
     private void releaseEncoder() {
         if (DEBUG) Log.d(TAG, "releasing encoder objects");
+        if (mSession != null) {
+            mSession.logStats();
+            mSession.release();
+            mSession = null;
+        }
+        if (mRawStream != null) {
+            try {
+                mRawStream.close();
+            } catch (IOException ioe) {
+                Log.e(TAG, "raw stream not closed", ioe);
+            }
+            mRawStream = null;
+        }
         if (mEncoder != null) {
-            mEncoder.stop();
+            mEncoder.logStats();
             mEncoder.release();
             mEncoder = null;
         }
@@ -332,6 +494,7 @@ public class MainActivity extends Activity {
             mInputSurface.release();
             mInputSurface = null;
         }
+        mBitrateController = null;
         if (mMuxer != null) {
             try {
                 mMuxer.stop();
@@ -353,90 +516,244 @@ public class MainActivity extends Activity {
      * <p/>
      * We're just using the muxer to get a .mp4 file (instead of a raw H.264 stream).  We're
      * not recording audio.
+     * <p/>
+     * With mSession, the output is muxed on the session thread as soon as it comes out: this
+     * only ends the stream and waits for its last sample.  Both time each step, see
+     * BaseEncoderSession.logStats().
      */
     private void drainEncoder(boolean endOfStream) {
         final int TIMEOUT_USEC = 10000;
+        final int EOS_TIMEOUT_MS = 2500;
         if (DEBUG) Log.d(TAG, "drainEncoder(" + endOfStream + ")");
 
+        if (mSession != null) {
+            if (endOfStream) {
+                if (DEBUG) Log.d(TAG, "sending EOS to encoder");
+                mSession.signalEndOfInput();
+                try {
+                    if (!mSession.awaitEndOfStream(EOS_TIMEOUT_MS)) {
+                        throw new RuntimeException("Encoder end of stream wait timed out");
+                    }
+                } catch (InterruptedException ie) {
+                    // shouldn't happen
+                    throw new RuntimeException(ie);
+                }
+                showEndOfStream();
+            }
+            return;
+        }
+
         if (endOfStream) {
             if (DEBUG) Log.d(TAG, "sending EOS to encoder");
-            mEncoder.signalEndOfInputStream();
-        }
-
-        ByteBuffer[] encoderOutputBuffers = mEncoder.getOutputBuffers();
-        while (true) {
-            int encoderStatus = mEncoder.dequeueOutputBuffer(mBufferInfo, TIMEOUT_USEC);
-            if (encoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
-                // no output available yet
-                if (!endOfStream) {
-                    break;      // out of while
-                } else {
-                    if (DEBUG) Log.d(TAG, "no output available, spinning to await EOS");
-                }
-            } else if (encoderStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                // not expected for an encoder
-                encoderOutputBuffers = mEncoder.getOutputBuffers();
-            } else if (encoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                // should happen before receiving buffers, and should only happen once
-                if (mMuxerStarted) {
-                    throw new RuntimeException("format changed twice");
-                }
-                MediaFormat newFormat = mEncoder.getOutputFormat();
-                Log.d(TAG, "encoder output format changed: " + newFormat);
-
-                // now that we have the Magic Goodies, start the muxer
-                mTrackIndex = mMuxer.addTrack(newFormat);
-                mMuxer.start();
-                mMuxerStarted = true;
-            } else if (encoderStatus < 0) {
-                Log.w(TAG, "unexpected result from encoder.dequeueOutputBuffer: " +
-                        encoderStatus);
-                // let's ignore it
-            } else {
-                ByteBuffer encodedData = encoderOutputBuffers[encoderStatus];
-                if (encodedData == null) {
-                    throw new RuntimeException("encoderOutputBuffer " + encoderStatus +
-                            " was null");
-                }
+            mEncoder.signalEndOfInput();
+            if (!mEncoder.drainToEndOfStream(EOS_TIMEOUT_MS)) {
+                throw new RuntimeException("Encoder end of stream wait timed out");
+            }
+            if (DEBUG) Log.d(TAG, "end of stream reached");
+            showEndOfStream();
+        } else if (mEncoder.drainOutput(TIMEOUT_USEC)) {
+            Log.w(TAG, "reached end of stream unexpectedly");
+        }
+    }
 
-                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                    // The codec config data was pulled out and fed to the muxer when we got
-                    // the INFO_OUTPUT_FORMAT_CHANGED status.  Ignore it.
-                    if (DEBUG) Log.d(TAG, "ignoring BUFFER_FLAG_CODEC_CONFIG");
-                    mBufferInfo.size = 0;
-                }
+    private void showEndOfStream() {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(getApplicationContext(), "End Of Stream Reached. Save the video to sdcard", Toast.LENGTH_LONG).show();
+            }
+        });
+    }
 
-                if (mBufferInfo.size != 0) {
-                    if (!mMuxerStarted) {
-                        throw new RuntimeException("muxer hasn't started");
-                    }
+    /**
+     * Logs the time the frames spent in the encoder, to compare ASYNC_ENCODER with polling, and
+     * the bitrate adjustments.
+     */
+    private void logLatency() {
+        Log.i(TAG, (mSession != null ? "async" : "polling") + " encoder latency: "
+                + mLatency.getFrameCount() + " frames, average "
+                + Math.round(mLatency.getAverageMs()) + " ms, p50 "
+                + mLatency.getPercentileMs(50) + " ms, p90 " + mLatency.getPercentileMs(90)
+                + " ms, p99 " + mLatency.getPercentileMs(99) + " ms, max "
+                + Math.round(mLatency.getMaxMs()) + " ms, " + mLatency.getUnmatchedCount()
+                + " unmatched");
+        if (mBitrateController != null) {
+            Log.i(TAG, "bitrate: " + mBitrateController.describe());
+        }
+    }
+
+    /**
+     * Preview callback functions
+     */
 
-                    // adjust the ByteBuffer values to match BufferInfo (not needed?)
-                    encodedData.position(mBufferInfo.offset);
-                    encodedData.limit(mBufferInfo.offset + mBufferInfo.size);
+    /**
+     * Records DURATION_SEC of NV21 preview frames: the camera fills the buffers of
+     * mPreviewBuffers, this thread converts each of them straight into an encoder input buffer
+     * and lends it to the camera again.  With mSession, mPreviewSource does that on the session
+     * thread as soon as both a frame and an input buffer are there, and this thread only waits.
+     * Nothing is allocated per frame.
+     */
+    private void recordPreviewCallbacks() {
+        final int TIMEOUT_USEC = 10000;
+        final int FRAME_TIMEOUT_MS = 2500;
 
-                    mMuxer.writeSampleData(mTrackIndex, encodedData, mBufferInfo);
-                    if (DEBUG) Log.d(TAG, "sent " + mBufferInfo.size + " bytes to muxer");
+        // the encoder records the size the camera actually chose
+        Camera.Size previewSize = mCamera.getParameters().getPreviewSize();
+        prepareEncoder(previewSize.width, previewSize.height, BITRATE);
+
+        mPreviewBuffers = new PreviewBufferRing(mConvertor.getInputSize(), PREVIEW_BUFFER_COUNT);
+        mDummyTexture = new SurfaceTexture(0);
+        try {
+            mCamera.setPreviewTexture(mDummyTexture);
+        } catch (IOException ioe) {
+            throw new RuntimeException("setPreviewTexture failed", ioe);
+        }
+        // delivered on the main thread, this one has no Looper
+        mCamera.setPreviewCallbackWithBuffer(new Camera.PreviewCallback() {
+            @Override
+            public void onPreviewFrame(byte[] data, Camera camera) {
+                final PreviewBufferRing buffers = mPreviewBuffers;
+                if (buffers != null && data != null && buffers.submit(data, System.nanoTime())) {
+                    final AsyncEncoderSession session = mSession;
+                    if (session != null) {
+                        session.notifyInputAvailable();
+                    }
                 }
+            }
+        });
+        // before lending the buffers: read on the session thread once a frame went through them
+        mStartWhen = System.nanoTime();
+        final Camera camera = mCamera;
+        mPreviewBuffers.lendAll(new PreviewBufferRing.Lender() {
+            @Override
+            public void addCallbackBuffer(byte[] buffer) {
+                camera.addCallbackBuffer(buffer);
+            }
+        });
+        mCamera.startPreview();
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(getApplicationContext(), "Start recording", Toast.LENGTH_LONG).show();
+            }
+        });
 
-                mEncoder.releaseOutputBuffer(encoderStatus, false);
+        if (mSession != null) {
+            SystemClock.sleep(DURATION_SEC * 1000);
+            // send end-of-stream to encoder, and wait for the remaining output
+            drainEncoder(true);
+            logLatency();
+            return;
+        }
 
-                if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                    if (!endOfStream) {
-                        Log.w(TAG, "reached end of stream unexpectedly");
-                    } else {
-                        if (DEBUG) Log.d(TAG, "end of stream reached");
-                        runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                Toast.makeText(getApplicationContext(), "End Of Stream Reached. Save the video to sdcard", Toast.LENGTH_LONG).show();
-                            }
-                        });
-                    }
-                    break;      // out of while
+        long desiredEnd = mStartWhen + DURATION_SEC * 1000000000L;
+        while (System.nanoTime() < desiredEnd) {
+            // Feed any pending encoder output into the muxer.
+            drainEncoder(false);
+
+            byte[] frame;
+            try {
+                frame = mPreviewBuffers.take(FRAME_TIMEOUT_MS);
+            } catch (InterruptedException ie) {
+                // shouldn't happen
+                throw new RuntimeException(ie);
+            }
+            if (frame == null) {
+                throw new RuntimeException("Camera frame wait timed out");
+            }
+
+            int inputBufIndex = mEncoder.dequeueInputBuffer(TIMEOUT_USEC);
+            if (inputBufIndex >= 0) {
+                ByteBuffer inputBuf = mEncoder.getInputBuffer(inputBufIndex);
+                mConvertor.convert(frame, inputBuf);
+                long ptsUsec = (mPreviewBuffers.getTimestamp(frame) - mStartWhen) / 1000;
+                mEncoder.queueInputBuffer(inputBufIndex, inputBuf.position(), ptsUsec);
+                if (DEBUG) Log.d(TAG, "present: " + (ptsUsec / 1000.0) + "ms");
+            } else {
+                // the encoder is behind, skip the frame rather than hold the camera's buffer
+                mDroppedFrames++;
+            }
+            mPreviewBuffers.recycle(frame);
+        }
+
+        // send end-of-stream to encoder, and drain remaining output
+        drainEncoder(true);
+        logLatency();
+    }
+
+    /**
+     * Converts the oldest preview frame into an input buffer of mSession, on the session
+     * thread, and lends the preview buffer to the camera again.  With no frame yet, the
+     * preview callback notifies the session of the next one.
+     */
+    private final AsyncEncoderSession.InputSource mPreviewSource =
+            new AsyncEncoderSession.InputSource() {
+        @Override
+        public boolean fillInputBuffer(ByteBuffer buffer, MediaCodec.BufferInfo info) {
+            final PreviewBufferRing buffers = mPreviewBuffers;
+            if (buffers == null) {
+                // the encoder starts before the camera
+                return false;
+            }
+            byte[] frame;
+            try {
+                frame = buffers.take(0);
+            } catch (InterruptedException ie) {
+                // shouldn't happen, take(0) does not wait
+                throw new RuntimeException(ie);
+            }
+            if (frame == null) {
+                return false;
+            }
+            buffer.clear();
+            mConvertor.convert(frame, buffer);
+            long ptsUsec = (buffers.getTimestamp(frame) - mStartWhen) / 1000;
+            info.set(0, buffer.position(), ptsUsec, 0);
+            buffers.recycle(frame);
+            if (DEBUG) Log.d(TAG, "present: " + (ptsUsec / 1000.0) + "ms");
+            return true;
+        }
+    };
+
+    /**
+     * Returns the first codec capable of encoding the specified MIME type, or null if no
+     * match was found.
+     */
+    private static MediaCodecInfo selectCodec(String mimeType) {
+        int numCodecs = MediaCodecList.getCodecCount();
+        for (int i = 0; i < numCodecs; i++) {
+            MediaCodecInfo codecInfo = MediaCodecList.getCodecInfoAt(i);
+            if (!codecInfo.isEncoder()) {
+                continue;
+            }
+            String[] types = codecInfo.getSupportedTypes();
+            for (int j = 0; j < types.length; j++) {
+                if (types[j].equalsIgnoreCase(mimeType)) {
+                    return codecInfo;
                 }
             }
         }
+        return null;
+    }
+
+    /**
+     * Returns the color format of the codec that is cheapest to fill from NV21 preview frames,
+     * and logs how every format it lists was ranked.  Input images are not used here, the
+     * converter writes straight into the input buffers.
+     */
+    private static ColorFormatNegotiator.Choice selectColorFormat(MediaCodecInfo codecInfo,
+            String mimeType) {
+        int[] colorFormats = codecInfo.getCapabilitiesForType(mimeType).colorFormats;
+        ColorFormatNegotiator negotiator = new ColorFormatNegotiator(false);
+        for (String line : negotiator.describe(ColorFormatNegotiator.Source.NV21, colorFormats)) {
+            Log.i(TAG, codecInfo.getName() + " " + line);
+        }
+        ColorFormatNegotiator.Choice choice =
+                negotiator.negotiate(ColorFormatNegotiator.Source.NV21, colorFormats);
+        if (choice == null) {
+            throw new RuntimeException("no supported color format in " + codecInfo.getName());
+        }
+        return choice;
     }
 
     /**